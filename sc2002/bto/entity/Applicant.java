@@ -177,15 +177,7 @@ public class Applicant extends User {
      * @return A list of enquiries submitted by this applicant
      */
     public List<Enquiry> viewMyEnquiries(EnquiryRepository repo) {
-        List<Enquiry> all = repo.getAll();
-        List<Enquiry> mine = new ArrayList<>();
-
-        for (Enquiry e : all) {
-            if (e.getApplicant().getId().equals(this.getId())) {
-                mine.add(e);
-            }
-        }
-        return mine;
+        return repo.findByApplicant(this);
     }
 
     /**
@@ -196,9 +188,9 @@ public class Applicant extends User {
      * @param enquiryRepo The enquiry repository
      */
     public void editEnquiry(String enquiryId, String newMessage, EnquiryRepository enquiryRepo) {
-        List<Enquiry> all = enquiryRepo.getAll();
+        List<Enquiry> mine = enquiryRepo.findByApplicant(this);
 
-        for (Enquiry e : all) {
+        for (Enquiry e : mine) {
             if (e.getEnquiryId().equals(enquiryId) && e.getApplicant().getId().equals(this.getId())) {
                 if (e.getStatus() == EnquiryStatus.PENDING) {
                     e.setMessage(newMessage);
@@ -220,9 +212,9 @@ public class Applicant extends User {
      * @param enquiryRepo The enquiry repository
      */
     public void deleteEnquiry(String enquiryId, EnquiryRepository enquiryRepo) {
-        List<Enquiry> all = enquiryRepo.getAll();
+        List<Enquiry> mine = enquiryRepo.findByApplicant(this);
 
-        for (Enquiry e : all) {
+        for (Enquiry e : mine) {
             if (e.getEnquiryId().equals(enquiryId) && e.getApplicant().getId().equals(this.getId())) {
                 if (e.getStatus() == EnquiryStatus.PENDING) {
                     enquiryRepo.delete(enquiryId);
@@ -269,12 +261,8 @@ public class Applicant extends User {
      * @return The applicant's current application, or null if none exists
      */
     public Application getMyApplication(ApplicationRepository appRepo) {
-        for (Application a : appRepo.getAll()) {
-            if (a.getApplicant().getId().equals(this.getId())) {
-                return a;
-            }
-        }
-        return null;
+        List<Application> myApplications = appRepo.findByApplicant(this);
+        return myApplications.isEmpty() ? null : myApplications.get(0);
     }
 
     /**
@@ -307,15 +295,7 @@ public class Applicant extends User {
      */
 
     public boolean requestWithdrawal(ApplicationRepository appRepo) {
-        List<Application> allApplications = appRepo.getAll();
-        Application myApplication = null;
-
-        for (Application a : allApplications) {
-            if (a.getApplicant().getId().equals(this.getId())) {
-                myApplication = a;
-                break;
-            }
-        }
+        Application myApplication = getMyApplication(appRepo);
 
         if (myApplication == null) {
             System.out.println("No active application found.");
@@ -333,12 +313,11 @@ public class Applicant extends User {
      * @param appRepo The application repository
      */
     public void viewMyApplicationStatus(ApplicationRepository appRepo) {
-        for (Application a : appRepo.getAll()) {
-            if (a.getApplicant().getId().equals(this.getId())) {
-                System.out.println("Project: " + a.getProject().getProjectName());
-                System.out.println("Status: " + a.getStatus());
-                return;
-            }
+        Application a = getMyApplication(appRepo);
+        if (a != null) {
+            System.out.println("Project: " + a.getProject().getProjectName());
+            System.out.println("Status: " + a.getStatus());
+            return;
         }
         System.out.println("No application found.");
     }
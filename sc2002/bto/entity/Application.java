@@ -2,13 +2,14 @@ package sc2002.bto.entity;
 
 import sc2002.bto.enums.ApplicationStatus;
 import sc2002.bto.enums.FlatType;
+import sc2002.bto.interfaces.IVersioned;
 
 /**
  * Represents a BTO housing application submitted by an applicant.
  * Tracks the application status, selected flat type, and withdrawal requests.
  * 
  */
-public class Application {
+public class Application implements IVersioned {
     /** Unique identifier for this application */
     private String applicationId;
     /** The applicant who submitted this application */
@@ -23,6 +24,8 @@ public class Application {
     private FlatType selectedFlatType;
     /** Whether a withdrawal has been requested for this application */
     private boolean withdrawalRequested = false;
+    /** Version stamp maintained by the application repository */
+    private volatile long version;
 
     /**
      * Creates a new application with the specified details.
@@ -142,4 +145,24 @@ public class Application {
     public void updateStatus(ApplicationStatus newStatus) {
         this.status = newStatus;
     }
+
+    /**
+     * Gets the version stamp of this application.
+     * 
+     * @return The version the application was last stored at
+     */
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version stamp of this application.
+     * 
+     * @param version The new version stamp
+     */
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
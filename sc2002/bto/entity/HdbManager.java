@@ -2,13 +2,18 @@ package sc2002.bto.entity;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Scanner;
 import java.util.stream.Collectors;
 import sc2002.bto.enums.ApplicationStatus;
 import sc2002.bto.enums.FlatType;
+import sc2002.bto.enums.HistoryColumn;
 import sc2002.bto.enums.MaritalStatus;
 import sc2002.bto.enums.OfficerRegistrationStatus;
 import sc2002.bto.enums.ReportType;
@@ -17,6 +22,10 @@ import sc2002.bto.interfaces.IProjectManagement;
 import sc2002.bto.repository.ApplicationRepository;
 import sc2002.bto.repository.EnquiryRepository;
 import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.Transaction;
+import sc2002.bto.repository.TransactionManager;
+import sc2002.bto.util.ColumnarHistory;
+import sc2002.bto.util.Page;
 
 /**
  * Represents an HDB Manager in the BTO Management System.
@@ -26,6 +35,8 @@ import sc2002.bto.repository.ProjectRepository;
  * 
  */
 public class HdbManager extends Applicant implements IProjectManagement, IEnquiryManagement {
+    /** Number of enquiries read from the repository at a time when printing */
+    private static final int ENQUIRY_PAGE_SIZE = 50;
     /** The name of the manager */
     private String managerName;
     /** List of projects created by this manager */
@@ -150,10 +161,13 @@ public class HdbManager extends Applicant implements IProjectManagement, IEnquir
     
     /**
      * Approves an HDB Officer's registration to handle a project.
+     * The officer slot is taken through the project repository, so that the
+     * change is saved; the caller stores the officer.
      * 
      * @param officer The HDB Officer to approve
+     * @param projectRepo The project repository
      */
-    public void approveOfficerRegistration(HdbOfficer officer) {
+    public void approveOfficerRegistration(HdbOfficer officer, ProjectRepository projectRepo) {
         Project targetProject = officer.getPendingProject(); // ✅ changed from getHandlingProject()
 
         if (targetProject == null) {
@@ -175,12 +189,11 @@ public class HdbManager extends Applicant implements IProjectManagement, IEnquir
             return;
         }
 
-        // Check if there are available slots
-        if (targetProject.getAvailableOfficerSlots() > 0) {
+        // Take a slot if one is still available
+        if (projectRepo.adjustOfficerSlots(targetProject, -1)) {
             officer.setRegistrationStatus(OfficerRegistrationStatus.APPROVED);
             officer.setHandlingProject(targetProject); // ✅ Now assigned officially
             officer.setPendingProject(null);           // ✅ Clear pending
-            targetProject.setAvailableOfficerSlots(targetProject.getAvailableOfficerSlots() - 1);
             System.out.println("Officer registration approved and assigned to project: " + targetProject.getProjectName());
         } else {
             officer.setRegistrationStatus(OfficerRegistrationStatus.REJECTED);
@@ -190,32 +203,70 @@ public class HdbManager extends Applicant implements IProjectManagement, IEnquir
     }
 
     /**
-     * Approves or rejects an application for a BTO project.
+     * Approves or rejects a pending application for a BTO project.
+     * The units left are checked under the same locks as a booking, so an
+     * officer booking the last unit cannot slip in between.
      * 
      * @param application The application to approve or reject
-     * @param projectRepo The project repository
+     * @param appRepo The application repository
+     * @return true if the application was approved, false if it was rejected or no longer pending
      */
-    public void approveApplication(Application application, ProjectRepository projectRepo) {
+    public boolean approveApplication(Application application, ApplicationRepository appRepo) {
         Project project = application.getProject();
         FlatType type = application.getSelectedFlatType();
         
         // Check if the project is managed by this manager
         if (!projectsCreated.contains(project)) {
             System.out.println("Project not managed by this manager.");
-            return;
+            return false;
         }
         
-        // Check if there are available units for the flat type
-        int availableUnits = project.getUnitsAvailable(type);
-        
-        if (availableUnits > 0) {
-            application.updateStatus(ApplicationStatus.SUCCESSFUL);
+        try (Transaction tx = TransactionManager.getDefault().begin(
+                project.getProjectID(), application.getApplicationId(), application.getApplicant().getId())) {
             // Do not decrease availability here — only on booking!
-            projectRepo.update(project); // Optional: just to sync
+            ApplicationStatus decision = project.getUnitsAvailable(type) > 0
+                    ? ApplicationStatus.SUCCESSFUL : ApplicationStatus.UNSUCCESSFUL;
+            boolean decided = decide(application, decision, appRepo);
+            tx.commit();
+            if (decided && decision == ApplicationStatus.UNSUCCESSFUL) {
+                System.out.println("Application rejected due to no available units.");
+            }
+            return decided && decision == ApplicationStatus.SUCCESSFUL;
+        }
+    }
+
+    /**
+     * Rejects a pending application.
+     * 
+     * @param application The application to reject
+     * @param appRepo The application repository
+     * @return true if the application was rejected, false if it was no longer pending
+     */
+    private boolean rejectApplication(Application application, ApplicationRepository appRepo) {
+        Project project = application.getProject();
+        try (Transaction tx = TransactionManager.getDefault().begin(
+                project.getProjectID(), application.getApplicationId(), application.getApplicant().getId())) {
+            boolean decided = decide(application, ApplicationStatus.UNSUCCESSFUL, appRepo);
+            tx.commit();
+            return decided;
         }
-        else {
-            application.updateStatus(ApplicationStatus.UNSUCCESSFUL);
+    }
+
+    /**
+     * Moves a pending application to the decided status, unless someone else
+     * decided it first.
+     * 
+     * @param application The application
+     * @param decision The new status
+     * @param appRepo The application repository
+     * @return true if the status was changed, false if the application was no longer pending
+     */
+    private boolean decide(Application application, ApplicationStatus decision, ApplicationRepository appRepo) {
+        if (!appRepo.transitionStatus(application, ApplicationStatus.PENDING, decision)) {
+            System.out.println("Application " + application.getApplicationId() + " is no longer pending.");
+            return false;
         }
+        return true;
     }
     
     /**
@@ -225,14 +276,11 @@ public class HdbManager extends Applicant implements IProjectManagement, IEnquir
      * @param projectRepo The project repository
      */
     public void reviewApplications(ApplicationRepository appRepo, ProjectRepository projectRepo) {
-        List<Application> all = appRepo.getAll();
-        
-        // Filter applications for projects created by this manager
-        List<Application> managerApplications = all.stream()
-                .filter(a -> projectsCreated.stream()
-                        .anyMatch(p -> p.getProjectID().equals(a.getProject().getProjectID())))
-                .filter(a -> a.getStatus() == ApplicationStatus.PENDING)
-                .collect(Collectors.toList());
+        // Collect pending applications for projects created by this manager
+        List<Application> managerApplications = new ArrayList<>();
+        for (Project p : projectsCreated) {
+            managerApplications.addAll(appRepo.findByProjectAndStatus(p, ApplicationStatus.PENDING));
+        }
         
         // If no applications found, print "No applications"
         if (managerApplications.isEmpty()) {
@@ -259,15 +307,13 @@ public class HdbManager extends Applicant implements IProjectManagement, IEnquir
                 String withdrawalApproval = scanner.nextLine();
                 
                 if (withdrawalApproval.equalsIgnoreCase("Y")) {
-                    a.updateStatus(ApplicationStatus.UNSUCCESSFUL);
-                    System.out.println("Withdrawal processed and approved.");
+                    if (handleWithdrawalRequest(a, true, appRepo, projectRepo)) {
+                        System.out.println("Withdrawal processed and approved.");
+                    }
                 } else {
                     System.out.println("Withdrawal request rejected.");
                     // Keep the application in PENDING status
-                    continue;
                 }
-                
-                appRepo.update(a);
                 continue;
             }
             
@@ -298,19 +344,15 @@ public class HdbManager extends Applicant implements IProjectManagement, IEnquir
             if (approval.equalsIgnoreCase("Y")) {
                 // Check units availability again before approving
                 if (availableUnits > 0) {
-                    approveApplication(a, projectRepo); // update status to SUCCESSFUL and reduce num of avail units by one
-                    System.out.println("Application approved. Applicant is invited to book a flat.");
-                } else {
-                    a.updateStatus(ApplicationStatus.UNSUCCESSFUL);
+                    if (approveApplication(a, appRepo)) {
+                        System.out.println("Application approved. Applicant is invited to book a flat.");
+                    }
+                } else if (rejectApplication(a, appRepo)) {
                     System.out.println("Application rejected due to no available units.");
                 }
-            } else {
-                a.updateStatus(ApplicationStatus.UNSUCCESSFUL);
+            } else if (rejectApplication(a, appRepo)) {
                 System.out.println("Application rejected.");
             }
-            
-            // Update application in repository
-            appRepo.update(a);
         }
         
         System.out.println("\nApplication review completed.");
@@ -324,15 +366,52 @@ public class HdbManager extends Applicant implements IProjectManagement, IEnquir
      * @return The generated report
      */
     public Report generateReport(ReportType reportType, ApplicationRepository appRepo) {
+        return generateReport(reportType, appRepo, null);
+    }
+
+    /**
+     * Generates a report based on the specified report type.
+     * The applications of closed projects that are left on disk are not
+     * loaded: only their bookings are listed, and the flat type report counts
+     * the rest from the columnar history.
+     * 
+     * @param reportType The type of report to generate
+     * @param appRepo The application repository
+     * @param history The columnar history of closed projects, or null to load their applications
+     * @return The generated report
+     */
+    public Report generateReport(ReportType reportType, ApplicationRepository appRepo, ColumnarHistory history) {
         // Create a new report
         Report report = new Report();
         report.setReportType(reportType);
+
+        // Projects whose applications are only counted, not loaded
+        Set<String> onDisk = new HashSet<>(appRepo.getHistoryProjects());
+        List<String> countedProjects = new ArrayList<>();
+        for (Project p : projectsCreated) {
+            if (onDisk.contains(p.getProjectID())) {
+                countedProjects.add(p.getProjectID());
+            }
+        }
+        Map<String, Long> unlistedCounts = new HashMap<>();
+        if (reportType == ReportType.BY_FLAT_TYPE && !countedProjects.isEmpty()) {
+            unlistedCounts = history != null ? history.countBy(HistoryColumn.FLAT_TYPE, countedProjects,
+                    EnumSet.complementOf(EnumSet.of(ApplicationStatus.BOOKED))) : null;
+            if (unlistedCounts == null) {
+                countedProjects.clear();
+                unlistedCounts = new HashMap<>();
+            }
+        }
         
         // Get all applications for projects managed by this manager
-        List<Application> applications = appRepo.getAll()
-                .stream()
-                .filter(app -> projectsCreated.contains(app.getProject()))
-                .collect(Collectors.toList());
+        List<Application> applications = new ArrayList<>();
+        for (Project p : projectsCreated) {
+            if (countedProjects.contains(p.getProjectID())) {
+                applications.addAll(appRepo.findBookings(p));
+            } else {
+                applications.addAll(appRepo.findByProject(p));
+            }
+        }
         
         // Apply filters based on report type
         List<Object> filteredData = new ArrayList<>();
@@ -346,6 +425,15 @@ public class HdbManager extends Applicant implements IProjectManagement, IEnquir
                 }
                 groupedByFlatType.get(flatType).add(app);
             }
+            Map<FlatType, Long> counts = new EnumMap<>(FlatType.class);
+            for (Map.Entry<String, Long> entry : unlistedCounts.entrySet()) {
+                if (!entry.getKey().isEmpty()) {
+                    FlatType flatType = FlatType.valueOf(entry.getKey());
+                    counts.put(flatType, entry.getValue());
+                    groupedByFlatType.computeIfAbsent(flatType, type -> new ArrayList<>());
+                }
+            }
+            report.setUnlistedCounts(counts);
             filteredData.add(groupedByFlatType);
         } else if (reportType == ReportType.BY_MARITAL_STATUS) {
             // Filter by marital status
@@ -487,30 +575,49 @@ public class HdbManager extends Applicant implements IProjectManagement, IEnquir
     
     /**
      * Handles an applicant's withdrawal request.
+     * Runs under the same locks as a booking, so that a flat being booked or
+     * rolled back at the same time is returned exactly once. The status is
+     * changed only if it is still the one read under the locks, and a booked
+     * flat is returned through the project repository, so that both changes
+     * are saved.
      * 
      * @param application The application to withdraw
      * @param approve Whether to approve the withdrawal request
+     * @param appRepo The application repository
+     * @param projectRepo The project repository
+     * @return true if the request was handled, false if the application changed in the meantime
      */
-    public void handleWithdrawalRequest(Application application, boolean approve) {
-        if (approve) {
-            Project project = application.getProject();
-            FlatType flatType = application.getSelectedFlatType();
-        
-            // Only add back a flat if it was actually booked
-            if (application.getStatus() == ApplicationStatus.BOOKED) {
-                if (flatType == FlatType.TWO_ROOM) {
-                    project.setTwoRoomUnitsAvailable(project.getTwoRoomUnitsAvailable() + 1);
-                } else if (flatType == FlatType.THREE_ROOM) {
-                    project.setThreeRoomUnitsAvailable(project.getThreeRoomUnitsAvailable() + 1);
+    public boolean handleWithdrawalRequest(Application application, boolean approve, ApplicationRepository appRepo,
+            ProjectRepository projectRepo) {
+        Project project = application.getProject();
+        FlatType flatType = application.getSelectedFlatType();
+        try (Transaction tx = TransactionManager.getDefault().begin(
+                project.getProjectID(), application.getApplicationId(), application.getApplicant().getId())) {
+            if (approve) {
+                ApplicationStatus status = application.getStatus();
+                if (status != ApplicationStatus.UNSUCCESSFUL) {
+                    if (!appRepo.transitionStatus(application, status, ApplicationStatus.UNSUCCESSFUL)) {
+                        System.out.println("Application " + application.getApplicationId()
+                                + " changed in the meantime, please try again.");
+                        return false;
+                    }
+                    tx.onRollback(() -> appRepo.transitionStatus(application, ApplicationStatus.UNSUCCESSFUL, status));
+
+                    // Only add back a flat if it was actually booked
+                    if (status == ApplicationStatus.BOOKED && !projectRepo.adjustUnits(project, flatType, 1)) {
+                        System.out.println("Could not return the booked flat to project " + project.getProjectID());
+                        return false;
+                    }
                 }
+            } else {
+                System.out.println("Withdrawal request rejected for application: " + application.getApplicationId());
             }
-        
-            application.updateStatus(ApplicationStatus.UNSUCCESSFUL);
-        } else {
-            System.out.println("Withdrawal request rejected for application: " + application.getApplicationId());
-        }
 
-        application.clearWithdrawalRequest(); // clears the flag
+            // Clears the flag
+            appRepo.updateWithRetry(application.getApplicationId(), a -> true, Application::clearWithdrawalRequest);
+            tx.commit();
+            return true;
+        }
     }
     
     /**
@@ -555,20 +662,38 @@ public class HdbManager extends Applicant implements IProjectManagement, IEnquir
      * @param enquiryRepo The repository containing all enquiries.
      */
     public void printAllEnquiries(EnquiryRepository enquiryRepo) {
-        List<Enquiry> enquiries = getAllEnquiries(enquiryRepo);
-    
-        if (enquiries.isEmpty()) {
-            System.out.println("There are no enquiries in the system.");
-            return;
+        Page<Enquiry> page = printEnquiryPage(enquiryRepo, Page.FIRST, ENQUIRY_PAGE_SIZE);
+        while (page.hasMore()) {
+            page = printEnquiryPage(enquiryRepo, page.getNextCursor(), ENQUIRY_PAGE_SIZE);
         }
+    }
+
+    /**
+     * Prints one page of the enquiries in the system to the console.
+     * Reads the page straight from the repository, so listing a large number
+     * of enquiries never holds more than one page in memory.
+     * @param enquiryRepo The repository containing all enquiries.
+     * @param cursor The cursor of the page to print, or Page.FIRST for the first page.
+     * @param limit The maximum number of enquiries to print.
+     * @return The page that was printed.
+     */
+    public Page<Enquiry> printEnquiryPage(EnquiryRepository enquiryRepo, long cursor, int limit) {
+        Page<Enquiry> page = enquiryRepo.page(cursor, limit);
     
-        System.out.println("=== All Enquiries in System ===");
-        for (Enquiry e : enquiries) {
+        if (cursor == Page.FIRST) {
+            if (page.isEmpty()) {
+                System.out.println("There are no enquiries in the system.");
+                return page;
+            }
+            System.out.println("=== All Enquiries in System ===");
+        }
+        for (Enquiry e : page.getItems()) {
             System.out.println("ID: " + e.getEnquiryId() +
                                ", Applicant: " + e.getApplicant().getApplicantName() +
                                ", Project: " + e.getProject().getProjectID() +
                                ", Status: " + e.getStatus());
         }
+        return page;
     }
 
     /**
@@ -1,13 +1,10 @@
 package sc2002.bto.entity;
 
-import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 import sc2002.bto.enums.ApplicationStatus;
-import sc2002.bto.enums.EnquiryStatus;
 import sc2002.bto.enums.FlatType;
 import sc2002.bto.enums.MaritalStatus;
 import sc2002.bto.enums.OfficerRegistrationStatus;
@@ -15,6 +12,10 @@ import sc2002.bto.interfaces.IApplicationProcessing;
 import sc2002.bto.interfaces.IEnquiryManagement;
 import sc2002.bto.repository.ApplicationRepository;
 import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.ReceiptRepository;
+import sc2002.bto.repository.Transaction;
+import sc2002.bto.repository.TransactionManager;
 
 /**
  * Represents an HDB Officer in the BTO Management System.
@@ -34,6 +35,8 @@ public class HdbOfficer extends User implements IEnquiryManagement, IApplication
     private ApplicationRepository applicationRepository;
     /** Repository for enquiry data */
     private EnquiryRepository enquiryRepository;
+    /** Repository for project data */
+    private ProjectRepository projectRepository;
     /** The manager who registered this officer */
     private HdbManager registeringManager;
 
@@ -52,11 +55,12 @@ public class HdbOfficer extends User implements IEnquiryManagement, IApplication
      * @param registeringManager The manager who registered this officer
      * @param appRepo The application repository
      * @param enqRepo The enquiry repository
+     * @param projRepo The project repository
      */
     public HdbOfficer(String id, String name, String password, int age, MaritalStatus maritalStatus,
             String officerName, Project pendingProject, Project handlingProject,
             OfficerRegistrationStatus regStatus, HdbManager registeringManager, 
-            ApplicationRepository appRepo, EnquiryRepository enqRepo) {
+            ApplicationRepository appRepo, EnquiryRepository enqRepo, ProjectRepository projRepo) {
     	super(id, name, password, age, maritalStatus);
     	this.officerName = officerName;
     	this.pendingProject = pendingProject;
@@ -65,6 +69,7 @@ public class HdbOfficer extends User implements IEnquiryManagement, IApplication
     	this.registeringManager = registeringManager;
     	this.applicationRepository = appRepo;
     	this.enquiryRepository = enqRepo;
+    	this.projectRepository = projRepo;
     }
     
     /**
@@ -206,95 +211,49 @@ public class HdbOfficer extends User implements IEnquiryManagement, IApplication
             return false;
         }
         
-        // Update number of units available
-        if (flatType == FlatType.TWO_ROOM) {
-            handlingProject.setTwoRoomUnitsAvailable(availableUnits - 1);
-        } else if (flatType == FlatType.THREE_ROOM) {
-            handlingProject.setThreeRoomUnitsAvailable(availableUnits - 1);
-        }
-        
-        // Update applicant's profile
-        applicant.setBookedFlat(flatType);
-        applicant.setBookedProject(handlingProject);
-        
-        // Update application status to BOOKED
-        application.updateStatus(ApplicationStatus.BOOKED);
-        
-        return true;
-    }
-    
-    /**
-     * Saves a receipt to the ReceiptList.csv file.
-     * Creates the file with a header if it doesn't exist and appends the new receipt.
-     * 
-     * @param receipt The Receipt object to be saved to the file
-     */
-    private void saveReceiptToFile(Receipt receipt) {
-        try {
-            File receiptFile = new File("data/ReceiptList.csv");
+        // The unit, the application and the applicant's profile change together or not at all
+        Project project = handlingProject;
+        try (Transaction tx = TransactionManager.getDefault().begin(
+                project.getProjectID(), application.getApplicationId(), applicant.getId())) {
+            // Take a unit; fails if another officer booked the last one in the meantime
+            if (!projectRepository.adjustUnits(project, flatType, -1)) {
+                return false;
+            }
+            tx.onRollback(() -> projectRepository.adjustUnits(project, flatType, 1));
             
-            // Check if file exists, if not create it with header
-            boolean fileExists = receiptFile.exists() && receiptFile.length() > 0;
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(receiptFile, true))) {
-                // Write header if file is new
-                if (!fileExists) {
-                    writer.write("ReceiptID,Name,NRIC,Age,MaritalStatus,ProjectID,Neighborhood,Price,FlatType,BookingDate\n");
-                }
-                
-                // Escape CSV values that might contain commas
-                String escapedName = escapeCSV(receipt.getName());
-                String escapedNRIC = escapeCSV(receipt.getNRIC());
-                String escapedNeighborhood = escapeCSV(receipt.getNeighborhood());
-                
-                // Append the new receipt
-                writer.write(
-                    receipt.getReceiptID() + "," +
-                    escapedName + "," +
-                    escapedNRIC + "," +
-                    receipt.getAge() + "," +
-                    escapeCSV(receipt.getMaritalStatus()) + "," +
-                    escapeCSV(receipt.getProjectID()) + "," +
-                    escapedNeighborhood + "," +
-                    receipt.getPricePerFlat() + "," +
-                    receipt.getFlatType() + "," +
-                    escapeCSV(receipt.getBookingDate()) + "\n"
-                );
+            // Update application status to BOOKED, unless another officer already did
+            if (!applicationRepository.transitionStatus(application, ApplicationStatus.SUCCESSFUL,
+                    ApplicationStatus.BOOKED)) {
+                return false;
             }
-        } catch (IOException e) {
-            System.err.println("Error saving receipt to file: " + e.getMessage());
-        }
-    }
-
-    /**
-     * Escapes special characters in CSV fields to prevent parsing issues.
-     * Wraps the value in quotes if it contains commas, quotes, or newlines.
-     * 
-     * @param value The string to be escaped
-     * @return The CSV-safe escaped string
-     */
-    private String escapeCSV(String value) {
-        if (value == null) return "";
-        
-        // Check if value needs escaping
-        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
-            // Replace existing quotes with double quotes
-            value = value.replace("\"", "\"\"");
-            // Wrap in quotes
-            return "\"" + value + "\"";
+            tx.onRollback(() -> applicationRepository.transitionStatus(application, ApplicationStatus.BOOKED,
+                    ApplicationStatus.SUCCESSFUL));
+            
+            // Update applicant's profile
+            FlatType previousFlat = applicant.getBookedFlat();
+            Project previousProject = applicant.getBookedProject();
+            tx.onRollback(() -> {
+                applicant.setBookedFlat(previousFlat);
+                applicant.setBookedProject(previousProject);
+            });
+            applicant.setBookedFlat(flatType);
+            applicant.setBookedProject(project);
+            
+            tx.commit();
+            return true;
         }
-        
-        return value;
     }
-
+    
      /**
      * Generates a receipt for a successful or booked application.
      * Creates a receipt with applicant and project details, 
-     * prints the receipt, saves it to a file, and updates the application status.
+     * prints the receipt, saves it to storage, and updates the application status.
      * 
      * @param application The application for which to generate a receipt
+     * @param receiptRepo The repository that issues receipt IDs and keeps the receipt
      * @return The generated Receipt object, or null if receipt generation fails
      */
-    public Receipt generateReceipt(Application application) {
+    public Receipt generateReceipt(Application application, ReceiptRepository receiptRepo) {
         // Validate application status
         if (application == null || 
             !(application.getStatus() == ApplicationStatus.SUCCESSFUL || 
@@ -311,7 +270,7 @@ public class HdbOfficer extends User implements IEnquiryManagement, IApplication
         String bookingDate = project.getApplicationOpenDate();
         
         // Create a new receipt with all the required details
-        Receipt receipt = new Receipt();
+        Receipt receipt = new Receipt(receiptRepo.nextReceiptId());
         receipt.setName(applicant.getName());
         receipt.setNRIC(applicant.getId()); // Using ID as NRIC
         receipt.setAge(applicant.getAge());
@@ -325,11 +284,11 @@ public class HdbOfficer extends User implements IEnquiryManagement, IApplication
         // Print receipt details
         receipt.printReceiptDetails();
         
-        // Save receipt to file
-        saveReceiptToFile(receipt);
+        // Keep the receipt for reprinting and save it to storage
+        receiptRepo.issue(receipt);
         
         // Update application status to BOOKED
-        application.updateStatus(ApplicationStatus.BOOKED);
+        applicationRepository.updateStatus(application, ApplicationStatus.BOOKED);
         
         return receipt;
     }
@@ -474,7 +433,7 @@ public class HdbOfficer extends User implements IEnquiryManagement, IApplication
         ApplicationStatus oldStatus = application.getStatus();
         
         // Update the application status
-        application.updateStatus(newStatus);
+        applicationRepository.updateStatus(application, newStatus);
         
         System.out.println("Application status updated from " + oldStatus + " to " + newStatus);
         
@@ -498,7 +457,7 @@ public class HdbOfficer extends User implements IEnquiryManagement, IApplication
     }
     
     /**
-     * Gets pending enquiries for the project handled by this officer.
+     * Gets pending enquiries for the project handled by this officer, oldest first.
      * 
      * @return A list of pending enquiries for the handled project
      */
@@ -507,11 +466,7 @@ public class HdbOfficer extends User implements IEnquiryManagement, IApplication
             return new ArrayList<>();
         }
         
-        List<Enquiry> allEnquiries = enquiryRepository.findByProject(handlingProject);
-        
-        return allEnquiries.stream()
-                .filter(e -> e.getStatus() == EnquiryStatus.PENDING)
-                .collect(Collectors.toList());
+        return enquiryRepository.findPendingByProject(handlingProject);
     }
     
     /**
@@ -562,8 +517,8 @@ public class HdbOfficer extends User implements IEnquiryManagement, IApplication
             return;
         }
         
-        // Call the reply method
-        e.reply(response);
+        // Reply through the repository so the enquiry leaves the pending queue
+        enquiryRepository.reply(e, response);
         
         System.out.println("Response added successfully to enquiry ID: " + e.getEnquiryId());
         System.out.println("Enquiry status updated to: " + e.getStatus());
@@ -3,6 +3,7 @@ package sc2002.bto.entity;
 import java.util.HashMap;
 import java.util.Map;
 import sc2002.bto.enums.FlatType;
+import sc2002.bto.interfaces.IVersioned;
 
 /**
  * Represents a Build-To-Order (BTO) housing project.
@@ -10,7 +11,7 @@ import sc2002.bto.enums.FlatType;
  * available units, application dates, and visibility status.
  * 
  */
-public class Project {
+public class Project implements IVersioned {
         /** Unique identifier for the project */
         private String projectID;
         /** Name of the project */
@@ -39,6 +40,8 @@ public class Project {
         private int threeRoomUnitsAvailable;
         /** NRIC of the manager in charge of this project */
         private String managerInCharge;
+        /** Version stamp maintained by the project repository */
+        private volatile long version;
     
     
     // Constructor
@@ -328,4 +331,24 @@ public class Project {
         availableUnits.put(FlatType.THREE_ROOM, threeRoomUnitsAvailable);
         return availableUnits;
     }
+
+    /**
+     * Gets the version stamp of this project.
+     * 
+     * @return The version the project was last stored at
+     */
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version stamp of this project.
+     * 
+     * @param version The new version stamp
+     */
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
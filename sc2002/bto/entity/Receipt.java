@@ -8,9 +8,6 @@ import sc2002.bto.enums.FlatType;
  * 
  */
 public class Receipt {
-    /** Counter for generating unique receipt IDs */
-    private static int receiptCounter = 0;
-
     /** Unique identifier for this receipt */
     private String receiptID;
     /** Name of the applicant */
@@ -33,10 +30,12 @@ public class Receipt {
     private String bookingDate;
 
     /**
-     * Creates a new receipt with a generated ID.
+     * Creates a new receipt with the given ID and no details yet.
+     * 
+     * @param receiptID Receipt ID, see {@code ReceiptRepository.nextReceiptId()}
      */
-    public Receipt() {
-        this.receiptID = generateNextReceiptID();
+    public Receipt(String receiptID) {
+        this.receiptID = receiptID;
     }
 
     /**
@@ -67,16 +66,6 @@ public class Receipt {
         this.bookingDate = date;
     }
 
-    /**
-     * Generates a unique receipt ID.
-     * 
-     * @return A new unique receipt ID
-     */
-    private synchronized String generateNextReceiptID() {
-        receiptCounter++;
-        return String.format("RCPT-%05d", receiptCounter);
-    }
-
     /**
      * Gets the receipt's unique identifier.
      * 
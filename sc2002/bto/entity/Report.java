@@ -1,10 +1,13 @@
 package sc2002.bto.entity;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import sc2002.bto.enums.ApplicationStatus;
+import sc2002.bto.enums.FlatType;
 import sc2002.bto.enums.MaritalStatus;
 import sc2002.bto.enums.ReportType;
 
@@ -22,6 +25,8 @@ public class Report {
     private List<Object> items;
     /** Date when this report was generated */
     private String generatedDate;
+    /** Applications counted by flat type but not listed, such as those of closed projects */
+    private Map<FlatType, Long> unlistedCounts;
 
     /**
      * Creates a new report with a generated ID and current date.
@@ -30,6 +35,7 @@ public class Report {
         this.reportId = "REP-" + System.currentTimeMillis();
         this.items = new ArrayList<>();
         this.generatedDate = java.time.LocalDate.now().toString();
+        this.unlistedCounts = new EnumMap<>(FlatType.class);
     }
 
     /**
@@ -105,6 +111,26 @@ public class Report {
         this.generatedDate = generatedDate;
     }
 
+    /**
+     * Gets the number of applications of each flat type that are counted in
+     * the report but not listed in its items.
+     *
+     * @return The counts by flat type
+     */
+    public Map<FlatType, Long> getUnlistedCounts() {
+        return unlistedCounts;
+    }
+
+    /**
+     * Sets the number of applications of each flat type that are counted in
+     * the report but not listed in its items.
+     *
+     * @param unlistedCounts The counts by flat type
+     */
+    public void setUnlistedCounts(Map<FlatType, Long> unlistedCounts) {
+        this.unlistedCounts = unlistedCounts;
+    }
+
     /**
      * Gets the report content as a formatted string.
      * 
@@ -214,7 +240,8 @@ public class Report {
                 List<Application> apps = entry.getValue();
 
                 sb.append("\nFlat Type: ").append(flatType).append("\n");
-                sb.append("Total Bookings: ").append(apps.size()).append("\n");
+                sb.append("Total Bookings: ")
+                        .append(apps.size() + unlistedCounts.getOrDefault(flatType, 0L)).append("\n");
 
                 for (Application app : apps) {
                     if (app.getStatus() == sc2002.bto.enums.ApplicationStatus.BOOKED) {
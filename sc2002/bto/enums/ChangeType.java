@@ -0,0 +1,19 @@
+package sc2002.bto.enums;
+/**
+ * Represents how an entity has changed since its repository was last saved.
+ *
+ */
+public enum ChangeType {
+    /**
+     * Entity was added and has not been saved yet
+     */
+    ADDED,
+    /**
+     * Entity was saved before and has changed since
+     */
+    UPDATED,
+    /**
+     * Entity was saved before and has been deleted since
+     */
+    DELETED
+}
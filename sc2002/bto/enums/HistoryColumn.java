@@ -0,0 +1,28 @@
+package sc2002.bto.enums;
+
+/**
+ * Represents a column of the columnar history of closed projects' applications.
+ *
+ */
+public enum HistoryColumn {
+    /**
+     * Status of the application
+     */
+    STATUS,
+    /**
+     * Flat type the applicant selected
+     */
+    FLAT_TYPE,
+    /**
+     * Marital status of the applicant when the history was exported
+     */
+    MARITAL_STATUS,
+    /**
+     * Age of the applicant when the history was exported
+     */
+    AGE,
+    /**
+     * ID of the project applied for
+     */
+    PROJECT
+}
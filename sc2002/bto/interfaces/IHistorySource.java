@@ -0,0 +1,46 @@
+package sc2002.bto.interfaces;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Defines where a repository reads the entities it keeps on disk until they
+ * are needed, for example the applications and enquiries of closed projects.
+ * Entities are read one project at a time.
+ *
+ * @param <T> The entity type of the repository
+ */
+public interface IHistorySource<T> {
+    /**
+     * Gets the projects that have entities kept on disk.
+     *
+     * @return The project IDs
+     */
+    Collection<String> getProjects();
+    /**
+     * Gets the projects in which an applicant has entities kept on disk.
+     *
+     * @param applicantId The ID of the applicant
+     * @return The project IDs, empty if the applicant has none
+     */
+    Collection<String> getProjectsOf(String applicantId);
+    /**
+     * Reads the entities of a project from disk.
+     * The result may include entities the repository already holds.
+     *
+     * @param projectId The ID of the project
+     * @return The entities stored for the project
+     */
+    List<T> load(String projectId);
+    /**
+     * Identifies the current contents of the entities kept on disk, so that
+     * files derived from them can tell on the next start whether they still
+     * match. The stamp changes whenever the entities on disk may have changed.
+     *
+     * @return The stamp, or null if the source cannot tell, in which case
+     *         derived files are never trusted
+     */
+    default String getStamp() {
+        return null;
+    }
+}
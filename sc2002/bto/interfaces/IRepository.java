@@ -1,6 +1,10 @@
 package sc2002.bto.interfaces;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import sc2002.bto.util.Page;
 /**
  * Generic repository interface that defines standard operations
  * for data access across different entity types.
@@ -17,10 +21,27 @@ public interface IRepository<T> {
     T getById(String id);
      /**
      * Retrieves all entities of type T.
+     * The returned list is a read-only snapshot and must not be modified.
      * 
      * @return A list containing all entities
      */
     List<T> getAll();
+    /**
+     * Lazily streams the entities that match a filter, without copying the store.
+     * 
+     * @param filter The condition entities must satisfy
+     * @return A stream of matching entities
+     */
+    Stream<T> stream(Predicate<? super T> filter);
+    /**
+     * Retrieves the page of entities that follows a cursor.
+     * 
+     * @param cursor The cursor returned with the previous page, or {@link Page#FIRST}
+     * @param limit The maximum number of entities in the page, at least 1
+     * @return The page of entities
+     * @throws IllegalArgumentException If the limit is not positive
+     */
+    Page<T> page(long cursor, int limit);
     /**
      * Adds a new entity to the repository.
      * 
@@ -33,10 +54,36 @@ public interface IRepository<T> {
      * @param item The entity with updated information
      */
     void update(T item);
+    /**
+     * Updates an entity only if nobody has written it since it was read.
+     * 
+     * @param expectedVersion The version the entity was read at
+     * @param newValue The entity with updated information
+     * @return true if the update was applied, false if the entity had changed or does not exist
+     */
+    boolean compareAndUpdate(long expectedVersion, T newValue);
     /**
      * Deletes an entity with the specified ID.
      * 
      * @param id The ID of the entity to delete
      */
     void delete(String id);
+    /**
+     * Adds a batch of entities in one operation.
+     * 
+     * @param batch The entities to add
+     */
+    void addAll(Collection<? extends T> batch);
+    /**
+     * Updates a batch of existing entities in one operation.
+     * 
+     * @param batch The entities with updated information
+     */
+    void updateAll(Collection<? extends T> batch);
+    /**
+     * Deletes the entities with the specified IDs in one operation.
+     * 
+     * @param ids The IDs of the entities to delete
+     */
+    void deleteAll(Collection<String> ids);
 }
@@ -0,0 +1,25 @@
+package sc2002.bto.interfaces;
+
+/**
+ * Defines a listener that is told about every write to a repository.
+ * Called after the write has reached the repository's indexes, in the order
+ * the writes to each ID took effect, so a listener can record the changes
+ * and replay them later to rebuild the same state.
+ * Listeners run on the writing thread and must return quickly.
+ *
+ * @param <T> The entity type of the repository
+ */
+public interface IRepositoryListener<T> {
+    /**
+     * Called after an entity was added or updated.
+     *
+     * @param item The entity as it is now stored
+     */
+    void stored(T item);
+    /**
+     * Called after an entity was deleted.
+     *
+     * @param id The ID of the deleted entity
+     */
+    void deleted(String id);
+}
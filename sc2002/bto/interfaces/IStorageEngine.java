@@ -0,0 +1,77 @@
+package sc2002.bto.interfaces;
+
+import java.util.List;
+import sc2002.bto.entity.Receipt;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Defines where the repositories are loaded from and saved to.
+ * The repositories track which entities changed since the last save,
+ * so an engine only needs to write those; see
+ * {@link sc2002.bto.repository.BaseRepository#getChanges()}.
+ * Saves may run on a background thread while the repositories are written.
+ */
+public interface IStorageEngine {
+    /**
+     * Gets the name of the engine, for messages.
+     *
+     * @return The engine name
+     */
+    String getName();
+    /**
+     * Loads the stored data into empty repositories.
+     * If nothing is stored yet, default data is created and saved.
+     *
+     * @param userRepo The user repository to populate
+     * @param projectRepo The project repository to populate
+     * @param appRepo The application repository to populate
+     * @param enquiryRepo The enquiry repository to populate
+     * @return true if the stored data was loaded, false if default data was created or loading failed
+     */
+    boolean load(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo);
+    /**
+     * Makes the changes since the last save durable, as cheaply as the engine allows.
+     *
+     * @param userRepo The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @return true if saving was successful, false otherwise
+     */
+    boolean saveChanges(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo);
+    /**
+     * Writes the changes since the last save to the engine's main store and
+     * marks them as saved.
+     *
+     * @param userRepo The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @return true if saving was successful, false otherwise
+     */
+    boolean saveAll(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo);
+    /**
+     * Reads the issued receipts.
+     *
+     * @return The stored receipts in the order they were issued, none if they cannot be read
+     */
+    List<Receipt> loadReceipts();
+    /**
+     * Stores a newly issued receipt and makes it durable.
+     *
+     * @param receipt The receipt to store
+     * @return true if the receipt was stored, false otherwise
+     */
+    boolean appendReceipt(Receipt receipt);
+    /**
+     * Makes the last changes durable and releases the engine's files or connections.
+     * Called once when the system shuts down.
+     */
+    void close();
+}
@@ -0,0 +1,23 @@
+package sc2002.bto.interfaces;
+
+/**
+ * Defines an entity that carries a version stamp for optimistic concurrency.
+ * The stamp is maintained by the repository and increases on every write, so
+ * a writer can detect that someone else changed the entity since it was read.
+ *
+ */
+public interface IVersioned {
+    /**
+     * Gets the version stamp of this entity.
+     *
+     * @return The version the entity was last stored at
+     */
+    long getVersion();
+    /**
+     * Sets the version stamp of this entity.
+     * Called by the repository when the entity is stored.
+     *
+     * @param version The new version stamp
+     */
+    void setVersion(long version);
+}
@@ -1,89 +1,438 @@
 package sc2002.bto.repository;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Objects;
 import sc2002.bto.entity.Applicant;
 import sc2002.bto.entity.Application;
-import sc2002.bto.interfaces.IRepository;
+import sc2002.bto.entity.Project;
+import sc2002.bto.enums.ApplicationStatus;
+import sc2002.bto.enums.ChangeType;
+import sc2002.bto.interfaces.IHistorySource;
 
 /**
  * Constructs a new Application Repository instance.
- * Initializes an empty collection to store items.
+ * Stores applications in a hash index keyed by application ID, with secondary
+ * indexes by applicant, by project, by project and status, and a set of
+ * applications with a pending withdrawal request.
+ * Secondary indexes are refreshed on every add, update, updateStatus and delete,
+ * so callers that mutate an application must write it back through the repository.
+ * Lookups read the secondary indexes under the shared index read lock.
+ * The applications of closed projects may be left on disk until needed;
+ * see {@link #setHistory(IHistorySource, int)}.
  */
-public class ApplicationRepository implements IRepository<Application> {
-    /** In-memory storage of application records */
-    private List<Application> applications = new ArrayList<>();
-    
+public class ApplicationRepository extends BaseRepository<Application> {
+    /** Applications keyed by applicant ID, then application ID */
+    private final Map<String, Map<String, Application>> byApplicant = new HashMap<>();
+    /** Applications keyed by project ID, then application ID */
+    private final Map<String, Map<String, Application>> byProject = new HashMap<>();
+    /** Applications keyed by project ID and status, then application ID */
+    private final Map<String, Map<ApplicationStatus, Map<String, Application>>> byProjectStatus = new HashMap<>();
+    /** Applications with a pending withdrawal request, keyed by application ID */
+    private final Map<String, Application> withdrawalRequests = new LinkedHashMap<>();
+    /** The keys each application was last indexed under, keyed by application ID */
+    private final Map<String, IndexKeys> indexedKeys = new HashMap<>();
+    /** Projects whose applications are loaded from disk on demand, or null if all are in memory */
+    private volatile HistoryCache<Application> history;
+
     /**
-     * Retrieves an application by its ID.
-     * 
-     * @param id The ID of the application to retrieve
-     * @return The application with the specified ID, or null if not found
+     * Snapshot of the fields an application is indexed by.
+     * Applications are mutable, so the previous keys are kept to locate the
+     * stale index entries when an application is written back.
      */
-    public Application getById(String id) {
-        return applications.stream()
-                .filter(app -> app.getApplicationId().equals(id))
-                .findFirst()
-                .orElse(null);
+    private static final class IndexKeys {
+        private final String applicantId;
+        private final String projectId;
+        private final ApplicationStatus status;
+        private final boolean withdrawalRequested;
+
+        private IndexKeys(Application app) {
+            this.applicantId = app.getApplicant() != null ? app.getApplicant().getId() : null;
+            this.projectId = app.getProject() != null ? app.getProject().getProjectID() : null;
+            this.status = app.getStatus();
+            this.withdrawalRequested = app.isWithdrawalRequested();
+        }
     }
-    
+
     /**
-     * Retrieves all applications stored in the repository.
-     * 
-     * @return A list containing all applications
+     * Gets the ID used to index an application.
+     *
+     * @param item The application
+     * @return The application ID
      */
     @Override
-    public List<Application> getAll() {
-        return new ArrayList<>(applications);
+    protected String getId(Application item) {
+        return item.getApplicationId();
     }
-    
+
     /**
-     * Adds a new application to the repository.
-     * 
-     * @param item The application to add
+     * Moves an application to the index buckets matching its current fields.
+     * Only the buckets whose key changed are touched.
+     *
+     * @param item The application that was stored
      */
     @Override
-    public void add(Application item) {
-        applications.add(item);
+    protected void index(Application item) {
+        String id = item.getApplicationId();
+        IndexKeys oldKeys = indexedKeys.get(id);
+        IndexKeys newKeys = new IndexKeys(item);
+
+        if (oldKeys != null && !Objects.equals(oldKeys.applicantId, newKeys.applicantId)) {
+            removeFromBucket(byApplicant, oldKeys.applicantId, id);
+        }
+        addToBucket(byApplicant, newKeys.applicantId, item);
+
+        boolean projectChanged = oldKeys != null && !Objects.equals(oldKeys.projectId, newKeys.projectId);
+        if (projectChanged) {
+            removeFromBucket(byProject, oldKeys.projectId, id);
+        }
+        addToBucket(byProject, newKeys.projectId, item);
+
+        if (oldKeys != null && (projectChanged || oldKeys.status != newKeys.status)) {
+            removeFromStatusBucket(oldKeys.projectId, oldKeys.status, id);
+        }
+        addToStatusBucket(newKeys.projectId, newKeys.status, item);
+
+        if (newKeys.withdrawalRequested) {
+            withdrawalRequests.put(id, item);
+        } else {
+            withdrawalRequests.remove(id);
+        }
+
+        indexedKeys.put(id, newKeys);
     }
-    
+
     /**
-     * Updates an existing application in the repository.
-     * 
-     * @param item The application with updated information
+     * Removes an application from all secondary indexes.
+     *
+     * @param id The ID of the application that was removed
      */
     @Override
-    public void update(Application item) {
-        for (int i = 0; i < applications.size(); i++) {
-            if (applications.get(i).getApplicationId().equals(item.getApplicationId())) {
-                applications.set(i, item);
-                return;
-            }
+    protected void unindex(String id) {
+        IndexKeys oldKeys = indexedKeys.remove(id);
+        if (oldKeys == null) {
+            return;
         }
+        removeFromBucket(byApplicant, oldKeys.applicantId, id);
+        removeFromBucket(byProject, oldKeys.projectId, id);
+        removeFromStatusBucket(oldKeys.projectId, oldKeys.status, id);
+        withdrawalRequests.remove(id);
     }
-    
+
+    /**
+     * Leaves the applications of some projects on disk until a lookup needs
+     * them. Lookups by project or applicant load the projects they touch,
+     * and reads of every application load them all; at most the given number
+     * of such projects is kept in memory. Lookups by ID only see
+     * applications in memory.
+     *
+     * @param source Reads the applications of a project from disk
+     * @param cachedProjects The number of projects kept in memory
+     */
+    public void setHistory(IHistorySource<Application> source, int cachedProjects) {
+        history = new HistoryCache<>(this, source, cachedProjects);
+    }
+
+    /**
+     * Picks up applications added on disk to projects whose history is in
+     * memory, after their rows on disk changed outside the system.
+     *
+     * @param projectIds The projects whose rows changed
+     */
+    public void refreshHistory(Collection<String> projectIds) {
+        HistoryCache<Application> cache = history;
+        if (cache != null) {
+            cache.refresh(projectIds);
+        }
+    }
+
     /**
-     * Deletes an application with the specified ID.
-     * 
-     * @param id The ID of the application to delete
+     * Loads every application kept on disk before a read that covers all of them.
      */
     @Override
-    public void delete(String id) {
-        applications.removeIf(app -> app.getApplicationId().equals(id));
+    protected void beforeScan() {
+        HistoryCache<Application> cache = history;
+        if (cache != null) {
+            cache.ensureAll();
+        }
     }
-    
+
+    /**
+     * Checks whether some applications are kept on disk.
+     *
+     * @return true once a history source is set
+     */
+    @Override
+    protected boolean hasUnloadedEntities() {
+        return history != null;
+    }
+
+    /**
+     * Loads the applications of a project kept on disk, if any.
+     */
+    private void ensureProject(Project project) {
+        HistoryCache<Application> cache = history;
+        if (cache != null) {
+            cache.ensureProject(project.getProjectID());
+        }
+    }
+
+    /**
+     * Updates the status of an application and refreshes its index entries.
+     *
+     * @param application The application to update
+     * @param newStatus The new status to set
+     */
+    public void updateStatus(Application application, ApplicationStatus newStatus) {
+        application.updateStatus(newStatus);
+        update(application);
+    }
+
+    /**
+     * Moves an application from one status to another, but only if it is still
+     * in the expected status. Used where two users may act on the same
+     * application at once, so that only one of them wins.
+     *
+     * @param application The application to update
+     * @param expected The status the application must currently have
+     * @param newStatus The new status to set
+     * @return true if the status was changed, false if it no longer matched
+     */
+    public boolean transitionStatus(Application application, ApplicationStatus expected, ApplicationStatus newStatus) {
+        if (application == null) {
+            return false;
+        }
+        return updateWithRetry(application.getApplicationId(),
+                a -> a.getStatus() == expected,
+                a -> a.updateStatus(newStatus));
+    }
+
     /**
      * Finds all applications submitted by a specific applicant.
-     * 
+     *
      * @param applicant The applicant to find applications for
      * @return A list of applications from the specified applicant
      */
     public List<Application> findByApplicant(Applicant applicant) {
-        return applications.stream()
-                .filter(app -> app.getApplicant() != null && 
-                         app.getApplicant().getId().equals(applicant.getId()))
-                .collect(Collectors.toList());
+        if (applicant == null) {
+            return new ArrayList<>();
+        }
+        HistoryCache<Application> cache = history;
+        if (cache != null) {
+            cache.ensureApplicant(applicant.getId());
+        }
+        return readIndex(() -> bucketToList(byApplicant.get(applicant.getId())));
+    }
+
+    /**
+     * Finds all applications submitted for a specific project.
+     *
+     * @param project The project to find applications for
+     * @return A list of applications for the specified project
+     */
+    public List<Application> findByProject(Project project) {
+        if (project == null) {
+            return new ArrayList<>();
+        }
+        ensureProject(project);
+        return readIndex(() -> bucketToList(byProject.get(project.getProjectID())));
     }
-}
 
+    /**
+     * Finds all applications for a specific project that have the given status.
+     *
+     * @param project The project to find applications for
+     * @param status The application status to match
+     * @return A list of matching applications
+     */
+    public List<Application> findByProjectAndStatus(Project project, ApplicationStatus status) {
+        if (project == null) {
+            return new ArrayList<>();
+        }
+        ensureProject(project);
+        return readIndex(() -> bucketToList(statusBucket(project.getProjectID(), status)));
+    }
+
+    /**
+     * Finds the booked applications of a project. Booked applications are
+     * never left on disk, so this does not load the project's history.
+     *
+     * @param project The project to find bookings for
+     * @return A list of the booked applications
+     */
+    public List<Application> findBookings(Project project) {
+        if (project == null) {
+            return new ArrayList<>();
+        }
+        return readIndex(() -> bucketToList(statusBucket(project.getProjectID(), ApplicationStatus.BOOKED)));
+    }
+
+    /**
+     * Gets the projects whose applications may be left on disk until needed.
+     *
+     * @return The project IDs, empty if every application is in memory
+     */
+    public Collection<String> getHistoryProjects() {
+        HistoryCache<Application> cache = history;
+        return cache != null ? cache.getProjects() : Collections.emptyList();
+    }
+
+    /**
+     * Gets what identifies the applications left on disk as they are now,
+     * for files derived from them to check on the next start.
+     *
+     * @return The stamp, or null if no applications are left on disk or the
+     *         storage cannot tell
+     */
+    public String getHistoryStamp() {
+        HistoryCache<Application> cache = history;
+        return cache != null ? cache.getStamp() : null;
+    }
+
+    /**
+     * Reads every application of a project kept on disk without keeping them
+     * in memory, for exports that only need each application once.
+     * Applications in memory replace their copies on disk, and applications
+     * deleted since the last save are left out.
+     *
+     * @param projectId The ID of the project
+     * @return The project's applications
+     */
+    public List<Application> readHistory(String projectId) {
+        HistoryCache<Application> cache = history;
+        Map<String, Application> merged = new LinkedHashMap<>();
+        if (cache != null) {
+            for (Application application : cache.read(projectId)) {
+                merged.put(application.getApplicationId(), application);
+            }
+        }
+        for (Application application : readIndex(() -> bucketToList(byProject.get(projectId)))) {
+            merged.put(application.getApplicationId(), application);
+        }
+        getChanges().forEach((id, change) -> {
+            if (change.getType() == ChangeType.DELETED) {
+                merged.remove(id);
+            }
+        });
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Finds all applications that have a pending withdrawal request.
+     *
+     * @return A list of applications awaiting a withdrawal decision
+     */
+    public List<Application> findWithdrawalRequests() {
+        return readIndex(() -> new ArrayList<>(withdrawalRequests.values()));
+    }
+
+    /**
+     * Counts the applications for a specific project that have the given status.
+     *
+     * @param project The project to count applications for
+     * @param status The application status to match
+     * @return The number of matching applications
+     */
+    public int countByProjectAndStatus(Project project, ApplicationStatus status) {
+        if (project == null) {
+            return 0;
+        }
+        ensureProject(project);
+        return readIndex(() -> {
+            Map<String, Application> bucket = statusBucket(project.getProjectID(), status);
+            return bucket != null ? bucket.size() : 0;
+        });
+    }
+
+    /**
+     * Gets the bucket of applications for a project and status.
+     *
+     * @param projectId The project ID
+     * @param status The application status
+     * @return The bucket, or null if it is empty
+     */
+    private Map<String, Application> statusBucket(String projectId, ApplicationStatus status) {
+        Map<ApplicationStatus, Map<String, Application>> statuses = byProjectStatus.get(projectId);
+        return statuses != null ? statuses.get(status) : null;
+    }
+
+    /**
+     * Copies an index bucket into a new list.
+     *
+     * @param bucket The bucket to copy, may be null
+     * @return A list of the applications in the bucket
+     */
+    private List<Application> bucketToList(Map<String, Application> bucket) {
+        if (bucket == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(bucket.values());
+    }
+
+    /**
+     * Adds an application to an index bucket, creating the bucket if needed.
+     */
+    private void addToBucket(Map<String, Map<String, Application>> index, String key, Application item) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(item.getApplicationId(), item);
+    }
+
+    /**
+     * Removes an application from an index bucket, dropping the bucket once empty.
+     */
+    private void removeFromBucket(Map<String, Map<String, Application>> index, String key, String id) {
+        if (key == null) {
+            return;
+        }
+        Map<String, Application> bucket = index.get(key);
+        if (bucket != null) {
+            bucket.remove(id);
+            if (bucket.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Adds an application to its project and status bucket.
+     */
+    private void addToStatusBucket(String projectId, ApplicationStatus status, Application item) {
+        if (projectId == null || status == null) {
+            return;
+        }
+        byProjectStatus.computeIfAbsent(projectId, k -> new EnumMap<>(ApplicationStatus.class))
+                .computeIfAbsent(status, k -> new LinkedHashMap<>())
+                .put(item.getApplicationId(), item);
+    }
+
+    /**
+     * Removes an application from its project and status bucket.
+     */
+    private void removeFromStatusBucket(String projectId, ApplicationStatus status, String id) {
+        if (projectId == null || status == null) {
+            return;
+        }
+        Map<ApplicationStatus, Map<String, Application>> statuses = byProjectStatus.get(projectId);
+        if (statuses == null) {
+            return;
+        }
+        Map<String, Application> bucket = statuses.get(status);
+        if (bucket != null) {
+            bucket.remove(id);
+            if (bucket.isEmpty()) {
+                statuses.remove(status);
+            }
+        }
+        if (statuses.isEmpty()) {
+            byProjectStatus.remove(projectId);
+        }
+    }
+}
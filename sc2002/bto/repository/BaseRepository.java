@@ -0,0 +1,970 @@
+package sc2002.bto.repository;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import sc2002.bto.enums.ChangeType;
+import sc2002.bto.interfaces.IRepository;
+import sc2002.bto.interfaces.IRepositoryListener;
+import sc2002.bto.interfaces.IVersioned;
+import sc2002.bto.util.Page;
+
+/**
+ * Base class for all repositories in the BTO system.
+ * Stores entities in a hash index keyed by their ID so that lookups, updates
+ * and deletes run in constant time, while iteration still follows insertion order.
+ * Subclasses can maintain secondary indexes by overriding {@link #index(Object)}
+ * and {@link #unindex(String)}, which are called on every write.
+ * <p>
+ * {@link #getAll()} hands out a shared, read-only snapshot instead of a fresh
+ * copy. The snapshot is brought up to date lazily on the first read after a
+ * write that added or removed entities, so repeated reads cost nothing and
+ * callers can keep iterating an old snapshot while the repository changes
+ * underneath it. New entities are appended to the array the previous
+ * snapshot shares, so a read after adds costs time proportional to what was
+ * added; only a read after a delete or a replacement copies the store, as
+ * the entities behind an old snapshot must not change. Large listings should use
+ * {@link #stream(Predicate)} or {@link #page(long, int)} instead, which read
+ * the store directly without copying it.
+ * <p>
+ * Repositories are safe to share between sessions running on different threads.
+ * The primary index is a concurrent hash map, so {@link #getById(String)},
+ * {@link #getAll()} and writes to different IDs never block each other,
+ * apart from the brief lock that numbers new entities in insertion order.
+ * Secondary indexes are guarded by a read-write lock: the index hooks always
+ * run under the write lock, and subclasses read their indexes through
+ * {@link #readIndex(Supplier)} so that lookups only wait for index writers.
+ * <p>
+ * Every stored entity has a version that increases on each write, and is
+ * copied onto entities implementing {@link IVersioned}. Writers that must not
+ * clobber each other use {@link #compareAndUpdate(long, Object)} or
+ * {@link #updateWithRetry(String, Predicate, Consumer)} instead of update.
+ * <p>
+ * Bulk writes should go through {@link #addAll(Collection)},
+ * {@link #updateAll(Collection)} and {@link #deleteAll(Collection)}, which
+ * dedupe the batch by ID, publish one snapshot change for the whole batch and
+ * maintain the secondary indexes under a single acquisition of the index lock.
+ * <p>
+ * Every write is also reported to the registered {@link IRepositoryListener}s,
+ * for example to journal it to disk.
+ * <p>
+ * The repository also keeps track of what changed since it was last saved: a
+ * change counter that increases on every write, and the IDs written since the
+ * last {@link #markSaved(Map)} together with how they changed. Savers use
+ * this to skip files that did not change and to append new entities instead
+ * of rewriting the file.
+ * <p>
+ * A subclass may keep part of its entities on disk until they are needed.
+ * It reads them in with {@link #loadSaved(Collection)} and drops them again
+ * with {@link #unloadSaved(Collection)}, neither of which counts as a change
+ * or is reported to listeners, and loads whatever is missing in
+ * {@link #beforeScan()} before a read that covers every entity.
+ *
+ * @param <T> The entity type this repository manages
+ */
+public abstract class BaseRepository<T> implements IRepository<T> {
+    /** Number of times updateWithRetry re-reads an entity after losing a race */
+    protected static final int MAX_UPDATE_ATTEMPTS = 16;
+
+    /** Primary index of entities keyed by ID */
+    private final ConcurrentMap<String, Slot<T>> items = new ConcurrentHashMap<>();
+    /** Entities keyed by insertion sequence number, used for ordered iteration */
+    private final ConcurrentNavigableMap<Long, T> ordered = new ConcurrentSkipListMap<>();
+    /** Source of insertion sequence numbers, guarded by seqLock */
+    private long nextSeq;
+    /** Guards numbering new entities, so that they enter the ordered map in sequence order */
+    private final Object seqLock = new Object();
+    /** Highest sequence number placed in the ordered map; every lower one was placed before it */
+    private volatile long lastSeq;
+    /** Number of writes that changed the set of stored entities */
+    private final AtomicLong modCount = new AtomicLong();
+    /** Number of entities removed from or replaced in the ordered map */
+    private final AtomicLong removeCount = new AtomicLong();
+    /** Guards bringing the snapshot up to date */
+    private final Object snapshotLock = new Object();
+    /** Guards the secondary indexes maintained by subclasses */
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    /** Most recently built read-only snapshot, may be stale; only replaced under snapshotLock */
+    private volatile Snapshot<T> snapshot;
+    /** Listeners told about every write */
+    private final List<IRepositoryListener<T>> listeners = new CopyOnWriteArrayList<>();
+    /** Number of writes of any kind, used to tell saved changes from newer ones */
+    private final AtomicLong changeCount = new AtomicLong();
+    /** IDs written since the repository was last saved, with how they changed */
+    private final ConcurrentMap<String, Change> dirty = new ConcurrentHashMap<>();
+
+    /**
+     * An entity together with its insertion sequence number and version.
+     */
+    private static final class Slot<T> {
+        private final long seq;
+        private final long version;
+        private final T item;
+
+        private Slot(long seq, long version, T item) {
+            this.seq = seq;
+            this.version = version;
+            this.item = item;
+        }
+    }
+
+    /**
+     * How an ID changed since the last save, as of one write.
+     * Every write records a new Change, so a saver can tell whether the change
+     * it saved is still the latest one.
+     */
+    public static final class Change {
+        private final ChangeType type;
+        private final long changeCount;
+
+        private Change(ChangeType type, long changeCount) {
+            this.type = type;
+            this.changeCount = changeCount;
+        }
+
+        /**
+         * Gets how the entity changed since the last save.
+         *
+         * @return The kind of change
+         */
+        public ChangeType getType() {
+            return type;
+        }
+
+        /**
+         * Gets the change count of the write that recorded this change.
+         *
+         * @return The value of the repository's change counter after the write
+         */
+        public long getChangeCount() {
+            return changeCount;
+        }
+    }
+
+    /**
+     * A read-only list of all entities, tagged with the counts it was built at.
+     * A snapshot built by appending to an earlier one shares its array; each
+     * only reads its own first {@code size} elements, and only the newest
+     * snapshot is ever appended to, so the elements an older one reads never change.
+     */
+    private static final class Snapshot<T> extends AbstractList<T> implements RandomAccess {
+        private final long modCountAt;
+        private final long removeCountAt;
+        /** Highest sequence number the snapshot covers */
+        private final long lastSeq;
+        private final Object[] elements;
+        private final int size;
+
+        private Snapshot(long modCountAt, long removeCountAt, long lastSeq, Object[] elements, int size) {
+            this.modCountAt = modCountAt;
+            this.removeCountAt = removeCountAt;
+            this.lastSeq = lastSeq;
+            this.elements = elements;
+            this.size = size;
+        }
+
+        /**
+         * Builds the snapshot that follows this one with entities added since.
+         * Writes into the shared array while it has room, otherwise into a
+         * copy of twice the size, so appending costs amortised constant time.
+         *
+         * @param added The entities added since, in insertion order
+         * @param modCountAt The modification count the new snapshot is built at
+         * @param lastSeq The highest sequence number the new snapshot covers
+         * @return The new snapshot
+         */
+        private Snapshot<T> append(Collection<T> added, long modCountAt, long lastSeq) {
+            Object[] grown = elements;
+            int count = size;
+            for (T item : added) {
+                if (count == grown.length) {
+                    grown = Arrays.copyOf(grown, Math.max(16, count * 2));
+                }
+                grown[count++] = item;
+            }
+            return new Snapshot<>(modCountAt, removeCountAt, lastSeq, grown, count);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            Objects.checkIndex(index, size);
+            return (T) elements[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Extracts the primary key of an entity.
+     *
+     * @param item The entity
+     * @return The ID used to index the entity
+     */
+    protected abstract String getId(T item);
+
+    /**
+     * Called after an entity has been added or updated so that subclasses can
+     * (re)build their secondary index entries for it.
+     *
+     * @param item The entity that was stored
+     */
+    protected void index(T item) {
+        // No secondary indexes by default
+    }
+
+    /**
+     * Called after an entity has been removed so that subclasses can drop
+     * their secondary index entries for it.
+     *
+     * @param id The ID of the entity that was removed
+     */
+    protected void unindex(String id) {
+        // No secondary indexes by default
+    }
+
+    /**
+     * Runs a lookup against the secondary indexes under the index read lock.
+     * Any number of lookups may run at once; they only wait for index writers.
+     *
+     * @param reader The lookup to run
+     * @param <R> The lookup result type
+     * @return The result of the lookup
+     */
+    protected final <R> R readIndex(Supplier<R> reader) {
+        Lock lock = indexLock.readLock();
+        lock.lock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Brings the secondary index entries of an ID in line with the primary index.
+     * Runs under the index write lock and re-reads the primary index, so that
+     * racing writes to the same ID always leave the indexes matching the entity
+     * that was stored last.
+     *
+     * @param id The ID that was written
+     */
+    private void reindex(String id) {
+        reindexAll(Collections.singleton(id), true);
+    }
+
+    /**
+     * Brings the secondary index entries of a batch of IDs in line with the
+     * primary index, taking the index write lock once for the whole batch.
+     * Listeners are told about each ID under the same lock, so they see the
+     * writes to an ID in the order they took effect.
+     *
+     * @param ids The IDs that were written
+     * @param notify false if the IDs were only loaded or unloaded, which listeners are not told about
+     */
+    private void reindexAll(Collection<String> ids, boolean notify) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        Lock lock = indexLock.writeLock();
+        lock.lock();
+        try {
+            for (String id : ids) {
+                Slot<T> current = items.get(id);
+                if (current != null) {
+                    index(current.item);
+                } else {
+                    unindex(id);
+                }
+                if (notify) {
+                    notifyListeners(id, current);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells the listeners about a write. A failing listener is reported but
+     * does not undo the write or stop the other listeners.
+     *
+     * @param id The ID that was written
+     * @param current The slot now stored for the ID, or null if it was deleted
+     */
+    private void notifyListeners(String id, Slot<T> current) {
+        for (IRepositoryListener<T> listener : listeners) {
+            try {
+                if (current != null) {
+                    listener.stored(current.item);
+                } else {
+                    listener.deleted(id);
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Error notifying repository listener: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Registers a listener to be told about every later write.
+     *
+     * @param listener The listener to add
+     */
+    public void addListener(IRepositoryListener<T> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener The listener to remove
+     */
+    public void removeListener(IRepositoryListener<T> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Keys a batch of entities by ID, keeping the last entity given for each ID.
+     *
+     * @param batch The entities to dedupe
+     * @return The entities keyed by ID, in the order their IDs first appeared
+     */
+    private Map<String, T> dedupe(Collection<? extends T> batch) {
+        Map<String, T> unique = new LinkedHashMap<>(batch.size() * 4 / 3 + 1);
+        for (T item : batch) {
+            unique.put(getId(item), item);
+        }
+        return unique;
+    }
+
+    /**
+     * Builds the slot that replaces an existing one, or the first slot of a new ID.
+     * Bumps the version and copies it onto versioned entities. Must be called
+     * from inside a compute on the primary index so that it is atomic per ID.
+     *
+     * @param old The slot being replaced, or null for a new ID
+     * @param item The entity to store
+     * @return The new slot
+     */
+    private Slot<T> stamp(Slot<T> old, T item) {
+        long seq = old != null ? old.seq : place(item);
+        long version = old != null ? old.version + 1 : 1;
+        if (old != null && old.item != item) {
+            ordered.put(seq, item);
+            removeCount.incrementAndGet();
+        }
+        if (item instanceof IVersioned) {
+            ((IVersioned) item).setVersion(version);
+        }
+        markDirty(getId(item), old == null ? ChangeType.ADDED : ChangeType.UPDATED);
+        return new Slot<>(seq, version, item);
+    }
+
+    /**
+     * Numbers a new entity and places it in the ordered map. Numbering and
+     * placing happen together, so once a sequence number is published as the
+     * last one, every lower number is in the map too.
+     *
+     * @param item The new entity
+     * @return Its sequence number
+     */
+    private long place(T item) {
+        synchronized (seqLock) {
+            long seq = ++nextSeq;
+            ordered.put(seq, item);
+            lastSeq = seq;
+            return seq;
+        }
+    }
+
+    /**
+     * Records a write to an ID in the dirty set. Must be called from inside the
+     * compute that performs the write, so that the changes recorded for one ID
+     * follow the order the writes took effect.
+     * An entity added since the last save stays ADDED while it is updated, and
+     * an entity deleted and then added again is UPDATED, since the saved copy
+     * has to be replaced.
+     *
+     * @param id The ID that was written
+     * @param type How the entity changed with this write
+     */
+    private void markDirty(String id, ChangeType type) {
+        long count = changeCount.incrementAndGet();
+        dirty.compute(id, (key, old) -> {
+            ChangeType merged = type;
+            if (old != null) {
+                if (old.type == ChangeType.ADDED && type == ChangeType.UPDATED) {
+                    merged = ChangeType.ADDED;
+                } else if (old.type == ChangeType.DELETED && type == ChangeType.ADDED) {
+                    merged = ChangeType.UPDATED;
+                }
+            }
+            return new Change(merged, count);
+        });
+    }
+
+    /**
+     * Called before a read that covers every entity: {@link #getAll()},
+     * {@link #stream(Predicate)}, {@link #page(long, int)} and {@link #size()}.
+     * Subclasses that keep entities on disk load them here.
+     */
+    protected void beforeScan() {
+        // Every entity is in memory by default
+    }
+
+    /**
+     * Checks whether some entities may be on disk but not in memory. Deleting
+     * an ID that is not in memory then still records the delete, so that
+     * saving removes the entity from disk.
+     *
+     * @return true if the subclass keeps entities on disk
+     */
+    protected boolean hasUnloadedEntities() {
+        return false;
+    }
+
+    /**
+     * Stores entities read back from disk. Entities whose ID is already stored,
+     * or was deleted since the last save, are skipped, so a newer copy in
+     * memory is never replaced by the copy on disk. The entities count as
+     * saved and listeners are not told about them.
+     *
+     * @param batch The entities read from disk
+     * @return The IDs that were stored
+     */
+    protected final List<String> loadSaved(Collection<? extends T> batch) {
+        Map<String, T> unique = dedupe(batch);
+        List<String> loaded = new ArrayList<>(unique.size());
+        for (Map.Entry<String, T> entry : unique.entrySet()) {
+            T item = entry.getValue();
+            boolean[] stored = new boolean[1];
+            items.computeIfAbsent(entry.getKey(), key -> {
+                Change change = dirty.get(key);
+                if (change != null && change.type == ChangeType.DELETED) {
+                    return null;
+                }
+                long seq = place(item);
+                if (item instanceof IVersioned) {
+                    ((IVersioned) item).setVersion(1);
+                }
+                stored[0] = true;
+                return new Slot<>(seq, 1, item);
+            });
+            if (stored[0]) {
+                loaded.add(entry.getKey());
+            }
+        }
+        if (!loaded.isEmpty()) {
+            modCount.incrementAndGet();
+            reindexAll(loaded, false);
+        }
+        return loaded;
+    }
+
+    /**
+     * Drops entities from memory that are also on disk. Entities with unsaved
+     * changes are kept. This is not a delete: it is not recorded as a change
+     * and listeners are not told about it.
+     *
+     * @param ids The IDs to drop
+     */
+    protected final void unloadSaved(Collection<String> ids) {
+        List<String> unloaded = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            boolean[] gone = new boolean[1];
+            items.computeIfPresent(id, (key, old) -> {
+                if (dirty.containsKey(key)) {
+                    return old;
+                }
+                ordered.remove(old.seq);
+                removeCount.incrementAndGet();
+                gone[0] = true;
+                return null;
+            });
+            if (gone[0]) {
+                unloaded.add(id);
+            }
+        }
+        if (!unloaded.isEmpty()) {
+            modCount.incrementAndGet();
+            reindexAll(unloaded, false);
+        }
+    }
+
+    /**
+     * Gets the number of writes made to the repository so far.
+     *
+     * @return The change counter
+     */
+    public long getChangeCount() {
+        return changeCount.get();
+    }
+
+    /**
+     * Checks whether anything was written since the repository was last saved.
+     *
+     * @return true if there are unsaved changes
+     */
+    public boolean isDirty() {
+        return !dirty.isEmpty();
+    }
+
+    /**
+     * Gets the number of IDs written since the repository was last saved.
+     *
+     * @return The size of the dirty set
+     */
+    public int getDirtyCount() {
+        return dirty.size();
+    }
+
+    /**
+     * Gets the IDs written since the repository was last saved and how each changed.
+     * Pass the result to {@link #markSaved(Map)} once the changes have been written out.
+     *
+     * @return A copy of the dirty set
+     */
+    public Map<String, Change> getChanges() {
+        return new LinkedHashMap<>(dirty);
+    }
+
+    /**
+     * Gets the stored entities among the given IDs, in insertion order.
+     * IDs with no stored entity are skipped.
+     *
+     * @param ids The IDs to look up, for example the keys of {@link #getChanges()}
+     * @return A new list of the entities found
+     */
+    public List<T> getByIds(Collection<String> ids) {
+        List<Slot<T>> found = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Slot<T> slot = id != null ? items.get(id) : null;
+            if (slot != null) {
+                found.add(slot);
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.seq, b.seq));
+        List<T> result = new ArrayList<>(found.size());
+        for (Slot<T> slot : found) {
+            result.add(slot.item);
+        }
+        return result;
+    }
+
+    /**
+     * Marks changes returned by {@link #getChanges()} as saved. An ID written
+     * again after the changes were read stays dirty for the next save; if the
+     * saved change was an addition, the entity now counts as updated, since
+     * the saver has already written a copy of it.
+     *
+     * @param saved The changes that were written out
+     */
+    public void markSaved(Map<String, Change> saved) {
+        saved.forEach((id, change) -> dirty.computeIfPresent(id, (key, current) -> {
+            if (current == change) {
+                return null;
+            }
+            if (change.type == ChangeType.ADDED && current.type == ChangeType.ADDED) {
+                return new Change(ChangeType.UPDATED, current.changeCount);
+            }
+            return current;
+        }));
+    }
+
+    /**
+     * Retrieves an entity by its ID.
+     *
+     * @param id The ID of the entity to retrieve
+     * @return The entity with the specified ID, or null if not found
+     */
+    @Override
+    public T getById(String id) {
+        if (id == null) {
+            return null;
+        }
+        Slot<T> slot = items.get(id);
+        return slot != null ? slot.item : null;
+    }
+
+    /**
+     * Retrieves all entities stored in the repository in insertion order.
+     * The returned list is an unmodifiable snapshot shared between callers;
+     * it does not reflect writes made after it was obtained.
+     *
+     * @return An unmodifiable list containing all entities
+     */
+    @Override
+    public List<T> getAll() {
+        beforeScan();
+        return getResident();
+    }
+
+    /**
+     * Retrieves the entities held in memory in insertion order, without
+     * loading any entities kept on disk. Otherwise behaves like {@link #getAll()}.
+     *
+     * @return An unmodifiable list containing the entities in memory
+     */
+    public List<T> getResident() {
+        Snapshot<T> current = snapshot;
+        if (current != null && current.modCountAt == modCount.get()) {
+            return current;
+        }
+        synchronized (snapshotLock) {
+            current = snapshot;
+            long mc = modCount.get();
+            if (current != null && current.modCountAt == mc) {
+                return current;
+            }
+            // Tagged with the counts read before reading the map, so a write that lands
+            // meanwhile forces the next reader to catch up; entities placed after
+            // the last sequence number read are left to that reader too
+            long rc = removeCount.get();
+            long last = lastSeq;
+            if (current != null && current.removeCountAt == rc) {
+                current = current.append(ordered.subMap(current.lastSeq, false, last, true).values(), mc, last);
+            } else {
+                Object[] elements = ordered.headMap(last, true).values().toArray();
+                current = new Snapshot<>(mc, rc, last, elements, elements.length);
+            }
+            snapshot = current;
+            return current;
+        }
+    }
+
+    /**
+     * Lazily streams the entities that match a filter, in insertion order.
+     * The stream reads the store directly; writes made while it is being
+     * consumed may or may not be seen, but it never fails because of them.
+     *
+     * @param filter The condition entities must satisfy
+     * @return A stream of matching entities
+     */
+    @Override
+    public Stream<T> stream(Predicate<? super T> filter) {
+        beforeScan();
+        return ordered.values().stream().filter(filter);
+    }
+
+    /**
+     * Retrieves the page of entities that follows a cursor, in insertion order.
+     * The cursor is the insertion sequence number of the last entity of the
+     * previous page, so pages stay stable while entities are added or deleted.
+     *
+     * @param cursor The cursor returned with the previous page, or {@link Page#FIRST}
+     * @param limit The maximum number of entities in the page, at least 1
+     * @return The page of entities
+     * @throws IllegalArgumentException If the limit is not positive, since no page could make progress
+     */
+    @Override
+    public Page<T> page(long cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+        beforeScan();
+        List<T> items = new ArrayList<>(Math.min(limit, 64));
+        long next = cursor;
+        Iterator<Map.Entry<Long, T>> it = ordered.tailMap(cursor, false).entrySet().iterator();
+        while (items.size() < limit && it.hasNext()) {
+            Map.Entry<Long, T> entry = it.next();
+            items.add(entry.getValue());
+            next = entry.getKey();
+        }
+        return new Page<>(items, next, it.hasNext());
+    }
+
+    /**
+     * Adds a new entity to the repository.
+     * An entity with the same ID replaces the existing one in place.
+     *
+     * @param item The entity to add
+     */
+    @Override
+    public void add(T item) {
+        String id = getId(item);
+        boolean[] changed = new boolean[1];
+        items.compute(id, (key, old) -> {
+            changed[0] = old == null || old.item != item;
+            return stamp(old, item);
+        });
+        if (changed[0]) {
+            modCount.incrementAndGet();
+        }
+        reindex(id);
+    }
+
+    /**
+     * Updates an existing entity in the repository.
+     * Does nothing if no entity with the same ID exists.
+     *
+     * @param item The entity with updated information
+     */
+    @Override
+    public void update(T item) {
+        String id = getId(item);
+        boolean[] changed = new boolean[1];
+        Slot<T> stored = items.computeIfPresent(id, (key, old) -> {
+            changed[0] = old.item != item;
+            return stamp(old, item);
+        });
+        if (stored == null) {
+            return;
+        }
+        if (changed[0]) {
+            modCount.incrementAndGet();
+        }
+        reindex(id);
+    }
+
+    /**
+     * Adds a batch of entities to the repository.
+     * Behaves like calling {@link #add(Object)} for each entity, but entities
+     * sharing an ID are collapsed to the last one and the index work is done
+     * once for the whole batch.
+     *
+     * @param batch The entities to add
+     */
+    @Override
+    public void addAll(Collection<? extends T> batch) {
+        Map<String, T> unique = dedupe(batch);
+        boolean[] changed = new boolean[1];
+        for (Map.Entry<String, T> entry : unique.entrySet()) {
+            T item = entry.getValue();
+            items.compute(entry.getKey(), (key, old) -> {
+                changed[0] |= old == null || old.item != item;
+                return stamp(old, item);
+            });
+        }
+        if (changed[0]) {
+            modCount.incrementAndGet();
+        }
+        reindexAll(unique.keySet(), true);
+    }
+
+    /**
+     * Updates a batch of existing entities in the repository.
+     * Entities whose ID is not stored are ignored.
+     *
+     * @param batch The entities with updated information
+     */
+    @Override
+    public void updateAll(Collection<? extends T> batch) {
+        Map<String, T> unique = dedupe(batch);
+        List<String> updated = new ArrayList<>(unique.size());
+        boolean[] changed = new boolean[1];
+        for (Map.Entry<String, T> entry : unique.entrySet()) {
+            T item = entry.getValue();
+            Slot<T> stored = items.computeIfPresent(entry.getKey(), (key, old) -> {
+                changed[0] |= old.item != item;
+                return stamp(old, item);
+            });
+            if (stored != null) {
+                updated.add(entry.getKey());
+            }
+        }
+        if (changed[0]) {
+            modCount.incrementAndGet();
+        }
+        reindexAll(updated, true);
+    }
+
+    /**
+     * Deletes the entities with the specified IDs.
+     * IDs that are not stored are ignored.
+     *
+     * @param ids The IDs of the entities to delete
+     */
+    @Override
+    public void deleteAll(Collection<String> ids) {
+        Set<String> unique = new LinkedHashSet<>(ids);
+        unique.remove(null);
+        List<String> removed = new ArrayList<>(unique.size());
+        boolean unloadedEntities = hasUnloadedEntities();
+        boolean[] changed = new boolean[1];
+        for (String id : unique) {
+            boolean[] gone = new boolean[1];
+            items.compute(id, (key, old) -> {
+                if (old != null) {
+                    ordered.remove(old.seq);
+                    removeCount.incrementAndGet();
+                    changed[0] = true;
+                } else if (!unloadedEntities) {
+                    return null;
+                }
+                // An entity that is not in memory may only be on disk
+                markDirty(id, ChangeType.DELETED);
+                gone[0] = true;
+                return null;
+            });
+            if (gone[0]) {
+                removed.add(id);
+            }
+        }
+        if (changed[0]) {
+            modCount.incrementAndGet();
+        }
+        reindexAll(removed, true);
+    }
+
+    /**
+     * Stores an entity only if the stored entity with the same ID is still at
+     * the expected version, i.e. nobody else has written it since it was read.
+     *
+     * @param expectedVersion The version the caller read the entity at
+     * @param newValue The entity to store
+     * @return true if the entity was stored, false if it was missing or had changed
+     */
+    @Override
+    public boolean compareAndUpdate(long expectedVersion, T newValue) {
+        String id = getId(newValue);
+        boolean[] stored = new boolean[1];
+        boolean[] changed = new boolean[1];
+        items.computeIfPresent(id, (key, old) -> {
+            if (old.version != expectedVersion) {
+                return old;
+            }
+            stored[0] = true;
+            changed[0] = old.item != newValue;
+            return stamp(old, newValue);
+        });
+        if (!stored[0]) {
+            return false;
+        }
+        if (changed[0]) {
+            modCount.incrementAndGet();
+        }
+        reindex(id);
+        return true;
+    }
+
+    /**
+     * Applies a change to an entity in place, retrying if another writer gets in
+     * between the check and the write. The precondition is evaluated without
+     * holding anything; the change is then applied only if the entity is still
+     * at the version the precondition saw, otherwise the entity is re-read and
+     * the precondition checked again.
+     *
+     * @param id The ID of the entity to change
+     * @param precondition Decides from the current entity whether to go ahead
+     * @param change The mutation to apply; it must be short and must not call back into this repository
+     * @return true if the change was applied, false if the entity is missing,
+     *         the precondition failed, or every attempt lost a race
+     */
+    public boolean updateWithRetry(String id, Predicate<T> precondition, Consumer<T> change) {
+        if (id == null) {
+            return false;
+        }
+        for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+            Slot<T> read = items.get(id);
+            if (read == null || !precondition.test(read.item)) {
+                return false;
+            }
+            boolean[] applied = new boolean[1];
+            items.computeIfPresent(id, (key, old) -> {
+                if (old.version != read.version) {
+                    return old;
+                }
+                change.accept(old.item);
+                applied[0] = true;
+                return stamp(old, old.item);
+            });
+            if (applied[0]) {
+                reindex(id);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the current version of the entity with the specified ID.
+     *
+     * @param id The ID to look up
+     * @return The stored version, or -1 if no entity with this ID exists
+     */
+    public long getVersion(String id) {
+        Slot<T> slot = id != null ? items.get(id) : null;
+        return slot != null ? slot.version : -1;
+    }
+
+    /**
+     * Deletes the entity with the specified ID.
+     *
+     * @param id The ID of the entity to delete
+     */
+    @Override
+    public void delete(String id) {
+        if (id == null) {
+            return;
+        }
+        boolean[] removed = new boolean[1];
+        boolean[] unloaded = new boolean[1];
+        items.compute(id, (key, old) -> {
+            if (old != null) {
+                ordered.remove(old.seq);
+                removeCount.incrementAndGet();
+                removed[0] = true;
+            } else if (hasUnloadedEntities()) {
+                // The entity may only be on disk; record the delete so saving drops it there
+                unloaded[0] = true;
+            } else {
+                return null;
+            }
+            markDirty(id, ChangeType.DELETED);
+            return null;
+        });
+        if (removed[0]) {
+            modCount.incrementAndGet();
+        }
+        if (removed[0] || unloaded[0]) {
+            reindex(id);
+        }
+    }
+
+    /**
+     * Checks whether an entity with the specified ID exists.
+     *
+     * @param id The ID to look up
+     * @return true if an entity with this ID is stored, false otherwise
+     */
+    public boolean contains(String id) {
+        return id != null && items.containsKey(id);
+    }
+
+    /**
+     * Gets the number of entities stored in the repository.
+     *
+     * @return The number of entities
+     */
+    public int size() {
+        beforeScan();
+        return items.size();
+    }
+}
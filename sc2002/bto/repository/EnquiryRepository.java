@@ -1,88 +1,302 @@
 package sc2002.bto.repository;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Objects;
+import sc2002.bto.entity.Applicant;
 import sc2002.bto.entity.Enquiry;
 import sc2002.bto.entity.Project;
-import sc2002.bto.interfaces.IRepository;
+import sc2002.bto.enums.EnquiryStatus;
+import sc2002.bto.interfaces.IHistorySource;
 /**
  * Constructs a new Enquiry Repository instance.
- * Initializes an empty collection to store items.
+ * Stores enquiries in a hash index keyed by enquiry ID, with a per-project
+ * index split by status and a per-applicant index. Pending enquiries of a
+ * project are kept in submission order so officers can work through them
+ * first-in, first-out.
+ * Lookups read the secondary indexes under the shared index read lock.
+ * The enquiries of closed projects may be left on disk until needed;
+ * see {@link #setHistory(IHistorySource, int)}.
  */
-public class EnquiryRepository implements IRepository<Enquiry> {
-    /** In-memory storage of enquiry records */
-    private List<Enquiry> enquiries = new ArrayList<>();
-    
+public class EnquiryRepository extends BaseRepository<Enquiry> {
+    /** Enquiries keyed by project ID, then enquiry ID, in submission order */
+    private final Map<String, Map<String, Enquiry>> byProject = new HashMap<>();
+    /** Pending enquiries keyed by project ID, then enquiry ID, in submission order */
+    private final Map<String, Map<String, Enquiry>> pendingByProject = new HashMap<>();
+    /** Replied enquiries keyed by project ID, then enquiry ID */
+    private final Map<String, Map<String, Enquiry>> repliedByProject = new HashMap<>();
+    /** Enquiries keyed by applicant ID, then enquiry ID, in submission order */
+    private final Map<String, Map<String, Enquiry>> byApplicant = new HashMap<>();
+    /** The keys each enquiry was last indexed under, keyed by enquiry ID */
+    private final Map<String, IndexKeys> indexedKeys = new HashMap<>();
+    /** Projects whose enquiries are loaded from disk on demand, or null if all are in memory */
+    private volatile HistoryCache<Enquiry> history;
+
     /**
-     * Retrieves an enquiry by its ID.
-     * 
-     * @param id The ID of the enquiry to retrieve
-     * @return The enquiry with the specified ID, or null if not found
+     * Snapshot of the fields an enquiry is indexed by.
      */
-    public Enquiry getById(String id) {
-        return enquiries.stream()
-                .filter(e -> e.getEnquiryId().equals(id))
-                .findFirst()
-                .orElse(null);
+    private static final class IndexKeys {
+        private final String projectId;
+        private final String applicantId;
+        private final EnquiryStatus status;
+
+        private IndexKeys(Enquiry e) {
+            this.projectId = e.getProject() != null ? e.getProject().getProjectID() : null;
+            this.applicantId = e.getApplicant() != null ? e.getApplicant().getId() : null;
+            this.status = e.getStatus();
+        }
     }
-    
+
     /**
-     * Retrieves all enquiries stored in the repository.
-     * 
-     * @return A list containing all enquiries
+     * Gets the ID used to index an enquiry.
+     *
+     * @param item The enquiry
+     * @return The enquiry ID
      */
     @Override
-    public List<Enquiry> getAll() {
-        return new ArrayList<>(enquiries);
+    protected String getId(Enquiry item) {
+        return item.getEnquiryId();
     }
-    
+
     /**
-     * Adds a new enquiry to the repository.
-     * 
-     * @param item The enquiry to add
+     * Moves an enquiry to the project and status buckets matching its current fields.
+     *
+     * @param item The enquiry that was stored
      */
     @Override
-    public void add(Enquiry item) {
-        enquiries.add(item);
+    protected void index(Enquiry item) {
+        String id = item.getEnquiryId();
+        IndexKeys oldKeys = indexedKeys.get(id);
+        IndexKeys newKeys = new IndexKeys(item);
+
+        boolean projectChanged = oldKeys != null && !Objects.equals(oldKeys.projectId, newKeys.projectId);
+        if (projectChanged) {
+            removeFromBucket(byProject, oldKeys.projectId, id);
+        }
+        addToBucket(byProject, newKeys.projectId, item);
+
+        if (oldKeys != null && (projectChanged || oldKeys.status != newKeys.status)) {
+            removeFromBucket(statusIndex(oldKeys.status), oldKeys.projectId, id);
+        }
+        addToBucket(statusIndex(newKeys.status), newKeys.projectId, item);
+
+        if (oldKeys != null && !Objects.equals(oldKeys.applicantId, newKeys.applicantId)) {
+            removeFromBucket(byApplicant, oldKeys.applicantId, id);
+        }
+        addToBucket(byApplicant, newKeys.applicantId, item);
+
+        indexedKeys.put(id, newKeys);
     }
-    
-     /**
-     * Updates an existing enquiry in the repository.
-     * 
-     * @param item The enquiry with updated information
+
+    /**
+     * Removes an enquiry from the project and status buckets.
+     *
+     * @param id The ID of the enquiry that was removed
      */
     @Override
-    public void update(Enquiry item) {
-        for (int i = 0; i < enquiries.size(); i++) {
-            if (enquiries.get(i).getEnquiryId().equals(item.getEnquiryId())) {
-                enquiries.set(i, item);
-                return;
-            }
+    protected void unindex(String id) {
+        IndexKeys oldKeys = indexedKeys.remove(id);
+        if (oldKeys == null) {
+            return;
         }
+        removeFromBucket(byProject, oldKeys.projectId, id);
+        removeFromBucket(statusIndex(oldKeys.status), oldKeys.projectId, id);
+        removeFromBucket(byApplicant, oldKeys.applicantId, id);
     }
-    
+
     /**
-     * Deletes an enquiry with the specified ID.
-     * 
-     * @param id The ID of the enquiry to delete
+     * Leaves the enquiries of some projects on disk until a lookup needs
+     * them. Lookups by project or applicant load the projects they touch,
+     * and reads of every enquiry load them all; at most the given number of
+     * such projects is kept in memory. Lookups by ID only see enquiries in memory.
+     *
+     * @param source Reads the enquiries of a project from disk
+     * @param cachedProjects The number of projects kept in memory
+     */
+    public void setHistory(IHistorySource<Enquiry> source, int cachedProjects) {
+        history = new HistoryCache<>(this, source, cachedProjects);
+    }
+
+    /**
+     * Picks up enquiries added on disk to projects whose history is in
+     * memory, after their rows on disk changed outside the system.
+     *
+     * @param projectIds The projects whose rows changed
+     */
+    public void refreshHistory(Collection<String> projectIds) {
+        HistoryCache<Enquiry> cache = history;
+        if (cache != null) {
+            cache.refresh(projectIds);
+        }
+    }
+
+    /**
+     * Loads every enquiry kept on disk before a read that covers all of them.
      */
     @Override
-    public void delete(String id) {
-        enquiries.removeIf(e -> e.getEnquiryId().equals(id));
+    protected void beforeScan() {
+        HistoryCache<Enquiry> cache = history;
+        if (cache != null) {
+            cache.ensureAll();
+        }
     }
-    
+
+    /**
+     * Checks whether some enquiries are kept on disk.
+     *
+     * @return true once a history source is set
+     */
+    @Override
+    protected boolean hasUnloadedEntities() {
+        return history != null;
+    }
+
+    /**
+     * Loads the enquiries of a project kept on disk, if any.
+     */
+    private void ensureProject(Project project) {
+        HistoryCache<Enquiry> cache = history;
+        if (cache != null) {
+            cache.ensureProject(project.getProjectID());
+        }
+    }
+
+    /**
+     * Replies to an enquiry and moves it from the pending to the replied index.
+     *
+     * @param enquiry The enquiry to reply to
+     * @param response The response message
+     */
+    public void reply(Enquiry enquiry, String response) {
+        enquiry.reply(response);
+        update(enquiry);
+    }
+
     /**
      * Finds all enquiries related to a specific project.
-     * 
+     *
      * @param project The project to find enquiries for
      * @return A list of enquiries for the specified project
      */
     public List<Enquiry> findByProject(Project project) {
-        return enquiries.stream()
-                .filter(e -> e.getProject() != null && 
-                         e.getProject().getProjectID().equals(project.getProjectID()))
-                .collect(Collectors.toList());
+        return bucketToList(byProject, project);
     }
-}
 
+    /**
+     * Finds all enquiries submitted by a specific applicant.
+     *
+     * @param applicant The applicant to find enquiries for
+     * @return A list of the applicant's enquiries in submission order
+     */
+    public List<Enquiry> findByApplicant(Applicant applicant) {
+        if (applicant == null) {
+            return new ArrayList<>();
+        }
+        HistoryCache<Enquiry> cache = history;
+        if (cache != null) {
+            cache.ensureApplicant(applicant.getId());
+        }
+        return readIndex(() -> {
+            Map<String, Enquiry> bucket = byApplicant.get(applicant.getId());
+            return bucket != null ? new ArrayList<>(bucket.values()) : new ArrayList<>();
+        });
+    }
+
+    /**
+     * Finds the pending enquiries of a specific project, oldest first.
+     *
+     * @param project The project to find enquiries for
+     * @return A list of pending enquiries in submission order
+     */
+    public List<Enquiry> findPendingByProject(Project project) {
+        return bucketToList(pendingByProject, project);
+    }
+
+    /**
+     * Gets the oldest pending enquiry of a specific project.
+     *
+     * @param project The project to look up
+     * @return The oldest pending enquiry, or null if none are pending
+     */
+    public Enquiry peekPending(Project project) {
+        if (project == null) {
+            return null;
+        }
+        ensureProject(project);
+        return readIndex(() -> {
+            Map<String, Enquiry> bucket = pendingByProject.get(project.getProjectID());
+            if (bucket == null || bucket.isEmpty()) {
+                return null;
+            }
+            return bucket.values().iterator().next();
+        });
+    }
+
+    /**
+     * Counts the pending enquiries of a specific project.
+     *
+     * @param project The project to count enquiries for
+     * @return The number of enquiries awaiting a reply
+     */
+    public int countPending(Project project) {
+        if (project == null) {
+            return 0;
+        }
+        ensureProject(project);
+        return readIndex(() -> {
+            Map<String, Enquiry> bucket = pendingByProject.get(project.getProjectID());
+            return bucket != null ? bucket.size() : 0;
+        });
+    }
+
+    /**
+     * Gets the per-project index that holds enquiries of the given status.
+     */
+    private Map<String, Map<String, Enquiry>> statusIndex(EnquiryStatus status) {
+        return status == EnquiryStatus.REPLIED ? repliedByProject : pendingByProject;
+    }
+
+    /**
+     * Copies the bucket of a project into a new list.
+     */
+    private List<Enquiry> bucketToList(Map<String, Map<String, Enquiry>> index, Project project) {
+        if (project == null) {
+            return new ArrayList<>();
+        }
+        ensureProject(project);
+        return readIndex(() -> {
+            Map<String, Enquiry> bucket = index.get(project.getProjectID());
+            return bucket != null ? new ArrayList<>(bucket.values()) : new ArrayList<>();
+        });
+    }
+
+    /**
+     * Adds an enquiry to the bucket of a project or applicant, creating the bucket if needed.
+     */
+    private void addToBucket(Map<String, Map<String, Enquiry>> index, String key, Enquiry item) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(item.getEnquiryId(), item);
+    }
+
+    /**
+     * Removes an enquiry from the bucket of a project or applicant, dropping the bucket once empty.
+     */
+    private void removeFromBucket(Map<String, Map<String, Enquiry>> index, String key, String id) {
+        if (key == null) {
+            return;
+        }
+        Map<String, Enquiry> bucket = index.get(key);
+        if (bucket != null) {
+            bucket.remove(id);
+            if (bucket.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package sc2002.bto.repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import sc2002.bto.interfaces.IHistorySource;
+
+/**
+ * Keeps the entities of a bounded number of projects in memory for a
+ * repository that leaves them on disk until they are needed.
+ * Projects are loaded from an {@link IHistorySource} the first time a lookup
+ * touches them; once more projects are loaded than the cache holds, the
+ * least recently used ones are dropped from memory again. Entities with
+ * unsaved changes stay in memory until they have been saved.
+ *
+ * @param <T> The entity type of the repository
+ */
+class HistoryCache<T> {
+    private final BaseRepository<T> repository;
+    private final IHistorySource<T> source;
+    private final int capacity;
+    /** Loaded projects with the IDs their load stored, least recently used first */
+    private final Map<String, List<String>> loaded = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Creates a cache that loads into a repository.
+     *
+     * @param repository The repository to load into
+     * @param source Reads the entities of a project from disk
+     * @param capacity The number of projects kept in memory
+     */
+    HistoryCache(BaseRepository<T> repository, IHistorySource<T> source, int capacity) {
+        this.repository = repository;
+        this.source = source;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Loads the entities of a project if they are not in memory.
+     *
+     * @param projectId The ID of the project
+     */
+    void ensureProject(String projectId) {
+        if (projectId != null) {
+            ensureProjects(Collections.singleton(projectId));
+        }
+    }
+
+    /**
+     * Loads the entities of every project in which an applicant has entities on disk.
+     *
+     * @param applicantId The ID of the applicant
+     */
+    void ensureApplicant(String applicantId) {
+        if (applicantId != null) {
+            ensureProjects(source.getProjectsOf(applicantId));
+        }
+    }
+
+    /**
+     * Gets the projects that have entities kept on disk.
+     *
+     * @return The project IDs
+     */
+    Collection<String> getProjects() {
+        return source.getProjects();
+    }
+
+    /**
+     * Gets the stamp of the entities kept on disk.
+     *
+     * @return The stamp, or null if the source cannot tell
+     */
+    String getStamp() {
+        return source.getStamp();
+    }
+
+    /**
+     * Reads the entities of a project from disk without keeping them in memory.
+     *
+     * @param projectId The ID of the project
+     * @return The entities stored for the project
+     */
+    List<T> read(String projectId) {
+        return source.load(projectId);
+    }
+
+    /**
+     * Reads the given projects from disk again if they are in memory, after
+     * their rows on disk changed, and loads the entities that are not in
+     * memory yet. Entities already in memory are left as they are.
+     *
+     * @param projectIds The projects whose rows changed
+     */
+    synchronized void refresh(Collection<String> projectIds) {
+        for (String projectId : projectIds) {
+            List<String> ids = loaded.get(projectId);
+            if (ids != null) {
+                ids.addAll(repository.loadSaved(source.load(projectId)));
+            }
+        }
+    }
+
+    /**
+     * Loads every entity kept on disk. The cache may hold more projects than
+     * its capacity afterwards; the surplus is dropped by the next load.
+     */
+    void ensureAll() {
+        ensureProjects(source.getProjects());
+    }
+
+    /**
+     * Loads the projects that are not in memory, then drops the least
+     * recently used projects beyond the capacity, except the ones asked for.
+     */
+    private synchronized void ensureProjects(Collection<String> projectIds) {
+        if (projectIds.isEmpty()) {
+            return;
+        }
+        for (String projectId : projectIds) {
+            if (loaded.get(projectId) == null) {
+                List<T> entities = source.load(projectId);
+                if (!entities.isEmpty()) {
+                    // Projects with nothing on disk are not worth a place in the cache
+                    loaded.put(projectId, repository.loadSaved(entities));
+                }
+            }
+        }
+
+        Set<String> wanted = projectIds.size() > 1 ? new HashSet<>(projectIds) : null;
+        Iterator<Map.Entry<String, List<String>>> eldest = loaded.entrySet().iterator();
+        while (loaded.size() > capacity && eldest.hasNext()) {
+            Map.Entry<String, List<String>> entry = eldest.next();
+            boolean asked = wanted != null ? wanted.contains(entry.getKey()) : projectIds.contains(entry.getKey());
+            if (!asked) {
+                repository.unloadSaved(entry.getValue());
+                eldest.remove();
+            }
+        }
+    }
+}
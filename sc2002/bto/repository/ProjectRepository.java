@@ -1,39 +1,29 @@
 package sc2002.bto.repository;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import sc2002.bto.entity.Project;
-import sc2002.bto.interfaces.IRepository;
+import sc2002.bto.enums.FlatType;
 
 /**
  * Constructs a new Project Repository instance.
- * Initializes an empty collection to store items.
+ * Stores projects in a hash index keyed by project ID.
  */
-public class ProjectRepository implements IRepository<Project> {
-    /** In-memory storage of project records */
-    private List<Project> projects = new ArrayList<>();
-    
-    /**
-     * Retrieves a project by its ID.
-     * 
-     * @param id The ID of the project to retrieve
-     * @return The project with the specified ID, or null if not found
-     */
-    public Project getById(String id) {
-        return projects.stream()
-                .filter(p -> p.getProjectID().equals(id))
-                .findFirst()
-                .orElse(null);
-    }
-    
+public class ProjectRepository extends BaseRepository<Project> {
+
     /**
-     * Retrieves all projects stored in the repository.
+     * Gets the ID used to index a project.
      * 
-     * @return A list containing all projects
+     * @param item The project
+     * @return The project ID
      */
-    public List<Project> getAll() {
-        return new ArrayList<>(projects);
+    @Override
+    protected String getId(Project item) {
+        return item.getProjectID();
     }
     
     /**
@@ -43,36 +33,74 @@ public class ProjectRepository implements IRepository<Project> {
      */
     @Override
     public void add(Project project) {
-        if (projects.stream().noneMatch(p -> p.getProjectID().equals(project.getProjectID()))) {
-            projects.add(project);
+        if (!contains(project.getProjectID())) {
+            super.add(project);
         }
-    }    
+    }
     
     /**
-     * Updates an existing project in the repository.
+     * Adds a batch of projects, skipping any whose ID already exists in the
+     * repository or appeared earlier in the batch.
      * 
-     * @param item The project with updated information
+     * @param projects The projects to add
      */
     @Override
-    public void update(Project item) {
-        for (int i = 0; i < projects.size(); i++) {
-            if (projects.get(i).getProjectID().equals(item.getProjectID())) {
-                projects.set(i, item);
-                return;
+    public void addAll(Collection<? extends Project> projects) {
+        Set<String> seen = new HashSet<>();
+        List<Project> fresh = new ArrayList<>(projects.size());
+        for (Project project : projects) {
+            String id = project.getProjectID();
+            if (!contains(id) && seen.add(id)) {
+                fresh.add(project);
             }
         }
+        super.addAll(fresh);
     }
-    
+
     /**
-     * Deletes a project with the specified ID.
+     * Changes the number of available units of a flat type without losing
+     * concurrent changes made by other officers or managers. The change is
+     * refused if it would take the count below zero.
      * 
-     * @param id The ID of the project to delete
+     * @param project The project to change
+     * @param flatType The flat type whose units change
+     * @param delta The number of units to add, negative to take units
+     * @return true if the change was applied, false otherwise
      */
-    @Override
-    public void delete(String id) {
-        projects.removeIf(p -> p.getProjectID().equals(id));
+    public boolean adjustUnits(Project project, FlatType flatType, int delta) {
+        if (project == null || (flatType != FlatType.TWO_ROOM && flatType != FlatType.THREE_ROOM)) {
+            return false;
+        }
+        return updateWithRetry(project.getProjectID(),
+                p -> p.getUnitsAvailable(flatType) + delta >= 0,
+                p -> {
+                    int units = p.getUnitsAvailable(flatType) + delta;
+                    if (flatType == FlatType.TWO_ROOM) {
+                        p.setTwoRoomUnitsAvailable(units);
+                    } else {
+                        p.setThreeRoomUnitsAvailable(units);
+                    }
+                });
     }
-    
+
+    /**
+     * Changes the number of available officer slots without losing concurrent
+     * changes made by other managers. The change is refused if it would take
+     * the count below zero.
+     * 
+     * @param project The project to change
+     * @param delta The number of slots to add, negative to take slots
+     * @return true if the change was applied, false otherwise
+     */
+    public boolean adjustOfficerSlots(Project project, int delta) {
+        if (project == null) {
+            return false;
+        }
+        return updateWithRetry(project.getProjectID(),
+                p -> p.getAvailableOfficerSlots() + delta >= 0,
+                p -> p.setAvailableOfficerSlots(p.getAvailableOfficerSlots() + delta));
+    }
+
     /**
      * Finds projects by neighborhood location.
      * 
@@ -80,7 +108,7 @@ public class ProjectRepository implements IRepository<Project> {
      * @return A list of projects in the specified neighborhood
      */
     public List<Project> findByNeighborhood(String neighborhood) {
-        return projects.stream()
+        return getAll().stream()
                 .filter(p -> p.getNeighborhood().equalsIgnoreCase(neighborhood))
                 .collect(Collectors.toList());
     }
@@ -0,0 +1,320 @@
+package sc2002.bto.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import sc2002.bto.entity.Receipt;
+
+/**
+ * Constructs a new Receipt Repository instance.
+ * Stores receipts in a hash index keyed by receipt ID, with secondary indexes
+ * by applicant NRIC and by project.
+ * Receipts are only needed when an officer issues or reprints one, so they
+ * are not read at startup: the stored receipts are loaded by the first call
+ * that reads or adds receipts. Receipt IDs continue after the highest one
+ * stored, so IDs stay unique across restarts.
+ */
+public class ReceiptRepository extends BaseRepository<Receipt> {
+    /** Prefix of generated receipt IDs */
+    private static final String ID_PREFIX = "RCPT-";
+
+    /** Receipts keyed by applicant NRIC, then receipt ID */
+    private final Map<String, Map<String, Receipt>> byNric = new HashMap<>();
+    /** Receipts keyed by project ID, then receipt ID */
+    private final Map<String, Map<String, Receipt>> byProject = new HashMap<>();
+    /** The keys each receipt was last indexed under, keyed by receipt ID */
+    private final Map<String, String[]> indexedKeys = new HashMap<>();
+    /** Highest receipt number stored or issued so far */
+    private final AtomicInteger lastNumber = new AtomicInteger();
+
+    /** Reads the stored receipts */
+    private final Supplier<? extends Collection<Receipt>> loader;
+    /** Stores a newly issued receipt, returning whether it was stored */
+    private final Predicate<Receipt> writer;
+    /** Guards the first load */
+    private final Object loadLock = new Object();
+    /** Set once the stored receipts have been loaded */
+    private volatile boolean loaded;
+
+    /**
+     * Creates a repository that loads the stored receipts on first use.
+     *
+     * @param loader Reads the stored receipts
+     * @param writer Stores a newly issued receipt, returning whether it was stored
+     */
+    public ReceiptRepository(Supplier<? extends Collection<Receipt>> loader, Predicate<Receipt> writer) {
+        this.loader = loader;
+        this.writer = writer;
+    }
+
+    /**
+     * Gets the ID used to index a receipt.
+     *
+     * @param item The receipt
+     * @return The receipt ID
+     */
+    @Override
+    protected String getId(Receipt item) {
+        return item.getReceiptID();
+    }
+
+    /**
+     * Moves a receipt to the index buckets matching its current fields and
+     * moves the receipt counter past its number.
+     *
+     * @param item The receipt that was stored
+     */
+    @Override
+    protected void index(Receipt item) {
+        String id = item.getReceiptID();
+        String[] oldKeys = indexedKeys.get(id);
+        String[] newKeys = { item.getNRIC(), item.getProjectID() };
+
+        if (oldKeys != null && !Objects.equals(oldKeys[0], newKeys[0])) {
+            removeFromBucket(byNric, oldKeys[0], id);
+        }
+        addToBucket(byNric, newKeys[0], item);
+
+        if (oldKeys != null && !Objects.equals(oldKeys[1], newKeys[1])) {
+            removeFromBucket(byProject, oldKeys[1], id);
+        }
+        addToBucket(byProject, newKeys[1], item);
+
+        indexedKeys.put(id, newKeys);
+        int number = parseNumber(id);
+        lastNumber.accumulateAndGet(number, Math::max);
+    }
+
+    /**
+     * Removes a receipt from all secondary indexes.
+     *
+     * @param id The ID of the receipt that was removed
+     */
+    @Override
+    protected void unindex(String id) {
+        String[] oldKeys = indexedKeys.remove(id);
+        if (oldKeys == null) {
+            return;
+        }
+        removeFromBucket(byNric, oldKeys[0], id);
+        removeFromBucket(byProject, oldKeys[1], id);
+    }
+
+    /**
+     * Adds a receipt to the bucket of an index key.
+     */
+    private static void addToBucket(Map<String, Map<String, Receipt>> index, String key, Receipt item) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(item.getReceiptID(), item);
+    }
+
+    /**
+     * Removes a receipt from the bucket of an index key, dropping the bucket once empty.
+     */
+    private static void removeFromBucket(Map<String, Map<String, Receipt>> index, String key, String id) {
+        if (key == null) {
+            return;
+        }
+        Map<String, Receipt> bucket = index.get(key);
+        if (bucket != null) {
+            bucket.remove(id);
+            if (bucket.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of a receipt ID in the generated format.
+     *
+     * @param id The receipt ID
+     * @return The number after the prefix, or 0 if the ID is not in the generated format
+     */
+    private static int parseNumber(String id) {
+        if (id == null || !id.startsWith(ID_PREFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(id.substring(ID_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Loads the stored receipts if that has not happened yet.
+     * Loaded receipts are already on disk, so they are not reported as unsaved.
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (loadLock) {
+            if (loaded) {
+                return;
+            }
+            try {
+                Collection<Receipt> stored = loader.get();
+                if (stored != null) {
+                    super.addAll(stored);
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Error loading receipts: " + e.getMessage());
+            }
+            markSaved(getChanges());
+            loaded = true;
+        }
+    }
+
+    /**
+     * Generates the ID for a new receipt, one past the highest receipt number
+     * stored or issued so far.
+     *
+     * @return A receipt ID not used by any stored receipt
+     */
+    public String nextReceiptId() {
+        ensureLoaded();
+        return String.format(ID_PREFIX + "%05d", lastNumber.incrementAndGet());
+    }
+
+    /**
+     * Finds the receipts issued to an applicant.
+     *
+     * @param nric The NRIC of the applicant
+     * @return The receipts in the order they were stored
+     */
+    public List<Receipt> findByNric(String nric) {
+        ensureLoaded();
+        return readIndex(() -> bucketOf(byNric, nric));
+    }
+
+    /**
+     * Finds the receipts issued for a project.
+     *
+     * @param projectId The ID of the project
+     * @return The receipts in the order they were stored
+     */
+    public List<Receipt> findByProject(String projectId) {
+        ensureLoaded();
+        return readIndex(() -> bucketOf(byProject, projectId));
+    }
+
+    /**
+     * Copies the bucket of an index key.
+     */
+    private static List<Receipt> bucketOf(Map<String, Map<String, Receipt>> index, String key) {
+        Map<String, Receipt> bucket = index.get(key);
+        return bucket != null ? new ArrayList<>(bucket.values()) : Collections.emptyList();
+    }
+
+    /**
+     * Gets a receipt by ID, loading the stored receipts first.
+     *
+     * @param id The receipt ID
+     * @return The receipt, or null if not found
+     */
+    @Override
+    public Receipt getById(String id) {
+        ensureLoaded();
+        return super.getById(id);
+    }
+
+    /**
+     * Gets all receipts, loading the stored receipts first.
+     *
+     * @return The receipts in ID order
+     */
+    @Override
+    public List<Receipt> getAll() {
+        ensureLoaded();
+        return super.getAll();
+    }
+
+    /**
+     * Streams the receipts matching a filter, loading the stored receipts first.
+     *
+     * @param filter The filter to apply
+     * @return The matching receipts in ID order
+     */
+    @Override
+    public Stream<Receipt> stream(Predicate<? super Receipt> filter) {
+        ensureLoaded();
+        return super.stream(filter);
+    }
+
+    /**
+     * Adds a receipt, loading the stored receipts first so the new one cannot
+     * be overwritten by the load.
+     *
+     * @param item The receipt to add
+     */
+    @Override
+    public void add(Receipt item) {
+        ensureLoaded();
+        super.add(item);
+    }
+
+    /**
+     * Adds a newly issued receipt and stores it.
+     * A stored receipt is marked as saved.
+     *
+     * @param receipt The receipt to issue
+     * @return true if the receipt was stored, false if it is only kept in memory
+     */
+    public boolean issue(Receipt receipt) {
+        add(receipt);
+        if (!writer.test(receipt)) {
+            return false;
+        }
+        Change change = getChanges().get(receipt.getReceiptID());
+        if (change != null) {
+            markSaved(Collections.singletonMap(receipt.getReceiptID(), change));
+        }
+        return true;
+    }
+
+    /**
+     * Adds a batch of receipts, loading the stored receipts first.
+     *
+     * @param batch The receipts to add
+     */
+    @Override
+    public void addAll(Collection<? extends Receipt> batch) {
+        ensureLoaded();
+        super.addAll(batch);
+    }
+
+    /**
+     * Checks if a receipt is stored, loading the stored receipts first.
+     *
+     * @param id The receipt ID
+     * @return true if the receipt is stored
+     */
+    @Override
+    public boolean contains(String id) {
+        ensureLoaded();
+        return super.contains(id);
+    }
+
+    /**
+     * Gets the number of receipts, loading the stored receipts first.
+     *
+     * @return The receipt count
+     */
+    @Override
+    public int size() {
+        ensureLoaded();
+        return super.size();
+    }
+}
@@ -0,0 +1,104 @@
+package sc2002.bto.repository;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An in-memory unit of work started by {@link TransactionManager#begin(String...)}.
+ * Each write made inside the transaction registers how to undo it. Closing
+ * the transaction without committing runs the undo steps in reverse order, so
+ * either all of its writes stay or none do. Meant for try-with-resources:
+ * <pre>
+ * try (Transaction tx = transactions.begin(projectId, applicationId)) {
+ *     ... write, then tx.onRollback(undo) ...
+ *     tx.commit();
+ * }
+ * </pre>
+ */
+public class Transaction implements AutoCloseable {
+    /** Undo steps of the writes made so far, most recent first */
+    private final Deque<Runnable> undoLog = new ArrayDeque<>();
+    /** Locks held by this transaction, in the order they were taken */
+    private final ReentrantLock[] locks;
+    /** Whether the transaction was committed */
+    private boolean committed;
+    /** Whether the transaction was closed */
+    private boolean closed;
+
+    /**
+     * Creates a transaction that already holds its locks.
+     *
+     * @param locks The locks taken for this transaction
+     */
+    Transaction(ReentrantLock[] locks) {
+        this.locks = locks;
+    }
+
+    /**
+     * Registers how to undo a write that has just been made.
+     *
+     * @param undo The step that reverses the write
+     */
+    public void onRollback(Runnable undo) {
+        if (committed || closed) {
+            throw new IllegalStateException("Transaction is no longer active");
+        }
+        undoLog.push(undo);
+    }
+
+    /**
+     * Makes all writes of this transaction permanent.
+     */
+    public void commit() {
+        if (closed) {
+            throw new IllegalStateException("Transaction is already closed");
+        }
+        committed = true;
+        undoLog.clear();
+    }
+
+    /**
+     * Reverses all writes made so far, most recent first.
+     * Keeps undoing even if one of the steps fails.
+     */
+    public void rollback() {
+        while (!undoLog.isEmpty()) {
+            try {
+                undoLog.pop().run();
+            } catch (RuntimeException e) {
+                System.err.println("Error rolling back transaction: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Checks whether the transaction was committed.
+     *
+     * @return true if committed, false otherwise
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Ends the transaction, rolling it back unless it was committed, and
+     * releases its locks.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            if (!committed) {
+                rollback();
+            }
+        } finally {
+            closed = true;
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+    }
+}
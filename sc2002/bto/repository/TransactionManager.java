@@ -0,0 +1,68 @@
+package sc2002.bto.repository;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out in-memory transactions over the repositories.
+ * A transaction names the entities it writes when it begins and holds their
+ * locks until it ends, so transactions touching different entities run in
+ * parallel while transactions touching the same entity run one after another.
+ * Locks are striped by entity ID and always taken in stripe order, so two
+ * transactions can never deadlock on each other.
+ */
+public class TransactionManager {
+    /** Number of lock stripes used by the shared manager */
+    private static final int DEFAULT_STRIPES = 64;
+    /** Manager shared by everything that writes the same repositories */
+    private static final TransactionManager DEFAULT = new TransactionManager(DEFAULT_STRIPES);
+
+    /** Lock stripes, an entity ID always maps to the same stripe */
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Creates a transaction manager.
+     *
+     * @param stripeCount The number of lock stripes
+     */
+    public TransactionManager(int stripeCount) {
+        stripes = new ReentrantLock[Math.max(1, stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Gets the transaction manager shared by the whole system.
+     *
+     * @return The shared transaction manager
+     */
+    public static TransactionManager getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Begins a transaction that writes the entities with the given IDs.
+     * Blocks until no other transaction holds any of them.
+     *
+     * @param ids The IDs of the entities the transaction will write
+     * @return The open transaction; close it to commit or roll back and release its locks
+     */
+    public Transaction begin(String... ids) {
+        int[] order = new int[ids.length];
+        int count = 0;
+        for (String id : ids) {
+            if (id != null) {
+                order[count++] = Math.floorMod(id.hashCode(), stripes.length);
+            }
+        }
+        order = Arrays.stream(order, 0, count).sorted().distinct().toArray();
+
+        ReentrantLock[] held = new ReentrantLock[order.length];
+        for (int i = 0; i < order.length; i++) {
+            held[i] = stripes[order[i]];
+            held[i].lock();
+        }
+        return new Transaction(held);
+    }
+}
@@ -1,84 +1,202 @@
 package sc2002.bto.repository;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import sc2002.bto.entity.Applicant;
+import sc2002.bto.entity.HdbManager;
+import sc2002.bto.entity.HdbOfficer;
 import sc2002.bto.entity.User;
-import sc2002.bto.interfaces.IRepository;
 /**
  * Constructs a new User Repository instance.
- * Initializes an empty collection to store items.
+ * Stores users in a hash index keyed by NRIC, partitioned by role.
+ * HdbManager extends Applicant, so the applicant partition only holds
+ * plain applicants; officers and managers each have their own partition.
+ * Like {@link #getAll()}, each partition is handed out as a shared read-only
+ * snapshot that is only rebuilt after the partition changes. Partitions are
+ * maintained under the index write lock and read under the index read lock.
  */
-public class UserRepository implements IRepository<User> {
-    /** In-memory storage of user records */
-    private List<User> users = new ArrayList<>();
-    
+public class UserRepository extends BaseRepository<User> {
+    /** Plain applicants (excluding managers) keyed by NRIC */
+    private final Map<String, Applicant> applicants = new LinkedHashMap<>();
+    /** HDB officers keyed by NRIC */
+    private final Map<String, HdbOfficer> officers = new LinkedHashMap<>();
+    /** HDB managers keyed by NRIC */
+    private final Map<String, HdbManager> managers = new LinkedHashMap<>();
+    /** Read-only snapshots of the partitions, or null once invalidated */
+    private volatile List<Applicant> applicantsView;
+    private volatile List<HdbOfficer> officersView;
+    private volatile List<HdbManager> managersView;
+
     /**
-     * Retrieves a user by their ID (NRIC).
-     * 
-     * @param id The ID of the user to retrieve
-     * @return The user with the specified ID, or null if not found
+     * Gets the ID used to index a user.
+     *
+     * @param item The user
+     * @return The user's NRIC
      */
     @Override
-    public User getById(String id) {
-        return users.stream()
-                .filter(u -> u.getId().equals(id))
-                .findFirst()
-                .orElse(null);
+    protected String getId(User item) {
+        return item.getId();
     }
-    
+
     /**
-     * Retrieves all users stored in the repository.
-     * 
-     * @return A list containing all users
+     * Places a user in the partition matching its role.
+     *
+     * @param item The user that was stored
      */
     @Override
-    public List<User> getAll() {
-        return new ArrayList<>(users);
+    protected void index(User item) {
+        String id = item.getId();
+        if (item instanceof HdbManager) {
+            removeApplicant(id);
+            removeOfficer(id);
+            if (managers.put(id, (HdbManager) item) != item) {
+                managersView = null;
+            }
+        } else if (item instanceof HdbOfficer) {
+            removeApplicant(id);
+            removeManager(id);
+            if (officers.put(id, (HdbOfficer) item) != item) {
+                officersView = null;
+            }
+        } else if (item instanceof Applicant) {
+            removeOfficer(id);
+            removeManager(id);
+            if (applicants.put(id, (Applicant) item) != item) {
+                applicantsView = null;
+            }
+        } else {
+            unindex(id);
+        }
     }
-    
+
     /**
-     * Adds a new user to the repository.
-     * 
-     * @param item The user to add
+     * Removes a user from its role partition.
+     *
+     * @param id The NRIC of the user that was removed
      */
     @Override
-    public void add(User item) {
-        users.add(item);
+    protected void unindex(String id) {
+        removeApplicant(id);
+        removeOfficer(id);
+        removeManager(id);
     }
-    
+
     /**
-     * Updates an existing user in the repository.
-     * 
-     * @param item The user with updated information
+     * Removes a user from the applicant partition, invalidating its snapshot if needed.
      */
-    @Override
-    public void update(User item) {
-        for (int i = 0; i < users.size(); i++) {
-            if (users.get(i).getId().equals(item.getId())) {
-                users.set(i, item);
-                return;
-            }
+    private void removeApplicant(String id) {
+        if (applicants.remove(id) != null) {
+            applicantsView = null;
         }
     }
-    
+
     /**
-     * Deletes a user with the specified ID.
-     * 
-     * @param id The ID of the user to delete
+     * Removes a user from the officer partition, invalidating its snapshot if needed.
      */
-    @Override
-    public void delete(String id) {
-        users.removeIf(u -> u.getId().equals(id));
+    private void removeOfficer(String id) {
+        if (officers.remove(id) != null) {
+            officersView = null;
+        }
+    }
+
+    /**
+     * Removes a user from the manager partition, invalidating its snapshot if needed.
+     */
+    private void removeManager(String id) {
+        if (managers.remove(id) != null) {
+            managersView = null;
+        }
+    }
+
+    /**
+     * Gets all plain applicants, excluding officers and managers.
+     *
+     * @return An unmodifiable list of applicants in insertion order
+     */
+    public List<Applicant> getApplicants() {
+        List<Applicant> view = applicantsView;
+        if (view == null) {
+            view = readIndex(() -> {
+                List<Applicant> copy = Collections.unmodifiableList(new ArrayList<>(applicants.values()));
+                applicantsView = copy;
+                return copy;
+            });
+        }
+        return view;
+    }
+
+    /**
+     * Gets all HDB officers.
+     *
+     * @return An unmodifiable list of officers in insertion order
+     */
+    public List<HdbOfficer> getOfficers() {
+        List<HdbOfficer> view = officersView;
+        if (view == null) {
+            view = readIndex(() -> {
+                List<HdbOfficer> copy = Collections.unmodifiableList(new ArrayList<>(officers.values()));
+                officersView = copy;
+                return copy;
+            });
+        }
+        return view;
+    }
+
+    /**
+     * Gets all HDB managers.
+     *
+     * @return An unmodifiable list of managers in insertion order
+     */
+    public List<HdbManager> getManagers() {
+        List<HdbManager> view = managersView;
+        if (view == null) {
+            view = readIndex(() -> {
+                List<HdbManager> copy = Collections.unmodifiableList(new ArrayList<>(managers.values()));
+                managersView = copy;
+                return copy;
+            });
+        }
+        return view;
+    }
+
+    /**
+     * Gets the number of plain applicants.
+     *
+     * @return The applicant count
+     */
+    public int countApplicants() {
+        return readIndex(applicants::size);
+    }
+
+    /**
+     * Gets the number of HDB officers.
+     *
+     * @return The officer count
+     */
+    public int countOfficers() {
+        return readIndex(officers::size);
+    }
+
+    /**
+     * Gets the number of HDB managers.
+     *
+     * @return The manager count
+     */
+    public int countManagers() {
+        return readIndex(managers::size);
     }
-    
+
     /**
      * Finds a user by their username.
-     * 
+     *
      * @param username The username to search for
      * @return The user with the specified username, or null if not found
      */
     public User findByUsername(String username) {
-        return users.stream()
+        return getAll().stream()
                 .filter(u -> u.getName().equals(username))
                 .findFirst()
                 .orElse(null);
@@ -66,8 +66,8 @@ public class ApplicantUI extends BaseUserUI {
                 displayEligibleProjects();
                 return false;
             case "4":
-                boolean hasBooked = applicationRepo.getAll().stream()
-                    .anyMatch(a -> a.getApplicant().equals(applicant) && a.getStatus() == ApplicationStatus.BOOKED);
+                boolean hasBooked = applicationRepo.findByApplicant(applicant).stream()
+                    .anyMatch(a -> a.getStatus() == ApplicationStatus.BOOKED);
 
                 if (hasBooked) {
                     System.out.println("You have already booked a flat. Cannot apply for another.");
@@ -136,9 +136,8 @@ public class ApplicantUI extends BaseUserUI {
     
      private void applyForProject() {
         // New check: block any active application (pending, successful, booked)
-        boolean hasActiveApplication = applicationRepo.getAll().stream()
+        boolean hasActiveApplication = applicationRepo.findByApplicant(applicant).stream()
             .anyMatch(a ->
-                a.getApplicant().equals(applicant) &&
                 (a.getStatus() == ApplicationStatus.PENDING ||
                  a.getStatus() == ApplicationStatus.SUCCESSFUL ||
                  a.getStatus() == ApplicationStatus.BOOKED)
@@ -19,6 +19,8 @@ import sc2002.bto.util.ProjectFilter;
  * Contains common functionality shared by all user types
  */
 public abstract class BaseUserUI {
+    /** Number of entries shown before a listing asks to continue */
+    protected static final int PAGE_SIZE = 10;
     protected Scanner scanner;
     protected User currentUser;
     protected UserRepository userRepo;
@@ -139,6 +141,9 @@ public abstract class BaseUserUI {
         System.out.println("Current Filters: " + projectFilter);
     
         for (int i = 0; i < projects.size(); i++) {
+            if (i > 0 && i % PAGE_SIZE == 0 && !askForNextPage()) {
+                break;
+            }
             Project p = projects.get(i);
             System.out.printf("%d. Project %s (%s)%n", i + 1, p.getProjectID(), p.getNeighborhood());
             System.out.println("   Visibility: " + (p.isVisible() ? "Visible" : "Hidden"));
@@ -173,6 +178,16 @@ public abstract class BaseUserUI {
     
     
     
+    /**
+     * Asks the user whether a paged listing should show its next page.
+     * 
+     * @return true to show the next page, false to stop the listing
+     */
+    protected boolean askForNextPage() {
+        System.out.print("-- Press Enter for more, or 'q' to stop: ");
+        return !scanner.nextLine().trim().equalsIgnoreCase("q");
+    }
+    
     /**
      * Allows the user to filter projects by selecting a specific neighborhood.
      * This method:
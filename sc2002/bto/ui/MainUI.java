@@ -1,20 +1,22 @@
 package sc2002.bto.ui;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Scanner;
 import sc2002.bto.entity.Applicant;
 import sc2002.bto.entity.HdbManager;
 import sc2002.bto.entity.HdbOfficer;
 import sc2002.bto.entity.User;
-import sc2002.bto.enums.FlatType;
 import sc2002.bto.enums.MaritalStatus;
 import sc2002.bto.enums.OfficerRegistrationStatus;
+import sc2002.bto.interfaces.IStorageEngine;
 import sc2002.bto.repository.ApplicationRepository;
 import sc2002.bto.repository.EnquiryRepository;
 import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.ReceiptRepository;
 import sc2002.bto.repository.UserRepository;
+import sc2002.bto.util.ColumnarHistory;
+import sc2002.bto.util.CsvReloader;
 import sc2002.bto.util.FileHandler;
+import sc2002.bto.util.WriteBehindSaver;
 
 /**
  * Main entry point for the BTO Management System.
@@ -32,6 +34,17 @@ public class MainUI {
     private static ApplicationRepository applicationRepo = new ApplicationRepository();
     /** Repository for enquiry data */
     private static EnquiryRepository enquiryRepo = new EnquiryRepository();
+    /** Where the data is loaded from and saved to, chosen with -Dbto.storage */
+    private static IStorageEngine storage = FileHandler.createStorage();
+    /** Repository for receipt data, read from storage the first time it is used */
+    private static ReceiptRepository receiptRepo = new ReceiptRepository(storage::loadReceipts,
+            storage::appendReceipt);
+    /** Saves changes in the background */
+    private static WriteBehindSaver saver;
+    /** Columnar export of closed projects' applications, used by reports */
+    private static ColumnarHistory history;
+    /** Applies changes made to the CSV files while running, null if they are not watched */
+    private static CsvReloader reloader;
 
     /**
      * Private constructor to prevent instantiation.
@@ -49,8 +62,11 @@ public class MainUI {
     public static void main(String[] args) {
         System.out.println("Welcome to BTO Management System");
 
-        // Load initial data from CSV files
+        // Load initial data from storage
         loadInitialData();
+        saver = FileHandler.startWriteBehind(storage, userRepo, projectRepo, applicationRepo, enquiryRepo);
+        history = FileHandler.openColumnarHistory(applicationRepo);
+        reloader = FileHandler.startReloader(storage, userRepo, projectRepo, applicationRepo, enquiryRepo, history);
 
         // Main application loop
         boolean exit = false;
@@ -63,11 +79,11 @@ public class MainUI {
                     User currentUser = login();
                     if (currentUser != null) {
                         if (currentUser instanceof HdbManager) {
-                            ManagerUI managerUI = new ManagerUI();
+                            ManagerUI managerUI = new ManagerUI(history);
                             managerUI.run((HdbManager) currentUser, userRepo, projectRepo, applicationRepo,
                                     enquiryRepo);
                         } else if (currentUser instanceof HdbOfficer) {
-                            OfficerUI officerUI = new OfficerUI();
+                            OfficerUI officerUI = new OfficerUI(receiptRepo);
                             officerUI.run((HdbOfficer) currentUser, userRepo, projectRepo, applicationRepo,
                                     enquiryRepo);
                         } else if (currentUser instanceof Applicant) {
@@ -76,14 +92,14 @@ public class MainUI {
                                     enquiryRepo);
                         }
 
-                        // Save data after user interaction
-                        saveData();
+                        // Save changes after user interaction
+                        saveChanges();
                     }
                     break;
                 case "2": // Signup
                     signup();
-                    // Save data after signup
-                    saveData();
+                    // Save changes after signup
+                    saveChanges();
                     break;
                 case "3": // Exit
                     exit = true;
@@ -95,6 +111,11 @@ public class MainUI {
 
         // Final save before exit
         saveData();
+        if (reloader != null) {
+            reloader.close();
+        }
+        saver.close();
+        storage.close();
 
         System.out.println("Thank you for using BTO Management System. Goodbye!");
         scanner.close();
@@ -105,15 +126,16 @@ public class MainUI {
      */
     private static void loadInitialData() {
         try {
-            System.out.println("Loading data from CSV files...");
-            boolean success = FileHandler.loadAllData(userRepo, projectRepo, applicationRepo, enquiryRepo);
+            System.out.println("Loading data from " + storage.getName() + " storage...");
+            boolean success = storage.load(userRepo, projectRepo, applicationRepo, enquiryRepo);
 
             if (success) {
-                System.out.println("Data loaded successfully from CSV files.");
+                System.out.println("Data loaded successfully from " + storage.getName() + " storage.");
             } else {
                 // Check if repositories have data (default data was created)
-                if (!userRepo.getAll().isEmpty() || !projectRepo.getAll().isEmpty()) {
-                    System.out.println("Default data has been created and saved to CSV files.");
+                if (userRepo.size() > 0 || projectRepo.size() > 0) {
+                    System.out.println("Default data has been created and saved to " + storage.getName()
+                            + " storage.");
                 } else {
                     System.out.println("Some errors occurred while loading data.");
                 }
@@ -125,26 +147,33 @@ public class MainUI {
             System.out.println("Error loading initial data: " + e.getMessage());
             e.printStackTrace();
 
-            // Create default data as fallback
-            System.out.println("Creating emergency default data...");
-            FileHandler.loadUsers(userRepo, applicationRepo, enquiryRepo);
-            createSampleProjects();
+            // Never fall back to default data, which would be saved over the real data
+            System.out.println("Continuing with the data that could be loaded.");
         }
     }
 
     /**
-     * Save all data to CSV files
+     * Start making the changes of the last session durable in the background;
+     * they reach the main store at the next checkpoint
+     */
+    private static void saveChanges() {
+        saver.requestFlush();
+    }
+
+    /**
+     * Wait until all data is saved to the main store of the storage engine
      */
     private static void saveData() {
         try {
-            System.out.println("Saving data to CSV files...");
-            boolean success = FileHandler.saveAllData(userRepo, projectRepo, applicationRepo, enquiryRepo);
+            System.out.println("Saving data to " + storage.getName() + " storage...");
+            boolean success = saver.flush();
 
             if (success) {
                 System.out.println("Data saved successfully.");
             } else {
                 System.out.println("Some errors occurred while saving data.");
             }
+            System.out.println("Background saves: " + saver.getSummary());
         } catch (Exception e) {
             System.out.println("Error saving data: " + e.getMessage());
             e.printStackTrace();
@@ -258,7 +287,7 @@ public class MainUI {
 
             case "2": // Officer
                 newUser = new HdbOfficer(nric, name, password, age, maritalStatus, name, null, null,
-                        OfficerRegistrationStatus.PENDING, null, applicationRepo, enquiryRepo);
+                        OfficerRegistrationStatus.PENDING, null, applicationRepo, enquiryRepo, projectRepo);
                 break;
 
             case "3": // Manager
@@ -273,58 +302,4 @@ public class MainUI {
         userRepo.add(newUser);
         System.out.println("Sign up successful! You may now log in as a " + newUser.getClass().getSimpleName());
     }
-
-    /**
-     * Creates sample projects for demonstration purposes.
-     */
-    private static void createSampleProjects() {
-        try {
-            // Find existing managers or create one if none exists
-            HdbManager manager = null;
-            for (User user : userRepo.getAll()) {
-                if (user instanceof HdbManager) {
-                    manager = (HdbManager) user;
-                    break;
-                }
-            }
-
-            if (manager == null) {
-                // Create a manager if none exists
-                manager = new HdbManager(
-                        "S1234567A",
-                        "John Smith",
-                        "password",
-                        45,
-                        MaritalStatus.MARRIED,
-                        "John Smith",
-                        150000.0);
-                userRepo.add(manager);
-            }
-
-            // Create sample project
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-            String currentDate = sdf.format(new Date());
-
-            // Calculate application closing date (30 days from now)
-            Date futureDate = new Date(System.currentTimeMillis() + 30L * 24 * 60 * 60 * 1000);
-            String closingDate = sdf.format(futureDate);
-
-            // Project: Yishun Meadows
-            FlatType[] flatTypes = { FlatType.TWO_ROOM, FlatType.THREE_ROOM };
-            manager.createProject(
-                    "Yishun Meadows",
-                    "Yishun",
-                    flatTypes,
-                    50, // 2-room units
-                    30, // 3-room units
-                    currentDate,
-                    closingDate,
-                    projectRepo);
-
-            System.out.println("Sample project created successfully.");
-        } catch (Exception e) {
-            System.out.println("Error creating sample project: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-}
\ No newline at end of file
+}
@@ -11,7 +11,6 @@ import sc2002.bto.entity.Project;
 import sc2002.bto.entity.Report;
 import sc2002.bto.entity.User;
 import sc2002.bto.enums.ApplicationStatus;
-import sc2002.bto.enums.EnquiryStatus;
 import sc2002.bto.enums.FlatType;
 import sc2002.bto.enums.OfficerRegistrationStatus;
 import sc2002.bto.enums.ReportType;
@@ -19,6 +18,8 @@ import sc2002.bto.repository.ApplicationRepository;
 import sc2002.bto.repository.EnquiryRepository;
 import sc2002.bto.repository.ProjectRepository;
 import sc2002.bto.repository.UserRepository;
+import sc2002.bto.util.ColumnarHistory;
+import sc2002.bto.util.Page;
 
 /**
  * UI class for HDB Manager users in the BTO system.
@@ -29,13 +30,26 @@ import sc2002.bto.repository.UserRepository;
 public class ManagerUI extends BaseUserUI {
     /** The manager user */
     private HdbManager manager;
+    /** Columnar history that reports count closed projects' applications from, may be null */
+    private final ColumnarHistory history;
 
     /**
      * Constructs a new ManagerUI instance.
      * Initializes a UI controller for manager users.
      */
     public ManagerUI() {
+        this(null);
+    }
+
+    /**
+     * Constructs a new ManagerUI instance whose reports count the
+     * applications of closed projects from a columnar history.
+     *
+     * @param history The columnar history of closed projects
+     */
+    public ManagerUI(ColumnarHistory history) {
         super();
+        this.history = history;
     }
 
     /**
@@ -138,7 +152,7 @@ public class ManagerUI extends BaseUserUI {
                 generateReports();
                 return false;
             case "13":
-                manager.printAllEnquiries(enquiryRepo);
+                printAllEnquiries();
                 return false;
             case "14":
                 manager.printMyProjectsEnquiries(enquiryRepo);
@@ -167,16 +181,14 @@ public class ManagerUI extends BaseUserUI {
  * settings, including projects created by other managers.
  */
 private void displayAllProjects() {
-    List<Project> allProjects = projectRepo.getAll();
-
-    if (allProjects.isEmpty()) {
+    if (projectRepo.size() == 0) {
         System.out.println("No projects available.");
         return;
     }
 
     while (true) {
-        // Apply filters and get the filtered list
-        List<Project> filteredProjects = projectFilter.apply(allProjects);
+        // Stream only the matching projects out of the repository and sort them
+        List<Project> filteredProjects = projectFilter.sort(projectRepo.stream(projectFilter::matches));
 
         if (filteredProjects.isEmpty()) {
             System.out.println("No projects match the current filters.");
@@ -199,7 +211,7 @@ private void displayAllProjects() {
 
         switch (choice) {
             case "1":
-                filterByNeighborhood(allProjects);
+                filterByNeighborhood(projectRepo.getAll());
                 break;
             case "2":
                 filterByFlatType();
@@ -604,11 +616,7 @@ private void displayManagerProjects() {
      */
     private void approveOfficerRegistration() {
         // Get all HDB Officers
-        List<User> allUsers = userRepo.getAll();
-        List<HdbOfficer> allOfficers = allUsers.stream()
-                .filter(u -> u instanceof HdbOfficer)
-                .map(u -> (HdbOfficer) u)
-                .collect(Collectors.toList());
+        List<HdbOfficer> allOfficers = userRepo.getOfficers();
 
         List<Project> managerProjects = manager.getProjectsCreated();
 
@@ -652,7 +660,7 @@ private void displayManagerProjects() {
         String approve = scanner.nextLine();
 
         if (approve.equalsIgnoreCase("Y")) {
-            manager.approveOfficerRegistration(selectedOfficer);
+            manager.approveOfficerRegistration(selectedOfficer, projectRepo);
         } else {
             selectedOfficer.setRegistrationStatus(OfficerRegistrationStatus.REJECTED);
             selectedOfficer.setPendingProject(null);
@@ -662,15 +670,24 @@ private void displayManagerProjects() {
         userRepo.update(selectedOfficer);
     }
 
+    /**
+     * Prints all enquiries in the system one page at a time.
+     */
+    private void printAllEnquiries() {
+        Page<Enquiry> page = manager.printEnquiryPage(enquiryRepo, Page.FIRST, PAGE_SIZE);
+        while (page.hasMore() && askForNextPage()) {
+            page = manager.printEnquiryPage(enquiryRepo, page.getNextCursor(), PAGE_SIZE);
+        }
+    }
+
     /**
      * Handles the process of managing withdrawal requests.
      */
     private void handleWithdrawalRequests() {
         // Get applications with withdrawal requests for projects managed by this
         // manager
-        List<Application> withdrawalRequests = applicationRepo.getAll().stream()
-                .filter(a -> a.isWithdrawalRequested() &&
-                        a.getStatus() != ApplicationStatus.UNSUCCESSFUL &&
+        List<Application> withdrawalRequests = applicationRepo.findWithdrawalRequests().stream()
+                .filter(a -> a.getStatus() != ApplicationStatus.UNSUCCESSFUL &&
                         a.getProject().getManagerInCharge().equals(manager.getManagerName()))
                 .collect(Collectors.toList());
 
@@ -709,12 +726,10 @@ private void displayManagerProjects() {
         String approve = scanner.nextLine();
 
         // Call manager's method
-        manager.handleWithdrawalRequest(selectedApplication, approve.equalsIgnoreCase("Y"));
-
-        // Update application in repository
-        applicationRepo.update(selectedApplication);
-
-        System.out.println("Withdrawal request processed successfully.");
+        if (manager.handleWithdrawalRequest(selectedApplication, approve.equalsIgnoreCase("Y"), applicationRepo,
+                projectRepo)) {
+            System.out.println("Withdrawal request processed successfully.");
+        }
     }
 
     /**
@@ -746,7 +761,7 @@ private void displayManagerProjects() {
         }
 
         // Call manager's method
-        Report report = manager.generateReport(reportType, applicationRepo);
+        Report report = manager.generateReport(reportType, applicationRepo, history);
 
         if (report != null) {
             report.printReport();
@@ -758,11 +773,10 @@ private void displayManagerProjects() {
      */
     private void respondToEnquiry() {
         // Get pending enquiries for projects managed by this manager
-        List<Enquiry> pendingEnquiries = enquiryRepo.getAll().stream()
-                .filter(e -> e.getStatus() == EnquiryStatus.PENDING &&
-                        manager.getProjectsCreated().stream()
-                                .anyMatch(p -> p.getProjectID().equals(e.getProject().getProjectID())))
-                .collect(Collectors.toList());
+        List<Enquiry> pendingEnquiries = new ArrayList<>();
+        for (Project p : manager.getProjectsCreated()) {
+            pendingEnquiries.addAll(enquiryRepo.findPendingByProject(p));
+        }
 
         if (pendingEnquiries.isEmpty()) {
             System.out.println("No pending enquiries found for your projects.");
@@ -9,10 +9,10 @@ import sc2002.bto.entity.Project;
 import sc2002.bto.entity.Receipt;
 import sc2002.bto.entity.User;
 import sc2002.bto.enums.ApplicationStatus;
-import sc2002.bto.enums.EnquiryStatus;
 import sc2002.bto.repository.ApplicationRepository;
 import sc2002.bto.repository.EnquiryRepository;
 import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.ReceiptRepository;
 import sc2002.bto.repository.UserRepository;
 
 /**
@@ -23,13 +23,18 @@ import sc2002.bto.repository.UserRepository;
 public class OfficerUI extends BaseUserUI {
     /** The officer user */
     private HdbOfficer officer;
+    /** Repository for receipt data */
+    private final ReceiptRepository receiptRepo;
 
     /**
      * Constructs a new OfficerUI instance.
      * Initializes a UI controller for officer users.
+     * 
+     * @param receiptRepo The repository that issues and keeps receipts
      */
-    public OfficerUI() {
+    public OfficerUI(ReceiptRepository receiptRepo) {
         super();
+        this.receiptRepo = receiptRepo;
     }
 
     /**
@@ -80,7 +85,8 @@ public class OfficerUI extends BaseUserUI {
         System.out.println("9. View Enquiries");
         System.out.println("10. Respond to Enquiry");
         System.out.println("11. Apply for a Project (as Applicant)");
-        System.out.println("12. Logout");
+        System.out.println("12. Reprint Receipt");
+        System.out.println("13. Logout");
         System.out.print("Enter your choice: ");
     }
 
@@ -127,6 +133,9 @@ public class OfficerUI extends BaseUserUI {
                 System.out.println("This functionality requires additional implementation.");
                 return false;
             case "12":
+                reprintReceipt();
+                return false;
+            case "13":
                 System.out.println("Logging out...");
                 return true;
             default:
@@ -139,21 +148,22 @@ public class OfficerUI extends BaseUserUI {
      * Displays all projects with filtering capabilities for the HDB Officer.
      */
     private void displayAllProjects() {
-        List<Project> allProjects = projectRepo.getAll();
-
-        if (allProjects.isEmpty()) {
+        if (projectRepo.size() == 0) {
             System.out.println("No projects available.");
             return;
         }
 
-        // Show projects with current filters applied
-        List<Project> filteredProjects = projectFilter.apply(allProjects);
+        // Stream only the matching projects out of the repository and sort them
+        List<Project> filteredProjects = projectFilter.sort(projectRepo.stream(projectFilter::matches));
 
         // Display projects
         System.out.println("\n===== All Projects =====");
         System.out.println("Current Filters: " + projectFilter);
 
         for (int i = 0; i < filteredProjects.size(); i++) {
+            if (i > 0 && i % PAGE_SIZE == 0 && !askForNextPage()) {
+                break;
+            }
             Project p = filteredProjects.get(i);
             System.out.println((i + 1) + ". " + p.getProjectName() + " (" + p.getNeighborhood() + ")");
             System.out.println("   Visibility: " + (p.isVisible() ? "Visible" : "Hidden"));
@@ -178,7 +188,7 @@ public class OfficerUI extends BaseUserUI {
 
         switch (choice) {
             case "1":
-                filterByNeighborhood(allProjects);
+                filterByNeighborhood(projectRepo.getAll());
                 displayAllProjects(); // Refresh the view
                 break;
             case "2":
@@ -369,6 +379,7 @@ public class OfficerUI extends BaseUserUI {
                 boolean registrationResult = officer.registerForProject(selectedProject);
 
                 if (registrationResult) {
+                    userRepo.update(officer);
                     System.out.println(
                             "Registration request submitted successfully for " + selectedProject.getProjectName());
                     System.out.println("Your registration status is pending approval from the manager.");
@@ -433,11 +444,8 @@ public class OfficerUI extends BaseUserUI {
         }
 
         // Get only SUCCESSFUL applications for the officer's handling project
-        List<Application> successfulApplications = applicationRepo.getAll().stream()
-                .filter(a -> a.getProject() != null &&
-                        a.getProject().equals(officer.getHandlingProject()) &&
-                        a.getStatus() == ApplicationStatus.SUCCESSFUL)
-                .collect(Collectors.toList());
+        List<Application> successfulApplications = applicationRepo.findByProjectAndStatus(
+                officer.getHandlingProject(), ApplicationStatus.SUCCESSFUL);
 
         if (successfulApplications.isEmpty()) {
             System.out.println("No successful applications found for your handling project.");
@@ -490,11 +498,8 @@ public class OfficerUI extends BaseUserUI {
         }
 
         // Get only BOOKED applications for the officer's handling project
-        List<Application> bookedApplications = applicationRepo.getAll().stream()
-                .filter(a -> a.getProject() != null &&
-                        a.getProject().equals(officer.getHandlingProject()) &&
-                        a.getStatus() == ApplicationStatus.BOOKED)
-                .collect(Collectors.toList());
+        List<Application> bookedApplications = applicationRepo.findByProjectAndStatus(
+                officer.getHandlingProject(), ApplicationStatus.BOOKED);
 
         if (bookedApplications.isEmpty()) {
             System.out.println("No booked applications found for receipt generation.");
@@ -532,13 +537,31 @@ public class OfficerUI extends BaseUserUI {
                 " for applicant " + selectedApplication.getApplicant().getName());
 
         // Call officer's method
-        Receipt receipt = officer.generateReceipt(selectedApplication);
+        Receipt receipt = officer.generateReceipt(selectedApplication, receiptRepo);
 
         if (receipt != null) {
             System.out.println("Receipt generated successfully with ID: " + receipt.getReceiptID());
         }
     }
 
+    /**
+     * Prints a receipt issued earlier, looked up by its ID.
+     */
+    private void reprintReceipt() {
+        System.out.print("Enter receipt ID (or 0 to return): ");
+        String receiptId = scanner.nextLine().trim();
+        if (receiptId.isEmpty() || receiptId.equals("0")) {
+            return;
+        }
+
+        Receipt receipt = receiptRepo.getById(receiptId);
+        if (receipt == null) {
+            System.out.println("Receipt not found.");
+            return;
+        }
+        receipt.printReceiptDetails();
+    }
+
     /**
      * Handles the process of responding to an enquiry.
      */
@@ -549,9 +572,7 @@ public class OfficerUI extends BaseUserUI {
         }
 
         // Get pending enquiries for the officer's handling project
-        List<Enquiry> pendingEnquiries = enquiryRepo.findByProject(officer.getHandlingProject()).stream()
-                .filter(e -> e.getStatus() == EnquiryStatus.PENDING)
-                .collect(Collectors.toList());
+        List<Enquiry> pendingEnquiries = officer.getPendingEnquiries();
 
         if (pendingEnquiries.isEmpty()) {
             System.out.println("No pending enquiries found for your handling project.");
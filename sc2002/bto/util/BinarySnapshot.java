@@ -0,0 +1,499 @@
+package sc2002.bto.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import sc2002.bto.entity.Applicant;
+import sc2002.bto.entity.Application;
+import sc2002.bto.entity.Enquiry;
+import sc2002.bto.entity.HdbManager;
+import sc2002.bto.entity.HdbOfficer;
+import sc2002.bto.entity.Project;
+import sc2002.bto.entity.User;
+import sc2002.bto.enums.ApplicationStatus;
+import sc2002.bto.enums.EnquiryStatus;
+import sc2002.bto.enums.FlatType;
+import sc2002.bto.enums.MaritalStatus;
+import sc2002.bto.enums.OfficerRegistrationStatus;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Reads and writes a compact binary snapshot of all repositories, used for
+ * fast restarts in place of re-parsing the CSV files.
+ * <p>
+ * The snapshot holds the same information as the CSV files. Layout:
+ * <ul>
+ * <li>magic number and format version</li>
+ * <li>string dictionary: the distinct neighborhoods, dates and manager names,
+ * which records refer to by index</li>
+ * <li>projects, users, applications and enquiries, each section a record
+ * count followed by length-prefixed records</li>
+ * </ul>
+ * Enums are stored as ordinals and references between entities as the
+ * referenced entity's position in its section, so nothing is looked up by
+ * name when loading. Any change to the layout or to an enum's constants must
+ * bump {@link #FORMAT_VERSION}; a snapshot of another version is rejected.
+ */
+public final class BinarySnapshot {
+    /** Identifies a snapshot file ("BTOS") */
+    private static final int MAGIC = 0x42544F53;
+    /** Version of the layout written by this class */
+    private static final int FORMAT_VERSION = 1;
+    /** Stream buffer size */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Stored in place of a missing reference or dictionary entry */
+    private static final int NONE = -1;
+
+    /** User record kinds */
+    private static final byte APPLICANT = 0;
+    private static final byte MANAGER = 1;
+    private static final byte OFFICER = 2;
+
+    private BinarySnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of all repositories.
+     * The snapshot is written to a temporary file first and then moved over
+     * the old one, so a crash never leaves a half-written snapshot behind.
+     *
+     * @param file The snapshot file
+     * @param userRepo The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @throws IOException If the snapshot cannot be written
+     */
+    public static void write(File file, UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) throws IOException {
+        FileTransaction transaction = new FileTransaction();
+        try {
+            write(transaction, file, userRepo, projectRepo, appRepo, enquiryRepo);
+        } catch (IOException | RuntimeException e) {
+            transaction.abort();
+            throw e;
+        }
+        transaction.commit();
+    }
+
+    /**
+     * Writes a snapshot of all repositories as part of a file transaction.
+     * The snapshot replaces the old one when the transaction is committed.
+     *
+     * @param transaction The transaction to stage the snapshot in
+     * @param file The snapshot file
+     * @param userRepo The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @throws IOException If the snapshot cannot be written
+     */
+    public static void write(FileTransaction transaction, File file, UserRepository userRepo,
+            ProjectRepository projectRepo, ApplicationRepository appRepo, EnquiryRepository enquiryRepo)
+            throws IOException {
+        List<Project> projects = projectRepo.getAll();
+        List<User> users = userRepo.getAll();
+
+        Map<String, Integer> projectOrdinals = new HashMap<>();
+        for (int i = 0; i < projects.size(); i++) {
+            projectOrdinals.put(projects.get(i).getProjectID(), i);
+        }
+        Map<String, Integer> userOrdinals = new HashMap<>();
+        for (int i = 0; i < users.size(); i++) {
+            userOrdinals.put(users.get(i).getId(), i);
+        }
+
+        // Only entities whose references resolve can be restored
+        List<Application> applications = new ArrayList<>();
+        for (Application app : appRepo.getAll()) {
+            if (userOrdinals.containsKey(app.getApplicant().getId())
+                    && projectOrdinals.containsKey(app.getProject().getProjectID())) {
+                applications.add(app);
+            }
+        }
+        List<Enquiry> enquiries = new ArrayList<>();
+        for (Enquiry enquiry : enquiryRepo.getAll()) {
+            if (userOrdinals.containsKey(enquiry.getApplicant().getId())
+                    && projectOrdinals.containsKey(enquiry.getProject().getProjectID())) {
+                enquiries.add(enquiry);
+            }
+        }
+
+        // Repeated values go in the dictionary
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> entries = new ArrayList<>();
+        for (Project project : projects) {
+            intern(project.getNeighborhood(), dictionary, entries);
+            intern(project.getApplicationOpenDate(), dictionary, entries);
+            intern(project.getApplicationCloseDate(), dictionary, entries);
+            intern(project.getManagerInCharge(), dictionary, entries);
+        }
+        for (Application app : applications) {
+            intern(app.getApplicationDate(), dictionary, entries);
+        }
+
+        File temp = transaction.stage(file);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            out.writeInt(entries.size());
+            for (String entry : entries) {
+                writeString(out, entry);
+            }
+
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+            DataOutputStream record = new DataOutputStream(recordBytes);
+
+            out.writeInt(projects.size());
+            for (Project project : projects) {
+                writeString(record, project.getProjectID());
+                writeString(record, project.getProjectName());
+                record.writeInt(lookup(project.getNeighborhood(), dictionary));
+                FlatType[] flatTypes = project.getFlatType();
+                record.writeByte(flatTypes.length);
+                for (FlatType type : flatTypes) {
+                    record.writeByte(type.ordinal());
+                }
+                record.writeDouble(project.getFloorCount());
+                record.writeDouble(project.getPricePerFlat());
+                record.writeDouble(project.getThresholdPrice());
+                record.writeInt(lookup(project.getApplicationOpenDate(), dictionary));
+                record.writeInt(lookup(project.getApplicationCloseDate(), dictionary));
+                record.writeBoolean(project.isVisible());
+                record.writeInt(project.getAvailableOfficerSlots());
+                record.writeInt(project.getTwoRoomUnitsAvailable());
+                record.writeInt(project.getThreeRoomUnitsAvailable());
+                record.writeInt(lookup(project.getManagerInCharge(), dictionary));
+                endRecord(out, recordBytes);
+            }
+
+            out.writeInt(users.size());
+            for (User user : users) {
+                byte kind = user instanceof HdbManager ? MANAGER : user instanceof HdbOfficer ? OFFICER : APPLICANT;
+                record.writeByte(kind);
+                writeString(record, user.getId());
+                writeString(record, user.getName());
+                writeString(record, user.getPassword());
+                record.writeInt(user.getAge());
+                record.writeByte(user.getMaritalStatus().ordinal());
+                if (kind == OFFICER) {
+                    record.writeByte(((HdbOfficer) user).getRegistrationStatus().ordinal());
+                } else {
+                    Double income = ((Applicant) user).getIncomeRange();
+                    record.writeDouble(income != null ? income : Double.NaN);
+                }
+                endRecord(out, recordBytes);
+            }
+
+            out.writeInt(applications.size());
+            for (Application app : applications) {
+                writeString(record, app.getApplicationId());
+                record.writeInt(userOrdinals.get(app.getApplicant().getId()));
+                record.writeInt(projectOrdinals.get(app.getProject().getProjectID()));
+                record.writeInt(lookup(app.getApplicationDate(), dictionary));
+                record.writeByte(app.getStatus().ordinal());
+                record.writeByte(app.getSelectedFlatType().ordinal());
+                record.writeBoolean(app.isWithdrawalRequested());
+                endRecord(out, recordBytes);
+            }
+
+            out.writeInt(enquiries.size());
+            for (Enquiry enquiry : enquiries) {
+                writeString(record, enquiry.getEnquiryId());
+                record.writeInt(projectOrdinals.get(enquiry.getProject().getProjectID()));
+                record.writeInt(userOrdinals.get(enquiry.getApplicant().getId()));
+                writeString(record, enquiry.getMessage());
+                writeString(record, enquiry.getResponse());
+                record.writeByte(enquiry.getStatus().ordinal());
+                endRecord(out, recordBytes);
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot into the repositories.
+     * Nothing is added to the repositories unless the whole snapshot reads
+     * successfully.
+     *
+     * @param file The snapshot file
+     * @param userRepo The user repository to populate
+     * @param projectRepo The project repository to populate
+     * @param appRepo The application repository to populate
+     * @param enquiryRepo The enquiry repository to populate
+     * @return The number of users, projects, applications and enquiries read, in that order
+     * @throws IOException If the snapshot cannot be read, is corrupt, or has another format version
+     */
+    public static int[] read(File file, UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) throws IOException {
+        MaritalStatus[] maritalStatuses = MaritalStatus.values();
+        OfficerRegistrationStatus[] registrationStatuses = OfficerRegistrationStatus.values();
+        ApplicationStatus[] applicationStatuses = ApplicationStatus.values();
+        FlatType[] flatTypes = FlatType.values();
+
+        List<Project> projects;
+        List<User> users;
+        List<Application> applications;
+        List<Enquiry> enquiries;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+
+            String[] dictionary = new String[in.readInt()];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = readString(in);
+            }
+
+            RecordReader record = new RecordReader();
+
+            int projectCount = in.readInt();
+            projects = new ArrayList<>(projectCount);
+            for (int i = 0; i < projectCount; i++) {
+                ByteBuffer r = record.next(in);
+                String projectID = readString(r);
+                String projectName = readString(r);
+                String neighborhood = entry(dictionary, r.getInt());
+                FlatType[] types = new FlatType[r.get()];
+                for (int t = 0; t < types.length; t++) {
+                    types[t] = flatTypes[r.get()];
+                }
+                double floorCount = r.getDouble();
+                double pricePerFlat = r.getDouble();
+                double thresholdPrice = r.getDouble();
+                String openDate = entry(dictionary, r.getInt());
+                String closeDate = entry(dictionary, r.getInt());
+                boolean visible = r.get() != 0;
+                int officerSlots = r.getInt();
+                int twoRoomUnits = r.getInt();
+                int threeRoomUnits = r.getInt();
+                String managerInCharge = entry(dictionary, r.getInt());
+
+                Project project = new Project(projectID, neighborhood, types, floorCount,
+                        pricePerFlat, thresholdPrice, openDate, closeDate,
+                        visible, officerSlots, twoRoomUnits, threeRoomUnits);
+                project.setProjectName(projectName);
+                project.setManagerInCharge(managerInCharge);
+                projects.add(project);
+            }
+
+            int userCount = in.readInt();
+            users = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                ByteBuffer r = record.next(in);
+                byte kind = r.get();
+                String id = readString(r);
+                String name = readString(r);
+                String password = readString(r);
+                int age = r.getInt();
+                MaritalStatus status = maritalStatuses[r.get()];
+                if (kind == OFFICER) {
+                    OfficerRegistrationStatus regStatus = registrationStatuses[r.get()];
+                    users.add(new HdbOfficer(id, name, password, age, status, name,
+                            null, null, regStatus, null, appRepo, enquiryRepo, projectRepo));
+                } else {
+                    double value = r.getDouble();
+                    Double income = Double.isNaN(value) ? null : value;
+                    users.add(kind == MANAGER
+                            ? new HdbManager(id, name, password, age, status, name, income)
+                            : new Applicant(id, name, password, age, status, name, income));
+                }
+            }
+
+            int applicationCount = in.readInt();
+            applications = new ArrayList<>(applicationCount);
+            for (int i = 0; i < applicationCount; i++) {
+                ByteBuffer r = record.next(in);
+                String applicationID = readString(r);
+                Applicant applicant = applicant(users, r.getInt());
+                Project project = projects.get(r.getInt());
+                String applicationDate = entry(dictionary, r.getInt());
+                ApplicationStatus status = applicationStatuses[r.get()];
+                FlatType flatType = flatTypes[r.get()];
+                boolean withdrawalRequested = r.get() != 0;
+
+                Application application = new Application(
+                        applicationID, applicant, project, applicationDate, flatType);
+                application.updateStatus(status);
+                if (withdrawalRequested) {
+                    application.requestWithdrawal();
+                }
+                if (status == ApplicationStatus.BOOKED) {
+                    applicant.setBookedFlat(flatType);
+                    applicant.setBookedProject(project);
+                }
+                applications.add(application);
+            }
+
+            int enquiryCount = in.readInt();
+            enquiries = new ArrayList<>(enquiryCount);
+            for (int i = 0; i < enquiryCount; i++) {
+                ByteBuffer r = record.next(in);
+                String enquiryID = readString(r);
+                Project project = projects.get(r.getInt());
+                Applicant applicant = applicant(users, r.getInt());
+                String message = readString(r);
+                String response = readString(r);
+                boolean replied = r.get() == EnquiryStatus.REPLIED.ordinal();
+
+                Enquiry enquiry = new Enquiry(enquiryID, project, applicant, message);
+                if (replied && response != null) {
+                    enquiry.reply(response);
+                }
+                enquiries.add(enquiry);
+            }
+        } catch (IndexOutOfBoundsException | ClassCastException | BufferUnderflowException
+                | NegativeArraySizeException e) {
+            throw new IOException("Corrupt snapshot file: " + file, e);
+        }
+
+        // Link managers to the projects they are in charge of
+        Map<String, List<HdbManager>> managersByName = new HashMap<>();
+        for (User user : users) {
+            if (user instanceof HdbManager) {
+                managersByName.computeIfAbsent(user.getName(), k -> new ArrayList<>()).add((HdbManager) user);
+            }
+        }
+        for (Project project : projects) {
+            List<HdbManager> managers = managersByName.get(project.getManagerInCharge());
+            if (managers != null) {
+                for (HdbManager manager : managers) {
+                    manager.getProjectsCreated().add(project);
+                }
+            }
+        }
+
+        userRepo.addAll(users);
+        projectRepo.addAll(projects);
+        appRepo.addAll(applications);
+        enquiryRepo.addAll(enquiries);
+
+        return new int[] { users.size(), projects.size(), applications.size(), enquiries.size() };
+    }
+
+    /**
+     * Adds a value to the dictionary if it is not there yet.
+     */
+    private static void intern(String value, Map<String, Integer> dictionary, List<String> entries) {
+        if (value != null && !dictionary.containsKey(value)) {
+            dictionary.put(value, entries.size());
+            entries.add(value);
+        }
+    }
+
+    /**
+     * Gets the dictionary index of a value, or NONE for null.
+     */
+    private static int lookup(String value, Map<String, Integer> dictionary) {
+        return value == null ? NONE : dictionary.get(value);
+    }
+
+    /**
+     * Gets a dictionary entry by index, or null for NONE.
+     */
+    private static String entry(String[] dictionary, int index) {
+        return index == NONE ? null : dictionary[index];
+    }
+
+    /**
+     * Gets the user at an ordinal, which must be able to apply for a flat.
+     */
+    private static Applicant applicant(List<User> users, int ordinal) {
+        return (Applicant) users.get(ordinal);
+    }
+
+    /**
+     * Writes the buffered record with its length prefix and clears the buffer.
+     */
+    private static void endRecord(DataOutputStream out, ByteArrayOutputStream recordBytes) throws IOException {
+        out.writeInt(recordBytes.size());
+        recordBytes.writeTo(out);
+        recordBytes.reset();
+    }
+
+    /**
+     * Writes a nullable string as its UTF-8 length followed by its bytes.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NONE);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)} from a stream.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NONE) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)} from a record.
+     */
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length == NONE) {
+            return null;
+        }
+        String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    /**
+     * Reads length-prefixed records into one reused buffer.
+     */
+    private static class RecordReader {
+        private byte[] bytes = new byte[256];
+
+        /**
+         * Reads the next record from a stream.
+         *
+         * @return A buffer positioned at the start of the record
+         */
+        ByteBuffer next(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Corrupt snapshot record length " + length);
+            }
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            in.readFully(bytes, 0, length);
+            return ByteBuffer.wrap(bytes, 0, length);
+        }
+    }
+}
@@ -0,0 +1,614 @@
+package sc2002.bto.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import sc2002.bto.entity.Applicant;
+import sc2002.bto.entity.Application;
+import sc2002.bto.enums.ApplicationStatus;
+import sc2002.bto.enums.HistoryColumn;
+import sc2002.bto.interfaces.IRepositoryListener;
+import sc2002.bto.repository.ApplicationRepository;
+
+/**
+ * Keeps the applications of closed projects in a columnar file, so that
+ * reports can count them without loading them from the history. Only the
+ * projects whose applications are left on disk are exported; see
+ * {@link ApplicationRepository#getHistoryProjects()}.
+ * <p>
+ * Every column is dictionary-encoded: the file stores each column's distinct
+ * values once, sorted, and every row as the values' positions in them. Layout:
+ * <ul>
+ * <li>magic number, format version, row count, row group size and the stamp
+ * of the applications on disk the file was exported from</li>
+ * <li>a dictionary per column, in {@link HistoryColumn} order; the project
+ * dictionary lists every exported project, with or without rows</li>
+ * <li>for each row group, its row count and, per column, the smallest and
+ * largest code in the group and the file position of the group's codes</li>
+ * <li>the codes, one block per column and row group, each code 1, 2 or 4
+ * bytes wide depending on the size of the column's dictionary</li>
+ * </ul>
+ * Rows are sorted by project, so the project statistics let a query skip
+ * row groups of other projects. A query reads only the blocks of the
+ * columns it needs.
+ * <p>
+ * Age and marital status are those of the applicant when the file was
+ * written. The file is deleted as soon as an exported project's application
+ * changes, and rewritten by the next query that needs it. On the next start
+ * it is only trusted if the applications on disk still have the stamp it
+ * was exported from; see {@link ApplicationRepository#getHistoryStamp()}.
+ */
+public class ColumnarHistory {
+    /** Identifies a columnar history file ("BTOC") */
+    private static final int MAGIC = 0x42544F43;
+    /** Version of the layout written by this class */
+    private static final int FORMAT_VERSION = 2;
+    /** Rows per row group */
+    private static final int GROUP_ROWS = 64 * 1024;
+    /** Stream buffer size */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Times a query rebuilds the file when applications change during the rebuild */
+    private static final int REBUILD_ATTEMPTS = 3;
+    /** Number of columns */
+    private static final int COLUMNS = HistoryColumn.values().length;
+
+    private final File file;
+    private final ApplicationRepository appRepo;
+
+    /** Incremented on every change that makes the file stale */
+    private final AtomicLong changes = new AtomicLong();
+    /** Projects in the file, read when it is opened; empty if there is no file */
+    private volatile Set<String> exportedProjects = new HashSet<>();
+    /** Whether the file matches the applications in the repository */
+    private volatile boolean fresh;
+
+    /** Contents of the file header, null until read */
+    private String[][] dictionaries;
+    private int[] groupRows;
+    private int[][] groupMin;
+    private int[][] groupMax;
+    private long[][] blockOffsets;
+    private int[] codeWidths;
+    private int rowCount;
+    /** Stamp of the applications on disk when the file was written, empty if unknown */
+    private String sourceStamp;
+
+    /**
+     * Opens the columnar history in the given file and starts watching the
+     * repository for changes to exported applications.
+     * A file exported from applications on disk that changed since, for
+     * example by saves of a later run or by another program, is deleted.
+     * The file is not rewritten until a query needs it.
+     *
+     * @param file The columnar history file
+     * @param appRepo The application repository to export from
+     */
+    public ColumnarHistory(File file, ApplicationRepository appRepo) {
+        this.file = file;
+        this.appRepo = appRepo;
+        if (file.exists()) {
+            try {
+                readHeader();
+                String stamp = appRepo.getHistoryStamp();
+                if (stamp != null && stamp.equals(sourceStamp)) {
+                    exportedProjects = new HashSet<>(Arrays.asList(dictionaries[HistoryColumn.PROJECT.ordinal()]));
+                    fresh = true;
+                } else {
+                    discard();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Ignoring " + file.getName() + ": " + e.getMessage());
+                discard();
+            }
+        }
+        appRepo.addListener(new IRepositoryListener<Application>() {
+            @Override
+            public void stored(Application application) {
+                if (exportedProjects.contains(application.getProject().getProjectID())) {
+                    invalidate();
+                }
+            }
+
+            @Override
+            public void deleted(String id) {
+                invalidate();
+            }
+        });
+    }
+
+    /**
+     * Counts the exported applications of the given projects and statuses,
+     * grouped by the value of a column. Only the blocks of that column, the
+     * project column and the status column are read.
+     *
+     * @param column The column to group by
+     * @param projectIds The projects to count; projects that are not exported are ignored
+     * @param statuses The application statuses to count
+     * @return The counts by column value, or null if the file cannot be written or read
+     */
+    public synchronized Map<String, Long> countBy(HistoryColumn column, Collection<String> projectIds,
+            Collection<ApplicationStatus> statuses) {
+        if (!ensureFresh()) {
+            return null;
+        }
+        String[] groups = dictionaries[column.ordinal()];
+        int[] projectMask = mask(HistoryColumn.PROJECT, projectIds);
+        List<String> statusNames = new ArrayList<>();
+        for (ApplicationStatus status : statuses) {
+            statusNames.add(status.name());
+        }
+        int[] statusMask = mask(HistoryColumn.STATUS, statusNames);
+        long[] counts = new long[groups.length];
+
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            int[] projectCodes = new int[GROUP_ROWS];
+            int[] statusCodes = new int[GROUP_ROWS];
+            int[] groupCodes = new int[GROUP_ROWS];
+            for (int g = 0; g < groupRows.length; g++) {
+                if (!anyInRange(projectMask, g, HistoryColumn.PROJECT)
+                        || !anyInRange(statusMask, g, HistoryColumn.STATUS)) {
+                    continue;
+                }
+                int rows = groupRows[g];
+                readBlock(channel, g, HistoryColumn.PROJECT, projectCodes);
+                readBlock(channel, g, HistoryColumn.STATUS, statusCodes);
+                readBlock(channel, g, column, groupCodes);
+                for (int i = 0; i < rows; i++) {
+                    counts[groupCodes[i]] += projectMask[projectCodes[i]] & statusMask[statusCodes[i]];
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading " + file.getName() + ": " + e.getMessage());
+            return null;
+        }
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < groups.length; i++) {
+            if (counts[i] > 0) {
+                result.put(groups[i], counts[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the smallest value of a column among the exported applications.
+     *
+     * @param column The column
+     * @return The smallest value, or null if there are none or the file cannot be written
+     */
+    public synchronized String getMin(HistoryColumn column) {
+        if (!ensureFresh() || rowCount == 0) {
+            return null;
+        }
+        int min = Integer.MAX_VALUE;
+        for (int[] stats : groupMin) {
+            min = Math.min(min, stats[column.ordinal()]);
+        }
+        return dictionaries[column.ordinal()][min];
+    }
+
+    /**
+     * Gets the largest value of a column among the exported applications.
+     *
+     * @param column The column
+     * @return The largest value, or null if there are none or the file cannot be written
+     */
+    public synchronized String getMax(HistoryColumn column) {
+        if (!ensureFresh() || rowCount == 0) {
+            return null;
+        }
+        int max = Integer.MIN_VALUE;
+        for (int[] stats : groupMax) {
+            max = Math.max(max, stats[column.ordinal()]);
+        }
+        return dictionaries[column.ordinal()][max];
+    }
+
+    /**
+     * Gets the number of exported applications.
+     *
+     * @return The row count, or -1 if the file cannot be written
+     */
+    public synchronized int getRowCount() {
+        return ensureFresh() ? rowCount : -1;
+    }
+
+    /**
+     * Marks the file as stale and deletes it, so that a crash cannot leave a
+     * stale file to be trusted on the next start. Called for every write to
+     * an exported application, and for changes to the history on disk that
+     * the repository does not see.
+     * Only the first call after the file was written deletes it.
+     */
+    public void invalidate() {
+        changes.incrementAndGet();
+        if (fresh) {
+            fresh = false;
+            discard();
+        }
+    }
+
+    /**
+     * Deletes the file.
+     */
+    private void discard() {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            System.err.println("Error deleting " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rewrites the file if it is stale or does not cover every project whose
+     * applications are left on disk.
+     *
+     * @return true if the file is up to date, false if it could not be written
+     */
+    private boolean ensureFresh() {
+        Set<String> wanted = new TreeSet<>(appRepo.getHistoryProjects());
+        for (int attempt = 0; attempt < REBUILD_ATTEMPTS; attempt++) {
+            if (fresh && dictionaries != null && exportedProjects.equals(wanted)) {
+                return true;
+            }
+            long seen = changes.get();
+            // Watch the projects being exported while they are read
+            exportedProjects = new HashSet<>(wanted);
+            try {
+                long start = System.nanoTime();
+                write(wanted);
+                readHeader();
+                fresh = true;
+                if (changes.get() == seen) {
+                    System.out.printf("Exported %d applications of %d closed projects to %s in %d ms%n",
+                            rowCount, wanted.size(), file.getName(), (System.nanoTime() - start) / 1_000_000);
+                    return true;
+                }
+                // An exported application changed while the file was written
+                fresh = false;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error writing " + file.getName() + ": " + e.getMessage());
+                break;
+            }
+        }
+        fresh = false;
+        discard();
+        return false;
+    }
+
+    /**
+     * Builds a mask over a column's dictionary, 1 for the given values and 0
+     * for the others.
+     *
+     * @param column The column
+     * @param values The values to select
+     * @return The mask, indexed by code
+     */
+    private int[] mask(HistoryColumn column, Collection<String> values) {
+        String[] dictionary = dictionaries[column.ordinal()];
+        Set<String> selected = new HashSet<>(values);
+        int[] mask = new int[dictionary.length];
+        for (int i = 0; i < dictionary.length; i++) {
+            mask[i] = selected.contains(dictionary[i]) ? 1 : 0;
+        }
+        return mask;
+    }
+
+    /**
+     * Checks whether a row group may hold a selected value of a column,
+     * using the group's smallest and largest code.
+     *
+     * @param mask The selected values of the column
+     * @param group The row group
+     * @param column The column
+     * @return true if the group must be read
+     */
+    private boolean anyInRange(int[] mask, int group, HistoryColumn column) {
+        for (int code = groupMin[group][column.ordinal()]; code <= groupMax[group][column.ordinal()]; code++) {
+            if (mask[code] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the codes of a column in a row group.
+     *
+     * @param channel The open file
+     * @param group The row group
+     * @param column The column
+     * @param codes Receives the codes
+     * @throws IOException If the file cannot be read
+     */
+    private void readBlock(FileChannel channel, int group, HistoryColumn column, int[] codes) throws IOException {
+        int rows = groupRows[group];
+        int width = codeWidths[column.ordinal()];
+        ByteBuffer buffer = ByteBuffer.allocate(rows * width);
+        long position = blockOffsets[group][column.ordinal()];
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated column block in " + file.getName());
+            }
+        }
+        buffer.flip();
+        if (width == 1) {
+            for (int i = 0; i < rows; i++) {
+                codes[i] = buffer.get() & 0xFF;
+            }
+        } else if (width == 2) {
+            for (int i = 0; i < rows; i++) {
+                codes[i] = buffer.getShort() & 0xFFFF;
+            }
+        } else {
+            buffer.asIntBuffer().get(codes, 0, rows);
+        }
+    }
+
+    /**
+     * Reads the header of the file: the source stamp, the dictionaries and the
+     * row group statistics.
+     *
+     * @throws IOException If the file cannot be read or is not a columnar history file
+     */
+    private void readHeader() throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a columnar history file: " + file);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported columnar history version " + version);
+            }
+            int rows = in.readInt();
+            if (in.readInt() != GROUP_ROWS) {
+                throw new IOException("Unsupported row group size in " + file);
+            }
+            String stamp = in.readUTF();
+
+            String[][] readDictionaries = new String[COLUMNS][];
+            int[] widths = new int[COLUMNS];
+            for (int c = 0; c < COLUMNS; c++) {
+                readDictionaries[c] = new String[in.readInt()];
+                for (int i = 0; i < readDictionaries[c].length; i++) {
+                    readDictionaries[c][i] = in.readUTF();
+                }
+                widths[c] = codeWidth(readDictionaries[c].length);
+            }
+
+            int groups = in.readInt();
+            int[] rowsPerGroup = new int[groups];
+            int[][] min = new int[groups][COLUMNS];
+            int[][] max = new int[groups][COLUMNS];
+            long[][] offsets = new long[groups][COLUMNS];
+            for (int g = 0; g < groups; g++) {
+                rowsPerGroup[g] = in.readInt();
+                for (int c = 0; c < COLUMNS; c++) {
+                    min[g][c] = in.readInt();
+                    max[g][c] = in.readInt();
+                    offsets[g][c] = in.readLong();
+                }
+            }
+
+            dictionaries = readDictionaries;
+            codeWidths = widths;
+            groupRows = rowsPerGroup;
+            groupMin = min;
+            groupMax = max;
+            blockOffsets = offsets;
+            rowCount = rows;
+            sourceStamp = stamp;
+        }
+    }
+
+    /**
+     * Exports the applications of the given projects to the file, reading
+     * them one project at a time.
+     * The file is written to a temporary file first and then moved over the
+     * old one, so a crash never leaves a half-written file behind.
+     *
+     * @param projectIds The projects to export, in file order
+     * @throws IOException If the file cannot be written
+     */
+    private void write(Set<String> projectIds) throws IOException {
+        // Stamped before the rows are read, so a save while they are read makes the stamp stale;
+        // unsaved changes are exported too, and would not be on disk after a crash
+        String stamp = appRepo.isDirty() ? null : appRepo.getHistoryStamp();
+        if (stamp == null) {
+            stamp = "";
+        }
+
+        // Collect the rows with codes in order of first appearance
+        List<Map<String, Integer>> seen = new ArrayList<>();
+        for (int c = 0; c < COLUMNS; c++) {
+            seen.add(new HashMap<>());
+        }
+        for (String projectId : projectIds) {
+            seen.get(HistoryColumn.PROJECT.ordinal()).putIfAbsent(projectId,
+                    seen.get(HistoryColumn.PROJECT.ordinal()).size());
+        }
+        int[][] codes = new int[COLUMNS][1024];
+        int rows = 0;
+        for (String projectId : projectIds) {
+            for (Application application : appRepo.readHistory(projectId)) {
+                if (rows == codes[0].length) {
+                    for (int c = 0; c < COLUMNS; c++) {
+                        codes[c] = Arrays.copyOf(codes[c], rows * 2);
+                    }
+                }
+                Applicant applicant = application.getApplicant();
+                String[] values = new String[COLUMNS];
+                values[HistoryColumn.STATUS.ordinal()] = name(application.getStatus());
+                values[HistoryColumn.FLAT_TYPE.ordinal()] = name(application.getSelectedFlatType());
+                values[HistoryColumn.MARITAL_STATUS.ordinal()] = name(applicant.getMaritalStatus());
+                values[HistoryColumn.AGE.ordinal()] = String.valueOf(applicant.getAge());
+                values[HistoryColumn.PROJECT.ordinal()] = projectId;
+                for (int c = 0; c < COLUMNS; c++) {
+                    Map<String, Integer> dictionary = seen.get(c);
+                    Integer code = dictionary.get(values[c]);
+                    if (code == null) {
+                        code = dictionary.size();
+                        dictionary.put(values[c], code);
+                    }
+                    codes[c][rows] = code;
+                }
+                rows++;
+            }
+        }
+
+        // Sort each dictionary and renumber the codes to match
+        String[][] sorted = new String[COLUMNS][];
+        for (int c = 0; c < COLUMNS; c++) {
+            Map<String, Integer> dictionary = seen.get(c);
+            sorted[c] = dictionary.keySet().toArray(new String[0]);
+            Arrays.sort(sorted[c], c == HistoryColumn.AGE.ordinal()
+                    ? Comparator.comparingInt(Integer::parseInt) : Comparator.naturalOrder());
+            int[] renumber = new int[sorted[c].length];
+            for (int i = 0; i < sorted[c].length; i++) {
+                renumber[dictionary.get(sorted[c][i])] = i;
+            }
+            for (int r = 0; r < rows; r++) {
+                codes[c][r] = renumber[codes[c][r]];
+            }
+        }
+
+        // Lay out the blocks after the header
+        int groups = (rows + GROUP_ROWS - 1) / GROUP_ROWS;
+        long position = 16 + 2 + utfLength(stamp);
+        for (int c = 0; c < COLUMNS; c++) {
+            position += 4;
+            for (String value : sorted[c]) {
+                position += 2 + utfLength(value);
+            }
+        }
+        position += 4 + (long) groups * (4 + COLUMNS * 16L);
+        long[][] offsets = new long[groups][COLUMNS];
+        for (int g = 0; g < groups; g++) {
+            int groupSize = Math.min(GROUP_ROWS, rows - g * GROUP_ROWS);
+            for (int c = 0; c < COLUMNS; c++) {
+                offsets[g][c] = position;
+                position += (long) groupSize * codeWidth(sorted[c].length);
+            }
+        }
+
+        FileTransaction transaction = new FileTransaction();
+        try {
+            File temp = transaction.stage(file);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(rows);
+                out.writeInt(GROUP_ROWS);
+                out.writeUTF(stamp);
+                for (int c = 0; c < COLUMNS; c++) {
+                    out.writeInt(sorted[c].length);
+                    for (String value : sorted[c]) {
+                        out.writeUTF(value);
+                    }
+                }
+
+                out.writeInt(groups);
+                for (int g = 0; g < groups; g++) {
+                    int from = g * GROUP_ROWS;
+                    int to = Math.min(rows, from + GROUP_ROWS);
+                    out.writeInt(to - from);
+                    for (int c = 0; c < COLUMNS; c++) {
+                        int min = Integer.MAX_VALUE;
+                        int max = Integer.MIN_VALUE;
+                        for (int r = from; r < to; r++) {
+                            min = Math.min(min, codes[c][r]);
+                            max = Math.max(max, codes[c][r]);
+                        }
+                        out.writeInt(min);
+                        out.writeInt(max);
+                        out.writeLong(offsets[g][c]);
+                    }
+                }
+
+                for (int g = 0; g < groups; g++) {
+                    int from = g * GROUP_ROWS;
+                    int to = Math.min(rows, from + GROUP_ROWS);
+                    for (int c = 0; c < COLUMNS; c++) {
+                        int width = codeWidth(sorted[c].length);
+                        for (int r = from; r < to; r++) {
+                            if (width == 1) {
+                                out.writeByte(codes[c][r]);
+                            } else if (width == 2) {
+                                out.writeShort(codes[c][r]);
+                            } else {
+                                out.writeInt(codes[c][r]);
+                            }
+                        }
+                    }
+                }
+            }
+            if (temp.length() != position) {
+                throw new IOException("Unexpected size of " + temp.getName());
+            }
+        } catch (IOException | RuntimeException e) {
+            transaction.abort();
+            throw e;
+        }
+        transaction.commit();
+    }
+
+    /**
+     * Gets the stored name of an enum value.
+     *
+     * @param value The value, may be null
+     * @return The constant's name, or an empty string for null
+     */
+    private static String name(Enum<?> value) {
+        return value != null ? value.name() : "";
+    }
+
+    /**
+     * Gets the bytes per code of a column.
+     *
+     * @param dictionarySize The number of distinct values in the column
+     * @return 1, 2 or 4
+     */
+    private static int codeWidth(int dictionarySize) {
+        return dictionarySize <= 0x100 ? 1 : dictionarySize <= 0x10000 ? 2 : 4;
+    }
+
+    /**
+     * Gets the length of a string in modified UTF-8, as written by
+     * {@link DataOutputStream#writeUTF(String)}.
+     *
+     * @param value The string
+     * @return The encoded length in bytes
+     */
+    private static int utfLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            length += ch >= 0x0001 && ch <= 0x007F ? 1 : ch <= 0x07FF ? 2 : 3;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,100 @@
+package sc2002.bto.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The column names of a CSV file, read from its header record.
+ * Loaders find their columns by name rather than by position, so files
+ * whose columns were reordered, added or removed still load: columns a
+ * loader does not know are ignored, and columns a file lacks read as empty.
+ * Names are compared ignoring case and surrounding whitespace.
+ */
+public class CsvHeader {
+    private final List<String> names;
+    /** Position of each column, keyed by upper-case name */
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    /**
+     * Reads the header from the current record of a tokenizer.
+     *
+     * @param csv A tokenizer positioned on the header record
+     */
+    public CsvHeader(CsvTokenizer csv) {
+        names = new ArrayList<>(csv.fieldCount());
+        for (int i = 0; i < csv.fieldCount(); i++) {
+            String name = csv.getString(i);
+            names.add(name);
+            positions.putIfAbsent(key(name), i);
+        }
+    }
+
+    /**
+     * Gets the position of a column.
+     *
+     * @param name The column name
+     * @return The zero-based position, or -1 if the file has no such column
+     */
+    public int indexOf(String name) {
+        Integer position = positions.get(key(name));
+        return position != null ? position : -1;
+    }
+
+    /**
+     * Gets the positions of some columns, for {@link CsvTokenizer#setProjection(int[])}.
+     *
+     * @param columns The column names
+     * @return The position of each column, -1 for columns the file lacks
+     */
+    public int[] positionsOf(String... columns) {
+        int[] result = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            result[i] = indexOf(columns[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the columns the file lacks.
+     *
+     * @param columns The column names
+     * @return The names of the missing columns, empty if there are none
+     */
+    public List<String> missing(String... columns) {
+        List<String> result = new ArrayList<>();
+        for (String column : columns) {
+            if (indexOf(column) < 0) {
+                result.add(column);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the file has exactly the given columns in the given order.
+     *
+     * @param columns The column names
+     * @return true if the header lists the same columns in the same order
+     */
+    public boolean matches(String... columns) {
+        if (columns.length != names.size()) {
+            return false;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (!key(columns[i]).equals(key(names.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Normalizes a column name for lookups.
+     */
+    private static String key(String name) {
+        return name.trim().toUpperCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,878 @@
+package sc2002.bto.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import sc2002.bto.entity.Applicant;
+import sc2002.bto.entity.Application;
+import sc2002.bto.entity.Enquiry;
+import sc2002.bto.entity.HdbManager;
+import sc2002.bto.entity.HdbOfficer;
+import sc2002.bto.entity.Project;
+import sc2002.bto.entity.User;
+import sc2002.bto.enums.ApplicationStatus;
+import sc2002.bto.enums.EnquiryStatus;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.BaseRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Watches the data directory and applies the changes other programs make to
+ * the CSV files while the system runs, without reloading everything.
+ * <p>
+ * Every file's size, modification time, identity and last few bytes are
+ * remembered, and so is a checksum of each of its rows. When a file changes
+ * and only grew, with the remembered bytes still in place, only the appended
+ * rows are read. Otherwise the whole file is read, and rows that were there
+ * when it was last read and are gone now are deleted. Either way only the
+ * rows whose content changed on disk since the file was last read are
+ * written to the repositories, in the same way the journal replays its
+ * records, and they are marked as saved since the file already holds them.
+ * Rows that did not change on disk are never compared with memory, so an
+ * edit to one row cannot undo changes made in memory to the others. Files
+ * written by this system's own saves are recognised; they are read only to
+ * remember their rows.
+ * <p>
+ * An entity with unsaved changes keeps them: its row in the file is ignored
+ * and the next save writes the entity back. While the CSV files are behind
+ * the snapshot, changes to them are not read, since the next save rewrites
+ * them from memory anyway.
+ * Rows of closed projects whose history is left on disk are not loaded; the
+ * history index is brought up to date so they are read from the new file.
+ * <p>
+ * Events are collected until the directory has been quiet for the settle
+ * time, so that a file is read once its writer has finished. Files are
+ * applied in dependency order: users, projects, then applications and
+ * enquiries.
+ */
+public class CsvReloader implements Closeable {
+    /** Bytes at the end of a file remembered to recognise appends */
+    private static final int TAIL_BYTES = 4096;
+
+    private final UserRepository userRepo;
+    private final ProjectRepository projectRepo;
+    private final ApplicationRepository appRepo;
+    private final EnquiryRepository enquiryRepo;
+    private final ColumnarHistory history;
+    private final long settleMillis;
+    /** The watched files in the order their changes are applied */
+    private final List<Table<?>> tables = new ArrayList<>();
+    private final WatchService watcher;
+    private final Thread thread;
+
+    /** States of files staged by saves, keyed by file name, recognised when they appear */
+    private final Map<String, FileState> saved = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * The state of a file when it was last read or written.
+     */
+    private static final class FileState {
+        private final long size;
+        private final FileTime modified;
+        private final Object key;
+        /** Checksum of the last {@link #TAIL_BYTES} bytes */
+        private final long tailChecksum;
+        private final boolean endsInLineBreak;
+
+        private FileState(long size, FileTime modified, Object key, long tailChecksum, boolean endsInLineBreak) {
+            this.size = size;
+            this.modified = modified;
+            this.key = key;
+            this.tailChecksum = tailChecksum;
+            this.endsInLineBreak = endsInLineBreak;
+        }
+
+        /**
+         * Reads the state of a file.
+         *
+         * @param path The file
+         * @return The state, or null if the file does not exist
+         * @throws IOException If the file cannot be read
+         */
+        private static FileState read(Path path) throws IOException {
+            if (!Files.exists(path)) {
+                return null;
+            }
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long size = attributes.size();
+            ByteBuffer tail = readRange(path, Math.max(0, size - TAIL_BYTES), size);
+            boolean endsInLineBreak = tail.limit() == 0 || tail.get(tail.limit() - 1) == '\n';
+            return new FileState(size, attributes.lastModifiedTime(), attributes.fileKey(), checksum(tail),
+                    endsInLineBreak);
+        }
+
+        /**
+         * Checks whether two states are of the same version of a file.
+         *
+         * @param other The other state, may be null
+         * @return true if the size, modification time and identity match
+         */
+        private boolean sameVersion(FileState other) {
+            return other != null && size == other.size && modified.equals(other.modified)
+                    && Objects.equals(key, other.key);
+        }
+    }
+
+    /**
+     * One watched CSV file and how its rows map onto a repository.
+     *
+     * @param <T> The entity type of the file's rows
+     */
+    private static final class Table<T> {
+        private final File file;
+        private final String[] columns;
+        private final FileHandler.RecordParser<T> parser;
+        private final BaseRepository<? super T> repo;
+        /** Finds the entity of this file's kind with an ID, or null */
+        private final Function<String, T> current;
+        /** The entities of this file's kind in memory */
+        private final Supplier<List<? extends T>> resident;
+        private final Function<T, String> idOf;
+        /** The fields a row sets, to tell whether a row differs from the entity */
+        private final Function<T, List<?>> fields;
+        /** Writes a row's entity to the repository */
+        private final Consumer<T> apply;
+        /** Project of a row, or null if the file's history is never left on disk */
+        private final Function<T, String> projectOf;
+        /** Picks up rows added on disk to projects whose history is in memory */
+        private final Consumer<Collection<String>> refresh;
+
+        /** The version of the file the repository holds */
+        private FileState seen;
+        /** Checksums of the file's rows when it was last read, by ID */
+        private Map<String, Long> lastRead = new HashMap<>();
+
+        private Table(File file, String[] columns, FileHandler.RecordParser<T> parser,
+                BaseRepository<? super T> repo, Function<String, T> current, Supplier<List<? extends T>> resident,
+                Function<T, String> idOf, Function<T, List<?>> fields, Consumer<T> apply,
+                Function<T, String> projectOf, Consumer<Collection<String>> refresh) {
+            this.file = file;
+            this.columns = columns;
+            this.parser = parser;
+            this.repo = repo;
+            this.current = current;
+            this.resident = resident;
+            this.idOf = idOf;
+            this.fields = fields;
+            this.apply = apply;
+            this.projectOf = projectOf;
+            this.refresh = refresh;
+        }
+    }
+
+    /**
+     * The rows read from a file, or from the part appended to it. A later
+     * row of an ID replaces an earlier one.
+     *
+     * @param <T> The entity type of the rows
+     */
+    private static final class Rows<T> {
+        /** Checksums of the rows' fields, by ID, in file order */
+        private final Map<String, Long> checksums = new LinkedHashMap<>();
+        /** The entities of the rows that were parsed and are valid, by ID */
+        private final Map<String, T> entities = new HashMap<>();
+    }
+
+    /**
+     * Starts watching the data directory. The repositories must hold the
+     * data loaded from the files as they are now.
+     *
+     * @param directory The data directory
+     * @param userRepo The user repository to update
+     * @param projectRepo The project repository to update
+     * @param appRepo The application repository to update
+     * @param enquiryRepo The enquiry repository to update
+     * @param history The columnar history to invalidate when history on disk changes, or null
+     * @param settleMillis Time the directory must be quiet before changed files are read
+     * @throws IOException If the directory cannot be watched
+     */
+    public CsvReloader(File directory, UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo, ColumnarHistory history,
+            long settleMillis) throws IOException {
+        this.userRepo = userRepo;
+        this.projectRepo = projectRepo;
+        this.appRepo = appRepo;
+        this.enquiryRepo = enquiryRepo;
+        this.history = history;
+        this.settleMillis = Math.max(1, settleMillis);
+
+        Function<String, Applicant> applicants = id -> {
+            User user = userRepo.getById(id);
+            return user instanceof Applicant ? (Applicant) user : null;
+        };
+        tables.add(new Table<Applicant>(new File(FileHandler.APPLICANT_FILE), FileHandler.USER_COLUMNS,
+                FileHandler.applicantParser(), userRepo,
+                id -> {
+                    User user = userRepo.getById(id);
+                    return user instanceof Applicant && !(user instanceof HdbManager) ? (Applicant) user : null;
+                },
+                userRepo::getApplicants, User::getId,
+                applicant -> Arrays.asList(applicant.getName(), applicant.getPassword(), applicant.getAge(),
+                        applicant.getMaritalStatus(), applicant.getIncomeRange()),
+                this::applyApplicant, null, null));
+        tables.add(new Table<HdbManager>(new File(FileHandler.MANAGER_FILE), FileHandler.USER_COLUMNS,
+                FileHandler.managerParser(), userRepo,
+                id -> {
+                    User user = userRepo.getById(id);
+                    return user instanceof HdbManager ? (HdbManager) user : null;
+                },
+                userRepo::getManagers, User::getId,
+                manager -> Arrays.asList(manager.getName(), manager.getPassword(), manager.getAge(),
+                        manager.getMaritalStatus(), manager.getIncomeRange()),
+                this::applyManager, null, null));
+        tables.add(new Table<HdbOfficer>(new File(FileHandler.OFFICER_FILE), FileHandler.OFFICER_COLUMNS,
+                FileHandler.officerParser(projectRepo, appRepo, enquiryRepo), userRepo,
+                id -> {
+                    User user = userRepo.getById(id);
+                    return user instanceof HdbOfficer ? (HdbOfficer) user : null;
+                },
+                userRepo::getOfficers, User::getId,
+                officer -> Arrays.asList(officer.getName(), officer.getPassword(), officer.getAge(),
+                        officer.getMaritalStatus(), officer.getRegistrationStatus()),
+                this::applyOfficer, null, null));
+        tables.add(new Table<Project>(new File(FileHandler.PROJECT_FILE), FileHandler.PROJECT_COLUMNS,
+                FileHandler.projectParser(), projectRepo, projectRepo::getById, projectRepo::getResident,
+                Project::getProjectID,
+                project -> Arrays.asList(project.getProjectName(), project.getNeighborhood(),
+                        Arrays.asList(project.getFlatType()), project.getFloorCount(), project.getPricePerFlat(),
+                        project.getThresholdPrice(), project.getApplicationOpenDate(),
+                        project.getApplicationCloseDate(), project.isVisible(),
+                        project.getAvailableOfficerSlots(), project.getTwoRoomUnitsAvailable(),
+                        project.getThreeRoomUnitsAvailable(), project.getManagerInCharge()),
+                this::applyProject, null, null));
+        tables.add(new Table<Application>(new File(FileHandler.APPLICATION_FILE), FileHandler.APPLICATION_COLUMNS,
+                FileHandler.applicationParser(applicants, projectRepo), appRepo, appRepo::getById,
+                appRepo::getResident, Application::getApplicationId,
+                app -> Arrays.asList(app.getApplicant().getId(), app.getProject().getProjectID(),
+                        app.getApplicationDate(), app.getStatus(), app.getSelectedFlatType(),
+                        app.isWithdrawalRequested()),
+                this::applyApplication, app -> app.getProject().getProjectID(), appRepo::refreshHistory));
+        tables.add(new Table<Enquiry>(new File(FileHandler.ENQUIRY_FILE), FileHandler.ENQUIRY_COLUMNS,
+                FileHandler.enquiryParser(applicants, projectRepo), enquiryRepo, enquiryRepo::getById,
+                enquiryRepo::getResident, Enquiry::getEnquiryId,
+                enquiry -> Arrays.asList(enquiry.getProject().getProjectID(), enquiry.getApplicant().getId(),
+                        enquiry.getMessage(), enquiry.getResponse(), enquiry.getStatus()),
+                this::applyEnquiry, enquiry -> enquiry.getProject().getProjectID(), enquiryRepo::refreshHistory));
+
+        for (Table<?> table : tables) {
+            readBaseline(table);
+        }
+        watcher = directory.toPath().getFileSystem().newWatchService();
+        directory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+        thread = new Thread(this::run, "csv-reloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Remembers the files a save has staged, so that they are not read back
+     * once they replace the CSV files. Called just before the save commits.
+     *
+     * @param transaction The save about to be committed
+     */
+    public void expect(FileTransaction transaction) {
+        if (closed) {
+            return;
+        }
+        for (Table<?> table : tables) {
+            File staged = transaction.getStaged(table.file);
+            if (staged == null) {
+                continue;
+            }
+            try {
+                FileState state = FileState.read(staged.toPath());
+                if (state != null) {
+                    saved.put(table.file.getName(), state);
+                }
+            } catch (IOException e) {
+                // Then the file is read back like any other change
+                saved.remove(table.file.getName());
+            }
+        }
+    }
+
+    /**
+     * Remembers the files a save has appended rows to, so that the rows are
+     * not read back. Called just after the save commits, since an appended
+     * file's new version is only known then.
+     *
+     * @param files The files the save appended to
+     */
+    public void expectAppended(Collection<File> files) {
+        if (closed) {
+            return;
+        }
+        for (Table<?> table : tables) {
+            if (!files.contains(table.file)) {
+                continue;
+            }
+            try {
+                FileState state = FileState.read(table.file.toPath());
+                if (state != null) {
+                    saved.put(table.file.getName(), state);
+                }
+            } catch (IOException e) {
+                // Then the rows are read back like any other change
+                saved.remove(table.file.getName());
+            }
+        }
+    }
+
+    /**
+     * Applies the changes made to any file that have not been applied yet,
+     * without waiting for the directory to settle. Called before a save
+     * rewrites the files, so that it does not overwrite changes that are
+     * still to be read.
+     */
+    public void catchUp() {
+        if (!closed) {
+            check(tables);
+        }
+    }
+
+    /**
+     * Stops watching the data directory and waits for a reload in progress
+     * to finish.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the data directory watcher: " + e.getMessage());
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Collects the changed files until the directory settles, then applies
+     * them, until the reloader is closed.
+     */
+    private void run() {
+        Set<Table<?>> pending = new LinkedHashSet<>();
+        try {
+            while (!closed) {
+                WatchKey key = pending.isEmpty() ? watcher.take()
+                        : watcher.poll(settleMillis, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    // Quiet for the settle time: the writers have finished
+                    List<Table<?>> changed = new ArrayList<>();
+                    for (Table<?> table : tables) {
+                        if (pending.contains(table)) {
+                            changed.add(table);
+                        }
+                    }
+                    pending.clear();
+                    check(changed);
+                    continue;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        pending.addAll(tables);
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    for (Table<?> table : tables) {
+                        if (table.file.getName().equals(name)) {
+                            pending.add(table);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    System.err.println("The data directory can no longer be watched; "
+                            + "changes to the CSV files are read at the next start.");
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Applies the changes to the given files, in order.
+     *
+     * @param changed The files to check
+     */
+    private synchronized void check(List<Table<?>> changed) {
+        for (Table<?> table : changed) {
+            if (closed) {
+                return;
+            }
+            try {
+                reload(table);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error reloading " + table.file.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Remembers the rows of a file as the repository holds them, so that
+     * later changes are told from them.
+     *
+     * @param table The file
+     * @throws IOException If the file cannot be read
+     */
+    private <T> void readBaseline(Table<T> table) throws IOException {
+        Path path = table.file.toPath();
+        FileState state = FileState.read(path);
+        if (state == null) {
+            return;
+        }
+        Rows<T> rows = readRows(table, path, 0, state.size, false);
+        if (state.sameVersion(FileState.read(path))) {
+            table.lastRead = new HashMap<>(rows.checksums);
+            table.seen = state;
+        }
+        // Otherwise it changed while it was read; every row is compared with memory when it is read again
+    }
+
+    /**
+     * Applies the changes to one file since the repository last matched it.
+     *
+     * @param table The file to check
+     * @throws IOException If the file cannot be read
+     */
+    private <T> void reload(Table<T> table) throws IOException {
+        Path path = table.file.toPath();
+        FileState now = FileState.read(path);
+        FileState seen = table.seen;
+        if (now == null || now.sameVersion(seen)) {
+            // A missing file is left alone rather than emptying the repository
+            return;
+        }
+        boolean ownSave = now.sameVersion(saved.get(table.file.getName()));
+        if (ownSave) {
+            saved.remove(table.file.getName());
+        } else if (!FileHandler.isCsvCurrent()) {
+            // The next save rewrites the file from memory
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean appended = seen != null && Objects.equals(now.key, seen.key) && now.size > seen.size
+                && seen.endsInLineBreak
+                && checksum(readRange(path, Math.max(0, seen.size - TAIL_BYTES), seen.size)) == seen.tailChecksum;
+        // Memory already holds what a save wrote, so its rows are only remembered
+        Rows<T> rows = readRows(table, path, appended ? seen.size : 0, now.size, !ownSave);
+        if (!now.sameVersion(FileState.read(path))) {
+            // Still being written; the next event reads it again
+            return;
+        }
+        if (ownSave) {
+            remember(table, rows, appended);
+            table.seen = now;
+            return;
+        }
+
+        Set<String> cold = Collections.emptySet();
+        if (table.projectOf != null) {
+            FileHandler.reindexHistory(table.file, appended ? seen.size : -1);
+            cold = FileHandler.getColdProjects(table.file);
+        }
+
+        Map<String, BaseRepository.Change> unsaved = table.repo.getChanges();
+        Set<String> applied = new HashSet<>();
+        Set<String> changedCold = new HashSet<>();
+        int added = 0;
+        int updated = 0;
+        int deleted = 0;
+        int kept = 0;
+        for (Map.Entry<String, Long> entry : rows.checksums.entrySet()) {
+            String id = entry.getKey();
+            T row = rows.entities.get(id);
+            if (row == null || entry.getValue().equals(table.lastRead.get(id))) {
+                // Invalid, or not changed on disk since the file was last read
+                continue;
+            }
+            T existing = table.current.apply(id);
+            if (existing != null && table.fields.apply(existing).equals(table.fields.apply(row))) {
+                continue;
+            }
+            if (unsaved.containsKey(id)) {
+                kept++;
+                continue;
+            }
+            if (existing == null && table.projectOf != null && cold.contains(table.projectOf.apply(row))) {
+                // Left on disk, read from the new file when the project is needed
+                changedCold.add(table.projectOf.apply(row));
+                continue;
+            }
+            table.apply.accept(row);
+            applied.add(id);
+            if (existing == null) {
+                added++;
+            } else {
+                updated++;
+            }
+        }
+        if (!appended) {
+            Set<String> removed = new HashSet<>(table.lastRead.keySet());
+            removed.removeAll(rows.checksums.keySet());
+            for (T item : table.resident.get()) {
+                String id = table.idOf.apply(item);
+                if (!removed.contains(id)) {
+                    continue;
+                }
+                if (unsaved.containsKey(id)) {
+                    kept++;
+                    continue;
+                }
+                table.repo.delete(id);
+                applied.add(id);
+                deleted++;
+            }
+        }
+        remember(table, rows, appended);
+
+        // The file already holds what was applied
+        Map<String, BaseRepository.Change> written = new HashMap<>(table.repo.getChanges());
+        written.keySet().retainAll(applied);
+        table.repo.markSaved(written);
+
+        if (!changedCold.isEmpty()) {
+            table.refresh.accept(changedCold);
+        }
+        if (history != null && table.file.equals(new File(FileHandler.APPLICATION_FILE)) && !cold.isEmpty()
+                && (!appended || !changedCold.isEmpty())) {
+            // Rows left on disk may have changed under the columnar copy
+            history.invalidate();
+        }
+        table.seen = now;
+
+        if (added + updated + deleted + kept > 0) {
+            System.out.printf("Reloaded %s%s: %d added, %d updated, %d deleted%s in %d ms%n",
+                    table.file.getName(), appended ? " (appended rows)" : "", added, updated, deleted,
+                    kept > 0 ? ", " + kept + " kept with unsaved changes" : "",
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Reads the rows of a file, or of the part appended to it.
+     *
+     * @param table The file
+     * @param path The file's path
+     * @param from The first byte to read; past the header if rows were appended
+     * @param to The end of the file
+     * @param parse Whether to parse the rows into entities, or only take their checksums
+     * @return The rows
+     * @throws IOException If the file cannot be read or has no ID column
+     */
+    private <T> Rows<T> readRows(Table<T> table, Path path, long from, long to, boolean parse) throws IOException {
+        CsvHeader header;
+        CsvTokenizer csv;
+        if (from > 0) {
+            header = FileHandler.readHeader(table.file);
+            csv = new CsvTokenizer(readRange(path, from, to));
+        } else {
+            csv = new CsvTokenizer(readRange(path, 0, to));
+            csv.nextRecord();
+            header = new CsvHeader(csv);
+        }
+        int[] positions = header.positionsOf(table.columns);
+        if (positions[0] < 0) {
+            throw new IOException("no " + table.columns[0] + " column");
+        }
+        csv.setProjection(positions);
+
+        Rows<T> rows = new Rows<>();
+        while (csv.nextRecord()) {
+            if (csv.fieldCount() == 0 || csv.isEmpty(0)) {
+                continue;
+            }
+            String id = csv.getString(0);
+            // Moved to the end, so that the rows are applied in the order they were last written
+            rows.checksums.remove(id);
+            rows.checksums.put(id, rowChecksum(csv));
+            if (!parse) {
+                continue;
+            }
+            T row = table.parser.parse(csv);
+            if (row != null) {
+                rows.entities.put(id, row);
+            } else {
+                rows.entities.remove(id);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Remembers the rows read from a file, to tell later changes to them.
+     *
+     * @param table The file
+     * @param rows The rows read
+     * @param appended Whether the rows were appended; otherwise they are all the file's rows
+     */
+    private static <T> void remember(Table<T> table, Rows<T> rows, boolean appended) {
+        if (appended) {
+            table.lastRead.putAll(rows.checksums);
+        } else {
+            table.lastRead = new HashMap<>(rows.checksums);
+        }
+    }
+
+    /**
+     * Updates or adds an applicant, replacing a user of another role with the same ID.
+     *
+     * @param row The applicant read from the file
+     */
+    private void applyApplicant(Applicant row) {
+        User existing = userRepo.getById(row.getId());
+        if (existing instanceof Applicant && !(existing instanceof HdbManager)) {
+            Applicant applicant = (Applicant) existing;
+            updateUser(applicant, row);
+            applicant.setIncomeRange(row.getIncomeRange());
+            userRepo.update(applicant);
+        } else {
+            replaceUser(existing, row);
+        }
+    }
+
+    /**
+     * Updates or adds a manager, replacing a user of another role with the same ID.
+     *
+     * @param row The manager read from the file
+     */
+    private void applyManager(HdbManager row) {
+        User existing = userRepo.getById(row.getId());
+        if (existing instanceof HdbManager) {
+            HdbManager manager = (HdbManager) existing;
+            updateUser(manager, row);
+            manager.setIncomeRange(row.getIncomeRange());
+            userRepo.update(manager);
+        } else {
+            replaceUser(existing, row);
+        }
+    }
+
+    /**
+     * Updates or adds an officer, replacing a user of another role with the same ID.
+     *
+     * @param row The officer read from the file
+     */
+    private void applyOfficer(HdbOfficer row) {
+        User existing = userRepo.getById(row.getId());
+        if (existing instanceof HdbOfficer) {
+            HdbOfficer officer = (HdbOfficer) existing;
+            updateUser(officer, row);
+            officer.setRegistrationStatus(row.getRegistrationStatus());
+            userRepo.update(officer);
+        } else {
+            replaceUser(existing, row);
+        }
+    }
+
+    /**
+     * Copies the fields every user has.
+     *
+     * @param user The user in memory
+     * @param row The user read from the file
+     */
+    private void updateUser(User user, User row) {
+        user.setName(row.getName());
+        user.setPassword(row.getPassword());
+        user.setAge(row.getAge());
+        user.setMaritalStatus(row.getMaritalStatus());
+    }
+
+    /**
+     * Stores a user in place of a user of another role, or of none.
+     *
+     * @param existing The user with the same ID, or null
+     * @param row The user read from the file
+     */
+    private void replaceUser(User existing, User row) {
+        if (existing != null) {
+            userRepo.delete(existing.getId());
+        }
+        userRepo.add(row);
+    }
+
+    /**
+     * Updates a project in place, or adds it to the repository and to its
+     * manager's projects.
+     *
+     * @param row The project read from the file
+     */
+    private void applyProject(Project row) {
+        Project project = projectRepo.getById(row.getProjectID());
+        if (project == null) {
+            for (HdbManager manager : userRepo.getManagers()) {
+                if (manager.getName().equals(row.getManagerInCharge())) {
+                    manager.getProjectsCreated().add(row);
+                }
+            }
+            projectRepo.add(row);
+            return;
+        }
+
+        project.setProjectName(row.getProjectName());
+        project.setNeighborhood(row.getNeighborhood());
+        project.setFlatType(row.getFlatType());
+        project.setFloorCount(row.getFloorCount());
+        project.setPricePerFlat(row.getPricePerFlat());
+        project.setThresholdPrice(row.getThresholdPrice());
+        project.setApplicationOpenDate(row.getApplicationOpenDate());
+        project.setApplicationCloseDate(row.getApplicationCloseDate());
+        project.setVisible(row.isVisible());
+        project.setAvailableOfficerSlots(row.getAvailableOfficerSlots());
+        project.setTwoRoomUnitsAvailable(row.getTwoRoomUnitsAvailable());
+        project.setThreeRoomUnitsAvailable(row.getThreeRoomUnitsAvailable());
+        project.setManagerInCharge(row.getManagerInCharge());
+        projectRepo.update(project);
+    }
+
+    /**
+     * Updates an application in place if it is still for the same applicant
+     * and project, or stores the one read from the file.
+     *
+     * @param row The application read from the file
+     */
+    private void applyApplication(Application row) {
+        Application application = appRepo.getById(row.getApplicationId());
+        if (application == null || application.getApplicant() != row.getApplicant()
+                || application.getProject() != row.getProject()) {
+            application = row;
+        } else {
+            application.setSelectedFlatType(row.getSelectedFlatType());
+            application.updateStatus(row.getStatus());
+            if (row.isWithdrawalRequested()) {
+                application.requestWithdrawal();
+            } else {
+                application.clearWithdrawalRequest();
+            }
+        }
+        if (application.getStatus() == ApplicationStatus.BOOKED) {
+            application.getApplicant().setBookedFlat(application.getSelectedFlatType());
+            application.getApplicant().setBookedProject(application.getProject());
+        }
+        // add stores the application whether or not it already exists
+        appRepo.add(application);
+    }
+
+    /**
+     * Updates an enquiry in place if it is still for the same applicant and
+     * project and was not un-replied, or stores the one read from the file.
+     *
+     * @param row The enquiry read from the file
+     */
+    private void applyEnquiry(Enquiry row) {
+        Enquiry enquiry = enquiryRepo.getById(row.getEnquiryId());
+        boolean replied = row.getStatus() == EnquiryStatus.REPLIED;
+        if (enquiry == null || enquiry.getApplicant() != row.getApplicant()
+                || enquiry.getProject() != row.getProject()
+                || (!replied && enquiry.getStatus() == EnquiryStatus.REPLIED)) {
+            enquiry = row;
+        } else {
+            enquiry.setMessage(row.getMessage());
+            if (replied) {
+                enquiry.reply(row.getResponse());
+            }
+        }
+        enquiryRepo.add(enquiry);
+    }
+
+    /**
+     * Reads a range of a file.
+     *
+     * @param path The file
+     * @param from The first byte to read
+     * @param to The end of the range
+     * @return The bytes, ready to be read
+     * @throws IOException If the file cannot be read or is shorter than the range
+     */
+    private static ByteBuffer readRange(Path path, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+        try (FileChannel channel = FileChannel.open(path)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, from + buffer.position()) < 0) {
+                    throw new IOException(path.getFileName() + " shrank while it was read");
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Computes a checksum of the fields of the current row, from two
+     * independent 32-bit checksums so that a changed row is not taken for
+     * an unchanged one.
+     *
+     * @param csv The tokenizer positioned on the row
+     * @return The checksum
+     */
+    private static long rowChecksum(CsvTokenizer csv) {
+        CRC32 crc = new CRC32();
+        Adler32 adler = new Adler32();
+        for (int i = 0; i < csv.fieldCount(); i++) {
+            // Each field ends in a separator, so that moving text between fields changes the checksum
+            byte[] field = (csv.getString(i) + '\0').getBytes(StandardCharsets.UTF_8);
+            crc.update(field);
+            adler.update(field);
+        }
+        return crc.getValue() << 32 | adler.getValue();
+    }
+
+    /**
+     * Computes the checksum of some bytes, leaving the buffer's position as it is.
+     *
+     * @param bytes The bytes
+     * @return The CRC-32 of the bytes
+     */
+    private static long checksum(ByteBuffer bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes.duplicate());
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,100 @@
+package sc2002.bto.util;
+
+import java.util.List;
+import sc2002.bto.entity.Receipt;
+import sc2002.bto.interfaces.IStorageEngine;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Storage engine keeping the data in the CSV files, with the binary snapshot
+ * and change journal next to them; see {@link FileHandler#loadAllData}.
+ * This is the default engine.
+ */
+public class CsvStorage implements IStorageEngine {
+    /**
+     * Gets the name of the engine.
+     *
+     * @return "csv"
+     */
+    @Override
+    public String getName() {
+        return "csv";
+    }
+
+    /**
+     * Loads the CSV files, or the snapshot if it is newer, and replays the journal.
+     *
+     * @param userRepo The user repository to populate
+     * @param projectRepo The project repository to populate
+     * @param appRepo The application repository to populate
+     * @param enquiryRepo The enquiry repository to populate
+     * @return true if the stored data was loaded, false otherwise
+     */
+    @Override
+    public boolean load(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        return FileHandler.loadAllData(userRepo, projectRepo, appRepo, enquiryRepo);
+    }
+
+    /**
+     * Forces the journaled changes to disk.
+     *
+     * @param userRepo The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @return true if saving was successful, false otherwise
+     */
+    @Override
+    public boolean saveChanges(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        return FileHandler.saveChanges(userRepo, projectRepo, appRepo, enquiryRepo);
+    }
+
+    /**
+     * Folds the journaled changes into the CSV files and snapshot, and empties the journal.
+     *
+     * @param userRepo The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @return true if saving was successful, false otherwise
+     */
+    @Override
+    public boolean saveAll(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        return FileHandler.saveAllData(userRepo, projectRepo, appRepo, enquiryRepo);
+    }
+
+    /**
+     * Reads the receipt file.
+     *
+     * @return The stored receipts in file order
+     */
+    @Override
+    public List<Receipt> loadReceipts() {
+        return FileHandler.loadReceipts();
+    }
+
+    /**
+     * Appends a receipt to the receipt file.
+     *
+     * @param receipt The receipt to store
+     * @return true if the receipt was stored, false otherwise
+     */
+    @Override
+    public boolean appendReceipt(Receipt receipt) {
+        return FileHandler.appendReceipt(receipt);
+    }
+
+    /**
+     * Closes the journal.
+     */
+    @Override
+    public void close() {
+        FileHandler.closeJournal();
+    }
+}
@@ -0,0 +1,614 @@
+package sc2002.bto.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming tokenizer for RFC 4180 CSV data.
+ * Reads one record at a time from a {@link Reader}, straight from a char
+ * array, or from UTF-8 bytes in a {@link ByteBuffer} (such as a memory-mapped
+ * file), and splits it into fields without creating a String per field.
+ * Fields may be quoted, in which case they can contain commas, line breaks
+ * and doubled quotes ({@code ""}). Records may end in LF or CRLF.
+ * <p>
+ * Field values are kept in a record buffer that is reused for every record,
+ * and the typed getters parse numbers, booleans and enums directly from that
+ * buffer. Only {@link #getString(int)} allocates. All getters ignore leading
+ * and trailing whitespace around the field value.
+ * <p>
+ * A projection set with {@link #setProjection(int[])} restricts the
+ * tokenizer to some columns: the others are stepped over without being
+ * decoded or copied, and the fields are numbered in projection order.
+ * <p>
+ * A tokenizer is not thread-safe; use one per file.
+ */
+public class CsvTokenizer implements Closeable {
+    /** Size of the read buffer used when streaming from a Reader */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /** Largest power of ten that is exactly representable as a double */
+    private static final int MAX_EXACT_POWER_OF_TEN = 22;
+    /** Largest mantissa that is exactly representable as a double */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    /** Char returned in place of malformed UTF-8 input */
+    private static final char REPLACEMENT_CHAR = '\uFFFD';
+    private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_POWER_OF_TEN + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /** Source of further input, or null once the input is fully buffered */
+    private Reader reader;
+    /** Input buffer */
+    private char[] buf;
+    /** Position of the next char to read in buf */
+    private int pos;
+    /** Number of valid chars in buf */
+    private int limit;
+    /** A char given back after looking one char ahead, or -2 if none */
+    private int pushback = -2;
+    /** UTF-8 input, or null when reading chars */
+    private ByteBuffer bytes;
+    /** Second half of a surrogate pair decoded from UTF-8, or -2 if none */
+    private int pendingLowSurrogate = -2;
+
+    /** Unescaped field values of the current record, back to back */
+    private char[] record = new char[256];
+    /** Number of chars used in record */
+    private int recordLength;
+    /** Start offset of each field in record */
+    private int[] starts = new int[16];
+    /** End offset (exclusive) of each field in record */
+    private int[] ends = new int[16];
+    /** Number of fields in the current record */
+    private int fieldCount;
+    /** Column read into each field, -1 for a field that is always empty, or null to read every column */
+    private int[] projection;
+    /** Field each column is read into, -1 for a column that is skipped */
+    private int[] fieldOfColumn;
+
+    /** Enum constants by enum class, cached because getEnumConstants() copies */
+    private final Map<Class<?>, Object[]> enumConstants = new HashMap<>();
+
+    /**
+     * Creates a tokenizer that streams from a Reader.
+     *
+     * @param reader The source of CSV data
+     */
+    public CsvTokenizer(Reader reader) {
+        this.reader = reader;
+        this.buf = new char[READ_BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a tokenizer over CSV data already held in memory.
+     * The array is read in place and must not change while it is tokenized.
+     *
+     * @param data The CSV data
+     * @param length The number of chars of data to use
+     */
+    public CsvTokenizer(char[] data, int length) {
+        this.buf = data;
+        this.limit = length;
+    }
+
+    /**
+     * Creates a tokenizer over UTF-8 encoded CSV data.
+     * Reads from the buffer's position to its limit, decoding bytes as it goes;
+     * delimiters are all ASCII, so records are found at the byte level.
+     *
+     * @param utf8 The CSV data; its position advances as records are read
+     */
+    public CsvTokenizer(ByteBuffer utf8) {
+        this.bytes = utf8;
+        this.buf = new char[0];
+    }
+
+    /**
+     * Restricts the tokenizer to some columns, for example to the columns a
+     * caller found by name in the header. Field {@code i} then holds column
+     * {@code columns[i]} of each record, or is empty if {@code columns[i]} is
+     * -1. Columns that are not listed are skipped without being decoded.
+     * <p>
+     * With a projection, {@link #fieldCount()} counts the leading fields whose
+     * columns the record has, so a record cut short is recognised as before.
+     *
+     * @param columns The column to read into each field, or null to read every column
+     */
+    public void setProjection(int[] columns) {
+        if (columns == null) {
+            projection = null;
+            fieldOfColumn = null;
+            return;
+        }
+        int width = 0;
+        for (int column : columns) {
+            width = Math.max(width, column + 1);
+        }
+        int[] fields = new int[width];
+        Arrays.fill(fields, -1);
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] >= 0) {
+                fields[columns[i]] = i;
+            }
+        }
+        if (starts.length < columns.length) {
+            starts = new int[columns.length];
+            ends = new int[columns.length];
+        }
+        projection = columns.clone();
+        fieldOfColumn = fields;
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return true if a record was read, false at the end of the input
+     * @throws IOException If the underlying reader fails
+     */
+    public boolean nextRecord() throws IOException {
+        fieldCount = 0;
+        recordLength = 0;
+        if (projection != null) {
+            // Fields whose column the record lacks read as empty
+            Arrays.fill(starts, 0, projection.length, 0);
+            Arrays.fill(ends, 0, projection.length, 0);
+        }
+
+        int c = read();
+        if (c == -1) {
+            return false;
+        }
+        int column = 0;
+        while (true) {
+            int field = projection == null ? -2
+                    : column < fieldOfColumn.length ? fieldOfColumn[column] : -1;
+            if (field == -1) {
+                c = skipField(c);
+                column++;
+                if (c == ',') {
+                    c = read();
+                    continue;
+                }
+                return endRecord(c, column);
+            }
+            int start = recordLength;
+            if (c == '"') {
+                c = read();
+                while (c != -1) {
+                    if (c == '"') {
+                        c = read();
+                        if (c != '"') {
+                            break; // closing quote
+                        }
+                    }
+                    append((char) c);
+                    c = read();
+                }
+            }
+            // Unquoted field, or anything after a closing quote up to the delimiter
+            while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+                append((char) c);
+                c = read();
+            }
+            if (field >= 0) {
+                starts[field] = start;
+                ends[field] = recordLength;
+            } else {
+                endField(start);
+            }
+            column++;
+
+            if (c == ',') {
+                c = read();
+                continue;
+            }
+            return endRecord(c, column);
+        }
+    }
+
+    /**
+     * Finishes a record at its line break or the end of the input.
+     *
+     * @param c The char that ended the last field
+     * @param columns The number of columns in the record
+     * @return true
+     */
+    private boolean endRecord(int c, int columns) throws IOException {
+        if (c == '\r') {
+            int next = read();
+            if (next != '\n' && next != -1) {
+                pushback = next;
+            }
+        }
+        if (projection != null) {
+            int count = 0;
+            while (count < projection.length && projection[count] < columns) {
+                count++;
+            }
+            fieldCount = count;
+        }
+        return true;
+    }
+
+    /**
+     * Steps over a field that is not projected, without decoding or storing it.
+     *
+     * @param c The first char of the field
+     * @return The char that ended the field
+     */
+    private int skipField(int c) throws IOException {
+        if (c == '"') {
+            c = readUndecoded();
+            while (c != -1) {
+                if (c == '"') {
+                    c = readUndecoded();
+                    if (c != '"') {
+                        break; // closing quote
+                    }
+                }
+                c = readUndecoded();
+            }
+        }
+        while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+            c = readUndecoded();
+        }
+        return c;
+    }
+
+    /**
+     * Gets the position in the UTF-8 input at which the next record starts,
+     * for locating records in a file. Exact for records that end in LF or CRLF.
+     *
+     * @return The byte offset of the next record in the ByteBuffer
+     */
+    public int nextRecordOffset() {
+        return bytes.position() - (pushback != -2 ? 1 : 0);
+    }
+
+    /**
+     * Gets the number of fields in the current record.
+     *
+     * @return The field count
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Checks whether a field is empty or only whitespace.
+     *
+     * @param field The zero-based field index
+     * @return true if the field has no value
+     */
+    public boolean isEmpty(int field) {
+        return trimmedStart(field) == trimmedEnd(field);
+    }
+
+    /**
+     * Gets a field as a String, with surrounding whitespace removed.
+     *
+     * @param field The zero-based field index
+     * @return The field value
+     */
+    public String getString(int field) {
+        int start = trimmedStart(field);
+        return new String(record, start, trimmedEnd(field) - start);
+    }
+
+    /**
+     * Checks whether a field equals a value, ignoring case.
+     *
+     * @param field The zero-based field index
+     * @param value The value to compare with
+     * @return true if the field equals the value
+     */
+    public boolean equalsIgnoreCase(int field, String value) {
+        int start = trimmedStart(field);
+        int end = trimmedEnd(field);
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char a = record[i];
+            char b = value.charAt(i - start);
+            if (a != b && Character.toUpperCase(a) != Character.toUpperCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a field as a decimal int.
+     *
+     * @param field The zero-based field index
+     * @return The parsed value
+     * @throws NumberFormatException If the field is not a valid int
+     */
+    public int getInt(int field) {
+        int start = trimmedStart(field);
+        int end = trimmedEnd(field);
+        boolean negative = false;
+        int i = start;
+        if (i < end && (record[i] == '-' || record[i] == '+')) {
+            negative = record[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = record[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses a field as a double.
+     * Plain decimals such as {@code 125000.0} are parsed in place and rounded
+     * exactly like {@link Double#parseDouble(String)}; anything else (exponents,
+     * very long mantissas, NaN) falls back to it.
+     *
+     * @param field The zero-based field index
+     * @return The parsed value
+     * @throws NumberFormatException If the field is not a valid double
+     */
+    public double getDouble(int field) {
+        int start = trimmedStart(field);
+        int end = trimmedEnd(field);
+        boolean negative = false;
+        int i = start;
+        if (i < end && (record[i] == '-' || record[i] == '+')) {
+            negative = record[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            char c = record[i];
+            if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (seenPoint) {
+                    scale++;
+                }
+                if (mantissa >= MAX_EXACT_MANTISSA) {
+                    break;
+                }
+            } else {
+                break;
+            }
+        }
+        if (i != end || digits == 0 || mantissa >= MAX_EXACT_MANTISSA || scale > MAX_EXACT_POWER_OF_TEN) {
+            return Double.parseDouble(getString(field));
+        }
+        // Both operands are exact, so one division gives the correctly rounded result
+        double value = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a field as a boolean, following {@link Boolean#parseBoolean(String)}.
+     *
+     * @param field The zero-based field index
+     * @return true if the field is "true" ignoring case, false otherwise
+     */
+    public boolean getBoolean(int field) {
+        return equalsIgnoreCase(field, "true");
+    }
+
+    /**
+     * Parses a field as an enum constant by name, ignoring case.
+     *
+     * @param field The zero-based field index
+     * @param type The enum class
+     * @param defaultValue The value to return if no constant matches
+     * @param <E> The enum type
+     * @return The matching constant, or the default value
+     */
+    @SuppressWarnings("unchecked")
+    public <E extends Enum<E>> E getEnum(int field, Class<E> type, E defaultValue) {
+        Object[] constants = enumConstants.computeIfAbsent(type, Class::getEnumConstants);
+        for (Object constant : constants) {
+            if (equalsIgnoreCase(field, ((E) constant).name())) {
+                return (E) constant;
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Closes the underlying reader, if any.
+     *
+     * @throws IOException If closing the reader fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    /**
+     * Reads the next input char, refilling the buffer from the reader as needed.
+     */
+    private int read() throws IOException {
+        if (pushback != -2) {
+            int c = pushback;
+            pushback = -2;
+            return c;
+        }
+        if (bytes != null) {
+            if (pendingLowSurrogate != -2) {
+                int c = pendingLowSurrogate;
+                pendingLowSurrogate = -2;
+                return c;
+            }
+            if (!bytes.hasRemaining()) {
+                return -1;
+            }
+            byte b = bytes.get();
+            return b >= 0 ? b : decodeUtf8(b & 0xFF);
+        }
+        if (pos == limit) {
+            if (reader == null) {
+                return -1;
+            }
+            int n = reader.read(buf, 0, buf.length);
+            if (n <= 0) {
+                return -1;
+            }
+            pos = 0;
+            limit = n;
+        }
+        return buf[pos++];
+    }
+
+    /**
+     * Reads the next input char, or for UTF-8 input the next raw byte.
+     * Good enough to find delimiters, which are all ASCII, while skipping:
+     * the bytes of a multi-byte sequence are never mistaken for them.
+     */
+    private int readUndecoded() throws IOException {
+        if (bytes == null || pushback != -2 || pendingLowSurrogate != -2) {
+            return read();
+        }
+        return bytes.hasRemaining() ? bytes.get() & 0xFF : -1;
+    }
+
+    /**
+     * Decodes the rest of a multi-byte UTF-8 sequence.
+     * Code points outside the BMP are returned as a surrogate pair over two
+     * calls to {@link #read()}. Malformed sequences decode to U+FFFD, one per
+     * maximal invalid subsequence like the JDK's decoder: that includes
+     * overlong encodings, encoded surrogates and code points above U+10FFFF,
+     * which are caught by the range allowed for the byte after the lead byte.
+     */
+    private int decodeUtf8(int lead) {
+        int extra;
+        int codePoint;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            extra = 1;
+            codePoint = lead & 0x1F;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            extra = 2;
+            codePoint = lead & 0x0F;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            extra = 3;
+            codePoint = lead & 0x07;
+        } else {
+            return REPLACEMENT_CHAR;
+        }
+        // Allowed range of the second byte (Unicode table 3-7)
+        int lower = lead == 0xE0 ? 0xA0 : lead == 0xF0 ? 0x90 : 0x80;
+        int upper = lead == 0xED ? 0x9F : lead == 0xF4 ? 0x8F : 0xBF;
+        for (int i = 0; i < extra; i++) {
+            if (!bytes.hasRemaining()) {
+                return REPLACEMENT_CHAR;
+            }
+            int next = bytes.get(bytes.position()) & 0xFF;
+            if (next < lower || next > upper) {
+                return REPLACEMENT_CHAR; // leave the byte to start the next char
+            }
+            bytes.get();
+            codePoint = (codePoint << 6) | (next & 0x3F);
+            lower = 0x80;
+            upper = 0xBF;
+        }
+        if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            pendingLowSurrogate = Character.lowSurrogate(codePoint);
+            return Character.highSurrogate(codePoint);
+        }
+        return codePoint;
+    }
+
+    /**
+     * Appends a char to the current field, growing the record buffer if needed.
+     */
+    private void append(char c) {
+        if (recordLength == record.length) {
+            char[] grown = new char[record.length * 2];
+            System.arraycopy(record, 0, grown, 0, recordLength);
+            record = grown;
+        }
+        record[recordLength++] = c;
+    }
+
+    /**
+     * Records the bounds of the field that was just read.
+     */
+    private void endField(int start) {
+        if (fieldCount == starts.length) {
+            int[] grownStarts = new int[starts.length * 2];
+            int[] grownEnds = new int[ends.length * 2];
+            System.arraycopy(starts, 0, grownStarts, 0, fieldCount);
+            System.arraycopy(ends, 0, grownEnds, 0, fieldCount);
+            starts = grownStarts;
+            ends = grownEnds;
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = recordLength;
+        fieldCount++;
+    }
+
+    /**
+     * Gets the start of a field with leading whitespace skipped.
+     */
+    private int trimmedStart(int field) {
+        checkField(field);
+        int start = starts[field];
+        int end = ends[field];
+        while (start < end && record[start] <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Gets the end of a field with trailing whitespace skipped, never before
+     * its trimmed start, so a field of only whitespace reads as empty.
+     */
+    private int trimmedEnd(int field) {
+        int start = trimmedStart(field);
+        int end = ends[field];
+        while (end > start && record[end - 1] <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Checks that a field index lies within the current record.
+     */
+    private void checkField(int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + field + " of " + fieldCount);
+        }
+    }
+}
@@ -3,25 +3,55 @@ package sc2002.bto.util;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import sc2002.bto.entity.Applicant;
 import sc2002.bto.entity.Application;
 import sc2002.bto.entity.Enquiry;
 import sc2002.bto.entity.HdbManager;
 import sc2002.bto.entity.HdbOfficer;
 import sc2002.bto.entity.Project;
+import sc2002.bto.entity.Receipt;
 import sc2002.bto.entity.User;
 import sc2002.bto.enums.ApplicationStatus;
+import sc2002.bto.enums.ChangeType;
 import sc2002.bto.enums.FlatType;
 import sc2002.bto.enums.MaritalStatus;
 import sc2002.bto.enums.OfficerRegistrationStatus;
+import sc2002.bto.interfaces.IHistorySource;
+import sc2002.bto.interfaces.IStorageEngine;
 import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.BaseRepository;
 import sc2002.bto.repository.EnquiryRepository;
 import sc2002.bto.repository.ProjectRepository;
 import sc2002.bto.repository.UserRepository;
@@ -32,21 +62,106 @@ import sc2002.bto.repository.UserRepository;
  * 
  */
 public class FileHandler {
-    private static final String DATA_DIR = "data/";
+    static final String DATA_DIR = "data/";
     // Constants for file paths
-    private static final String APPLICANT_FILE = DATA_DIR + "ApplicantList.csv";
-    private static final String MANAGER_FILE = DATA_DIR + "ManagerList.csv";
-    private static final String OFFICER_FILE = DATA_DIR + "OfficerList.csv";
-    private static final String PROJECT_FILE = DATA_DIR + "ProjectList.csv";
-    private static final String APPLICATION_FILE = DATA_DIR + "ApplicationList.csv";
-    private static final String ENQUIRY_FILE = DATA_DIR + "EnquiryList.csv";
+    static final String APPLICANT_FILE = DATA_DIR + "ApplicantList.csv";
+    static final String MANAGER_FILE = DATA_DIR + "ManagerList.csv";
+    static final String OFFICER_FILE = DATA_DIR + "OfficerList.csv";
+    static final String PROJECT_FILE = DATA_DIR + "ProjectList.csv";
+    static final String APPLICATION_FILE = DATA_DIR + "ApplicationList.csv";
+    static final String ENQUIRY_FILE = DATA_DIR + "EnquiryList.csv";
     private static final String RECEIPT_FILE = DATA_DIR + "ReceiptList.csv";
+    private static final String SNAPSHOT_FILE = DATA_DIR + "snapshot.bin";
+    static final String JOURNAL_FILE = DATA_DIR + "journal.log";
+    /** Snapshot and change log of the append-log storage engine */
+    private static final String LOG_SNAPSHOT_FILE = DATA_DIR + "store.snapshot";
+    private static final String LOG_FILE = DATA_DIR + "store.log";
+    /** Present while the snapshot holds changes that the CSV files do not */
+    private static final String CSV_STALE_FILE = DATA_DIR + "csv.stale";
+    /** Columnar export of the applications of closed projects, used by reports */
+    static final String HISTORY_COLUMNS_FILE = DATA_DIR + "ApplicationHistory.col";
+    // Columns of each file, in the order they are written; loaders find them by name
+    static final String[] USER_COLUMNS = { "ID", "Name", "Password", "Age", "MaritalStatus", "Income" };
+    static final String[] OFFICER_COLUMNS = { "ID", "Name", "Password", "Age", "MaritalStatus",
+            "HandlingProjectID", "RegistrationStatus" };
+    static final String[] PROJECT_COLUMNS = { "ProjectID", "ProjectName", "Neighborhood", "FlatTypes",
+            "FloorCount", "PricePerFlat", "ThresholdPrice", "OpenDate", "CloseDate", "Visible", "OfficerSlots",
+            "TwoRoomUnits", "ThreeRoomUnits", "ManagerInCharge" };
+    static final String[] APPLICATION_COLUMNS = { "ApplicationID", "ApplicantID", "ProjectID",
+            "ApplicationDate", "Status", "FlatType", "WithdrawalRequested" };
+    static final String[] ENQUIRY_COLUMNS = { "EnquiryID", "ProjectID", "ApplicantID", "Message", "Response",
+            "Status" };
+    private static final String[] RECEIPT_COLUMNS = { "ReceiptID", "Name", "NRIC", "Age", "MaritalStatus",
+            "ProjectID", "Neighborhood", "Price", "FlatType", "BookingDate" };
+    /** Suffix of the row index kept next to a CSV file whose history is loaded on demand */
+    private static final String INDEX_SUFFIX = ".idx";
+    /** Number of CSV files read in parallel at startup */
+    private static final int LOADED_FILE_COUNT = 6;
+    /** Size in bytes above which a data file is memory-mapped and parsed in parallel chunks */
+    private static final long MAPPED_LOAD_THRESHOLD = 32L * 1024 * 1024;
+    /** Journal records buffered before they are forced to disk (-Dbto.journal.syncEvery) */
+    private static final int JOURNAL_SYNC_EVERY = Integer.getInteger("bto.journal.syncEvery", 32);
+    /** Longest time journal records stay buffered (-Dbto.journal.syncIntervalMs) */
+    private static final long JOURNAL_SYNC_INTERVAL_MS = Long.getLong("bto.journal.syncIntervalMs", 200);
+    /** Longest time between background checkpoints (-Dbto.checkpoint.intervalMs) */
+    private static final long CHECKPOINT_INTERVAL_MS = Long.getLong("bto.checkpoint.intervalMs", 5 * 60 * 1000);
+    /** Journal size that triggers an early checkpoint */
+    private static final long CHECKPOINT_JOURNAL_BYTES = 64L * 1024 * 1024;
+    /** Time between background flushes of the journal while there are new writes */
+    private static final long WRITE_BEHIND_INTERVAL_MS = Long.getLong("bto.writeBehind.intervalMs", 2000);
+    /** Number of writes since the last background flush that starts one early */
+    private static final int WRITE_BEHIND_DIRTY_THRESHOLD = Integer.getInteger("bto.writeBehind.dirtyThreshold", 256);
+    /** Whether applications and enquiries of closed projects stay on disk until needed (-Dbto.lazyHistory=true) */
+    private static final boolean LAZY_HISTORY = Boolean.getBoolean("bto.lazyHistory");
+    /** Closed projects whose history is kept in memory at once (-Dbto.lazyHistory.cachedProjects) */
+    private static final int LAZY_HISTORY_CACHED_PROJECTS = Integer.getInteger("bto.lazyHistory.cachedProjects", 8);
+    /** Storage engine the data is kept in: csv, log or jdbc (-Dbto.storage) */
+    private static final String STORAGE_ENGINE = System.getProperty("bto.storage", "csv");
+    /** Database of the jdbc storage engine (-Dbto.storage.url, -Dbto.storage.user, -Dbto.storage.password) */
+    private static final String STORAGE_URL = System.getProperty("bto.storage.url", "jdbc:h2:./data/bto");
+    private static final String STORAGE_USER = System.getProperty("bto.storage.user", "sa");
+    private static final String STORAGE_PASSWORD = System.getProperty("bto.storage.password", "");
+    /** Whether changes other programs make to the CSV files are applied while running (-Dbto.reload) */
+    private static final boolean RELOAD = Boolean.parseBoolean(System.getProperty("bto.reload", "true"));
+    /** Time the data directory must be quiet before changed files are read (-Dbto.reload.settleMs) */
+    private static final long RELOAD_SETTLE_MS = Long.getLong("bto.reload.settleMs", 200);
+
+    /** Journal of changes since the last checkpoint, null until data is loaded or if it cannot be opened */
+    private static Journal journal;
+    /** Keeps saves of the CSV files and snapshot checkpoints from running at once */
+    private static final Object SAVE_LOCK = new Object();
+    /** Whether the CSV files may differ from the loaded state, so the next save must rewrite them all */
+    private static boolean csvStale = true;
+    /** Set when neither the CSV files nor the snapshot could be loaded; saving is then refused */
+    private static boolean loadFailed;
+    /** Applications of closed projects left on disk, null unless they are loaded on demand */
+    private static CsvHistory<Application> applicationHistory;
+    /** Enquiries of closed projects left on disk, null unless they are loaded on demand */
+    private static CsvHistory<Enquiry> enquiryHistory;
+    /** Applies changes other programs make to the CSV files, null unless they are watched */
+    private static volatile CsvReloader reloader;
 
     // Date formatter for consistent date format handling
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
 
     /**
      * Loads all data from files into the system repositories.
+     * If a binary snapshot newer than every CSV file exists, it is loaded
+     * instead of the CSV files; the CSV files stay the import and export
+     * format, so editing one makes the next start read the CSV files again.
+     * All files are opened in parallel on a thread pool; each is then tokenized
+     * and linked in dependency order (users, then projects, then applications
+     * and enquiries side by side), each phase starting once its file is open.
+     * Large files are memory-mapped and tokenized in parallel chunks.
+     * With -Dbto.lazyHistory=true the applications and enquiries of closed
+     * projects are left on disk until a lookup needs them instead.
+     * <p>
+     * The change journal is then replayed on top, and from then on every
+     * repository write is journaled; see {@link #saveChanges}.
+     * <p>
+     * Once the base data is loaded the repositories are marked as saved when
+     * the CSV files hold the same data, so that the next save only writes what
+     * changed since; see {@link #saveAllData}.
      * 
      * @param userRepo    The user repository to populate
      * @param projectRepo The project repository to populate
@@ -56,30 +171,193 @@ public class FileHandler {
      */
     public static boolean loadAllData(UserRepository userRepo, ProjectRepository projectRepo,
             ApplicationRepository applicationRepo, EnquiryRepository enquiryRepo) {
+        boolean loaded = loadBaseData(userRepo, projectRepo, applicationRepo, enquiryRepo, LAZY_HISTORY);
+        if (!csvStale && !loadFailed && !hasStandardColumns()) {
+            // Rows cannot be appended to a file with other columns, so the next save rewrites the files
+            csvStale = true;
+        }
+        if (!csvStale) {
+            // Replayed journal records then count as changes to the CSV files
+            markSaved(userRepo, projectRepo, applicationRepo, enquiryRepo);
+        }
+        if (!loadFailed) {
+            // Without a base to apply it to, the journal is left as it is for the next start
+            openJournal(userRepo, projectRepo, applicationRepo, enquiryRepo);
+        }
+        return loaded;
+    }
+
+    /**
+     * Creates the storage engine chosen with -Dbto.storage:
+     * <ul>
+     * <li>csv (default): the CSV files, with snapshot and journal; see {@link #loadAllData}</li>
+     * <li>log: a binary snapshot and an append-only change log; see {@link LogStorage}</li>
+     * <li>jdbc: an embedded database such as H2 or SQLite, at -Dbto.storage.url; see {@link JdbcStorage}</li>
+     * </ul>
+     * The log and jdbc engines import the CSV files the first time they start.
+     * If the database driver is not on the classpath, the CSV files are used instead.
+     * 
+     * @return The storage engine
+     */
+    public static IStorageEngine createStorage() {
+        switch (STORAGE_ENGINE.trim().toLowerCase(Locale.ROOT)) {
+            case "csv":
+                return new CsvStorage();
+            case "log":
+                return new LogStorage(new File(LOG_SNAPSHOT_FILE), new File(LOG_FILE), JOURNAL_SYNC_EVERY,
+                        JOURNAL_SYNC_INTERVAL_MS, CHECKPOINT_INTERVAL_MS, CHECKPOINT_JOURNAL_BYTES);
+            case "jdbc":
+                try {
+                    DriverManager.getDriver(STORAGE_URL);
+                    return new JdbcStorage(STORAGE_URL, STORAGE_USER, STORAGE_PASSWORD,
+                            LAZY_HISTORY_CACHED_PROJECTS);
+                } catch (SQLException e) {
+                    System.err.println("No database driver for " + STORAGE_URL + ", using the CSV files instead.");
+                    return new CsvStorage();
+                }
+            default:
+                System.err.println("Unknown storage engine " + STORAGE_ENGINE + ", using the CSV files instead.");
+                return new CsvStorage();
+        }
+    }
+
+    /**
+     * Opens the columnar export of the applications of closed projects, which
+     * reports count instead of loading those applications. It only covers the
+     * projects whose applications are left on disk, with -Dbto.lazyHistory or
+     * the jdbc engine.
+     * 
+     * @param appRepo The loaded application repository
+     * @return The columnar history
+     */
+    public static ColumnarHistory openColumnarHistory(ApplicationRepository appRepo) {
+        return new ColumnarHistory(new File(HISTORY_COLUMNS_FILE), appRepo);
+    }
+
+    /**
+     * Loads everything the CSV files, snapshot and journal hold, for another
+     * storage engine to import. All history is loaded and nothing is journaled,
+     * so the CSV files are left as they are for the other engine to replace.
+     * 
+     * @param userRepo    The user repository to populate
+     * @param projectRepo The project repository to populate
+     * @param applicationRepo The application repository to populate
+     * @param enquiryRepo The enquiry repository to populate
+     * @return true if loading was successful, false if default data was created or loading failed
+     */
+    public static boolean importAllData(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository applicationRepo, EnquiryRepository enquiryRepo) {
+        boolean loaded = loadBaseData(userRepo, projectRepo, applicationRepo, enquiryRepo, false);
+        File journalFile = new File(JOURNAL_FILE);
+        if (!loadFailed && (journalFile.length() > 0 || Journal.isCheckpointInterrupted(journalFile))) {
+            try (Journal pending = new Journal(journalFile, JOURNAL_SYNC_EVERY, 0)) {
+                pending.replay(userRepo, projectRepo, applicationRepo, enquiryRepo);
+            } catch (IOException e) {
+                System.err.println("Error reading journal, importing the last saved state: " + e.getMessage());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Loads the last saved state from the snapshot or the CSV files,
+     * creating default data if there is none.
+     * If a save was interrupted, the snapshot is loaded even if some CSV
+     * files are newer, since the interrupted save may have replaced only some
+     * of them; the journal then brings it up to date. The same goes while a
+     * background checkpoint left the snapshot ahead of the CSV files. If the
+     * CSV files cannot be read, the snapshot is loaded instead. Default data
+     * is only created when the data files are empty, never in place of data
+     * that failed to load.
+     * 
+     * @param userRepo    The user repository to populate
+     * @param projectRepo The project repository to populate
+     * @param applicationRepo The application repository to populate
+     * @param enquiryRepo The enquiry repository to populate
+     * @param lazyHistory true to leave the history of closed projects on disk
+     * @return true if loading was successful, false otherwise
+     */
+    private static boolean loadBaseData(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository applicationRepo, EnquiryRepository enquiryRepo, boolean lazyHistory) {
         try {
             // First ensure data directory exists
             ensureDataDirectoryExists();
 
             // Then ensure all files exist, create them if they don't
+            FileTransaction.deleteLeftovers(new File(DATA_DIR));
             ensureAllFilesExist();
 
-            // Load users (applicants, managers, officers)
-            int userCount = loadUsers(userRepo, applicationRepo, enquiryRepo);
-
-            // Load projects
-            int projectCount = loadProjects(projectRepo, userRepo);
-
-            // Load applications
-            int applicationCount = loadApplications(applicationRepo, userRepo, projectRepo);
+            long loadStart = System.nanoTime();
+            boolean saveInterrupted = Journal.isCheckpointInterrupted(new File(JOURNAL_FILE));
+            if (saveInterrupted) {
+                System.out.println("The last save was interrupted, recovering from the snapshot and journal.");
+            }
+            if (lazyHistory && !saveInterrupted && !new File(CSV_STALE_FILE).exists()) {
+                if (loadLazily(userRepo, projectRepo, applicationRepo, enquiryRepo, loadStart)) {
+                    return true;
+                }
+                clearRepositories(userRepo, projectRepo, applicationRepo, enquiryRepo);
+            } else if (lazyHistory) {
+                System.out.println("Loading all history, since the CSV files are behind the snapshot.");
+            }
+            // While the snapshot is ahead of the CSV files, a newer CSV file only means a save was interrupted
+            boolean snapshotAhead = saveInterrupted || new File(CSV_STALE_FILE).exists();
+            if (loadSnapshot(userRepo, projectRepo, applicationRepo, enquiryRepo, loadStart, snapshotAhead)) {
+                csvStale = snapshotAhead;
+                return true;
+            }
 
-            // Load enquiries
-            int enquiryCount = loadEnquiries(enquiryRepo, userRepo, projectRepo);
+            int userCount;
+            int projectCount;
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    Math.max(1, Math.min(LOADED_FILE_COUNT, Runtime.getRuntime().availableProcessors())));
+            try {
+                // Open every file in parallel; reading does not need any references
+                Future<List<CsvTokenizer>> applicantRows = pool.submit(() -> readCsv(APPLICANT_FILE, USER_COLUMNS));
+                Future<List<CsvTokenizer>> managerRows = pool.submit(() -> readCsv(MANAGER_FILE, USER_COLUMNS));
+                Future<List<CsvTokenizer>> officerRows = pool.submit(() -> readCsv(OFFICER_FILE, OFFICER_COLUMNS));
+                Future<List<CsvTokenizer>> projectRows = pool.submit(() -> readCsv(PROJECT_FILE, PROJECT_COLUMNS));
+                Future<List<CsvTokenizer>> applicationRows = pool.submit(() -> readCsv(APPLICATION_FILE, APPLICATION_COLUMNS));
+                Future<List<CsvTokenizer>> enquiryRows = pool.submit(() -> readCsv(ENQUIRY_FILE, ENQUIRY_COLUMNS));
+
+                // Link in dependency order, each phase starting as soon as its file is open
+                // Load users (applicants, managers, officers)
+                long phaseStart = loadStart;
+                userCount = loadApplicants(userRepo, await(applicantRows))
+                        + loadManagers(userRepo, await(managerRows))
+                        + loadOfficers(userRepo, projectRepo, applicationRepo, enquiryRepo, await(officerRows));
+                phaseStart = reportPhase("users", userCount, phaseStart);
+
+                // Load projects, which refer to managers
+                projectCount = loadProjects(projectRepo, userRepo, await(projectRows));
+                phaseStart = reportPhase("projects", projectCount, phaseStart);
+
+                // Applications and enquiries only refer to users and projects, so link them side by side
+                long linkStart = phaseStart;
+                Future<?> applications = pool.submit(() -> {
+                    int count = loadApplications(applicationRepo, userRepo, projectRepo, await(applicationRows));
+                    return reportPhase("applications", count, linkStart);
+                });
+                Future<?> enquiries = pool.submit(() -> {
+                    int count = loadEnquiries(enquiryRepo, userRepo, projectRepo, await(enquiryRows));
+                    return reportPhase("enquiries", count, linkStart);
+                });
+                await(applications);
+                await(enquiries);
+            } finally {
+                // After a failure, let the other files finish before the repositories are cleared
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            System.out.printf("Startup load finished in %d ms%n", (System.nanoTime() - loadStart) / 1_000_000);
+            csvStale = saveInterrupted;
 
-            // If no data was loaded, create default data
-            if (userCount == 0 && projectCount == 0) {
+            // If there is no data at all, create default data
+            if (userCount == 0 && projectCount == 0 && !hasDataRecords()) {
                 System.out.println("No data found in CSV files. Creating default data...");
                 createDefaultData(userRepo, projectRepo, applicationRepo, enquiryRepo);
-                // Save the default data to CSV files
+                // Save the default data to CSV files, replacing whatever rows could not be linked
+                csvStale = true;
                 saveAllData(userRepo, projectRepo, applicationRepo, enquiryRepo);
                 return false; // Return false to indicate default data was created
             }
@@ -89,12 +367,486 @@ public class FileHandler {
             System.err.println("Error loading data: " + e.getMessage());
             e.printStackTrace();
 
-            // If loading fails, create some default data
-            createDefaultData(userRepo, projectRepo, applicationRepo, enquiryRepo);
+            // Recover from the snapshot, whatever its age; never replace the data with defaults
+            csvStale = true;
+            clearRepositories(userRepo, projectRepo, applicationRepo, enquiryRepo);
+            if (loadSnapshot(userRepo, projectRepo, applicationRepo, enquiryRepo, System.nanoTime(), true)) {
+                return true;
+            }
+            clearRepositories(userRepo, projectRepo, applicationRepo, enquiryRepo);
+            loadFailed = true;
+            System.err.println("Could not recover the data; saving is disabled so the data files stay untouched.");
+            return false;
+        }
+    }
+
+    /**
+     * Loads the CSV files but leaves the applications and enquiries of closed
+     * projects on disk, to be read a project at a time when a lookup needs
+     * them; see {@link ApplicationRepository#setHistory}. Rows that matter
+     * after a project closes, booked applications and withdrawal requests,
+     * are loaded anyway. Where each project's rows lie is kept in an index
+     * next to each file, rebuilt whenever the file changed since.
+     * The snapshot is not kept in this mode, so it is deleted.
+     * 
+     * @param userRepo        The user repository to populate
+     * @param projectRepo     The project repository to populate
+     * @param applicationRepo The application repository to populate
+     * @param enquiryRepo     The enquiry repository to populate
+     * @param loadStart       The System.nanoTime() at which loading started
+     * @return true if the data was loaded, false if it must be loaded in full instead
+     * @throws InterruptedException If interrupted while waiting for the loading threads
+     */
+    private static boolean loadLazily(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository applicationRepo, EnquiryRepository enquiryRepo, long loadStart)
+            throws InterruptedException {
+        HistoryIndex applicationIndex;
+        HistoryIndex enquiryIndex;
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(LOADED_FILE_COUNT, Runtime.getRuntime().availableProcessors())));
+        try {
+            Future<List<CsvTokenizer>> applicantRows = pool.submit(() -> readCsv(APPLICANT_FILE, USER_COLUMNS));
+            Future<List<CsvTokenizer>> managerRows = pool.submit(() -> readCsv(MANAGER_FILE, USER_COLUMNS));
+            Future<List<CsvTokenizer>> officerRows = pool.submit(() -> readCsv(OFFICER_FILE, OFFICER_COLUMNS));
+            Future<List<CsvTokenizer>> projectRows = pool.submit(() -> readCsv(PROJECT_FILE, PROJECT_COLUMNS));
+            // Applications stay needed once booked or while a withdrawal is pending
+            Future<HistoryIndex> applicationIndexTask = pool.submit(() -> openIndex(APPLICATION_FILE, APPLICATION_COLUMNS, 2, 1,
+                    csv -> csv.fieldCount() >= 7 && (csv.equalsIgnoreCase(4, "BOOKED") || csv.getBoolean(6))));
+            Future<HistoryIndex> enquiryIndexTask = pool.submit(() -> openIndex(ENQUIRY_FILE, ENQUIRY_COLUMNS, 1, 2, csv -> false));
+
+            long phaseStart = loadStart;
+            int userCount = loadApplicants(userRepo, await(applicantRows))
+                    + loadManagers(userRepo, await(managerRows))
+                    + loadOfficers(userRepo, projectRepo, applicationRepo, enquiryRepo, await(officerRows));
+            phaseStart = reportPhase("users", userCount, phaseStart);
+            int projectCount = loadProjects(projectRepo, userRepo, await(projectRows));
+            phaseStart = reportPhase("projects", projectCount, phaseStart);
+            if (userCount == 0 && projectCount == 0) {
+                // Creating the default data is left to the full load
+                return false;
+            }
+
+            Set<String> closed = findClosedProjects(projectRepo);
+            applicationIndex = await(applicationIndexTask);
+            enquiryIndex = await(enquiryIndexTask);
+            applicationIndex.setCold(closed);
+            enquiryIndex.setCold(closed);
+            long linkStart = phaseStart;
+            Future<?> applications = pool.submit(() -> {
+                int count = loadApplications(applicationRepo, userRepo, projectRepo,
+                        Collections.singletonList(new CsvTokenizer(applicationIndex.readEagerRows())));
+                return reportPhase("applications", count, linkStart);
+            });
+            Future<?> enquiries = pool.submit(() -> {
+                int count = loadEnquiries(enquiryRepo, userRepo, projectRepo,
+                        Collections.singletonList(new CsvTokenizer(enquiryIndex.readEagerRows())));
+                return reportPhase("enquiries", count, linkStart);
+            });
+            await(applications);
+            await(enquiries);
+            Files.deleteIfExists(new File(SNAPSHOT_FILE).toPath());
+        } catch (Exception e) {
+            System.err.println("Error loading history on demand, loading it in full instead: " + e.getMessage());
+            return false;
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+
+        // Applicants are looked up when the history is read, so users added since are found too
+        Function<String, Applicant> applicants = id -> {
+            User user = userRepo.getById(id);
+            return user instanceof Applicant ? (Applicant) user : null;
+        };
+        applicationHistory = new CsvHistory<>(new File(APPLICATION_FILE), applicationIndex,
+                applicationParser(applicants, projectRepo), Application::getApplicationId);
+        enquiryHistory = new CsvHistory<>(new File(ENQUIRY_FILE), enquiryIndex,
+                enquiryParser(applicants, projectRepo), Enquiry::getEnquiryId);
+        applicationRepo.setHistory(applicationHistory, LAZY_HISTORY_CACHED_PROJECTS);
+        enquiryRepo.setHistory(enquiryHistory, LAZY_HISTORY_CACHED_PROJECTS);
+        csvStale = false;
+        System.out.printf("Startup load finished in %d ms, history of %d closed projects left on disk%n",
+                (System.nanoTime() - loadStart) / 1_000_000, applicationIndex.getColdProjects().size());
+        return true;
+    }
+
+    /**
+     * Opens the row index of a CSV file, writing it out if it had to be rebuilt.
+     * 
+     * @param path           The path of the CSV file
+     * @param columns        The columns the file must have, in order
+     * @param projectField   The field holding the project ID
+     * @param applicantField The field holding the applicant ID
+     * @param live           Decides whether a row is loaded even when its project is closed
+     * @return The index
+     * @throws IOException If the CSV file cannot be indexed or has other columns
+     */
+    private static HistoryIndex openIndex(String path, String[] columns, int projectField, int applicantField,
+            Predicate<CsvTokenizer> live) throws IOException {
+        if (new File(path).length() > 0 && !readHeader(new File(path)).matches(columns)) {
+            // Saves copy rows as they are, which only works if they are in the columns saves write
+            throw new IOException(new File(path).getName() + " does not have the standard columns");
+        }
+        HistoryIndex index = HistoryIndex.open(new File(path), new File(path + INDEX_SUFFIX), projectField,
+                applicantField, live);
+        try {
+            index.write();
+        } catch (IOException e) {
+            // The index is rebuilt again on the next start
+            System.err.println("Error writing index of " + path + ": " + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Finds the projects whose application period has ended.
+     * Projects without a valid closing date count as open.
+     * 
+     * @param projectRepo The project repository
+     * @return The IDs of the closed projects
+     */
+    static Set<String> findClosedProjects(ProjectRepository projectRepo) {
+        LocalDate today = LocalDate.now();
+        Set<String> closed = new HashSet<>();
+        for (Project project : projectRepo.getAll()) {
+            try {
+                if (LocalDate.parse(project.getApplicationCloseDate()).isBefore(today)) {
+                    closed.add(project.getProjectID());
+                }
+            } catch (DateTimeParseException | NullPointerException e) {
+                // Treated as open
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Checks whether every CSV file has the columns that saves write, in the same order.
+     * 
+     * @return true if every file has the standard columns
+     */
+    private static boolean hasStandardColumns() {
+        String[][] columns = { USER_COLUMNS, USER_COLUMNS, OFFICER_COLUMNS, PROJECT_COLUMNS, APPLICATION_COLUMNS,
+                ENQUIRY_COLUMNS };
+        String[] files = { APPLICANT_FILE, MANAGER_FILE, OFFICER_FILE, PROJECT_FILE, APPLICATION_FILE,
+                ENQUIRY_FILE };
+        for (int i = 0; i < files.length; i++) {
+            try {
+                File file = new File(files[i]);
+                if (file.length() > 0 && !readHeader(file).matches(columns[i])) {
+                    System.out.println(file.getName()
+                            + " has other columns than saves write; it is rewritten on the next save.");
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether any CSV file holds a record besides its header.
+     * 
+     * @return true if some file has data records
+     * @throws IOException If a file cannot be read
+     */
+    private static boolean hasDataRecords() throws IOException {
+        for (String csv : new String[] { APPLICANT_FILE, MANAGER_FILE, OFFICER_FILE, PROJECT_FILE,
+                APPLICATION_FILE, ENQUIRY_FILE }) {
+            try (BufferedReader reader = Files.newBufferedReader(new File(csv).toPath(), StandardCharsets.UTF_8)) {
+                // Skip header
+                reader.readLine();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes whatever a failed load left in the repositories.
+     * 
+     * @param userRepo    The user repository
+     * @param projectRepo The project repository
+     * @param appRepo     The application repository
+     * @param enquiryRepo The enquiry repository
+     */
+    private static void clearRepositories(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        enquiryRepo.deleteAll(enquiryRepo.getAll().stream().map(Enquiry::getEnquiryId).collect(Collectors.toList()));
+        appRepo.deleteAll(appRepo.getAll().stream().map(Application::getApplicationId).collect(Collectors.toList()));
+        projectRepo.deleteAll(projectRepo.getAll().stream().map(Project::getProjectID).collect(Collectors.toList()));
+        userRepo.deleteAll(userRepo.getAll().stream().map(User::getId).collect(Collectors.toList()));
+    }
+
+    /**
+     * Opens the change journal, replays the changes it holds and starts
+     * journaling every write along with periodic background checkpoints,
+     * which fold the journal into the CSV files and snapshot.
+     * If the journal cannot be opened, changes are only kept by full saves.
+     * 
+     * @param userRepo    The user repository
+     * @param projectRepo The project repository
+     * @param appRepo     The application repository
+     * @param enquiryRepo The enquiry repository
+     */
+    private static void openJournal(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        try {
+            ensureDataDirectoryExists();
+            Journal opened = new Journal(new File(JOURNAL_FILE), JOURNAL_SYNC_EVERY, JOURNAL_SYNC_INTERVAL_MS);
+            long start = System.nanoTime();
+            int replayed = opened.replay(userRepo, projectRepo, appRepo, enquiryRepo);
+            if (replayed > 0) {
+                reportPhase("journaled changes", replayed, start);
+                if (applicationHistory != null) {
+                    // A replayed update of an entity left on disk looks like a new entity, so appending it
+                    // would duplicate its row; the next save rewrites the files instead
+                    csvStale = true;
+                }
+            }
+            opened.attach(userRepo, projectRepo, appRepo, enquiryRepo);
+            opened.scheduleCheckpoints(CHECKPOINT_INTERVAL_MS, CHECKPOINT_JOURNAL_BYTES,
+                    () -> writeBase(userRepo, projectRepo, appRepo, enquiryRepo));
+            journal = opened;
+        } catch (IOException e) {
+            System.err.println("Error opening journal, changes are saved in full instead: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Makes the changes since the last save durable.
+     * With the journal open this only forces the journaled changes to disk,
+     * so it costs time proportional to the changes, not to the data set.
+     * Without a journal it falls back to {@link #saveAllData}.
+     * 
+     * @param userRepo    The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo     The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @return true if saving was successful, false otherwise
+     */
+    public static boolean saveChanges(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        if (journal == null) {
+            return saveAllData(userRepo, projectRepo, appRepo, enquiryRepo);
+        }
+        try {
+            journal.sync();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving changes: " + e.getMessage());
+            return saveAllData(userRepo, projectRepo, appRepo, enquiryRepo);
+        }
+    }
+
+    /**
+     * Starts saving repository changes on a background thread, using the
+     * configured flush interval, checkpoint interval and dirty threshold.
+     * 
+     * @param storage     The storage engine to save to
+     * @param userRepo    The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo     The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @return The running saver; flush and close it on shutdown
+     */
+    public static WriteBehindSaver startWriteBehind(IStorageEngine storage, UserRepository userRepo,
+            ProjectRepository projectRepo, ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        return new WriteBehindSaver(storage, userRepo, projectRepo, appRepo, enquiryRepo, WRITE_BEHIND_INTERVAL_MS,
+                CHECKPOINT_INTERVAL_MS, WRITE_BEHIND_DIRTY_THRESHOLD);
+    }
+
+    /**
+     * Forces the last journaled changes to disk and closes the journal, and
+     * writes out the row indexes of history left on disk if they changed.
+     * Called once when the system shuts down.
+     */
+    public static void closeJournal() {
+        for (CsvHistory<?> history : new CsvHistory<?>[] { applicationHistory, enquiryHistory }) {
+            if (history != null) {
+                try {
+                    history.index.write();
+                } catch (IOException e) {
+                    System.err.println("Error writing index of " + history.file.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Error closing journal: " + e.getMessage());
+        }
+        journal = null;
+    }
+
+    /**
+     * Loads the binary snapshot if it is at least as new as every CSV file.
+     * 
+     * @param userRepo        The user repository to populate
+     * @param projectRepo     The project repository to populate
+     * @param applicationRepo The application repository to populate
+     * @param enquiryRepo     The enquiry repository to populate
+     * @param loadStart       The System.nanoTime() at which loading started
+     * @param anyAge          true to load the snapshot even if a CSV file is newer
+     * @return true if the snapshot was loaded and had data, false if the CSV files must be loaded
+     */
+    private static boolean loadSnapshot(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository applicationRepo, EnquiryRepository enquiryRepo, long loadStart, boolean anyAge) {
+        File snapshot = new File(SNAPSHOT_FILE);
+        if (!snapshot.exists()) {
+            return false;
+        }
+        for (String csv : new String[] { APPLICANT_FILE, MANAGER_FILE, OFFICER_FILE, PROJECT_FILE,
+                APPLICATION_FILE, ENQUIRY_FILE }) {
+            if (!anyAge && new File(csv).lastModified() > snapshot.lastModified()) {
+                System.out.println("CSV files changed since the last snapshot, loading CSV files.");
+                return false;
+            }
+        }
+
+        try {
+            int[] counts = BinarySnapshot.read(snapshot, userRepo, projectRepo, applicationRepo, enquiryRepo);
+            System.out.printf("Loaded %d users, %d projects, %d applications and %d enquiries from snapshot in %d ms%n",
+                    counts[0], counts[1], counts[2], counts[3], (System.nanoTime() - loadStart) / 1_000_000);
+            return counts[0] > 0 || counts[1] > 0;
+        } catch (IOException e) {
+            System.err.println("Error loading snapshot, loading CSV files instead: " + e.getMessage());
             return false;
         }
     }
 
+    /**
+     * Prints how long a load phase took.
+     * 
+     * @param phase      The name of the phase
+     * @param count      The number of records the phase loaded
+     * @param phaseStart The System.nanoTime() at which the phase started
+     * @return The current System.nanoTime(), to be used as the start of the next phase
+     */
+    private static long reportPhase(String phase, int count, long phaseStart) {
+        long now = System.nanoTime();
+        System.out.printf("Loaded %d %s in %d ms%n", count, phase, (now - phaseStart) / 1_000_000);
+        return now;
+    }
+
+    /**
+     * Waits for a loading task and returns its result, rethrowing the
+     * exception the task failed with.
+     * 
+     * @param task The task to wait for
+     * @return The result of the task
+     * @throws Exception If the task failed
+     */
+    private static <T> T await(Future<T> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the data rows of a CSV file for tokenizing.
+     * Files above {@link #MAPPED_LOAD_THRESHOLD} bytes are memory-mapped and
+     * split at record boundaries into one chunk per processor, so they can be
+     * parsed in parallel; smaller files are read into memory in one go.
+     * Both paths decode UTF-8 as they tokenize.
+     * <p>
+     * The columns are found by name in the file's header, and the tokenizers
+     * are projected onto them: field {@code i} holds column {@code columns[i]}
+     * wherever it is in the file, and the other columns are skipped without
+     * being decoded. Columns the file lacks read as empty.
+     * 
+     * @param path    The path of the file
+     * @param columns The columns to read; the first identifies a row and must be present
+     * @return Tokenizers over the data rows in file order, none if the file is missing or empty
+     * @throws IOException If the file cannot be read or lacks the first column
+     */
+    private static List<CsvTokenizer> readCsv(String path, String... columns) throws IOException {
+        File file = new File(path);
+
+        if (!file.exists() || file.length() == 0) {
+            return Collections.emptyList();
+        }
+
+        List<CsvTokenizer> chunks;
+        CsvHeader header;
+        if (file.length() > MAPPED_LOAD_THRESHOLD) {
+            chunks = MappedCsvFile.split(file, Runtime.getRuntime().availableProcessors());
+            header = readHeader(file);
+        } else {
+            CsvTokenizer csv = new CsvTokenizer(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+            csv.nextRecord();
+            header = new CsvHeader(csv);
+            chunks = Collections.singletonList(csv);
+        }
+
+        int[] positions = header.positionsOf(columns);
+        if (positions[0] < 0) {
+            throw new IOException(file.getName() + " has no " + columns[0] + " column");
+        }
+        List<String> missing = header.missing(columns);
+        if (!missing.isEmpty()) {
+            System.out.println(file.getName() + " has no " + String.join(", ", missing)
+                    + " column, reading it as empty.");
+        }
+        for (CsvTokenizer chunk : chunks) {
+            chunk.setProjection(positions);
+        }
+        return chunks;
+    }
+
+    /**
+     * Reads the header of a CSV file.
+     * 
+     * @param file The CSV file
+     * @return The header, with no columns if the file is empty
+     * @throws IOException If the file cannot be read
+     */
+    static CsvHeader readHeader(File file) throws IOException {
+        try (CsvTokenizer csv = new CsvTokenizer(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))) {
+            csv.nextRecord();
+            return new CsvHeader(csv);
+        }
+    }
+
+    /**
+     * Reads some columns of a data file without loading it, for tools that
+     * only need a few fields, such as IDs, status and flat type for a report.
+     * Only the requested columns are decoded; see {@link CsvTokenizer#setProjection(int[])}.
+     * 
+     * @param fileName The name of a file in the data directory, e.g. "ApplicationList.csv"
+     * @param columns  The columns to read, by header name; the first must be present
+     * @return One array per row in file order, holding the columns in the order requested;
+     *         columns the file lacks are empty, and blank rows are left out
+     * @throws IOException If the file cannot be read or lacks the first column
+     */
+    public static List<String[]> readColumns(String fileName, String... columns) throws IOException {
+        return parseChunks(readCsv(DATA_DIR + fileName, columns), csv -> {
+            if (csv.fieldCount() < columns.length || csv.isEmpty(0))
+                return null;
+
+            String[] row = new String[columns.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = csv.getString(i);
+            }
+            return row;
+        });
+    }
+
     /**
      * Ensures that the data directory exists for storing files.
      * Creates the directory if it doesn't already exist.
@@ -129,34 +881,26 @@ public class FileHandler {
                 f.createNewFile();
 
                 // Write headers to the new file
-                try (BufferedWriter writer = new BufferedWriter(new FileWriter(f))) {
+                try (BufferedWriter writer = new BufferedWriter(new FileWriter(f, StandardCharsets.UTF_8))) {
                     switch (file) {
                         case APPLICANT_FILE:
-                            writer.write("ID,Name,Password,Age,MaritalStatus,Income\n");
-                            break;
                         case MANAGER_FILE:
-                            writer.write("ID,Name,Password,Age,MaritalStatus,Income\n");
+                            writer.write(String.join(",", USER_COLUMNS) + "\n");
                             break;
                         case OFFICER_FILE:
-                            // Removed RegisteringManager from header
-                            writer.write("ID,Name,Password,Age,MaritalStatus,HandlingProjectID,RegistrationStatus\n");
+                            writer.write(String.join(",", OFFICER_COLUMNS) + "\n");
                             break;
                         case PROJECT_FILE:
-                            writer.write(
-                                    "ProjectID,ProjectName,Neighborhood,FlatTypes,FloorCount,PricePerFlat,ThresholdPrice,"
-                                            +
-                                            "OpenDate,CloseDate,Visible,OfficerSlots,TwoRoomUnits,ThreeRoomUnits,ManagerInCharge\n");
+                            writer.write(String.join(",", PROJECT_COLUMNS) + "\n");
                             break;
                         case APPLICATION_FILE:
-                            writer.write(
-                                    "ApplicationID,ApplicantID,ProjectID,ApplicationDate,Status,FlatType,WithdrawalRequested\n");
+                            writer.write(String.join(",", APPLICATION_COLUMNS) + "\n");
                             break;
                         case ENQUIRY_FILE:
-                            writer.write("EnquiryID,ProjectID,ApplicantID,Message,Response,Status\n");
+                            writer.write(String.join(",", ENQUIRY_COLUMNS) + "\n");
                             break;
                         case RECEIPT_FILE:
-                            writer.write(
-                                    "ReceiptID,Name,NRIC,Age,MaritalStatus,ProjectID,Neighborhood,Price,FlatType,BookingDate\n");
+                            writer.write(String.join(",", RECEIPT_COLUMNS) + "\n");
                             break;
                     }
                 }
@@ -165,461 +909,1003 @@ public class FileHandler {
     }
 
     /**
-     * Loads users from files into the user repository.
+     * Creates the parser of applicant rows.
      * 
-     * @param userRepo        The user repository to populate
-     * @param applicationRepo The application repository (for officers)
-     * @param enquiryRepo     The enquiry repository (for officers)
-     * @return The number of users loaded
+     * @return A parser of rows in the {@link #USER_COLUMNS} order
      */
-    public static int loadUsers(UserRepository userRepo, ApplicationRepository applicationRepo,
-            EnquiryRepository enquiryRepo) {
-        int count = 0;
+    static RecordParser<Applicant> applicantParser() {
+        return csv -> {
+            if (csv.fieldCount() < 6)
+                return null;
+
+            String id = csv.getString(0);
+            String name = csv.getString(1);
+            String password = csv.getString(2);
+            int age = csv.getInt(3);
+            MaritalStatus status = csv.getEnum(4, MaritalStatus.class, MaritalStatus.SINGLE);
+            double income = csv.getDouble(5);
+
+            return new Applicant(id, name, password, age, status, name, income);
+        };
+    }
 
-        try {
-            // Load Applicants
-            count += loadApplicants(userRepo);
+    /**
+     * Load applicants from CSV file
+     */
+    private static int loadApplicants(UserRepository userRepo, List<CsvTokenizer> chunks) throws IOException {
+        List<Applicant> applicants = parseChunks(chunks, applicantParser());
+        userRepo.addAll(applicants);
 
-            // Load Managers
-            count += loadManagers(userRepo);
+        return applicants.size();
+    }
 
-            // Load Officers
-            count += loadOfficers(userRepo, applicationRepo, enquiryRepo);
+    /**
+     * Creates the parser of manager rows.
+     * 
+     * @return A parser of rows in the {@link #USER_COLUMNS} order
+     */
+    static RecordParser<HdbManager> managerParser() {
+        return csv -> {
+            if (csv.fieldCount() < 6)
+                return null;
+
+            String id = csv.getString(0);
+            String name = csv.getString(1);
+            String password = csv.getString(2);
+            int age = csv.getInt(3);
+            MaritalStatus status = csv.getEnum(4, MaritalStatus.class, MaritalStatus.SINGLE);
+            double income = csv.getDouble(5);
+
+            return new HdbManager(id, name, password, age, status, name, income);
+        };
+    }
 
-            return count;
-        } catch (Exception e) {
-            System.err.println("Error loading users: " + e.getMessage());
-            e.printStackTrace();
+    /**
+     * Load managers from CSV file
+     */
+    private static int loadManagers(UserRepository userRepo, List<CsvTokenizer> chunks) throws IOException {
+        List<HdbManager> managers = parseChunks(chunks, managerParser());
+        userRepo.addAll(managers);
+
+        return managers.size();
+    }
+
+    /**
+     * Load officers from CSV file
+     */
+    private static int loadOfficers(UserRepository userRepo,
+            ProjectRepository projectRepo,
+            ApplicationRepository appRepo,
+            EnquiryRepository enqRepo,
+            List<CsvTokenizer> chunks) throws IOException {
+        List<HdbOfficer> officers = parseChunks(chunks, officerParser(projectRepo, appRepo, enqRepo));
+        userRepo.addAll(officers);
+
+        return officers.size();
+    }
+
+    /**
+     * Creates the parser of officer rows. Officers are created without the
+     * project they handle.
+     * 
+     * @param projectRepo The project repository the officers work with
+     * @param appRepo     The application repository the officers work with
+     * @param enqRepo     The enquiry repository the officers work with
+     * @return A parser of rows in the {@link #OFFICER_COLUMNS} order
+     */
+    static RecordParser<HdbOfficer> officerParser(ProjectRepository projectRepo, ApplicationRepository appRepo,
+            EnquiryRepository enqRepo) {
+        return csv -> {
+            if (csv.fieldCount() < 6)
+                return null; // Need at least 6 fields now
+
+            String id = csv.getString(0);
+            String name = csv.getString(1);
+            String password = csv.getString(2);
+            int age = csv.getInt(3);
+            MaritalStatus status = csv.getEnum(4, MaritalStatus.class, MaritalStatus.SINGLE);
+
+            // Registration status
+            OfficerRegistrationStatus regStatus = OfficerRegistrationStatus.PENDING;
+            if (csv.fieldCount() > 6) {
+                regStatus = csv.getEnum(6, OfficerRegistrationStatus.class, OfficerRegistrationStatus.PENDING);
+            }
+
+            // Create officer without project reference (will be set later)
+            return new HdbOfficer(id, name, password, age, status, name,
+                    null, null, regStatus, null, appRepo, enqRepo, projectRepo);
+        };
+    }
+
+    /**
+     * Creates the parser of project rows. The projects are not yet added to
+     * their manager's list.
+     * 
+     * @return A parser of rows in the {@link #PROJECT_COLUMNS} order
+     */
+    static RecordParser<Project> projectParser() {
+        return csv -> {
+            if (csv.fieldCount() < 14)
+                return null; // Must have all required fields
+
+            String projectID = csv.getString(0);
+            String projectName = csv.getString(1);
+            String neighborhood = csv.getString(2);
+
+            // Parse flat types
+            FlatType[] flatTypes = parseFlatTypes(csv.getString(3));
+
+            double floorCount = csv.getDouble(4);
+            double pricePerFlat = csv.getDouble(5);
+            double thresholdPrice = csv.getDouble(6);
+            String openDate = csv.getString(7);
+            String closeDate = csv.getString(8);
+            boolean visible = csv.getBoolean(9);
+            int officerSlots = csv.getInt(10);
+            int twoRoomUnits = csv.getInt(11);
+            int threeRoomUnits = csv.getInt(12);
+            String managerInCharge = csv.getString(13);
+
+            // Create the project
+            Project project = new Project(projectID, neighborhood, flatTypes, floorCount,
+                    pricePerFlat, thresholdPrice, openDate, closeDate,
+                    visible, officerSlots, twoRoomUnits, threeRoomUnits);
+            project.setProjectName(projectName);
+            project.setManagerInCharge(managerInCharge);
+            return project;
+        };
+    }
 
-            // If loading fails, create default users
-            count = createDefaultUsers(userRepo, applicationRepo, enquiryRepo);
-            return count;
+    /**
+     * Load projects from CSV file
+     */
+    private static int loadProjects(ProjectRepository projectRepo, UserRepository userRepo,
+            List<CsvTokenizer> chunks) throws IOException {
+        List<Project> projects = parseChunks(chunks, projectParser());
+
+        // Managers keyed by name, built once so each project resolves its manager in constant time
+        Map<String, List<HdbManager>> managersByName = new HashMap<>();
+        for (HdbManager manager : userRepo.getManagers()) {
+            managersByName.computeIfAbsent(manager.getName(), k -> new ArrayList<>()).add(manager);
+        }
+
+        // Find the manager and add each project to their list
+        for (Project project : projects) {
+            for (HdbManager manager : managersByName.getOrDefault(project.getManagerInCharge(),
+                    Collections.emptyList())) {
+                manager.getProjectsCreated().add(project);
+            }
+        }
+        projectRepo.addAll(projects);
+
+        return projects.size();
+    }
+
+    /**
+     * Parses a pipe-separated list of flat types, skipping unknown names.
+     * 
+     * @param value The flat types, e.g. "TWO_ROOM|THREE_ROOM"
+     * @return The flat types in the order listed
+     */
+    static FlatType[] parseFlatTypes(String value) {
+        List<FlatType> flatTypeList = new ArrayList<>();
+        int start = 0;
+        while (start <= value.length()) {
+            int end = value.indexOf('|', start);
+            if (end < 0) {
+                end = value.length();
+            }
+            for (FlatType type : FlatType.values()) {
+                if (value.regionMatches(true, start, type.name(), 0, type.name().length())
+                        && end - start == type.name().length()) {
+                    flatTypeList.add(type);
+                }
+            }
+            start = end + 1;
+        }
+        return flatTypeList.toArray(new FlatType[0]);
+    }
+
+    /**
+     * Builds a map of every user that can apply for a flat (applicants and
+     * managers), keyed by NRIC.
+     * 
+     * @param userRepo The user repository to index
+     * @return The applicants keyed by NRIC
+     */
+    private static Map<String, Applicant> indexApplicantsById(UserRepository userRepo) {
+        Map<String, Applicant> applicantsById = new HashMap<>();
+        for (User user : userRepo.getAll()) {
+            if (user instanceof Applicant) {
+                applicantsById.put(user.getId(), (Applicant) user);
+            }
+        }
+        return applicantsById;
+    }
+
+    /**
+     * Creates the parser of application rows.
+     * 
+     * @param applicants  Finds an applicant by NRIC, or returns null if there is none
+     * @param projectRepo The project repository to resolve projects from
+     * @return A parser that skips rows whose applicant or project is missing
+     */
+    static RecordParser<Application> applicationParser(Function<String, Applicant> applicants,
+            ProjectRepository projectRepo) {
+        return csv -> {
+            if (csv.fieldCount() < 7)
+                return null;
+
+            String applicationID = csv.getString(0);
+            String applicantID = csv.getString(1);
+            String projectID = csv.getString(2);
+            String applicationDate = csv.getString(3);
+            ApplicationStatus status = csv.getEnum(4, ApplicationStatus.class, ApplicationStatus.PENDING);
+            FlatType flatType = csv.getEnum(5, FlatType.class, FlatType.TWO_ROOM);
+            boolean withdrawalRequested = csv.getBoolean(6);
+
+            // Find the applicant
+            Applicant applicant = applicants.apply(applicantID);
+
+            // Find the project
+            Project project = projectRepo.getById(projectID);
+
+            if (applicant == null || project == null) {
+                System.out.println("Skipping application due to missing applicant or project");
+                return null;
+            }
+
+            // Create the application
+            Application application = new Application(
+                    applicationID, applicant, project, applicationDate, flatType);
+
+            // Set status
+            application.updateStatus(status);
+
+            // Set withdrawal request if applicable
+            if (withdrawalRequested) {
+                application.requestWithdrawal();
+            }
+
+            return application;
+        };
+    }
+
+    /**
+     * Load applications from CSV file
+     */
+    private static int loadApplications(ApplicationRepository appRepo,
+            UserRepository userRepo,
+            ProjectRepository projectRepo,
+            List<CsvTokenizer> chunks) throws IOException {
+        // Applicants keyed by NRIC, built once so each row resolves its applicant in constant time
+        Map<String, Applicant> applicantsById = indexApplicantsById(userRepo);
+
+        List<Application> applications = parseChunks(chunks, applicationParser(applicantsById::get, projectRepo));
+
+        // If booked, update applicant's profile
+        for (Application application : applications) {
+            if (application.getStatus() == ApplicationStatus.BOOKED) {
+                application.getApplicant().setBookedFlat(application.getSelectedFlatType());
+                application.getApplicant().setBookedProject(application.getProject());
+            }
+        }
+        appRepo.addAll(applications);
+
+        return applications.size();
+    }
+
+    /**
+     * Creates the parser of enquiry rows.
+     * 
+     * @param applicants  Finds an applicant by NRIC, or returns null if there is none
+     * @param projectRepo The project repository to resolve projects from
+     * @return A parser that skips rows whose applicant or project is missing
+     */
+    static RecordParser<Enquiry> enquiryParser(Function<String, Applicant> applicants,
+            ProjectRepository projectRepo) {
+        return csv -> {
+            if (csv.fieldCount() < 6)
+                return null;
+
+            String enquiryID = csv.getString(0);
+            String projectID = csv.getString(1);
+            String applicantID = csv.getString(2);
+            String message = csv.getString(3);
+
+            // Find the applicant
+            Applicant applicant = applicants.apply(applicantID);
+
+            // Find the project
+            Project project = projectRepo.getById(projectID);
+
+            if (applicant == null || project == null) {
+                System.out.println("Skipping enquiry due to missing applicant or project");
+                return null;
+            }
+
+            // Create the enquiry
+            Enquiry enquiry = new Enquiry(enquiryID, project, applicant, message);
+
+            // Set status and response if applicable
+            if (csv.equalsIgnoreCase(5, "REPLIED") && !csv.isEmpty(4) && !csv.equalsIgnoreCase(4, "null")) {
+                enquiry.reply(csv.getString(4));
+            }
+
+            return enquiry;
+        };
+    }
+
+    /**
+     * Load enquiries from CSV file
+     */
+    private static int loadEnquiries(EnquiryRepository enquiryRepo,
+            UserRepository userRepo,
+            ProjectRepository projectRepo,
+            List<CsvTokenizer> chunks) throws IOException {
+        // Applicants keyed by NRIC, built once so each row resolves its applicant in constant time
+        Map<String, Applicant> applicantsById = indexApplicantsById(userRepo);
+
+        List<Enquiry> enquiries = parseChunks(chunks, enquiryParser(applicantsById::get, projectRepo));
+        enquiryRepo.addAll(enquiries);
+
+        return enquiries.size();
+    }
+
+    /**
+     * Loads the receipts issued so far. Called by the receipt repository the
+     * first time it is used rather than at startup.
+     * 
+     * A file with other columns than appends write is rewritten in the standard columns.
+     * 
+     * @return The stored receipts in file order, none if the file cannot be read
+     */
+    public static List<Receipt> loadReceipts() {
+        try {
+            List<Receipt> receipts = parseChunks(readCsv(RECEIPT_FILE, RECEIPT_COLUMNS), csv -> {
+                if (csv.fieldCount() < 10 || csv.isEmpty(0))
+                    return null;
+
+                return new Receipt(
+                        csv.getString(0),
+                        csv.getString(1),
+                        csv.getString(2),
+                        csv.getInt(3),
+                        csv.getString(4),
+                        csv.getString(5),
+                        csv.getString(6),
+                        csv.getDouble(7),
+                        csv.getEnum(8, FlatType.class, null),
+                        csv.getString(9));
+            });
+            File file = new File(RECEIPT_FILE);
+            if (file.length() > 0 && !readHeader(file).matches(RECEIPT_COLUMNS)) {
+                // New receipts are appended in the standard columns
+                FileTransaction transaction = new FileTransaction();
+                try (BufferedWriter writer = openCsv(transaction, RECEIPT_FILE, String.join(",", RECEIPT_COLUMNS),
+                        false)) {
+                    for (Receipt receipt : receipts) {
+                        writer.write(receiptRow(receipt));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    transaction.abort();
+                    throw e;
+                }
+                transaction.commit();
+            }
+            return receipts;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error loading receipts: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Parses the records of every chunk of a file, in parallel when there is
+     * more than one chunk, and returns the results in file order.
+     * 
+     * @param chunks The chunks of the file
+     * @param parser Turns the current record into an entity, or null to skip it
+     * @return The parsed entities
+     * @throws IOException If a chunk cannot be read
+     */
+    private static <T> List<T> parseChunks(List<CsvTokenizer> chunks, RecordParser<T> parser) throws IOException {
+        if (chunks.size() <= 1) {
+            return chunks.isEmpty() ? new ArrayList<>() : parseChunk(chunks.get(0), parser);
+        }
+        try {
+            return chunks.parallelStream()
+                    .map(chunk -> {
+                        try {
+                            return parseChunk(chunk, parser);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
     /**
-     * Load applicants from CSV file
+     * Parses every record of one chunk.
      */
-    private static int loadApplicants(UserRepository userRepo) throws IOException {
-        int count = 0;
-        File file = new File(APPLICANT_FILE);
-
-        if (!file.exists() || file.length() == 0) {
-            return 0;
-        }
-
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            // Skip header
-            String header = br.readLine();
-            if (header == null)
-                return 0;
-
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data.length < 6)
-                    continue;
-
-                String id = data[0].trim();
-                String name = data[1].trim();
-                String password = data[2].trim();
-                int age = Integer.parseInt(data[3].trim());
-                MaritalStatus status = data[4].trim().equalsIgnoreCase("MARRIED") ? MaritalStatus.MARRIED
-                        : MaritalStatus.SINGLE;
-                double income = Double.parseDouble(data[5].trim());
-
-                Applicant applicant = new Applicant(id, name, password, age, status, name, income);
-                userRepo.add(applicant);
-                count++;
+    private static <T> List<T> parseChunk(CsvTokenizer csv, RecordParser<T> parser) throws IOException {
+        List<T> records = new ArrayList<>();
+        while (csv.nextRecord()) {
+            T record = parser.parse(csv);
+            if (record != null) {
+                records.add(record);
             }
         }
-
-        return count;
+        return records;
     }
 
     /**
-     * Load managers from CSV file
+     * Turns the current record of a tokenizer into an entity.
      */
-    private static int loadManagers(UserRepository userRepo) throws IOException {
-        int count = 0;
-        File file = new File(MANAGER_FILE);
-
-        if (!file.exists() || file.length() == 0) {
-            return 0;
-        }
-
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            // Skip header
-            String header = br.readLine();
-            if (header == null)
-                return 0;
-
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data.length < 6)
-                    continue;
-
-                String id = data[0].trim();
-                String name = data[1].trim();
-                String password = data[2].trim();
-                int age = Integer.parseInt(data[3].trim());
-                MaritalStatus status = data[4].trim().equalsIgnoreCase("MARRIED") ? MaritalStatus.MARRIED
-                        : MaritalStatus.SINGLE;
-                double income = Double.parseDouble(data[5].trim());
-
-                HdbManager manager = new HdbManager(id, name, password, age, status, name, income);
-                userRepo.add(manager);
-                count++;
-            }
-        }
+    @FunctionalInterface
+    interface RecordParser<T> {
+        T parse(CsvTokenizer csv) throws IOException;
+    }
 
-        return count;
+    /**
+     * Writes a list of entities as rows of one CSV file.
+     */
+    @FunctionalInterface
+    private interface CsvSaver<T> {
+        void save(FileTransaction transaction, List<T> items, boolean append) throws IOException;
     }
 
     /**
-     * Load officers from CSV file
+     * Reads the entities of one CSV file that are left on disk, and keeps the
+     * file's row index in step with the saves that write the file.
      */
-    private static int loadOfficers(UserRepository userRepo,
-            ApplicationRepository appRepo,
-            EnquiryRepository enqRepo) throws IOException {
-        int count = 0;
-        File file = new File(OFFICER_FILE);
+    private static final class CsvHistory<T> implements IHistorySource<T> {
+        private final File file;
+        private final HistoryIndex index;
+        private final RecordParser<T> parser;
+        private final Function<T, String> idOf;
+        /** Length of the file before the staged save appends to it, or -1 */
+        private long appendFrom = -1;
+        /** Rows of the rewritten file staged by the save, or null */
+        private Map<String, ?> rewritten;
+
+        private CsvHistory(File file, HistoryIndex index, RecordParser<T> parser, Function<T, String> idOf) {
+            this.file = file;
+            this.index = index;
+            this.parser = parser;
+            this.idOf = idOf;
+        }
 
-        if (!file.exists() || file.length() == 0) {
-            return 0;
-        }
-
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            // Skip header
-            String header = br.readLine();
-            if (header == null)
-                return 0;
-
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data.length < 6)
-                    continue; // Need at least 6 fields now
-
-                String id = data[0].trim();
-                String name = data[1].trim();
-                String password = data[2].trim();
-                int age = Integer.parseInt(data[3].trim());
-                MaritalStatus status = data[4].trim().equalsIgnoreCase("MARRIED") ? MaritalStatus.MARRIED
-                        : MaritalStatus.SINGLE;
-
-                // Project ID (might be empty)
-                String handlingProjectID = "";
-                if (data.length > 5) {
-                    handlingProjectID = data[5].trim();
-                }
+        @Override
+        public Collection<String> getProjects() {
+            return index.getColdProjects();
+        }
 
-                // Registration status
-                OfficerRegistrationStatus regStatus = OfficerRegistrationStatus.PENDING;
-                if (data.length > 6) {
-                    String statusStr = data[6].trim();
-                    if (statusStr.equalsIgnoreCase("APPROVED")) {
-                        regStatus = OfficerRegistrationStatus.APPROVED;
-                    } else if (statusStr.equalsIgnoreCase("REJECTED")) {
-                        regStatus = OfficerRegistrationStatus.REJECTED;
-                    }
-                }
+        @Override
+        public Collection<String> getProjectsOf(String applicantId) {
+            return index.getColdProjectsOf(applicantId);
+        }
 
-                // Create officer without project reference (will be set later)
-                HdbOfficer officer = new HdbOfficer(id, name, password, age, status, name,
-                        null, null, regStatus, null, appRepo, enqRepo);
-                userRepo.add(officer);
-                count++;
+        @Override
+        public List<T> load(String projectId) {
+            if (!index.isCold(projectId)) {
+                // Every row of an open project is in memory already
+                return new ArrayList<>();
+            }
+            try {
+                return parseChunk(new CsvTokenizer(index.readRows(projectId)), parser);
+            } catch (IOException e) {
+                System.err.println("Error loading history of project " + projectId + ": " + e.getMessage());
+                return new ArrayList<>();
             }
         }
 
-        return count;
-    }
+        /**
+         * Stamps the file with its length and modification time, which every
+         * save and every edit by another program changes.
+         */
+        @Override
+        public String getStamp() {
+            if (csvStale || !file.exists()) {
+                // Changes replayed from the journal are not in the file yet
+                return null;
+            }
+            return file.length() + ":" + file.lastModified();
+        }
 
-    /**
-     * Load projects from CSV file
-     */
-    private static int loadProjects(ProjectRepository projectRepo, UserRepository userRepo) throws IOException {
-        int count = 0;
-        File file = new File(PROJECT_FILE);
+        /**
+         * Notes that the save being staged appends to the file.
+         */
+        private void appending() {
+            appendFrom = index.getCoveredLength();
+            rewritten = null;
+        }
 
-        if (!file.exists() || file.length() == 0) {
-            return 0;
-        }
-
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            // Skip header
-            String header = br.readLine();
-            if (header == null)
-                return 0;
-
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data.length < 14)
-                    continue; // Must have all required fields
-
-                String projectID = data[0].trim();
-                String projectName = data[1].trim();
-                String neighborhood = data[2].trim();
-
-                // Parse flat types
-                String[] flatTypeStrs = data[3].trim().split("\\|");
-                List<FlatType> flatTypeList = new ArrayList<>();
-                for (String type : flatTypeStrs) {
-                    if (type.equalsIgnoreCase("TWO_ROOM")) {
-                        flatTypeList.add(FlatType.TWO_ROOM);
-                    } else if (type.equalsIgnoreCase("THREE_ROOM")) {
-                        flatTypeList.add(FlatType.THREE_ROOM);
-                    }
-                }
-                FlatType[] flatTypes = flatTypeList.toArray(new FlatType[0]);
-
-                double floorCount = Double.parseDouble(data[4].trim());
-                double pricePerFlat = Double.parseDouble(data[5].trim());
-                double thresholdPrice = Double.parseDouble(data[6].trim());
-                String openDate = data[7].trim();
-                String closeDate = data[8].trim();
-                boolean visible = Boolean.parseBoolean(data[9].trim());
-                int officerSlots = Integer.parseInt(data[10].trim());
-                int twoRoomUnits = Integer.parseInt(data[11].trim());
-                int threeRoomUnits = Integer.parseInt(data[12].trim());
-                String managerInCharge = data[13].trim();
-
-                // Create the project
-                Project project = new Project(projectID, neighborhood, flatTypes, floorCount,
-                        pricePerFlat, thresholdPrice, openDate, closeDate,
-                        visible, officerSlots, twoRoomUnits, threeRoomUnits);
-                project.setProjectName(projectName);
-                project.setManagerInCharge(managerInCharge);
-
-                projectRepo.add(project);
-                count++;
-
-                // Find the manager and add this project to their list
-                for (User user : userRepo.getAll()) {
-                    if (user instanceof HdbManager &&
-                            user.getName().equals(managerInCharge)) {
-                        HdbManager manager = (HdbManager) user;
-                        manager.getProjectsCreated().add(project);
-                    }
-                }
+        /**
+         * Completes a rewrite of the file that holds the entities in memory
+         * by copying the rows of every other entity that was not deleted.
+         * 
+         * @param transaction The transaction the file is staged in
+         * @param written     The entities written to the staged file
+         * @param changes     The changes being saved
+         */
+        private void rewriting(FileTransaction transaction, List<T> written,
+                Map<String, BaseRepository.Change> changes) throws IOException {
+            Set<String> skipped = new HashSet<>();
+            for (T item : written) {
+                skipped.add(idOf.apply(item));
             }
+            changes.forEach((id, change) -> {
+                if (change.getType() == ChangeType.DELETED) {
+                    skipped.add(id);
+                }
+            });
+            File staged = transaction.getStaged(file);
+            index.copyRows(staged, skipped);
+            rewritten = index.scan(staged);
+            appendFrom = -1;
         }
 
-        return count;
+        /**
+         * Brings the index up to date once the staged save was committed.
+         * Called while holding the index's lock.
+         * 
+         * @param committed false if the commit failed, in which case the file is indexed afresh
+         */
+        private void saved(boolean committed) throws IOException {
+            if (!committed) {
+                index.rebuild();
+            } else if (rewritten != null) {
+                index.install(rewritten);
+            } else if (appendFrom >= 0) {
+                index.appended(appendFrom);
+            }
+            appendFrom = -1;
+            rewritten = null;
+        }
     }
 
     /**
-     * Load applications from CSV file
+     * Commits a save. While history is left on disk, the row indexes are
+     * locked across the commit and updated with it, so that history is never
+     * read from a replaced file through an outdated index.
+     * 
+     * @param transaction The save to commit
+     * @throws IOException If the commit fails
      */
-    private static int loadApplications(ApplicationRepository appRepo,
-            UserRepository userRepo,
-            ProjectRepository projectRepo) throws IOException {
-        int count = 0;
-        File file = new File(APPLICATION_FILE);
-
-        if (!file.exists() || file.length() == 0) {
-            return 0;
-        }
-
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            // Skip header
-            String header = br.readLine();
-            if (header == null)
-                return 0;
-
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data.length < 7)
-                    continue;
-
-                String applicationID = data[0].trim();
-                String applicantID = data[1].trim();
-                String projectID = data[2].trim();
-                String applicationDate = data[3].trim();
-                String statusStr = data[4].trim();
-                String flatTypeStr = data[5].trim();
-                boolean withdrawalRequested = Boolean.parseBoolean(data[6].trim());
-
-                // Find the applicant
-                Applicant applicant = null;
-                for (User user : userRepo.getAll()) {
-                    if (user instanceof Applicant && user.getId().equals(applicantID)) {
-                        applicant = (Applicant) user;
-                        break;
+    private static void commit(FileTransaction transaction) throws IOException {
+        CsvReloader watching = reloader;
+        List<File> appended = transaction.getAppendTargets();
+        if (watching != null) {
+            watching.expect(transaction);
+        }
+        if (applicationHistory == null) {
+            transaction.commit();
+        } else {
+            synchronized (applicationHistory.index) {
+                synchronized (enquiryHistory.index) {
+                    boolean committed = false;
+                    try {
+                        transaction.commit();
+                        committed = true;
+                    } finally {
+                        applicationHistory.saved(committed);
+                        enquiryHistory.saved(committed);
                     }
                 }
-
-                // Find the project
-                Project project = projectRepo.getById(projectID);
-
-                if (applicant == null || project == null) {
-                    System.out.println("Skipping application due to missing applicant or project");
-                    continue;
-                }
-
-                // Parse flat type
-                FlatType flatType = flatTypeStr.equalsIgnoreCase("THREE_ROOM") ? FlatType.THREE_ROOM
-                        : FlatType.TWO_ROOM;
-
-                // Create the application
-                Application application = new Application(
-                        applicationID, applicant, project, applicationDate, flatType);
-
-                // Set status
-                ApplicationStatus status = ApplicationStatus.PENDING;
-                if (statusStr.equalsIgnoreCase("SUCCESSFUL")) {
-                    status = ApplicationStatus.SUCCESSFUL;
-                } else if (statusStr.equalsIgnoreCase("UNSUCCESSFUL")) {
-                    status = ApplicationStatus.UNSUCCESSFUL;
-                } else if (statusStr.equalsIgnoreCase("BOOKED")) {
-                    status = ApplicationStatus.BOOKED;
-                    // If booked, update applicant's profile
-                    applicant.setBookedFlat(flatType);
-                    applicant.setBookedProject(project);
-                }
-                application.updateStatus(status);
-
-                // Set withdrawal request if applicable
-                if (withdrawalRequested) {
-                    application.requestWithdrawal();
-                }
-
-                appRepo.add(application);
-                count++;
             }
         }
-
-        return count;
+        if (watching != null) {
+            // An appended file's new version is only known once the rows are on it
+            watching.expectAppended(appended);
+        }
     }
 
     /**
-     * Load enquiries from CSV file
+     * Starts applying the changes other programs make to the CSV files while
+     * the system runs, unless -Dbto.reload=false; see {@link CsvReloader}.
+     * Only the csv storage engine keeps the data in the CSV files, so nothing
+     * is watched with the others, nor after a failed load.
+     * 
+     * @param storage     The storage engine the data was loaded from
+     * @param userRepo    The user repository to update
+     * @param projectRepo The project repository to update
+     * @param appRepo     The application repository to update
+     * @param enquiryRepo The enquiry repository to update
+     * @param history     The columnar history of closed projects, or null
+     * @return The running reloader, to close on shutdown, or null if the files are not watched
      */
-    private static int loadEnquiries(EnquiryRepository enquiryRepo,
-            UserRepository userRepo,
-            ProjectRepository projectRepo) throws IOException {
-        int count = 0;
-        File file = new File(ENQUIRY_FILE);
+    public static CsvReloader startReloader(IStorageEngine storage, UserRepository userRepo,
+            ProjectRepository projectRepo, ApplicationRepository appRepo, EnquiryRepository enquiryRepo,
+            ColumnarHistory history) {
+        if (!RELOAD || !(storage instanceof CsvStorage) || loadFailed) {
+            return null;
+        }
+        try {
+            reloader = new CsvReloader(new File(DATA_DIR), userRepo, projectRepo, appRepo, enquiryRepo, history,
+                    RELOAD_SETTLE_MS);
+            return reloader;
+        } catch (IOException e) {
+            System.err.println("Cannot watch the data files; changes to them are read at the next start: "
+                    + e.getMessage());
+            return null;
+        }
+    }
 
-        if (!file.exists() || file.length() == 0) {
-            return 0;
-        }
-
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            // Skip header
-            String header = br.readLine();
-            if (header == null)
-                return 0;
-
-            String line;
-            while ((line = br.readLine()) != null) {
-                // Handle commas within quoted message content
-                List<String> data = parseCSVLine(line);
-                if (data.size() < 6)
-                    continue;
-
-                String enquiryID = data.get(0).trim();
-                String projectID = data.get(1).trim();
-                String applicantID = data.get(2).trim();
-                String message = data.get(3).trim();
-                String response = data.get(4).trim();
-                String statusStr = data.get(5).trim();
-
-                // Find the applicant
-                Applicant applicant = null;
-                for (User user : userRepo.getAll()) {
-                    if (user instanceof Applicant && user.getId().equals(applicantID)) {
-                        applicant = (Applicant) user;
-                        break;
-                    }
-                }
+    /**
+     * Checks whether the CSV files hold the saved state, so that changes
+     * made to them can be applied. While the snapshot is ahead of them, the
+     * next save rewrites them anyway.
+     * 
+     * @return true if the CSV files are current
+     */
+    static boolean isCsvCurrent() {
+        return !csvStale && !loadFailed;
+    }
 
-                // Find the project
-                Project project = projectRepo.getById(projectID);
+    /**
+     * Brings the row index of a CSV file whose history is left on disk up to
+     * date with a change another program made to the file.
+     * 
+     * @param file         The changed CSV file
+     * @param appendedFrom The length of the file before rows were appended to it, or -1 if it was replaced
+     * @throws IOException If the file cannot be read
+     */
+    static void reindexHistory(File file, long appendedFrom) throws IOException {
+        CsvHistory<?> history = historyOf(file);
+        if (history == null) {
+            return;
+        }
+        if (appendedFrom < 0) {
+            history.index.rebuild();
+        } else {
+            history.index.appended(appendedFrom);
+        }
+    }
 
-                if (applicant == null || project == null) {
-                    System.out.println("Skipping enquiry due to missing applicant or project");
-                    continue;
-                }
+    /**
+     * Returns the closed projects whose rows of a CSV file are left on disk.
+     * 
+     * @param file The CSV file
+     * @return The projects' IDs, empty unless history is loaded on demand
+     */
+    static Set<String> getColdProjects(File file) {
+        CsvHistory<?> history = historyOf(file);
+        return history == null ? Collections.emptySet() : history.index.getColdProjects();
+    }
 
-                // Create the enquiry
-                Enquiry enquiry = new Enquiry(enquiryID, project, applicant, message);
+    /**
+     * Finds the history left on disk of a CSV file.
+     * 
+     * @param file The CSV file
+     * @return Its history, or null if it is all in memory
+     */
+    private static CsvHistory<?> historyOf(File file) {
+        if (applicationHistory != null && applicationHistory.file.equals(file)) {
+            return applicationHistory;
+        }
+        if (enquiryHistory != null && enquiryHistory.file.equals(file)) {
+            return enquiryHistory;
+        }
+        return null;
+    }
 
-                // Set status and response if applicable
-                if (statusStr.equalsIgnoreCase("REPLIED") && !response.isEmpty() && !response.equals("null")) {
-                    enquiry.reply(response);
+    /**
+     * Saves all data from the system repositories to files.
+     * This is the checkpoint: regular saves only force the journal (see
+     * {@link #saveChanges}), and the journaled changes reach the CSV files
+     * and snapshot here, at shutdown and in the journal's background
+     * checkpoints, after which the journal starts empty again.
+     * Only the files whose repositories changed since the last checkpoint
+     * are written: a file that only gained new entities has them appended,
+     * any other change rewrites the file. While history is left on disk
+     * there is no snapshot, and rewritten files keep the rows of the
+     * entities that are not in memory.
+     * <p>
+     * A rewritten file is written to a temporary file, and appended rows are
+     * staged on their own; the whole set is committed in one
+     * {@link FileTransaction}, so a crash leaves each file either old or new.
+     * The journal is forced first, so that it holds every change the files do.
+     * Nothing is saved after a failed load, so that the files it could not
+     * read are not overwritten.
+     * 
+     * @param userRepo    The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo     The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @return true if saving was successful, false otherwise
+     */
+    public static boolean saveAllData(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        if (loadFailed) {
+            System.err.println("Not saving: the data files could not be loaded and are left untouched.");
+            return false;
+        }
+        try {
+            Journal open = journal;
+            if (open != null) {
+                open.checkpoint(() -> writeBase(userRepo, projectRepo, appRepo, enquiryRepo));
+            } else {
+                catchUp();
+                synchronized (SAVE_LOCK) {
+                    writeAll(userRepo, projectRepo, appRepo, enquiryRepo);
                 }
+            }
+
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving data: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
 
-                enquiryRepo.add(enquiry);
-                count++;
+    /**
+     * Folds the changes since the last checkpoint into the CSV files and,
+     * unless history is left on disk, writes the snapshot after them; the
+     * body of a journal checkpoint.
+     * 
+     * @param userRepo    The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo     The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @throws IOException If a file cannot be written; the journal is kept then
+     */
+    private static void writeBase(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) throws IOException {
+        catchUp();
+        synchronized (SAVE_LOCK) {
+            writeAll(userRepo, projectRepo, appRepo, enquiryRepo);
+            if (applicationHistory != null) {
+                return;
             }
+            if (csvStale || userRepo.isDirty() || projectRepo.isDirty() || appRepo.isDirty()
+                    || enquiryRepo.isDirty()) {
+                // Written since the CSV files; marked first, so a crash in between cannot leave it missing
+                new File(CSV_STALE_FILE).createNewFile();
+            }
+            BinarySnapshot.write(new File(SNAPSHOT_FILE), userRepo, projectRepo, appRepo, enquiryRepo);
         }
+    }
 
-        return count;
+    /**
+     * Applies the changes other programs made to the CSV files, so that a
+     * save does not overwrite them.
+     */
+    private static void catchUp() {
+        CsvReloader watching = reloader;
+        if (watching != null) {
+            watching.catchUp();
+        }
     }
 
     /**
-     * Saves all data from the system repositories to files.
+     * Writes every file that changed since the last save in one transaction
+     * and marks the written changes as saved; see {@link #saveAllData}.
      * 
      * @param userRepo    The user repository to save
      * @param projectRepo The project repository to save
      * @param appRepo     The application repository to save
      * @param enquiryRepo The enquiry repository to save
-     * @return true if saving was successful, false otherwise
+     * @throws IOException If a file cannot be written; nothing is marked as saved then
      */
-    public static boolean saveAllData(UserRepository userRepo, ProjectRepository projectRepo,
-            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+    private static void writeAll(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) throws IOException {
+        FileTransaction transaction = new FileTransaction();
+        Map<String, BaseRepository.Change> users;
+        Map<String, BaseRepository.Change> projects;
+        Map<String, BaseRepository.Change> applications;
+        Map<String, BaseRepository.Change> enquiries;
         try {
             // Save users (applicants, managers, officers)
-            saveApplicants(userRepo);
-            saveManagers(userRepo);
-            saveOfficers(userRepo);
+            users = saveUsers(transaction, userRepo);
 
             // Save projects
-            saveProjects(projectRepo);
+            projects = saveChanged(transaction, projectRepo, FileHandler::saveProjects, null);
 
             // Save applications
-            saveApplications(appRepo);
+            applications = saveChanged(transaction, appRepo, FileHandler::saveApplications, applicationHistory);
 
             // Save enquiries
-            saveEnquiries(enquiryRepo);
+            enquiries = saveChanged(transaction, enquiryRepo, FileHandler::saveEnquiries, enquiryHistory);
 
-            return true;
-        } catch (IOException e) {
-            System.err.println("Error saving data: " + e.getMessage());
-            e.printStackTrace();
-            return false;
+            if (journal != null) {
+                // Replaying the journal after a crash must not take a file back behind what it holds
+                journal.sync();
+            }
+        } catch (IOException | RuntimeException e) {
+            transaction.abort();
+            throw e;
         }
+        commit(transaction);
+
+        // Only now are the changes on disk
+        markSaved(userRepo, users);
+        markSaved(projectRepo, projects);
+        markSaved(appRepo, applications);
+        markSaved(enquiryRepo, enquiries);
+        csvStale = false;
+        Files.deleteIfExists(new File(CSV_STALE_FILE).toPath());
     }
 
     /**
-     * Save applicants to CSV file
+     * Marks every repository as saved, after loading data that the CSV files already hold.
+     * 
+     * @param userRepo    The user repository
+     * @param projectRepo The project repository
+     * @param appRepo     The application repository
+     * @param enquiryRepo The enquiry repository
+     */
+    private static void markSaved(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        userRepo.markSaved(userRepo.getChanges());
+        projectRepo.markSaved(projectRepo.getChanges());
+        appRepo.markSaved(appRepo.getChanges());
+        enquiryRepo.markSaved(enquiryRepo.getChanges());
+    }
+
+    /**
+     * Marks the changes written by a committed save as saved.
+     * 
+     * @param repo    The repository that was saved
+     * @param changes The changes that were written, or null if its files were not written
+     */
+    private static <T> void markSaved(BaseRepository<T> repo, Map<String, BaseRepository.Change> changes) {
+        if (changes != null) {
+            repo.markSaved(changes);
+        }
+    }
+
+    /**
+     * Saves the changes of one repository since the last checkpoint to its
+     * CSV file. Only checkpoints call this, so a rewrite is paid once per
+     * checkpoint rather than once per save.
+     * 
+     * @param transaction The transaction to stage the file in
+     * @param repo        The repository to save
+     * @param saver       Writes the repository's entities to its file
+     * @param history     The entities of the repository left on disk, or null if all are in memory
+     * @return The changes written, to be marked as saved after the commit, or null if nothing changed
+     */
+    private static <T> Map<String, BaseRepository.Change> saveChanged(FileTransaction transaction,
+            BaseRepository<T> repo, CsvSaver<T> saver, CsvHistory<T> history) throws IOException {
+        Map<String, BaseRepository.Change> changes = repo.getChanges();
+        if (changes.isEmpty() && !csvStale) {
+            return null;
+        }
+
+        if (isAppendOnly(changes)) {
+            saver.save(transaction, repo.getByIds(changes.keySet()), true);
+            if (history != null) {
+                history.appending();
+            }
+        } else if (history != null) {
+            // Only what is in memory is written; the rows of the rest are copied over
+            List<T> resident = repo.getResident();
+            saver.save(transaction, resident, false);
+            history.rewriting(transaction, resident, changes);
+        } else {
+            saver.save(transaction, repo.getAll(), false);
+        }
+        return changes;
+    }
+
+    /**
+     * Saves the changes of the user repository to the applicant, manager and
+     * officer files. New users are appended to the file of their role; any
+     * other change rewrites all three files, since a deleted user's role is
+     * no longer known.
+     * 
+     * @param transaction The transaction to stage the files in
+     * @param userRepo    The user repository to save
+     * @return The changes written, to be marked as saved after the commit, or null if nothing changed
      */
-    private static void saveApplicants(UserRepository userRepo) throws IOException {
-        List<User> users = userRepo.getAll();
-        List<Applicant> applicants = new ArrayList<>();
+    private static Map<String, BaseRepository.Change> saveUsers(FileTransaction transaction,
+            UserRepository userRepo) throws IOException {
+        Map<String, BaseRepository.Change> changes = userRepo.getChanges();
+        if (changes.isEmpty() && !csvStale) {
+            return null;
+        }
+
+        if (isAppendOnly(changes)) {
+            List<Applicant> applicants = new ArrayList<>();
+            List<HdbManager> managers = new ArrayList<>();
+            List<HdbOfficer> officers = new ArrayList<>();
+            for (User user : userRepo.getByIds(changes.keySet())) {
+                if (user instanceof HdbManager) {
+                    managers.add((HdbManager) user);
+                } else if (user instanceof HdbOfficer) {
+                    officers.add((HdbOfficer) user);
+                } else if (user instanceof Applicant) {
+                    applicants.add((Applicant) user);
+                }
+            }
+            if (!applicants.isEmpty()) {
+                saveApplicants(transaction, applicants, true);
+            }
+            if (!managers.isEmpty()) {
+                saveManagers(transaction, managers, true);
+            }
+            if (!officers.isEmpty()) {
+                saveOfficers(transaction, officers, true);
+            }
+        } else {
+            saveApplicants(transaction, userRepo.getApplicants(), false);
+            saveManagers(transaction, userRepo.getManagers(), false);
+            saveOfficers(transaction, userRepo.getOfficers(), false);
+        }
+        return changes;
+    }
 
-        // Filter to get only applicants
-        for (User user : users) {
-            if (user instanceof Applicant && !(user instanceof HdbManager) && !(user instanceof HdbOfficer)) {
-                applicants.add((Applicant) user);
+    /**
+     * Checks whether a set of changes can be saved by appending rows.
+     * 
+     * @param changes The changes since the last save
+     * @return true if every change is an addition and the CSV files hold everything else
+     */
+    private static boolean isAppendOnly(Map<String, BaseRepository.Change> changes) {
+        if (csvStale) {
+            return false;
+        }
+        for (BaseRepository.Change change : changes.values()) {
+            if (change.getType() != ChangeType.ADDED) {
+                return false;
             }
         }
+        return true;
+    }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(APPLICANT_FILE))) {
-            // Write header
-            writer.write("ID,Name,Password,Age,MaritalStatus,Income\n");
+    /**
+     * Opens the temporary file that replaces a CSV file when the transaction
+     * commits, or that holds rows the commit adds to its end. A rewritten
+     * file starts with its header; appended rows go after the current file
+     * without copying it.
+     * 
+     * @param transaction The transaction to stage the file in
+     * @param path        The CSV file to replace or append to
+     * @param header      The header line, without the line break
+     * @param append      true to add rows to the end of the file, false to rewrite it
+     * @return A buffered UTF-8 writer positioned where the rows go
+     */
+    private static BufferedWriter openCsv(FileTransaction transaction, String path, String header, boolean append)
+            throws IOException {
+        File target = new File(path);
+        File temp = append ? transaction.stageAppend(target) : transaction.stage(target);
+        boolean endsInLineBreak = true;
+        if (append && target.exists()) {
+            try (RandomAccessFile file = new RandomAccessFile(target, "r")) {
+                if (file.length() > 0) {
+                    file.seek(file.length() - 1);
+                    endsInLineBreak = file.read() == '\n';
+                }
+            }
+        }
+        BufferedWriter writer = new BufferedWriter(new FileWriter(temp, StandardCharsets.UTF_8));
+        if (!append) {
+            writer.write(header + "\n");
+        } else if (!endsInLineBreak) {
+            // The file was edited by hand without a final line break
+            writer.write("\n");
+        }
+        return writer;
+    }
 
+    /**
+     * Save applicants to CSV file
+     */
+    private static void saveApplicants(FileTransaction transaction, List<? extends Applicant> applicants, boolean append) throws IOException {
+        try (BufferedWriter writer = openCsv(transaction, APPLICANT_FILE, String.join(",", USER_COLUMNS),
+                append)) {
             // Write data
             for (Applicant applicant : applicants) {
                 writer.write(
                         applicant.getId() + "," +
-                                applicant.getName() + "," +
-                                applicant.getPassword() + "," +
+                                escapeCSV(applicant.getName()) + "," +
+                                escapeCSV(applicant.getPassword()) + "," +
                                 applicant.getAge() + "," +
                                 applicant.getMaritalStatus() + "," +
                                 applicant.getIncomeRange() + "\n");
@@ -630,27 +1916,15 @@ public class FileHandler {
     /**
      * Save managers to CSV file
      */
-    private static void saveManagers(UserRepository userRepo) throws IOException {
-        List<User> users = userRepo.getAll();
-        List<HdbManager> managers = new ArrayList<>();
-
-        // Filter to get only managers
-        for (User user : users) {
-            if (user instanceof HdbManager) {
-                managers.add((HdbManager) user);
-            }
-        }
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(MANAGER_FILE))) {
-            // Write header
-            writer.write("ID,Name,Password,Age,MaritalStatus,Income\n");
-
+    private static void saveManagers(FileTransaction transaction, List<? extends HdbManager> managers, boolean append) throws IOException {
+        try (BufferedWriter writer = openCsv(transaction, MANAGER_FILE, String.join(",", USER_COLUMNS),
+                append)) {
             // Write data
             for (HdbManager manager : managers) {
                 writer.write(
                         manager.getId() + "," +
-                                manager.getName() + "," +
-                                manager.getPassword() + "," +
+                                escapeCSV(manager.getName()) + "," +
+                                escapeCSV(manager.getPassword()) + "," +
                                 manager.getAge() + "," +
                                 manager.getMaritalStatus() + "," +
                                 manager.getIncomeRange() + "\n");
@@ -661,21 +1935,9 @@ public class FileHandler {
     /**
      * Save officers to CSV file
      */
-    private static void saveOfficers(UserRepository userRepo) throws IOException {
-        List<User> users = userRepo.getAll();
-        List<HdbOfficer> officers = new ArrayList<>();
-
-        // Filter to get only officers
-        for (User user : users) {
-            if (user instanceof HdbOfficer) {
-                officers.add((HdbOfficer) user);
-            }
-        }
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(OFFICER_FILE))) {
-            // Write header
-            writer.write("ID,Name,Password,Age,MaritalStatus,HandlingProjectID,RegistrationStatus\n");
-
+    private static void saveOfficers(FileTransaction transaction, List<? extends HdbOfficer> officers, boolean append) throws IOException {
+        try (BufferedWriter writer = openCsv(transaction, OFFICER_FILE,
+                String.join(",", OFFICER_COLUMNS), append)) {
             // Write data
             for (HdbOfficer officer : officers) {
                 String handlingProjectID = (officer.getHandlingProject() != null)
@@ -684,8 +1946,8 @@ public class FileHandler {
 
                 writer.write(
                         officer.getId() + "," +
-                                officer.getName() + "," +
-                                officer.getPassword() + "," +
+                                escapeCSV(officer.getName()) + "," +
+                                escapeCSV(officer.getPassword()) + "," +
                                 officer.getAge() + "," +
                                 officer.getMaritalStatus() + "," +
                                 handlingProjectID + "," +
@@ -697,14 +1959,9 @@ public class FileHandler {
     /**
      * Save projects to CSV file
      */
-    private static void saveProjects(ProjectRepository projectRepo) throws IOException {
-        List<Project> projects = projectRepo.getAll();
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(PROJECT_FILE))) {
-            // Write header
-            writer.write("ProjectID,ProjectName,Neighborhood,FlatTypes,FloorCount,PricePerFlat,ThresholdPrice," +
-                    "OpenDate,CloseDate,Visible,OfficerSlots,TwoRoomUnits,ThreeRoomUnits,ManagerInCharge\n");
-
+    private static void saveProjects(FileTransaction transaction, List<? extends Project> projects, boolean append) throws IOException {
+        try (BufferedWriter writer = openCsv(transaction, PROJECT_FILE,
+                String.join(",", PROJECT_COLUMNS), append)) {
             // Write data
             for (Project project : projects) {
                 // Convert flat types to a pipe-separated string
@@ -717,8 +1974,8 @@ public class FileHandler {
 
                 writer.write(
                         project.getProjectID() + "," +
-                                project.getProjectName() + "," +
-                                project.getNeighborhood() + "," +
+                                escapeCSV(project.getProjectName()) + "," +
+                                escapeCSV(project.getNeighborhood()) + "," +
                                 flatTypesStr.toString() + "," +
                                 project.getFloorCount() + "," +
                                 project.getPricePerFlat() + "," +
@@ -729,7 +1986,7 @@ public class FileHandler {
                                 project.getAvailableOfficerSlots() + "," +
                                 project.getTwoRoomUnitsAvailable() + "," +
                                 project.getThreeRoomUnitsAvailable() + "," +
-                                project.getManagerInCharge() + "\n");
+                                escapeCSV(project.getManagerInCharge()) + "\n");
             }
         }
     }
@@ -737,12 +1994,10 @@ public class FileHandler {
     /**
      * Save applications to CSV file
      */
-    private static void saveApplications(ApplicationRepository appRepo) throws IOException {
-        List<Application> applications = appRepo.getAll();
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(APPLICATION_FILE))) {
-            // Write header
-            writer.write("ApplicationID,ApplicantID,ProjectID,ApplicationDate,Status,FlatType,WithdrawalRequested\n");
+    private static void saveApplications(FileTransaction transaction, List<? extends Application> applications,
+            boolean append) throws IOException {
+        try (BufferedWriter writer = openCsv(transaction, APPLICATION_FILE,
+                String.join(",", APPLICATION_COLUMNS), append)) {
 
             // Write data
             for (Application app : applications) {
@@ -761,12 +2016,9 @@ public class FileHandler {
     /**
      * Save enquiries to CSV file
      */
-    private static void saveEnquiries(EnquiryRepository enquiryRepo) throws IOException {
-        List<Enquiry> enquiries = enquiryRepo.getAll();
-
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(ENQUIRY_FILE))) {
-            // Write header
-            writer.write("EnquiryID,ProjectID,ApplicantID,Message,Response,Status\n");
+    private static void saveEnquiries(FileTransaction transaction, List<? extends Enquiry> enquiries, boolean append) throws IOException {
+        try (BufferedWriter writer = openCsv(transaction, ENQUIRY_FILE, String.join(",", ENQUIRY_COLUMNS),
+                append)) {
 
             // Write data
             for (Enquiry enquiry : enquiries) {
@@ -785,12 +2037,70 @@ public class FileHandler {
         }
     }
 
+    /**
+     * Formats a receipt as a row of the receipt file.
+     * 
+     * @param receipt The receipt
+     * @return The row, ending in a line break
+     */
+    private static String receiptRow(Receipt receipt) {
+        return receipt.getReceiptID() + "," +
+                escapeCSV(receipt.getName()) + "," +
+                escapeCSV(receipt.getNRIC()) + "," +
+                receipt.getAge() + "," +
+                escapeCSV(receipt.getMaritalStatus()) + "," +
+                escapeCSV(receipt.getProjectID()) + "," +
+                escapeCSV(receipt.getNeighborhood()) + "," +
+                receipt.getPricePerFlat() + "," +
+                receipt.getFlatType() + "," +
+                escapeCSV(receipt.getBookingDate()) + "\n";
+    }
+
+    /**
+     * Appends a newly issued receipt to the receipt file and forces it to disk.
+     * Receipts never change once issued, so the file is only ever appended to.
+     * 
+     * @param receipt The receipt to save
+     * @return true if the receipt was saved, false otherwise
+     */
+    public static boolean appendReceipt(Receipt receipt) {
+        try {
+            File file = new File(RECEIPT_FILE);
+            StringBuilder row = new StringBuilder();
+            if (!file.exists() || file.length() == 0) {
+                row.append(String.join(",", RECEIPT_COLUMNS)).append("\n");
+            } else {
+                try (RandomAccessFile existing = new RandomAccessFile(file, "r")) {
+                    existing.seek(existing.length() - 1);
+                    if (existing.read() != '\n') {
+                        // The file was edited by hand without a final line break
+                        row.append("\n");
+                    }
+                }
+            }
+            row.append(receiptRow(receipt));
+
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(row.toString());
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(true);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving receipt to file: " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Create default data if loading fails
      */
     private static void createDefaultData(UserRepository userRepo, ProjectRepository projectRepo,
             ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
-        createDefaultUsers(userRepo, appRepo, enquiryRepo);
+        createDefaultUsers(userRepo, projectRepo, appRepo, enquiryRepo);
         createSampleProjects(userRepo, projectRepo);
     }
 
@@ -798,14 +2108,16 @@ public class FileHandler {
      * Creates default users for demonstration purposes.
      * 
      * @param userRepo        Repository for user data
+     * @param projectRepo     Repository for project data
      * @param applicationRepo Repository for application data
      * @param enquiryRepo     Repository for enquiry data
      * @return The number of users created
      */
 
-    private static int createDefaultUsers(UserRepository userRepo, ApplicationRepository applicationRepo,
-            EnquiryRepository enquiryRepo) {
+    private static int createDefaultUsers(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository applicationRepo, EnquiryRepository enquiryRepo) {
         int count = 0;
+
         List<User> defaultUsers = new ArrayList<>();
 
         try {
@@ -856,7 +2168,8 @@ public class FileHandler {
                     OfficerRegistrationStatus.PENDING,
                     manager3,
                     applicationRepo,
-                    enquiryRepo // Will be set later
+                    enquiryRepo, // Will be set later
+                    projectRepo
             );
             defaultUsers.add(officer1);
             count++;
@@ -873,7 +2186,8 @@ public class FileHandler {
                     OfficerRegistrationStatus.PENDING,
                     manager2,
                     applicationRepo,
-                    enquiryRepo);
+                    enquiryRepo,
+                    projectRepo);
             defaultUsers.add(officer2);
             count++;
 
@@ -937,9 +2251,7 @@ public class FileHandler {
             count++;
 
             // Add all users to the repository
-            for (User user : defaultUsers) {
-                userRepo.add(user);
-            }
+            userRepo.addAll(defaultUsers);
         } catch (Exception e) {
             // Log the error but don't print to console
             e.printStackTrace();
@@ -958,18 +2270,19 @@ public class FileHandler {
             HdbManager manager2 = null;
             HdbManager manager3 = null;
 
-            for (User user : userRepo.getAll()) {
-                if (user instanceof HdbManager) {
-                    if (manager1 == null) {
-                        manager1 = (HdbManager) user;
-                    } else if (manager2 == null) {
-                        manager2 = (HdbManager) user;
-                    } else if (manager3 == null) {
-                        manager3 = (HdbManager) user;
-                    }
+            for (HdbManager manager : userRepo.getManagers()) {
+                if (manager1 == null) {
+                    manager1 = manager;
+                } else if (manager2 == null) {
+                    manager2 = manager;
+                } else if (manager3 == null) {
+                    manager3 = manager;
                 }
             }
 
+            // Managers created here are added to the repository together
+            List<HdbManager> createdManagers = new ArrayList<>();
+
             if (manager1 == null) {
                 // Create a manager if none exists
                 manager1 = new HdbManager(
@@ -980,7 +2293,7 @@ public class FileHandler {
                         MaritalStatus.MARRIED,
                         "Default Manager",
                         120000.0);
-                userRepo.add(manager1);
+                createdManagers.add(manager1);
             }
 
             if (manager2 == null) {
@@ -992,7 +2305,7 @@ public class FileHandler {
                         MaritalStatus.SINGLE,
                         "Default Manager",
                         125000.0);
-                userRepo.add(manager2);
+                createdManagers.add(manager2);
             }
 
             if (manager3 == null) {
@@ -1004,8 +2317,9 @@ public class FileHandler {
                         MaritalStatus.MARRIED,
                         "Default Manager",
                         130000.0);
-                userRepo.add(manager3);
+                createdManagers.add(manager3);
             }
+            userRepo.addAll(createdManagers);
 
             // Create sample projects
             SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
@@ -1057,40 +2371,13 @@ public class FileHandler {
     }
 
     /**
-     * Parse a CSV line, handling quoted content with commas
-     */
-    private static List<String> parseCSVLine(String line) {
-        List<String> result = new ArrayList<>();
-        boolean inQuotes = false;
-        StringBuilder field = new StringBuilder();
-
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-
-            if (c == '"') {
-                inQuotes = !inQuotes;
-            } else if (c == ',' && !inQuotes) {
-                result.add(field.toString());
-                field = new StringBuilder();
-            } else {
-                field.append(c);
-            }
-        }
-
-        // Add the last field
-        result.add(field.toString());
-
-        return result;
-    }
-
-    /**
-     * Escape CSV content (wrap in quotes if it contains commas)
+     * Escape CSV content (wrap in quotes if it contains commas, quotes or line breaks)
      */
     private static String escapeCSV(String input) {
         if (input == null)
             return "";
 
-        if (input.contains(",") || input.contains("\"") || input.contains("\n")) {
+        if (input.contains(",") || input.contains("\"") || input.contains("\n") || input.contains("\r")) {
             // Replace all quotes with double quotes
             String escaped = input.replace("\"", "\"\"");
             // Wrap in quotes
@@ -1107,27 +2394,12 @@ public class FileHandler {
      * @return A string summarizing the number of users by type
      */
     public static String getUserSummary(UserRepository userRepo) {
-        List<User> users = userRepo.getAll();
-        int managerCount = 0;
-        int officerCount = 0;
-        int applicantCount = 0;
-
-        for (User user : users) {
-            if (user instanceof HdbManager) {
-                managerCount++;
-            } else if (user instanceof HdbOfficer) {
-                officerCount++;
-            } else if (user instanceof Applicant) {
-                applicantCount++;
-            }
-        }
-
         StringBuilder sb = new StringBuilder();
         sb.append("User Summary:\n");
-        sb.append("Total Users: ").append(users.size()).append("\n");
-        sb.append("Managers: ").append(managerCount).append("\n");
-        sb.append("Officers: ").append(officerCount).append("\n");
-        sb.append("Applicants: ").append(applicantCount);
+        sb.append("Total Users: ").append(userRepo.size()).append("\n");
+        sb.append("Managers: ").append(userRepo.countManagers()).append("\n");
+        sb.append("Officers: ").append(userRepo.countOfficers()).append("\n");
+        sb.append("Applicants: ").append(userRepo.countApplicants());
 
         return sb.toString();
     }
@@ -0,0 +1,324 @@
+package sc2002.bto.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces a set of files so that a crash never leaves a partly written one.
+ * New contents go to a temporary file next to each target, obtained from
+ * {@link #stage(File)}. {@link #commit()} forces the temporary files to disk,
+ * renames each over its target, and forces the directory, so after a crash
+ * every target holds either its old or its new contents in full.
+ * <p>
+ * Rows added to the end of a target are staged on their own with
+ * {@link #stageAppend(File)}, so the target is not copied. Before the commit
+ * adds them to the target, it records the target's length in an intent file
+ * next to it; after a crash, {@link #deleteLeftovers(File)} cuts the target
+ * back to that length, leaving it as it was before the save.
+ * <p>
+ * Commits are grouped: transactions committed while another commit is on
+ * its way to disk wait for it and are then committed together by one of
+ * them, sharing one sync of each directory.
+ */
+public class FileTransaction {
+    /** Suffix of the temporary files */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** Suffix of the file holding a target's length while rows are appended to it */
+    private static final String APPEND_SUFFIX = ".append";
+
+    /** Guards the commit queue */
+    private static final Object COMMIT_LOCK = new Object();
+    /** Transactions waiting for the next group commit */
+    private static final List<FileTransaction> QUEUE = new ArrayList<>();
+    /** Whether a transaction is committing a group right now */
+    private static boolean committing;
+
+    /** Staged files, temporary file to target, in staging order */
+    private final Map<File, File> staged = new LinkedHashMap<>();
+    /** Staged rows to append, temporary file to target, in staging order */
+    private final Map<File, File> appends = new LinkedHashMap<>();
+    /** Set once the group holding this transaction has been committed */
+    private boolean done;
+    /** Why committing this transaction failed, if it did */
+    private IOException failure;
+
+    /**
+     * Gets the temporary file to write the new contents of a target to.
+     * The temporary file is deleted first if a previous attempt left it behind.
+     *
+     * @param target The file to replace on commit
+     * @return The temporary file, in the same directory as the target
+     * @throws IOException If a leftover temporary file cannot be deleted
+     */
+    public File stage(File target) throws IOException {
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        Files.deleteIfExists(temp.toPath());
+        staged.put(temp, target);
+        return temp;
+    }
+
+    /**
+     * Gets a temporary file to write rows to that the commit adds to the end
+     * of the target, creating the target if it does not exist.
+     * The temporary file is deleted first if a previous attempt left it behind.
+     *
+     * @param target The file to append to on commit
+     * @return The temporary file, in the same directory as the target
+     * @throws IOException If a leftover temporary file cannot be deleted
+     */
+    public File stageAppend(File target) throws IOException {
+        File temp = new File(target.getPath() + APPEND_SUFFIX + TEMP_SUFFIX);
+        Files.deleteIfExists(temp.toPath());
+        appends.put(temp, target);
+        return temp;
+    }
+
+    /**
+     * Gets the files this transaction appends to.
+     *
+     * @return The targets of {@link #stageAppend(File)}, until the transaction is committed or aborted
+     */
+    public List<File> getAppendTargets() {
+        return new ArrayList<>(appends.values());
+    }
+
+    /**
+     * Gets the temporary file staged for a target, to keep writing to it.
+     *
+     * @param target A file staged in this transaction
+     * @return The temporary file, or null if the target is not staged
+     */
+    public File getStaged(File target) {
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        return staged.containsKey(temp) ? temp : null;
+    }
+
+    /**
+     * Durably replaces every staged target with its temporary file, then
+     * appends the staged rows. Targets are replaced in the order they were
+     * staged.
+     *
+     * @throws IOException If a file cannot be forced, renamed or appended to;
+     *         targets replaced before the failure keep their new contents,
+     *         and targets appended to are cut back
+     */
+    public void commit() throws IOException {
+        List<FileTransaction> group;
+        synchronized (COMMIT_LOCK) {
+            QUEUE.add(this);
+            boolean interrupted = false;
+            while (committing && !done) {
+                try {
+                    COMMIT_LOCK.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (done) {
+                rethrowFailure();
+                return;
+            }
+            // Lead the next group: everything queued while the last one was committed
+            committing = true;
+            group = new ArrayList<>(QUEUE);
+            QUEUE.clear();
+        }
+
+        try {
+            commitGroup(group);
+        } finally {
+            synchronized (COMMIT_LOCK) {
+                for (FileTransaction transaction : group) {
+                    transaction.done = true;
+                }
+                committing = false;
+                COMMIT_LOCK.notifyAll();
+            }
+        }
+        rethrowFailure();
+    }
+
+    /**
+     * Deletes the temporary files of a transaction that will not be committed.
+     */
+    public void abort() {
+        for (File temp : staged.keySet()) {
+            temp.delete();
+        }
+        staged.clear();
+        for (File temp : appends.keySet()) {
+            temp.delete();
+        }
+        appends.clear();
+    }
+
+    /**
+     * Deletes temporary files left behind in a directory by a crash, and cuts
+     * the targets of appends a crash interrupted back to their old length.
+     *
+     * @param directory The directory holding the targets
+     * @throws IOException If an interrupted append cannot be undone
+     */
+    public static void deleteLeftovers(File directory) throws IOException {
+        File[] intents = directory.listFiles((dir, name) -> name.endsWith(APPEND_SUFFIX));
+        if (intents != null) {
+            for (File intent : intents) {
+                String path = intent.getPath();
+                File target = new File(path.substring(0, path.length() - APPEND_SUFFIX.length()));
+                byte[] length = Files.readAllBytes(intent.toPath());
+                if (length.length == Long.BYTES && target.exists()) {
+                    try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+                        channel.truncate(ByteBuffer.wrap(length).getLong());
+                        channel.force(true);
+                    }
+                    System.out.println("Undid unfinished append: " + target.getPath());
+                }
+                // An intent cut short was never forced, so the append had not started
+                Files.delete(intent.toPath());
+            }
+        }
+        File[] leftovers = directory.listFiles((dir, name) -> name.endsWith(TEMP_SUFFIX));
+        if (leftovers == null) {
+            return;
+        }
+        for (File leftover : leftovers) {
+            if (leftover.delete()) {
+                System.out.println("Deleted unfinished save: " + leftover.getPath());
+            }
+        }
+    }
+
+    /**
+     * Forces, renames and syncs the files of a group of transactions.
+     * A failing transaction does not stop the others.
+     */
+    private static void commitGroup(List<FileTransaction> group) {
+        Set<File> directories = new LinkedHashSet<>();
+        for (FileTransaction transaction : group) {
+            try {
+                for (File temp : transaction.staged.keySet()) {
+                    try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    }
+                }
+                for (Map.Entry<File, File> entry : transaction.staged.entrySet()) {
+                    Files.move(entry.getKey().toPath(), entry.getValue().toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    directories.add(entry.getValue().getAbsoluteFile().getParentFile());
+                }
+                transaction.staged.clear();
+                transaction.appendAll();
+            } catch (IOException e) {
+                transaction.failure = e;
+                transaction.abort();
+            }
+        }
+
+        for (File directory : directories) {
+            try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // Some platforms cannot sync a directory; the renames are still atomic
+            }
+        }
+    }
+
+    /**
+     * Adds the staged rows to the end of their targets. The targets' lengths
+     * are made durable in intent files first, and the intent files are
+     * deleted once the rows are on disk; if appending fails, the targets are
+     * cut back to those lengths.
+     *
+     * @throws IOException If the rows cannot be appended
+     */
+    private void appendAll() throws IOException {
+        if (appends.isEmpty()) {
+            return;
+        }
+        Map<File, Long> lengths = new LinkedHashMap<>();
+        Set<File> directories = new LinkedHashSet<>();
+        try {
+            for (File target : appends.values()) {
+                long length = target.length();
+                try (FileChannel intent = FileChannel.open(intentOf(target).toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    intent.write(ByteBuffer.allocate(Long.BYTES).putLong(0, length));
+                    intent.force(true);
+                }
+                lengths.put(target, length);
+                directories.add(target.getAbsoluteFile().getParentFile());
+            }
+            // The intent files must survive a crash before any target grows
+            for (File directory : directories) {
+                try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+                    channel.force(true);
+                } catch (IOException e) {
+                    // Some platforms cannot sync a directory
+                }
+            }
+
+            for (Map.Entry<File, File> entry : appends.entrySet()) {
+                File target = entry.getValue();
+                try (FileChannel rows = FileChannel.open(entry.getKey().toPath(), StandardOpenOption.READ);
+                        FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE)) {
+                    long position = lengths.get(target);
+                    long size = rows.size();
+                    for (long done = 0; done < size;) {
+                        done += channel.transferFrom(rows, position + done, size - done);
+                    }
+                    channel.force(true);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Map.Entry<File, Long> entry : lengths.entrySet()) {
+                try (FileChannel channel = FileChannel.open(entry.getKey().toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(entry.getValue());
+                    channel.force(true);
+                    Files.delete(intentOf(entry.getKey()).toPath());
+                } catch (IOException undo) {
+                    // The intent file is left for the next start to undo the append
+                    e.addSuppressed(undo);
+                }
+            }
+            throw e;
+        }
+        for (File target : lengths.keySet()) {
+            Files.delete(intentOf(target).toPath());
+        }
+        for (File temp : appends.keySet()) {
+            temp.delete();
+        }
+        appends.clear();
+    }
+
+    /**
+     * Gets the intent file that holds a target's length while rows are appended to it.
+     */
+    private static File intentOf(File target) {
+        return new File(target.getPath() + APPEND_SUFFIX);
+    }
+
+    /**
+     * Throws the failure recorded for this transaction, if any.
+     */
+    private void rethrowFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Could not commit save: " + failure.getMessage(), failure);
+        }
+    }
+}
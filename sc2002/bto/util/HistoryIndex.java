@@ -0,0 +1,549 @@
+package sc2002.bto.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Records where the rows of each project lie in a CSV file, so that the rows
+ * of one project can be read without parsing the rest of the file.
+ * For every row the index keeps its byte offset and length, the applicant it
+ * belongs to, and whether it is live, i.e. needed even while its project is
+ * kept on disk. The index is kept next to the CSV file and rebuilt by
+ * scanning the file whenever the file changed since the index was written.
+ * <p>
+ * Projects are either in memory, with all their rows loaded at startup, or
+ * cold, with only their live rows loaded and the rest read on demand through
+ * {@link #readRows(String)}. Saving keeps the index up to date:
+ * {@link #appended(long)} adds rows appended to the file, and a rewritten
+ * file is scanned with {@link #scan(File)} and swapped in with
+ * {@link #install(Map)}.
+ * <p>
+ * The methods are synchronized, so a save that holds the index's lock while
+ * it replaces the file cannot be interleaved with a read of rows.
+ */
+public class HistoryIndex {
+    /** Identifies an index file */
+    private static final int MAGIC = 0x42484958;
+    /** Version of the index file layout */
+    private static final int VERSION = 1;
+    /** Lengths are packed into the low bits of an offset while sorting rows */
+    private static final int LENGTH_BITS = 24;
+
+    private final File csv;
+    private final File indexFile;
+    private final int projectField;
+    private final int applicantField;
+    private final Predicate<CsvTokenizer> live;
+
+    /** Rows of every project, in file order */
+    private Map<String, Rows> byProject = new HashMap<>();
+    /** Number of bytes of the CSV file the index covers */
+    private long coveredLength;
+    /** Whether the index differs from the index file */
+    private boolean changed;
+    /** Projects whose rows are kept on disk */
+    private Set<String> cold = Collections.emptySet();
+    /** Cold projects keyed by the applicants that have rows in them */
+    private Map<String, Set<String>> coldByApplicant = Collections.emptyMap();
+    /** Canonical copy of each applicant ID, shared by their rows */
+    private final Map<String, String> applicantIds = new HashMap<>();
+
+    /**
+     * The rows of one project, as parallel arrays in file order.
+     */
+    private static final class Rows {
+        private long[] offsets = new long[4];
+        private int[] lengths = new int[4];
+        private boolean[] live = new boolean[4];
+        private String[] applicants = new String[4];
+        private int size;
+
+        private void add(long offset, int length, boolean isLive, String applicant) {
+            if (size == offsets.length) {
+                int capacity = size * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                live = Arrays.copyOf(live, capacity);
+                applicants = Arrays.copyOf(applicants, capacity);
+            }
+            offsets[size] = offset;
+            lengths[size] = length;
+            live[size] = isLive;
+            applicants[size] = applicant;
+            size++;
+        }
+    }
+
+    private HistoryIndex(File csv, File indexFile, int projectField, int applicantField,
+            Predicate<CsvTokenizer> live) {
+        this.csv = csv;
+        this.indexFile = indexFile;
+        this.projectField = projectField;
+        this.applicantField = applicantField;
+        this.live = live;
+    }
+
+    /**
+     * Opens the index of a CSV file, reading the index file if it matches the
+     * CSV file and scanning the CSV file otherwise.
+     *
+     * @param csv The CSV file; its first field is the row ID
+     * @param indexFile The file the index is kept in
+     * @param projectField The field holding the project ID
+     * @param applicantField The field holding the applicant ID
+     * @param live Decides from a record whether its row is live
+     * @return The index
+     * @throws IOException If the CSV file cannot be read, or is too large to index
+     */
+    public static HistoryIndex open(File csv, File indexFile, int projectField, int applicantField,
+            Predicate<CsvTokenizer> live) throws IOException {
+        HistoryIndex index = new HistoryIndex(csv, indexFile, projectField, applicantField, live);
+        if (!index.readIndexFile()) {
+            index.byProject = index.scanRegion(csv, 0, csv.length());
+            index.coveredLength = csv.length();
+            index.changed = true;
+        }
+        return index;
+    }
+
+    /**
+     * Reads the index file if it was written for the current CSV file.
+     *
+     * @return true if the index was read
+     */
+    private boolean readIndexFile() {
+        if (!indexFile.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            long length = in.readLong();
+            long modified = in.readLong();
+            if (length != csv.length() || modified != csv.lastModified()) {
+                return false;
+            }
+
+            String[] applicants = new String[in.readInt()];
+            for (int i = 0; i < applicants.length; i++) {
+                applicants[i] = canonical(in.readUTF());
+            }
+            Map<String, Rows> projects = new HashMap<>();
+            int projectCount = in.readInt();
+            for (int p = 0; p < projectCount; p++) {
+                Rows rows = new Rows();
+                projects.put(in.readUTF(), rows);
+                int rowCount = in.readInt();
+                for (int r = 0; r < rowCount; r++) {
+                    long offset = in.readLong();
+                    int rowLength = in.readInt();
+                    boolean isLive = in.readBoolean();
+                    int applicant = in.readInt();
+                    rows.add(offset, rowLength, isLive, applicant >= 0 ? applicants[applicant] : null);
+                }
+            }
+            byProject = projects;
+            coveredLength = length;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Rebuilding " + indexFile.getName() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes the index file if the index changed since it was last written.
+     * Nothing is written while the CSV file holds rows the index does not cover.
+     *
+     * @throws IOException If the index file cannot be written
+     */
+    public synchronized void write() throws IOException {
+        if (!changed || coveredLength != csv.length()) {
+            return;
+        }
+        Map<String, Integer> applicantNumbers = new HashMap<>();
+        for (Rows rows : byProject.values()) {
+            for (int i = 0; i < rows.size; i++) {
+                if (rows.applicants[i] != null) {
+                    applicantNumbers.putIfAbsent(rows.applicants[i], applicantNumbers.size());
+                }
+            }
+        }
+        String[] applicants = new String[applicantNumbers.size()];
+        applicantNumbers.forEach((id, number) -> applicants[number] = id);
+
+        FileTransaction transaction = new FileTransaction();
+        try {
+            File temp = transaction.stage(indexFile);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(coveredLength);
+                out.writeLong(csv.lastModified());
+                out.writeInt(applicants.length);
+                for (String applicant : applicants) {
+                    out.writeUTF(applicant);
+                }
+                out.writeInt(byProject.size());
+                for (Map.Entry<String, Rows> entry : byProject.entrySet()) {
+                    Rows rows = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(rows.size);
+                    for (int i = 0; i < rows.size; i++) {
+                        out.writeLong(rows.offsets[i]);
+                        out.writeInt(rows.lengths[i]);
+                        out.writeBoolean(rows.live[i]);
+                        out.writeInt(rows.applicants[i] != null ? applicantNumbers.get(rows.applicants[i]) : -1);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            transaction.abort();
+            throw e;
+        }
+        transaction.commit();
+        changed = false;
+    }
+
+    /**
+     * Gets the number of bytes of the CSV file the index covers.
+     *
+     * @return The length of the CSV file when it was last indexed
+     */
+    public synchronized long getCoveredLength() {
+        return coveredLength;
+    }
+
+    /**
+     * Gets the projects that have rows in the file.
+     *
+     * @return A copy of the project IDs
+     */
+    public synchronized Set<String> getProjects() {
+        return new HashSet<>(byProject.keySet());
+    }
+
+    /**
+     * Sets which projects are kept on disk. Their live rows are still loaded
+     * with {@link #readEagerRows()}; their other rows are read on demand.
+     *
+     * @param projects The IDs of the cold projects
+     */
+    public synchronized void setCold(Set<String> projects) {
+        cold = new HashSet<>(projects);
+        cold.retainAll(byProject.keySet());
+        indexColdApplicants();
+    }
+
+    /**
+     * Gets the projects whose rows are kept on disk.
+     *
+     * @return A copy of the cold project IDs
+     */
+    public synchronized Set<String> getColdProjects() {
+        return new HashSet<>(cold);
+    }
+
+    /**
+     * Checks whether a project's rows are kept on disk.
+     *
+     * @param projectId The ID of the project
+     * @return true if the project is cold
+     */
+    public synchronized boolean isCold(String projectId) {
+        return cold.contains(projectId);
+    }
+
+    /**
+     * Gets the cold projects in which an applicant has rows.
+     *
+     * @param applicantId The ID of the applicant
+     * @return A copy of the project IDs, empty if there are none
+     */
+    public synchronized Set<String> getColdProjectsOf(String applicantId) {
+        Set<String> projects = coldByApplicant.get(applicantId);
+        return projects != null ? new LinkedHashSet<>(projects) : Collections.emptySet();
+    }
+
+    /**
+     * Reads the rows to load at startup: every row of the projects in memory
+     * and the live rows of the cold ones, in file order.
+     *
+     * @return The rows, each ending in a line break, positioned at the first
+     * @throws IOException If the CSV file cannot be read
+     */
+    public synchronized ByteBuffer readEagerRows() throws IOException {
+        int count = 0;
+        for (Map.Entry<String, Rows> entry : byProject.entrySet()) {
+            Rows rows = entry.getValue();
+            boolean isCold = cold.contains(entry.getKey());
+            for (int i = 0; i < rows.size; i++) {
+                if (!isCold || rows.live[i]) {
+                    count++;
+                }
+            }
+        }
+        long[] packed = new long[count];
+        int n = 0;
+        for (Map.Entry<String, Rows> entry : byProject.entrySet()) {
+            Rows rows = entry.getValue();
+            boolean isCold = cold.contains(entry.getKey());
+            for (int i = 0; i < rows.size; i++) {
+                if (!isCold || rows.live[i]) {
+                    packed[n++] = (rows.offsets[i] << LENGTH_BITS) | rows.lengths[i];
+                }
+            }
+        }
+        // Sorting by offset puts the rows back in file order
+        Arrays.sort(packed);
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = packed[i] >>> LENGTH_BITS;
+            lengths[i] = (int) (packed[i] & ((1 << LENGTH_BITS) - 1));
+        }
+        return read(offsets, lengths, count);
+    }
+
+    /**
+     * Reads every row of a project.
+     *
+     * @param projectId The ID of the project
+     * @return The rows, each ending in a line break, positioned at the first; empty if the project has none
+     * @throws IOException If the CSV file cannot be read
+     */
+    public synchronized ByteBuffer readRows(String projectId) throws IOException {
+        Rows rows = byProject.get(projectId);
+        if (rows == null) {
+            return ByteBuffer.allocate(0);
+        }
+        return read(rows.offsets, rows.lengths, rows.size);
+    }
+
+    /**
+     * Copies rows of the CSV file into one buffer, adding a line break after
+     * a last row that has none.
+     */
+    private ByteBuffer read(long[] offsets, int[] lengths, int count) throws IOException {
+        long total = count;
+        for (int i = 0; i < count; i++) {
+            total += lengths[i];
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Too many rows to read at once from " + csv.getName());
+        }
+        byte[] data = new byte[(int) total];
+        int size = 0;
+        if (count > 0) {
+            try (FileChannel channel = FileChannel.open(csv.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, coveredLength);
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer row = file.duplicate();
+                    row.position((int) offsets[i]);
+                    row.get(data, size, lengths[i]);
+                    size += lengths[i];
+                    if (lengths[i] == 0 || data[size - 1] != '\n') {
+                        data[size++] = '\n';
+                    }
+                }
+            }
+        }
+        return ByteBuffer.wrap(data, 0, size);
+    }
+
+    /**
+     * Adds the rows appended to the CSV file since it was indexed.
+     *
+     * @param oldLength The length of the file before the rows were appended
+     * @throws IOException If the file cannot be read
+     */
+    public synchronized void appended(long oldLength) throws IOException {
+        if (oldLength != coveredLength) {
+            // The file changed in a way the index does not know about
+            byProject = scanRegion(csv, 0, csv.length());
+        } else {
+            Map<String, Rows> added = scanRegion(csv, oldLength, csv.length());
+            added.forEach((projectId, rows) -> {
+                Rows into = byProject.computeIfAbsent(projectId, k -> new Rows());
+                for (int i = 0; i < rows.size; i++) {
+                    into.add(rows.offsets[i], rows.lengths[i], rows.live[i], rows.applicants[i]);
+                }
+            });
+        }
+        coveredLength = csv.length();
+        changed = true;
+        indexColdApplicants();
+    }
+
+    /**
+     * Scans a complete CSV file, for example the replacement staged by a save.
+     *
+     * @param file The file to scan
+     * @return The rows of each project, to pass to {@link #install(Map)} once the file has replaced the CSV file
+     * @throws IOException If the file cannot be read
+     */
+    public Map<String, ?> scan(File file) throws IOException {
+        return scanRegion(file, 0, file.length());
+    }
+
+    /**
+     * Switches to the rows of a rewritten CSV file. Call while holding the
+     * index's lock from just before the file is replaced.
+     *
+     * @param scanned The result of {@link #scan(File)} for the file now in place
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void install(Map<String, ?> scanned) {
+        byProject = (Map<String, Rows>) scanned;
+        coveredLength = csv.length();
+        changed = true;
+        indexColdApplicants();
+    }
+
+    /**
+     * Indexes the CSV file afresh, for when it may have changed in a way the
+     * index was not told about, such as a save that failed half way.
+     *
+     * @throws IOException If the file cannot be read
+     */
+    public synchronized void rebuild() throws IOException {
+        byProject = scanRegion(csv, 0, csv.length());
+        coveredLength = csv.length();
+        changed = true;
+        indexColdApplicants();
+    }
+
+    /**
+     * Copies the data rows of the CSV file to the end of another file, except
+     * rows whose ID is in the given set.
+     *
+     * @param target The file to append to
+     * @param skipIds IDs of the rows to leave out
+     * @return The number of rows copied
+     * @throws IOException If a file cannot be read or written
+     */
+    public synchronized int copyRows(File target, Set<String> skipIds) throws IOException {
+        if (coveredLength == 0) {
+            return 0;
+        }
+        int copied = 0;
+        try (FileChannel in = FileChannel.open(csv.toPath(), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND)) {
+            checkMappable(coveredLength);
+            MappedByteBuffer file = in.map(FileChannel.MapMode.READ_ONLY, 0, coveredLength);
+            CsvTokenizer records = new CsvTokenizer(file.duplicate());
+            // Skip header
+            records.nextRecord();
+            int start = records.nextRecordOffset();
+            while (records.nextRecord()) {
+                int end = records.nextRecordOffset();
+                if (!records.isEmpty(0) && !skipIds.contains(records.getString(0))) {
+                    ByteBuffer row = file.duplicate();
+                    row.position(start).limit(end);
+                    while (row.hasRemaining()) {
+                        out.write(row);
+                    }
+                    if (file.get(end - 1) != '\n') {
+                        out.write(ByteBuffer.wrap(new byte[] { '\n' }));
+                    }
+                    copied++;
+                }
+                start = end;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * Indexes the rows in a region of a CSV file. A region starting at 0
+     * begins with the header, which is skipped.
+     */
+    private Map<String, Rows> scanRegion(File file, long from, long to) throws IOException {
+        Map<String, Rows> projects = new HashMap<>();
+        if (to <= from) {
+            return projects;
+        }
+        checkMappable(to - from);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            CsvTokenizer records = new CsvTokenizer(region);
+            if (from == 0) {
+                // Skip header
+                records.nextRecord();
+            }
+            int minFields = Math.max(projectField, applicantField) + 1;
+            int start = records.nextRecordOffset();
+            while (records.nextRecord()) {
+                int end = records.nextRecordOffset();
+                if (records.fieldCount() >= minFields && !records.isEmpty(0)) {
+                    if (end - start >= 1 << LENGTH_BITS) {
+                        throw new IOException("Row too long to index in " + file.getName());
+                    }
+                    String projectId = records.getString(projectField);
+                    String applicantId = canonical(records.getString(applicantField));
+                    projects.computeIfAbsent(projectId, k -> new Rows())
+                            .add(from + start, end - start, live.test(records), applicantId);
+                }
+                start = end;
+            }
+        }
+        return projects;
+    }
+
+    /**
+     * Rebuilds the applicant lookup of the cold projects.
+     */
+    private void indexColdApplicants() {
+        Map<String, Set<String>> byApplicant = new HashMap<>();
+        for (String projectId : cold) {
+            Rows rows = byProject.get(projectId);
+            if (rows == null) {
+                continue;
+            }
+            for (int i = 0; i < rows.size; i++) {
+                if (rows.applicants[i] != null) {
+                    byApplicant.computeIfAbsent(rows.applicants[i], k -> new LinkedHashSet<>()).add(projectId);
+                }
+            }
+        }
+        coldByApplicant = byApplicant;
+    }
+
+    /**
+     * Gets the shared copy of an applicant ID.
+     */
+    private String canonical(String applicantId) {
+        synchronized (applicantIds) {
+            return applicantIds.computeIfAbsent(applicantId, k -> k);
+        }
+    }
+
+    /**
+     * Checks that a region of a file fits in one mapping.
+     */
+    private void checkMappable(long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(csv.getName() + " is too large to index");
+        }
+    }
+}
@@ -0,0 +1,918 @@
+package sc2002.bto.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import sc2002.bto.entity.Applicant;
+import sc2002.bto.entity.Application;
+import sc2002.bto.entity.Enquiry;
+import sc2002.bto.entity.HdbManager;
+import sc2002.bto.entity.HdbOfficer;
+import sc2002.bto.entity.Project;
+import sc2002.bto.entity.Receipt;
+import sc2002.bto.entity.User;
+import sc2002.bto.enums.ApplicationStatus;
+import sc2002.bto.enums.ChangeType;
+import sc2002.bto.enums.EnquiryStatus;
+import sc2002.bto.enums.FlatType;
+import sc2002.bto.enums.MaritalStatus;
+import sc2002.bto.enums.OfficerRegistrationStatus;
+import sc2002.bto.interfaces.IHistorySource;
+import sc2002.bto.interfaces.IStorageEngine;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.BaseRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Storage engine keeping the data in an embedded database, such as H2
+ * (jdbc:h2:./data/bto) or SQLite (jdbc:sqlite:data/bto.db), running in the
+ * same process. The database driver must be on the classpath.
+ * <p>
+ * A save writes only the entities that changed since the last one, with
+ * batched prepared statements in a single transaction. The applications and
+ * enquiries of closed projects stay in the database until a lookup needs
+ * them, and are then read a project at a time through the indexes on project
+ * and applicant; see {@link ApplicationRepository#setHistory}. Booked
+ * applications and pending withdrawals are always loaded.
+ * <p>
+ * The first start imports the CSV files and the receipt file. Only standard
+ * SQL is used, so the schema works on either database.
+ */
+public class JdbcStorage implements IStorageEngine {
+    /** Statements that create the schema if it does not exist yet */
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS users (id VARCHAR(255) PRIMARY KEY, position BIGINT, kind VARCHAR(16),"
+                + " name VARCHAR(255), password VARCHAR(255), age INTEGER, marital_status VARCHAR(16),"
+                + " income DOUBLE PRECISION, registration_status VARCHAR(16))",
+        "CREATE TABLE IF NOT EXISTS projects (id VARCHAR(255) PRIMARY KEY, position BIGINT, name VARCHAR(255),"
+                + " neighborhood VARCHAR(255), flat_types VARCHAR(255), floor_count DOUBLE PRECISION,"
+                + " price_per_flat DOUBLE PRECISION, threshold_price DOUBLE PRECISION, open_date VARCHAR(32),"
+                + " close_date VARCHAR(32), visible BOOLEAN, officer_slots INTEGER, two_room_units INTEGER,"
+                + " three_room_units INTEGER, manager_in_charge VARCHAR(255))",
+        "CREATE TABLE IF NOT EXISTS applications (id VARCHAR(255) PRIMARY KEY, position BIGINT,"
+                + " applicant_id VARCHAR(255), project_id VARCHAR(255), application_date VARCHAR(32),"
+                + " status VARCHAR(16), flat_type VARCHAR(16), withdrawal_requested BOOLEAN)",
+        "CREATE INDEX IF NOT EXISTS applications_by_project ON applications (project_id, status)",
+        "CREATE INDEX IF NOT EXISTS applications_by_applicant ON applications (applicant_id)",
+        "CREATE TABLE IF NOT EXISTS enquiries (id VARCHAR(255) PRIMARY KEY, position BIGINT,"
+                + " project_id VARCHAR(255), applicant_id VARCHAR(255), message VARCHAR(65535),"
+                + " response VARCHAR(65535), status VARCHAR(16))",
+        "CREATE INDEX IF NOT EXISTS enquiries_by_project ON enquiries (project_id)",
+        "CREATE INDEX IF NOT EXISTS enquiries_by_applicant ON enquiries (applicant_id)",
+        "CREATE TABLE IF NOT EXISTS receipts (id VARCHAR(255) PRIMARY KEY, position BIGINT, name VARCHAR(255),"
+                + " nric VARCHAR(255), age INTEGER, marital_status VARCHAR(16), project_id VARCHAR(255),"
+                + " neighborhood VARCHAR(255), price DOUBLE PRECISION, flat_type VARCHAR(16),"
+                + " booking_date VARCHAR(32))",
+        "CREATE INDEX IF NOT EXISTS receipts_by_nric ON receipts (nric)",
+    };
+    /** Rows sent to the database in one batch */
+    private static final int BATCH_SIZE = 1000;
+    /** User kinds */
+    private static final String APPLICANT_KIND = "APPLICANT";
+    private static final String MANAGER_KIND = "MANAGER";
+    private static final String OFFICER_KIND = "OFFICER";
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int cachedProjects;
+
+    /** Guards the connection; JDBC connections are not safe to share between threads */
+    private final Object connectionLock = new Object();
+    /** The open connection, null until data is loaded or if loading failed */
+    private Connection connection;
+
+    private final Table<User> users = new Table<User>("users", "kind", "name", "password", "age",
+            "marital_status", "income", "registration_status") {
+        @Override
+        String idOf(User item) {
+            return item.getId();
+        }
+
+        @Override
+        void bind(PreparedStatement statement, User item) throws SQLException {
+            String kind = item instanceof HdbManager ? MANAGER_KIND
+                    : item instanceof HdbOfficer ? OFFICER_KIND : APPLICANT_KIND;
+            statement.setString(1, kind);
+            statement.setString(2, item.getName());
+            statement.setString(3, item.getPassword());
+            statement.setInt(4, item.getAge());
+            statement.setString(5, item.getMaritalStatus().name());
+            Double income = kind.equals(OFFICER_KIND) ? null : ((Applicant) item).getIncomeRange();
+            if (income != null) {
+                statement.setDouble(6, income);
+            } else {
+                statement.setNull(6, Types.DOUBLE);
+            }
+            if (item instanceof HdbOfficer) {
+                statement.setString(7, ((HdbOfficer) item).getRegistrationStatus().name());
+            } else {
+                statement.setNull(7, Types.VARCHAR);
+            }
+        }
+    };
+
+    private final Table<Project> projects = new Table<Project>("projects", "name", "neighborhood",
+            "flat_types", "floor_count", "price_per_flat", "threshold_price", "open_date", "close_date", "visible",
+            "officer_slots", "two_room_units", "three_room_units", "manager_in_charge") {
+        @Override
+        String idOf(Project item) {
+            return item.getProjectID();
+        }
+
+        @Override
+        void bind(PreparedStatement statement, Project item) throws SQLException {
+            StringBuilder flatTypes = new StringBuilder();
+            for (FlatType type : item.getFlatType()) {
+                if (flatTypes.length() > 0) {
+                    flatTypes.append("|");
+                }
+                flatTypes.append(type.name());
+            }
+            statement.setString(1, item.getProjectName());
+            statement.setString(2, item.getNeighborhood());
+            statement.setString(3, flatTypes.toString());
+            statement.setDouble(4, item.getFloorCount());
+            statement.setDouble(5, item.getPricePerFlat());
+            statement.setDouble(6, item.getThresholdPrice());
+            statement.setString(7, item.getApplicationOpenDate());
+            statement.setString(8, item.getApplicationCloseDate());
+            statement.setBoolean(9, item.isVisible());
+            statement.setInt(10, item.getAvailableOfficerSlots());
+            statement.setInt(11, item.getTwoRoomUnitsAvailable());
+            statement.setInt(12, item.getThreeRoomUnitsAvailable());
+            statement.setString(13, item.getManagerInCharge());
+        }
+    };
+
+    private final Table<Application> applications = new Table<Application>("applications", "applicant_id",
+            "project_id", "application_date", "status", "flat_type", "withdrawal_requested") {
+        @Override
+        String idOf(Application item) {
+            return item.getApplicationId();
+        }
+
+        @Override
+        void bind(PreparedStatement statement, Application item) throws SQLException {
+            statement.setString(1, item.getApplicant().getId());
+            statement.setString(2, item.getProject().getProjectID());
+            statement.setString(3, item.getApplicationDate());
+            statement.setString(4, item.getStatus().name());
+            statement.setString(5, item.getSelectedFlatType().name());
+            statement.setBoolean(6, item.isWithdrawalRequested());
+        }
+    };
+
+    private final Table<Enquiry> enquiries = new Table<Enquiry>("enquiries", "project_id", "applicant_id",
+            "message", "response", "status") {
+        @Override
+        String idOf(Enquiry item) {
+            return item.getEnquiryId();
+        }
+
+        @Override
+        void bind(PreparedStatement statement, Enquiry item) throws SQLException {
+            statement.setString(1, item.getProject().getProjectID());
+            statement.setString(2, item.getApplicant().getId());
+            statement.setString(3, item.getMessage());
+            statement.setString(4, item.getResponse());
+            statement.setString(5, item.getStatus().name());
+        }
+    };
+
+    private final Table<Receipt> receipts = new Table<Receipt>("receipts", "name", "nric", "age",
+            "marital_status", "project_id", "neighborhood", "price", "flat_type", "booking_date") {
+        @Override
+        String idOf(Receipt item) {
+            return item.getReceiptID();
+        }
+
+        @Override
+        void bind(PreparedStatement statement, Receipt item) throws SQLException {
+            statement.setString(1, item.getName());
+            statement.setString(2, item.getNRIC());
+            statement.setInt(3, item.getAge());
+            statement.setString(4, item.getMaritalStatus());
+            statement.setString(5, item.getProjectID());
+            statement.setString(6, item.getNeighborhood());
+            statement.setDouble(7, item.getPricePerFlat());
+            statement.setString(8, item.getFlatType() != null ? item.getFlatType().name() : null);
+            statement.setString(9, item.getBookingDate());
+        }
+    };
+
+    /**
+     * Creates an engine for a database.
+     *
+     * @param url The JDBC URL of the database
+     * @param user The database user
+     * @param password The password of the database user
+     * @param cachedProjects Closed projects whose history is kept in memory at once
+     */
+    public JdbcStorage(String url, String user, String password, int cachedProjects) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.cachedProjects = cachedProjects;
+    }
+
+    /**
+     * Gets the name of the engine.
+     *
+     * @return "jdbc"
+     */
+    @Override
+    public String getName() {
+        return "jdbc";
+    }
+
+    /**
+     * Opens the database, creating the schema if needed, and loads the users,
+     * the projects and the applications and enquiries that matter. A new
+     * database is filled from the CSV files first.
+     * If the database cannot be read, saving is refused.
+     *
+     * @param userRepo The user repository to populate
+     * @param projectRepo The project repository to populate
+     * @param appRepo The application repository to populate
+     * @param enquiryRepo The enquiry repository to populate
+     * @return true if the stored data was loaded, false if default data was created or loading failed
+     */
+    @Override
+    public boolean load(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        long start = System.nanoTime();
+        synchronized (connectionLock) {
+            try {
+                Connection opened = DriverManager.getConnection(url, user, password);
+                try (Statement statement = opened.createStatement()) {
+                    for (String sql : SCHEMA) {
+                        statement.execute(sql);
+                    }
+                }
+                opened.setAutoCommit(false);
+                connection = opened;
+                for (Table<?> table : new Table<?>[] { users, projects, applications, enquiries, receipts }) {
+                    table.lastPosition = maxPosition(table);
+                }
+            } catch (SQLException e) {
+                System.err.println("Error opening database " + url + ": " + e.getMessage());
+                System.err.println("Saving is disabled so the database stays untouched.");
+                closeConnection();
+                return false;
+            }
+        }
+
+        try {
+            if (users.lastPosition == 0 && projects.lastPosition == 0) {
+                return importCsv(userRepo, projectRepo, appRepo, enquiryRepo);
+            }
+            loadAll(userRepo, projectRepo, appRepo, enquiryRepo, start);
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Error loading data from " + url + ": " + e.getMessage());
+            System.err.println("Saving is disabled so the database stays untouched.");
+            synchronized (connectionLock) {
+                closeConnection();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Fills an empty database with everything the CSV files hold.
+     */
+    private boolean importCsv(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) throws SQLException {
+        System.out.println("Importing the CSV files into " + url + "...");
+        boolean loaded = FileHandler.importAllData(userRepo, projectRepo, appRepo, enquiryRepo);
+        if (userRepo.size() == 0 && projectRepo.size() == 0) {
+            // Nothing could be read, so there is nothing to import yet
+            return loaded;
+        }
+        List<Receipt> storedReceipts = FileHandler.loadReceipts();
+        synchronized (connectionLock) {
+            try {
+                write(users, userRepo.getAll(), Collections.emptyList(), Collections.emptyList());
+                write(projects, projectRepo.getAll(), Collections.emptyList(), Collections.emptyList());
+                write(applications, appRepo.getAll(), Collections.emptyList(), Collections.emptyList());
+                write(enquiries, enquiryRepo.getAll(), Collections.emptyList(), Collections.emptyList());
+                write(receipts, storedReceipts, Collections.emptyList(), Collections.emptyList());
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        markSaved(userRepo, projectRepo, appRepo, enquiryRepo);
+        System.out.printf("Imported %d users, %d projects, %d applications and %d enquiries%n",
+                userRepo.size(), projectRepo.size(), appRepo.size(), enquiryRepo.size());
+        return loaded;
+    }
+
+    /**
+     * Loads the users and projects, and the applications and enquiries of
+     * open projects along with the rows closed projects still need; the rest
+     * is left in the database until a lookup needs it.
+     */
+    private void loadAll(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo, long start) throws SQLException {
+        synchronized (connectionLock) {
+            Map<Long, User> storedUsers = new TreeMap<>();
+            select(storedUsers, "SELECT * FROM users", rs -> readUser(rs, projectRepo, appRepo, enquiryRepo));
+            userRepo.addAll(storedUsers.values());
+
+            Map<Long, Project> storedProjects = new TreeMap<>();
+            select(storedProjects, "SELECT * FROM projects", this::readProject);
+            Map<String, List<HdbManager>> managersByName = new HashMap<>();
+            for (HdbManager manager : userRepo.getManagers()) {
+                managersByName.computeIfAbsent(manager.getName(), k -> new ArrayList<>()).add(manager);
+            }
+            for (Project project : storedProjects.values()) {
+                for (HdbManager manager : managersByName.getOrDefault(project.getManagerInCharge(),
+                        Collections.emptyList())) {
+                    manager.getProjectsCreated().add(project);
+                }
+            }
+            projectRepo.addAll(storedProjects.values());
+        }
+
+        // Applicants are looked up when the history is read, so users added since are found too
+        Function<String, Applicant> applicants = id -> {
+            User found = userRepo.getById(id);
+            return found instanceof Applicant ? (Applicant) found : null;
+        };
+        Set<String> closed = FileHandler.findClosedProjects(projectRepo);
+        Map<Long, Application> storedApplications = new TreeMap<>();
+        Map<Long, Enquiry> storedEnquiries = new TreeMap<>();
+        synchronized (connectionLock) {
+            for (Project project : projectRepo.getAll()) {
+                String projectId = project.getProjectID();
+                if (closed.contains(projectId)) {
+                    // Applications stay needed once booked or while a withdrawal is pending
+                    select(storedApplications, "SELECT * FROM applications WHERE project_id = ?"
+                            + " AND (status = ? OR withdrawal_requested = ?)",
+                            rs -> readApplication(rs, applicants, projectRepo),
+                            projectId, ApplicationStatus.BOOKED.name(), Boolean.TRUE);
+                } else {
+                    select(storedApplications, "SELECT * FROM applications WHERE project_id = ?",
+                            rs -> readApplication(rs, applicants, projectRepo), projectId);
+                    select(storedEnquiries, "SELECT * FROM enquiries WHERE project_id = ?",
+                            rs -> readEnquiry(rs, applicants, projectRepo), projectId);
+                }
+            }
+        }
+        for (Application application : storedApplications.values()) {
+            if (application.getStatus() == ApplicationStatus.BOOKED) {
+                application.getApplicant().setBookedFlat(application.getSelectedFlatType());
+                application.getApplicant().setBookedProject(application.getProject());
+            }
+        }
+        appRepo.addAll(storedApplications.values());
+        enquiryRepo.addAll(storedEnquiries.values());
+        markSaved(userRepo, projectRepo, appRepo, enquiryRepo);
+
+        appRepo.setHistory(new DatabaseHistory<>(applications, closed,
+                rs -> readApplication(rs, applicants, projectRepo)), cachedProjects);
+        enquiryRepo.setHistory(new DatabaseHistory<>(enquiries, closed,
+                rs -> readEnquiry(rs, applicants, projectRepo)), cachedProjects);
+        System.out.printf("Startup load finished in %d ms, history of %d closed projects left in the database%n",
+                (System.nanoTime() - start) / 1_000_000, closed.size());
+    }
+
+    /**
+     * Writes the changes since the last save; a committed transaction is
+     * already durable, so this is the same as {@link #saveAll}.
+     *
+     * @param userRepo The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @return true if saving was successful, false otherwise
+     */
+    @Override
+    public boolean saveChanges(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        return saveAll(userRepo, projectRepo, appRepo, enquiryRepo);
+    }
+
+    /**
+     * Writes every entity changed since the last save in one transaction and
+     * marks the written changes as saved. Added entities are inserted, updated
+     * ones updated in place and deleted ones deleted, each kind in batches.
+     *
+     * @param userRepo The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @return true if saving was successful, false otherwise
+     */
+    @Override
+    public boolean saveAll(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        // Read from the repositories before taking the connection, which history reads also take
+        Changes<User> userChanges = new Changes<>(userRepo);
+        Changes<Project> projectChanges = new Changes<>(projectRepo);
+        Changes<Application> applicationChanges = new Changes<>(appRepo);
+        Changes<Enquiry> enquiryChanges = new Changes<>(enquiryRepo);
+
+        synchronized (connectionLock) {
+            if (connection == null) {
+                System.err.println("Not saving: the database could not be loaded and is left untouched.");
+                return false;
+            }
+            try {
+                try {
+                    write(users, userChanges.added, userChanges.updated, userChanges.deleted);
+                    write(projects, projectChanges.added, projectChanges.updated, projectChanges.deleted);
+                    write(applications, applicationChanges.added, applicationChanges.updated, applicationChanges.deleted);
+                    write(enquiries, enquiryChanges.added, enquiryChanges.updated, enquiryChanges.deleted);
+                    connection.commit();
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Error saving data: " + e.getMessage());
+                return false;
+            }
+        }
+
+        // Only now are the changes in the database
+        userRepo.markSaved(userChanges.changes);
+        projectRepo.markSaved(projectChanges.changes);
+        appRepo.markSaved(applicationChanges.changes);
+        enquiryRepo.markSaved(enquiryChanges.changes);
+        return true;
+    }
+
+    /**
+     * Reads the issued receipts.
+     *
+     * @return The stored receipts in the order they were issued
+     */
+    @Override
+    public List<Receipt> loadReceipts() {
+        Map<Long, Receipt> stored = new TreeMap<>();
+        synchronized (connectionLock) {
+            if (connection == null) {
+                return new ArrayList<>();
+            }
+            try {
+                select(stored, "SELECT * FROM receipts", rs -> new Receipt(
+                        rs.getString("id"),
+                        rs.getString("name"),
+                        rs.getString("nric"),
+                        rs.getInt("age"),
+                        rs.getString("marital_status"),
+                        rs.getString("project_id"),
+                        rs.getString("neighborhood"),
+                        rs.getDouble("price"),
+                        enumOf(FlatType.class, rs.getString("flat_type"), null),
+                        rs.getString("booking_date")));
+                connection.commit();
+            } catch (SQLException e) {
+                System.err.println("Error loading receipts: " + e.getMessage());
+            }
+        }
+        return new ArrayList<>(stored.values());
+    }
+
+    /**
+     * Inserts a newly issued receipt and commits it.
+     *
+     * @param receipt The receipt to store
+     * @return true if the receipt was stored, false otherwise
+     */
+    @Override
+    public boolean appendReceipt(Receipt receipt) {
+        synchronized (connectionLock) {
+            if (connection == null) {
+                System.err.println("Not saving receipt: the database could not be loaded.");
+                return false;
+            }
+            try {
+                try {
+                    write(receipts, Collections.singletonList(receipt), Collections.emptyList(),
+                            Collections.emptyList());
+                    connection.commit();
+                    return true;
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Error saving receipt to database: " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Closes the database connection.
+     */
+    @Override
+    public void close() {
+        synchronized (connectionLock) {
+            closeConnection();
+        }
+    }
+
+    /**
+     * Closes the connection if it is open. Must be called with the connection lock held.
+     */
+    private void closeConnection() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing database: " + e.getMessage());
+        }
+        connection = null;
+    }
+
+    /**
+     * Marks every repository as saved, after loading data the database already holds.
+     */
+    private static void markSaved(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        userRepo.markSaved(userRepo.getChanges());
+        projectRepo.markSaved(projectRepo.getChanges());
+        appRepo.markSaved(appRepo.getChanges());
+        enquiryRepo.markSaved(enquiryRepo.getChanges());
+    }
+
+    /**
+     * Gets the highest row position of a table. Must be called with the connection lock held.
+     *
+     * @return The position, 0 if the table is empty
+     */
+    private long maxPosition(Table<?> table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT MAX(position) FROM " + table.name)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Runs a query and collects the entities it returns, keyed by row position
+     * so that they come out in the order they were first saved.
+     * Must be called with the connection lock held.
+     *
+     * @param target Receives the entities
+     * @param sql The query
+     * @param reader Turns a row into an entity, or null to skip it
+     * @param params The query parameters, strings or booleans
+     */
+    private <T> void select(Map<Long, T> target, String sql, RowReader<T> reader, Object... params)
+            throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                if (params[i] instanceof Boolean) {
+                    statement.setBoolean(i + 1, (Boolean) params[i]);
+                } else {
+                    statement.setString(i + 1, (String) params[i]);
+                }
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    T item = reader.read(rs);
+                    if (item != null) {
+                        target.put(rs.getLong("position"), item);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the rows of one table: updates in place, inserting rows an update
+     * did not find, then inserts and deletes. Must be called with the
+     * connection lock held, inside a transaction.
+     *
+     * @param table The table
+     * @param added Entities not saved before, in the order they were added
+     * @param updated Entities saved before that changed since
+     * @param deleted IDs of saved entities deleted since
+     */
+    private <T> void write(Table<T> table, List<? extends T> added, List<? extends T> updated,
+            Collection<String> deleted) throws SQLException {
+        List<T> inserts = new ArrayList<>(added);
+        if (!updated.isEmpty()) {
+            try (PreparedStatement update = connection.prepareStatement(table.updateSql())) {
+                for (int from = 0; from < updated.size(); from += BATCH_SIZE) {
+                    List<? extends T> batch = updated.subList(from, Math.min(updated.size(), from + BATCH_SIZE));
+                    for (T item : batch) {
+                        table.bind(update, item);
+                        update.setString(table.columns.length + 1, table.idOf(item));
+                        update.addBatch();
+                    }
+                    int[] counts = update.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] == 0) {
+                            // Not in the database yet, e.g. after its insert was rolled back
+                            inserts.add(batch.get(i));
+                        }
+                    }
+                }
+            }
+        }
+        if (!inserts.isEmpty()) {
+            try (PreparedStatement insert = connection.prepareStatement(table.insertSql())) {
+                int pending = 0;
+                for (T item : inserts) {
+                    table.bind(insert, item);
+                    insert.setLong(table.columns.length + 1, ++table.lastPosition);
+                    insert.setString(table.columns.length + 2, table.idOf(item));
+                    insert.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        insert.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    insert.executeBatch();
+                }
+            }
+        }
+        if (!deleted.isEmpty()) {
+            try (PreparedStatement delete = connection.prepareStatement(
+                    "DELETE FROM " + table.name + " WHERE id = ?")) {
+                int pending = 0;
+                for (String id : deleted) {
+                    delete.setString(1, id);
+                    delete.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        delete.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    delete.executeBatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns a users row into an applicant, manager or officer.
+     */
+    private User readUser(ResultSet rs, ProjectRepository projectRepo, ApplicationRepository appRepo,
+            EnquiryRepository enquiryRepo) throws SQLException {
+        String id = rs.getString("id");
+        String kind = rs.getString("kind");
+        String name = rs.getString("name");
+        String userPassword = rs.getString("password");
+        int age = rs.getInt("age");
+        MaritalStatus status = enumOf(MaritalStatus.class, rs.getString("marital_status"), MaritalStatus.SINGLE);
+        if (OFFICER_KIND.equals(kind)) {
+            OfficerRegistrationStatus regStatus = enumOf(OfficerRegistrationStatus.class,
+                    rs.getString("registration_status"), OfficerRegistrationStatus.PENDING);
+            return new HdbOfficer(id, name, userPassword, age, status, name,
+                    null, null, regStatus, null, appRepo, enquiryRepo, projectRepo);
+        }
+        double value = rs.getDouble("income");
+        Double income = rs.wasNull() ? null : value;
+        return MANAGER_KIND.equals(kind)
+                ? new HdbManager(id, name, userPassword, age, status, name, income)
+                : new Applicant(id, name, userPassword, age, status, name, income);
+    }
+
+    /**
+     * Turns a projects row into a project, without linking its manager.
+     */
+    private Project readProject(ResultSet rs) throws SQLException {
+        Project project = new Project(rs.getString("id"), rs.getString("neighborhood"),
+                FileHandler.parseFlatTypes(rs.getString("flat_types")), rs.getDouble("floor_count"),
+                rs.getDouble("price_per_flat"), rs.getDouble("threshold_price"), rs.getString("open_date"),
+                rs.getString("close_date"), rs.getBoolean("visible"), rs.getInt("officer_slots"),
+                rs.getInt("two_room_units"), rs.getInt("three_room_units"));
+        project.setProjectName(rs.getString("name"));
+        project.setManagerInCharge(rs.getString("manager_in_charge"));
+        return project;
+    }
+
+    /**
+     * Turns an applications row into an application, or null if its applicant or project is missing.
+     */
+    private Application readApplication(ResultSet rs, Function<String, Applicant> applicants,
+            ProjectRepository projectRepo) throws SQLException {
+        Applicant applicant = applicants.apply(rs.getString("applicant_id"));
+        Project project = projectRepo.getById(rs.getString("project_id"));
+        if (applicant == null || project == null) {
+            System.out.println("Skipping application due to missing applicant or project");
+            return null;
+        }
+        Application application = new Application(rs.getString("id"), applicant, project,
+                rs.getString("application_date"),
+                enumOf(FlatType.class, rs.getString("flat_type"), FlatType.TWO_ROOM));
+        application.updateStatus(enumOf(ApplicationStatus.class, rs.getString("status"),
+                ApplicationStatus.PENDING));
+        if (rs.getBoolean("withdrawal_requested")) {
+            application.requestWithdrawal();
+        }
+        return application;
+    }
+
+    /**
+     * Turns an enquiries row into an enquiry, or null if its applicant or project is missing.
+     */
+    private Enquiry readEnquiry(ResultSet rs, Function<String, Applicant> applicants,
+            ProjectRepository projectRepo) throws SQLException {
+        Applicant applicant = applicants.apply(rs.getString("applicant_id"));
+        Project project = projectRepo.getById(rs.getString("project_id"));
+        if (applicant == null || project == null) {
+            System.out.println("Skipping enquiry due to missing applicant or project");
+            return null;
+        }
+        Enquiry enquiry = new Enquiry(rs.getString("id"), project, applicant, rs.getString("message"));
+        String response = rs.getString("response");
+        if (EnquiryStatus.REPLIED.name().equals(rs.getString("status")) && response != null) {
+            enquiry.reply(response);
+        }
+        return enquiry;
+    }
+
+    /**
+     * Parses an enum constant by name, falling back to a default for unknown names.
+     */
+    private static <E extends Enum<E>> E enumOf(Class<E> type, String name, E fallback) {
+        if (name == null) {
+            return fallback;
+        }
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Turns the current row of a result set into an entity.
+     */
+    @FunctionalInterface
+    private interface RowReader<T> {
+        T read(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * The table an entity type is stored in, and how its fields map to columns.
+     * Every table has an id and a position column besides its own columns;
+     * the position keeps rows in the order they were first saved.
+     *
+     * @param <T> The entity type
+     */
+    private abstract static class Table<T> {
+        final String name;
+        /** The columns besides id and position, in the order {@link #bind} sets them */
+        final String[] columns;
+        /** Highest position given to a row so far; guarded by the connection lock */
+        long lastPosition;
+
+        Table(String name, String... columns) {
+            this.name = name;
+            this.columns = columns;
+        }
+
+        /**
+         * Gets the ID of an entity.
+         */
+        abstract String idOf(T item);
+
+        /**
+         * Sets parameters 1 to columns.length of a statement from an entity's fields.
+         */
+        abstract void bind(PreparedStatement statement, T item) throws SQLException;
+
+        /**
+         * Builds the insert statement: the columns, then position, then id.
+         */
+        String insertSql() {
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(name).append(" (")
+                    .append(String.join(", ", columns)).append(", position, id) VALUES (");
+            for (int i = 0; i < columns.length + 2; i++) {
+                sql.append(i > 0 ? ", ?" : "?");
+            }
+            return sql.append(")").toString();
+        }
+
+        /**
+         * Builds the update statement: the columns, then id.
+         */
+        String updateSql() {
+            return "UPDATE " + name + " SET " + String.join(" = ?, ", columns) + " = ? WHERE id = ?";
+        }
+    }
+
+    /**
+     * The changes of one repository since the last save, split by kind, with
+     * the entities read at the time the changes were collected.
+     *
+     * @param <T> The entity type
+     */
+    private static final class Changes<T> {
+        final Map<String, BaseRepository.Change> changes;
+        final List<T> added = new ArrayList<>();
+        final List<T> updated;
+        final List<String> deleted = new ArrayList<>();
+
+        Changes(BaseRepository<T> repo) {
+            changes = repo.getChanges();
+            List<String> addedIds = new ArrayList<>();
+            List<String> updatedIds = new ArrayList<>();
+            for (Map.Entry<String, BaseRepository.Change> entry : changes.entrySet()) {
+                ChangeType type = entry.getValue().getType();
+                if (type == ChangeType.DELETED) {
+                    deleted.add(entry.getKey());
+                } else if (type == ChangeType.ADDED) {
+                    addedIds.add(entry.getKey());
+                } else {
+                    updatedIds.add(entry.getKey());
+                }
+            }
+            // Added entities get their positions in the order they were written
+            addedIds.sort(Comparator.comparingLong(id -> changes.get(id).getChangeCount()));
+            added.addAll(repo.getByIds(addedIds));
+            updated = repo.getByIds(updatedIds);
+        }
+    }
+
+    /**
+     * Reads the applications or enquiries of closed projects from the
+     * database, a project at a time through the index on project.
+     *
+     * @param <T> The entity type
+     */
+    private final class DatabaseHistory<T> implements IHistorySource<T> {
+        private final Table<T> table;
+        private final Set<String> projectIds;
+        private final RowReader<T> reader;
+
+        DatabaseHistory(Table<T> table, Set<String> projectIds, RowReader<T> reader) {
+            this.table = table;
+            this.projectIds = Collections.unmodifiableSet(new HashSet<>(projectIds));
+            this.reader = reader;
+        }
+
+        @Override
+        public Collection<String> getProjects() {
+            return projectIds;
+        }
+
+        @Override
+        public Collection<String> getProjectsOf(String applicantId) {
+            Map<Long, String> found = new TreeMap<>();
+            synchronized (connectionLock) {
+                if (connection == null) {
+                    return Collections.emptyList();
+                }
+                try {
+                    select(found, "SELECT id, position, project_id FROM " + table.name + " WHERE applicant_id = ?",
+                            rs -> rs.getString("project_id"), applicantId);
+                    connection.commit();
+                } catch (SQLException e) {
+                    System.err.println("Error reading history of " + applicantId + ": " + e.getMessage());
+                }
+            }
+            Set<String> result = new HashSet<>(found.values());
+            result.retainAll(projectIds);
+            return result;
+        }
+
+        @Override
+        public List<T> load(String projectId) {
+            Map<Long, T> found = new TreeMap<>();
+            synchronized (connectionLock) {
+                if (connection == null) {
+                    return new ArrayList<>();
+                }
+                try {
+                    select(found, "SELECT * FROM " + table.name + " WHERE project_id = ?", reader, projectId);
+                    connection.commit();
+                } catch (SQLException e) {
+                    System.err.println("Error reading history of " + projectId + ": " + e.getMessage());
+                }
+            }
+            return new ArrayList<>(found.values());
+        }
+    }
+}
@@ -0,0 +1,877 @@
+package sc2002.bto.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import sc2002.bto.entity.Applicant;
+import sc2002.bto.entity.Application;
+import sc2002.bto.entity.Enquiry;
+import sc2002.bto.entity.HdbManager;
+import sc2002.bto.entity.HdbOfficer;
+import sc2002.bto.entity.Project;
+import sc2002.bto.entity.User;
+import sc2002.bto.enums.ApplicationStatus;
+import sc2002.bto.enums.EnquiryStatus;
+import sc2002.bto.enums.FlatType;
+import sc2002.bto.enums.MaritalStatus;
+import sc2002.bto.enums.OfficerRegistrationStatus;
+import sc2002.bto.interfaces.IRepositoryListener;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Append-only write-ahead journal of repository changes.
+ * Once attached, every write to the repositories appends one record holding
+ * the full new state of the entity, or its deletion. Replaying the journal on
+ * top of the last snapshot therefore restores the latest state, and replaying
+ * a record twice does no harm.
+ * <p>
+ * Records are buffered and forced to disk in batches: after a configurable
+ * number of records, every configurable interval, and on {@link #sync()}.
+ * Once the journal is attached, the batch force runs on the journal's
+ * background thread, so writers never wait for the disk.
+ * Each record carries a CRC, so a record torn by a crash is detected and
+ * dropped on replay.
+ * <p>
+ * {@link #checkpoint(Checkpoint)} folds the journal into a fresh snapshot.
+ * The journal is moved aside first, so writes go on while the snapshot is
+ * written; the moved segment is deleted once the snapshot is safe. A segment
+ * left behind by a failed checkpoint is replayed before the live journal.
+ * <p>
+ * Record layout: payload length (int), CRC32 of the payload (int), payload.
+ * The payload starts with the entity type and operation, followed by the
+ * entity's fields; references to other entities are stored by ID.
+ */
+public class Journal implements Closeable {
+    /** Entity types */
+    private static final byte USER = 1;
+    private static final byte PROJECT = 2;
+    private static final byte APPLICATION = 3;
+    private static final byte ENQUIRY = 4;
+    /** Operations */
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    /** User record kinds */
+    private static final byte APPLICANT_KIND = 0;
+    private static final byte MANAGER_KIND = 1;
+    private static final byte OFFICER_KIND = 2;
+    /** Marks a null string */
+    private static final int NULL_LENGTH = -1;
+    /** Size of the length and CRC in front of each payload */
+    private static final int HEADER_BYTES = 8;
+    /** Largest payload accepted on replay, anything bigger is treated as corruption */
+    private static final int MAX_PAYLOAD_BYTES = 64 * 1024 * 1024;
+    /** Buffered bytes that trigger a write to the file even before a sync is due */
+    private static final int MAX_BUFFERED_BYTES = 1024 * 1024;
+
+    /**
+     * Writes a fresh snapshot of the repositories during a checkpoint.
+     */
+    @FunctionalInterface
+    public interface Checkpoint {
+        /**
+         * Writes the snapshot.
+         *
+         * @throws IOException If the snapshot cannot be written
+         */
+        void write() throws IOException;
+    }
+
+    private final File file;
+    /** Segment the journal is moved to while a checkpoint runs */
+    private final File checkpointFile;
+    private final int syncEveryRecords;
+    private final long syncIntervalMillis;
+
+    /** Guards the channel, the buffer and the counters below */
+    private final Object appendLock = new Object();
+    /** Serializes checkpoints */
+    private final Object checkpointLock = new Object();
+    private FileChannel channel;
+    /** Records appended but not yet written to the file */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+    /** Records written or buffered since the last force to disk */
+    private int unsyncedRecords;
+    /** Bytes in the live journal, including buffered ones */
+    private long journalBytes;
+    /** Reused encoder for record payloads */
+    private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream payload = new DataOutputStream(payloadBytes);
+    private final CRC32 crc = new CRC32();
+
+    /** Runs timed syncs and checkpoints */
+    private volatile ScheduledExecutorService scheduler;
+    /** Whether a sync is queued on the scheduler; guarded by the append lock */
+    private boolean syncQueued;
+
+    /**
+     * Opens a journal file, creating it if needed.
+     * Call {@link #replay} before {@link #attach} so that the existing records
+     * are applied and any torn tail is cut off.
+     *
+     * @param file The journal file
+     * @param syncEveryRecords Force the journal to disk after this many records
+     * @param syncIntervalMillis Force the journal to disk at least this often, 0 for never
+     * @throws IOException If the journal cannot be opened
+     */
+    public Journal(File file, int syncEveryRecords, long syncIntervalMillis) throws IOException {
+        this.file = file;
+        this.checkpointFile = checkpointFileOf(file);
+        this.syncEveryRecords = Math.max(1, syncEveryRecords);
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.channel = openChannel(file);
+        this.journalBytes = channel.size();
+    }
+
+    /**
+     * Checks whether a checkpoint of a journal was interrupted, leaving the
+     * files it was writing possibly out of step with each other.
+     *
+     * @param file The journal file
+     * @return true if the segment moved aside by a checkpoint is still there
+     */
+    public static boolean isCheckpointInterrupted(File file) {
+        return checkpointFileOf(file).exists();
+    }
+
+    /**
+     * Gets the file a checkpoint moves the live journal to.
+     */
+    private static File checkpointFileOf(File file) {
+        return new File(file.getPath() + ".checkpoint");
+    }
+
+    /**
+     * Applies every record in the journal to the repositories, starting with a
+     * segment left behind by an interrupted checkpoint. A torn or corrupt
+     * record ends the replay of its segment, and the live journal is cut back
+     * to its last good record.
+     *
+     * @param userRepo The user repository
+     * @param projectRepo The project repository
+     * @param appRepo The application repository
+     * @param enquiryRepo The enquiry repository
+     * @return The number of records applied
+     * @throws IOException If the journal cannot be read
+     */
+    public int replay(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) throws IOException {
+        Replayer replayer = new Replayer(userRepo, projectRepo, appRepo, enquiryRepo);
+        int applied = 0;
+
+        if (checkpointFile.exists()) {
+            try (FileChannel old = FileChannel.open(checkpointFile.toPath(), StandardOpenOption.READ)) {
+                long[] result = replaySegment(old, replayer);
+                applied += (int) result[0];
+            }
+        }
+
+        synchronized (appendLock) {
+            long[] result = replaySegment(channel, replayer);
+            applied += (int) result[0];
+            long validBytes = result[1];
+            if (validBytes < channel.size()) {
+                System.err.println("Journal ends in a damaged record, dropping the last "
+                        + (channel.size() - validBytes) + " bytes.");
+                channel.truncate(validBytes);
+            }
+            channel.position(validBytes);
+            journalBytes = validBytes;
+        }
+        return applied;
+    }
+
+    /**
+     * Starts journaling every write to the repositories and starts the
+     * timed syncs.
+     *
+     * @param userRepo The user repository
+     * @param projectRepo The project repository
+     * @param appRepo The application repository
+     * @param enquiryRepo The enquiry repository
+     */
+    public void attach(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        userRepo.addListener(new RecordingListener<User>(USER) {
+            @Override
+            void encode(User user) throws IOException {
+                encodeUser(user);
+            }
+        });
+        projectRepo.addListener(new RecordingListener<Project>(PROJECT) {
+            @Override
+            void encode(Project project) throws IOException {
+                encodeProject(project);
+            }
+        });
+        appRepo.addListener(new RecordingListener<Application>(APPLICATION) {
+            @Override
+            void encode(Application app) throws IOException {
+                encodeApplication(app);
+            }
+        });
+        enquiryRepo.addListener(new RecordingListener<Enquiry>(ENQUIRY) {
+            @Override
+            void encode(Enquiry enquiry) throws IOException {
+                encodeEnquiry(enquiry);
+            }
+        });
+
+        if (syncIntervalMillis > 0) {
+            scheduler().scheduleWithFixedDelay(() -> {
+                try {
+                    sync();
+                } catch (IOException e) {
+                    System.err.println("Error syncing journal: " + e.getMessage());
+                }
+            }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs checkpoints in the background whenever the journal has records
+     * and either the interval has passed or the journal has grown too large.
+     *
+     * @param intervalMillis The longest time between checkpoints while there are changes
+     * @param maxJournalBytes The journal size that triggers a checkpoint early
+     * @param checkpoint Writes the fresh snapshot
+     */
+    public void scheduleCheckpoints(long intervalMillis, long maxJournalBytes, Checkpoint checkpoint) {
+        long checkMillis = Math.max(1, Math.min(intervalMillis, 1000));
+        long[] lastCheckpoint = { System.currentTimeMillis() };
+        scheduler().scheduleWithFixedDelay(() -> {
+            long now = System.currentTimeMillis();
+            long bytes = size();
+            if (bytes > 0 && (bytes >= maxJournalBytes || now - lastCheckpoint[0] >= intervalMillis)) {
+                try {
+                    checkpoint(checkpoint);
+                } catch (IOException e) {
+                    System.err.println("Error checkpointing journal: " + e.getMessage());
+                }
+                lastCheckpoint[0] = now;
+            }
+        }, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Forces every appended record to disk.
+     *
+     * @throws IOException If the journal cannot be written
+     */
+    public void sync() throws IOException {
+        synchronized (appendLock) {
+            syncQueued = false;
+            if (unsyncedRecords == 0 && buffer.size() == 0) {
+                return;
+            }
+            flushBuffer();
+            channel.force(false);
+            unsyncedRecords = 0;
+        }
+    }
+
+    /**
+     * Gets the size of the live journal.
+     *
+     * @return The number of bytes appended since the last checkpoint
+     */
+    public long size() {
+        synchronized (appendLock) {
+            return journalBytes;
+        }
+    }
+
+    /**
+     * Folds the journal into a fresh snapshot.
+     * The live journal is moved aside and a new one started, so writes made
+     * while the snapshot is written land in the new journal. The old segment
+     * is deleted only after the snapshot was written successfully.
+     *
+     * @param checkpoint Writes the snapshot; it must capture every change made before it is called
+     * @throws IOException If the journal cannot be rotated or the snapshot cannot be written
+     */
+    public void checkpoint(Checkpoint checkpoint) throws IOException {
+        synchronized (checkpointLock) {
+            synchronized (appendLock) {
+                flushBuffer();
+                channel.force(false);
+                unsyncedRecords = 0;
+                channel.close();
+                if (checkpointFile.exists()) {
+                    // A previous checkpoint failed, keep its records in front of ours
+                    try (FileChannel old = FileChannel.open(checkpointFile.toPath(), StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND);
+                            FileChannel live = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        live.transferTo(0, live.size(), old);
+                        old.force(false);
+                    }
+                    Files.delete(file.toPath());
+                } else {
+                    Files.move(file.toPath(), checkpointFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+                channel = openChannel(file);
+                journalBytes = 0;
+            }
+
+            checkpoint.write();
+            Files.deleteIfExists(checkpointFile.toPath());
+        }
+    }
+
+    /**
+     * Forces the remaining records to disk, stops the background work and
+     * closes the journal file.
+     *
+     * @throws IOException If the journal cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        synchronized (appendLock) {
+            sync();
+            channel.close();
+        }
+    }
+
+    /**
+     * Opens a journal file for appending.
+     */
+    private static FileChannel openChannel(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    /**
+     * Gets the scheduler for background work, creating it on first use.
+     */
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Appends the record whose payload is in the payload encoder.
+     * Must be called with the append lock held.
+     */
+    private void appendPayload() throws IOException {
+        crc.reset();
+        crc.update(payloadBytes.toByteArray(), 0, payloadBytes.size());
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(payloadBytes.size());
+        out.writeInt((int) crc.getValue());
+        payloadBytes.writeTo(buffer);
+        journalBytes += HEADER_BYTES + payloadBytes.size();
+        payloadBytes.reset();
+
+        unsyncedRecords++;
+        if (unsyncedRecords >= syncEveryRecords) {
+            queueSync();
+        } else if (buffer.size() >= MAX_BUFFERED_BYTES) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Has the background thread force the journal to disk, or forces it
+     * right away if there is no background thread. Must be called with the
+     * append lock held.
+     */
+    private void queueSync() throws IOException {
+        if (syncQueued) {
+            return;
+        }
+        ScheduledExecutorService background = scheduler;
+        if (background != null) {
+            try {
+                background.execute(() -> {
+                    try {
+                        sync();
+                    } catch (IOException e) {
+                        System.err.println("Error syncing journal: " + e.getMessage());
+                    }
+                });
+                syncQueued = true;
+                return;
+            } catch (RejectedExecutionException e) {
+                // Shutting down, force it here
+            }
+        }
+        flushBuffer();
+        channel.force(false);
+        unsyncedRecords = 0;
+    }
+
+    /**
+     * Writes the buffered records to the file. Must be called with the append lock held.
+     */
+    private void flushBuffer() throws IOException {
+        if (buffer.size() == 0) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray(), 0, buffer.size());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        buffer.reset();
+    }
+
+    /**
+     * Applies the records of one segment, from its start.
+     *
+     * @return The number of records applied and the number of bytes they span
+     */
+    private static long[] replaySegment(FileChannel segment, Replayer replayer) throws IOException {
+        long size = segment.size();
+        long position = 0;
+        long applied = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        CRC32 check = new CRC32();
+
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(segment, header, position);
+            header.flip();
+            int length = header.getInt();
+            int expectedCrc = header.getInt();
+            if (length < 0 || length > MAX_PAYLOAD_BYTES || position + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(segment, record, position + HEADER_BYTES);
+            check.reset();
+            check.update(record.array(), 0, length);
+            if ((int) check.getValue() != expectedCrc) {
+                break;
+            }
+            record.flip();
+            try {
+                replayer.apply(record);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | ClassCastException e) {
+                System.err.println("Skipping unreadable journal record at offset " + position);
+            }
+            applied++;
+            position += HEADER_BYTES + length;
+        }
+        return new long[] { applied, position };
+    }
+
+    /**
+     * Reads until the buffer is full or the segment ends.
+     */
+    private static void readFully(FileChannel segment, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int n = segment.read(target, position + target.position());
+            if (n < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Encodes a user's fields into the payload.
+     */
+    private void encodeUser(User user) throws IOException {
+        byte kind = user instanceof HdbManager ? MANAGER_KIND
+                : user instanceof HdbOfficer ? OFFICER_KIND : APPLICANT_KIND;
+        payload.writeByte(kind);
+        writeString(payload, user.getName());
+        writeString(payload, user.getPassword());
+        payload.writeInt(user.getAge());
+        payload.writeByte(user.getMaritalStatus().ordinal());
+        if (kind == OFFICER_KIND) {
+            payload.writeByte(((HdbOfficer) user).getRegistrationStatus().ordinal());
+        } else {
+            Double income = ((Applicant) user).getIncomeRange();
+            payload.writeDouble(income != null ? income : Double.NaN);
+        }
+    }
+
+    /**
+     * Encodes a project's fields into the payload.
+     */
+    private void encodeProject(Project project) throws IOException {
+        writeString(payload, project.getProjectName());
+        writeString(payload, project.getNeighborhood());
+        FlatType[] flatTypes = project.getFlatType();
+        payload.writeByte(flatTypes.length);
+        for (FlatType type : flatTypes) {
+            payload.writeByte(type.ordinal());
+        }
+        payload.writeDouble(project.getFloorCount());
+        payload.writeDouble(project.getPricePerFlat());
+        payload.writeDouble(project.getThresholdPrice());
+        writeString(payload, project.getApplicationOpenDate());
+        writeString(payload, project.getApplicationCloseDate());
+        payload.writeBoolean(project.isVisible());
+        payload.writeInt(project.getAvailableOfficerSlots());
+        payload.writeInt(project.getTwoRoomUnitsAvailable());
+        payload.writeInt(project.getThreeRoomUnitsAvailable());
+        writeString(payload, project.getManagerInCharge());
+    }
+
+    /**
+     * Encodes an application's fields into the payload.
+     */
+    private void encodeApplication(Application app) throws IOException {
+        writeString(payload, app.getApplicant().getId());
+        writeString(payload, app.getProject().getProjectID());
+        writeString(payload, app.getApplicationDate());
+        payload.writeByte(app.getStatus().ordinal());
+        payload.writeByte(app.getSelectedFlatType().ordinal());
+        payload.writeBoolean(app.isWithdrawalRequested());
+    }
+
+    /**
+     * Encodes an enquiry's fields into the payload.
+     */
+    private void encodeEnquiry(Enquiry enquiry) throws IOException {
+        writeString(payload, enquiry.getProject().getProjectID());
+        writeString(payload, enquiry.getApplicant().getId());
+        writeString(payload, enquiry.getMessage());
+        writeString(payload, enquiry.getResponse());
+        payload.writeByte(enquiry.getStatus().ordinal());
+    }
+
+    /**
+     * Writes a nullable string as its UTF-8 length followed by its bytes.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+     */
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    /**
+     * Appends a record for every write to one repository.
+     *
+     * @param <T> The entity type of the repository
+     */
+    private abstract class RecordingListener<T> implements IRepositoryListener<T> {
+        private final byte type;
+
+        RecordingListener(byte type) {
+            this.type = type;
+        }
+
+        /**
+         * Encodes an entity's fields, after its ID, into the payload.
+         */
+        abstract void encode(T item) throws IOException;
+
+        @Override
+        public void stored(T item) {
+            synchronized (appendLock) {
+                try {
+                    payload.writeByte(type);
+                    payload.writeByte(PUT);
+                    writeString(payload, idOf(item));
+                    encode(item);
+                    appendPayload();
+                } catch (IOException e) {
+                    payloadBytes.reset();
+                    System.err.println("Error writing journal: " + e.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public void deleted(String id) {
+            synchronized (appendLock) {
+                try {
+                    payload.writeByte(type);
+                    payload.writeByte(DELETE);
+                    writeString(payload, id);
+                    appendPayload();
+                } catch (IOException e) {
+                    payloadBytes.reset();
+                    System.err.println("Error writing journal: " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Gets the ID of any journaled entity.
+         */
+        private String idOf(T item) {
+            if (item instanceof User) {
+                return ((User) item).getId();
+            } else if (item instanceof Project) {
+                return ((Project) item).getProjectID();
+            } else if (item instanceof Application) {
+                return ((Application) item).getApplicationId();
+            }
+            return ((Enquiry) item).getEnquiryId();
+        }
+    }
+
+    /**
+     * Applies journal records to the repositories.
+     * Entities that already exist are updated in place, so references other
+     * entities hold to them stay valid.
+     */
+    private static class Replayer {
+        private final UserRepository userRepo;
+        private final ProjectRepository projectRepo;
+        private final ApplicationRepository appRepo;
+        private final EnquiryRepository enquiryRepo;
+        private final MaritalStatus[] maritalStatuses = MaritalStatus.values();
+        private final OfficerRegistrationStatus[] registrationStatuses = OfficerRegistrationStatus.values();
+        private final ApplicationStatus[] applicationStatuses = ApplicationStatus.values();
+        private final FlatType[] flatTypes = FlatType.values();
+
+        Replayer(UserRepository userRepo, ProjectRepository projectRepo,
+                ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+            this.userRepo = userRepo;
+            this.projectRepo = projectRepo;
+            this.appRepo = appRepo;
+            this.enquiryRepo = enquiryRepo;
+        }
+
+        /**
+         * Applies one record.
+         */
+        void apply(ByteBuffer record) {
+            byte type = record.get();
+            byte op = record.get();
+            String id = readString(record);
+
+            if (op == DELETE) {
+                switch (type) {
+                    case USER:
+                        userRepo.delete(id);
+                        break;
+                    case PROJECT:
+                        projectRepo.delete(id);
+                        break;
+                    case APPLICATION:
+                        appRepo.delete(id);
+                        break;
+                    case ENQUIRY:
+                        enquiryRepo.delete(id);
+                        break;
+                    default:
+                        break;
+                }
+                return;
+            }
+
+            switch (type) {
+                case USER:
+                    applyUser(id, record);
+                    break;
+                case PROJECT:
+                    applyProject(id, record);
+                    break;
+                case APPLICATION:
+                    applyApplication(id, record);
+                    break;
+                case ENQUIRY:
+                    applyEnquiry(id, record);
+                    break;
+                default:
+                    System.err.println("Skipping journal record of unknown type " + type);
+            }
+        }
+
+        private void applyUser(String id, ByteBuffer record) {
+            byte kind = record.get();
+            String name = readString(record);
+            String password = readString(record);
+            int age = record.getInt();
+            MaritalStatus status = maritalStatuses[record.get()];
+            User existing = userRepo.getById(id);
+
+            if (kind == OFFICER_KIND) {
+                OfficerRegistrationStatus regStatus = registrationStatuses[record.get()];
+                if (existing instanceof HdbOfficer) {
+                    HdbOfficer officer = (HdbOfficer) existing;
+                    updateUser(officer, name, password, age, status);
+                    officer.setRegistrationStatus(regStatus);
+                    userRepo.update(officer);
+                } else {
+                    userRepo.delete(id);
+                    userRepo.add(new HdbOfficer(id, name, password, age, status, name,
+                            null, null, regStatus, null, appRepo, enquiryRepo, projectRepo));
+                }
+                return;
+            }
+
+            double value = record.getDouble();
+            Double income = Double.isNaN(value) ? null : value;
+            boolean sameKind = kind == MANAGER_KIND ? existing instanceof HdbManager
+                    : existing instanceof Applicant && !(existing instanceof HdbManager);
+            if (sameKind) {
+                Applicant applicant = (Applicant) existing;
+                updateUser(applicant, name, password, age, status);
+                applicant.setIncomeRange(income);
+                userRepo.update(applicant);
+            } else {
+                userRepo.delete(id);
+                userRepo.add(kind == MANAGER_KIND
+                        ? new HdbManager(id, name, password, age, status, name, income)
+                        : new Applicant(id, name, password, age, status, name, income));
+            }
+        }
+
+        private void updateUser(User user, String name, String password, int age, MaritalStatus status) {
+            user.setName(name);
+            user.setPassword(password);
+            user.setAge(age);
+            user.setMaritalStatus(status);
+        }
+
+        private void applyProject(String id, ByteBuffer record) {
+            String projectName = readString(record);
+            String neighborhood = readString(record);
+            FlatType[] types = new FlatType[record.get()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = flatTypes[record.get()];
+            }
+            double floorCount = record.getDouble();
+            double pricePerFlat = record.getDouble();
+            double thresholdPrice = record.getDouble();
+            String openDate = readString(record);
+            String closeDate = readString(record);
+            boolean visible = record.get() != 0;
+            int officerSlots = record.getInt();
+            int twoRoomUnits = record.getInt();
+            int threeRoomUnits = record.getInt();
+            String managerInCharge = readString(record);
+
+            Project project = projectRepo.getById(id);
+            if (project == null) {
+                project = new Project(id, neighborhood, types, floorCount,
+                        pricePerFlat, thresholdPrice, openDate, closeDate,
+                        visible, officerSlots, twoRoomUnits, threeRoomUnits);
+                project.setProjectName(projectName);
+                project.setManagerInCharge(managerInCharge);
+                for (HdbManager manager : userRepo.getManagers()) {
+                    if (manager.getName().equals(managerInCharge)) {
+                        manager.getProjectsCreated().add(project);
+                    }
+                }
+                projectRepo.add(project);
+                return;
+            }
+
+            project.setProjectName(projectName);
+            project.setNeighborhood(neighborhood);
+            project.setFlatType(types);
+            project.setFloorCount(floorCount);
+            project.setPricePerFlat(pricePerFlat);
+            project.setThresholdPrice(thresholdPrice);
+            project.setApplicationOpenDate(openDate);
+            project.setApplicationCloseDate(closeDate);
+            project.setVisible(visible);
+            project.setAvailableOfficerSlots(officerSlots);
+            project.setTwoRoomUnitsAvailable(twoRoomUnits);
+            project.setThreeRoomUnitsAvailable(threeRoomUnits);
+            project.setManagerInCharge(managerInCharge);
+            projectRepo.update(project);
+        }
+
+        private void applyApplication(String id, ByteBuffer record) {
+            String applicantId = readString(record);
+            String projectId = readString(record);
+            String applicationDate = readString(record);
+            ApplicationStatus status = applicationStatuses[record.get()];
+            FlatType flatType = flatTypes[record.get()];
+            boolean withdrawalRequested = record.get() != 0;
+
+            User user = userRepo.getById(applicantId);
+            Project project = projectRepo.getById(projectId);
+            if (!(user instanceof Applicant) || project == null) {
+                System.out.println("Skipping journaled application due to missing applicant or project");
+                return;
+            }
+            Applicant applicant = (Applicant) user;
+
+            Application application = appRepo.getById(id);
+            if (application == null || application.getApplicant() != applicant
+                    || application.getProject() != project) {
+                application = new Application(id, applicant, project, applicationDate, flatType);
+            }
+            application.setSelectedFlatType(flatType);
+            application.updateStatus(status);
+            if (withdrawalRequested) {
+                application.requestWithdrawal();
+            } else {
+                application.clearWithdrawalRequest();
+            }
+            if (status == ApplicationStatus.BOOKED) {
+                applicant.setBookedFlat(flatType);
+                applicant.setBookedProject(project);
+            }
+            // add stores the application whether or not it already exists
+            appRepo.add(application);
+        }
+
+        private void applyEnquiry(String id, ByteBuffer record) {
+            String projectId = readString(record);
+            String applicantId = readString(record);
+            String message = readString(record);
+            String response = readString(record);
+            boolean replied = record.get() == EnquiryStatus.REPLIED.ordinal();
+
+            User user = userRepo.getById(applicantId);
+            Project project = projectRepo.getById(projectId);
+            if (!(user instanceof Applicant) || project == null) {
+                System.out.println("Skipping journaled enquiry due to missing applicant or project");
+                return;
+            }
+
+            Enquiry enquiry = enquiryRepo.getById(id);
+            if (enquiry == null || enquiry.getApplicant() != user || enquiry.getProject() != project) {
+                enquiry = new Enquiry(id, project, (Applicant) user, message);
+            }
+            enquiry.setMessage(message);
+            if (replied && response != null) {
+                enquiry.reply(response);
+            }
+            enquiryRepo.add(enquiry);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package sc2002.bto.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import sc2002.bto.entity.Receipt;
+import sc2002.bto.interfaces.IStorageEngine;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.BaseRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Storage engine keeping the data in a binary snapshot and an append-only
+ * change log, without CSV files. Every repository write is appended to the
+ * log as it happens (see {@link Journal}), so a save only forces the log to
+ * disk and costs time proportional to the changes. Background checkpoints
+ * fold the log into a fresh snapshot once it grows large or old.
+ * <p>
+ * The first start imports the CSV files. Receipts stay in the receipt file,
+ * which is only ever appended to.
+ */
+public class LogStorage implements IStorageEngine {
+    private final File snapshotFile;
+    private final File logFile;
+    private final int syncEveryRecords;
+    private final long syncIntervalMillis;
+    private final long checkpointIntervalMillis;
+    private final long checkpointLogBytes;
+
+    /** The change log, null until data is loaded or if loading failed */
+    private volatile Journal log;
+
+    /**
+     * Creates an engine over the given files.
+     *
+     * @param snapshotFile The snapshot file
+     * @param logFile The change log file
+     * @param syncEveryRecords Force the log to disk after this many records
+     * @param syncIntervalMillis Force the log to disk at least this often
+     * @param checkpointIntervalMillis Longest time between checkpoints
+     * @param checkpointLogBytes Log size that triggers an early checkpoint
+     */
+    public LogStorage(File snapshotFile, File logFile, int syncEveryRecords, long syncIntervalMillis,
+            long checkpointIntervalMillis, long checkpointLogBytes) {
+        this.snapshotFile = snapshotFile;
+        this.logFile = logFile;
+        this.syncEveryRecords = syncEveryRecords;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+        this.checkpointLogBytes = checkpointLogBytes;
+    }
+
+    /**
+     * Gets the name of the engine.
+     *
+     * @return "log"
+     */
+    @Override
+    public String getName() {
+        return "log";
+    }
+
+    /**
+     * Loads the snapshot and replays the log on top, importing the CSV files
+     * if neither exists yet, and starts logging every write.
+     * If the snapshot or log cannot be read, saving is refused so that they
+     * are not overwritten.
+     *
+     * @param userRepo The user repository to populate
+     * @param projectRepo The project repository to populate
+     * @param appRepo The application repository to populate
+     * @param enquiryRepo The enquiry repository to populate
+     * @return true if the stored data was loaded, false if default data was created or loading failed
+     */
+    @Override
+    public boolean load(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        try {
+            File dir = logFile.getAbsoluteFile().getParentFile();
+            Files.createDirectories(dir.toPath());
+            FileTransaction.deleteLeftovers(dir);
+
+            boolean loaded = true;
+            long start = System.nanoTime();
+            if (snapshotFile.exists()) {
+                int[] counts = BinarySnapshot.read(snapshotFile, userRepo, projectRepo, appRepo, enquiryRepo);
+                System.out.printf("Loaded %d users, %d projects, %d applications and %d enquiries from %s in %d ms%n",
+                        counts[0], counts[1], counts[2], counts[3], snapshotFile.getName(),
+                        (System.nanoTime() - start) / 1_000_000);
+            } else if (logFile.length() == 0 && !Journal.isCheckpointInterrupted(logFile)) {
+                System.out.println("Importing the CSV files into " + snapshotFile.getName() + "...");
+                loaded = FileHandler.importAllData(userRepo, projectRepo, appRepo, enquiryRepo);
+                BinarySnapshot.write(snapshotFile, userRepo, projectRepo, appRepo, enquiryRepo);
+            }
+
+            Journal opened = new Journal(logFile, syncEveryRecords, syncIntervalMillis);
+            start = System.nanoTime();
+            int replayed = opened.replay(userRepo, projectRepo, appRepo, enquiryRepo);
+            if (replayed > 0) {
+                System.out.printf("Replayed %d logged changes in %d ms%n", replayed,
+                        (System.nanoTime() - start) / 1_000_000);
+            }
+            // Everything loaded so far is already in the snapshot or the log
+            userRepo.markSaved(userRepo.getChanges());
+            projectRepo.markSaved(projectRepo.getChanges());
+            appRepo.markSaved(appRepo.getChanges());
+            enquiryRepo.markSaved(enquiryRepo.getChanges());
+
+            opened.attach(userRepo, projectRepo, appRepo, enquiryRepo);
+            opened.scheduleCheckpoints(checkpointIntervalMillis, checkpointLogBytes,
+                    () -> BinarySnapshot.write(snapshotFile, userRepo, projectRepo, appRepo, enquiryRepo));
+            log = opened;
+            return loaded;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error loading " + snapshotFile.getName() + " and " + logFile.getName() + ": "
+                    + e.getMessage());
+            System.err.println("Saving is disabled so the data files stay untouched.");
+            return false;
+        }
+    }
+
+    /**
+     * Forces the logged changes to disk.
+     *
+     * @param userRepo The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @return true if saving was successful, false otherwise
+     */
+    @Override
+    public boolean saveChanges(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        Journal current = log;
+        if (current == null) {
+            System.err.println("Not saving: the data files could not be loaded and are left untouched.");
+            return false;
+        }
+        try {
+            current.sync();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving changes: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Forces the logged changes to disk and marks them as saved.
+     * Every write is logged as it happens, so nothing else needs writing; the
+     * snapshot is only rewritten by the background checkpoints. A write whose
+     * log record is still being appended when the changes are collected is
+     * forced to disk by the log's next timed sync.
+     *
+     * @param userRepo The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @return true if saving was successful, false otherwise
+     */
+    @Override
+    public boolean saveAll(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+        Map<String, BaseRepository.Change> users = userRepo.getChanges();
+        Map<String, BaseRepository.Change> projects = projectRepo.getChanges();
+        Map<String, BaseRepository.Change> applications = appRepo.getChanges();
+        Map<String, BaseRepository.Change> enquiries = enquiryRepo.getChanges();
+        if (!saveChanges(userRepo, projectRepo, appRepo, enquiryRepo)) {
+            return false;
+        }
+        userRepo.markSaved(users);
+        projectRepo.markSaved(projects);
+        appRepo.markSaved(applications);
+        enquiryRepo.markSaved(enquiries);
+        return true;
+    }
+
+    /**
+     * Reads the receipt file.
+     *
+     * @return The stored receipts in file order
+     */
+    @Override
+    public List<Receipt> loadReceipts() {
+        return FileHandler.loadReceipts();
+    }
+
+    /**
+     * Appends a receipt to the receipt file.
+     *
+     * @param receipt The receipt to store
+     * @return true if the receipt was stored, false otherwise
+     */
+    @Override
+    public boolean appendReceipt(Receipt receipt) {
+        return FileHandler.appendReceipt(receipt);
+    }
+
+    /**
+     * Forces the remaining logged changes to disk and closes the log.
+     */
+    @Override
+    public void close() {
+        Journal current = log;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + logFile.getName() + ": " + e.getMessage());
+        }
+        log = null;
+    }
+}
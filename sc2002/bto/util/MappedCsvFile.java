@@ -0,0 +1,172 @@
+package sc2002.bto.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Memory-maps a large UTF-8 CSV file and splits it into chunks that can be
+ * tokenized in parallel.
+ * Chunks always start at the beginning of a record: a split point is only
+ * placed after a line break that lies outside any quoted field, so quoted
+ * fields containing line breaks are never cut in half. The header record is
+ * left out of the chunks. The split points are found by scanning the file's
+ * segments in parallel, so that finding them does not hold up the parallel
+ * parsing on a single thread.
+ */
+public final class MappedCsvFile {
+    /**
+     * Spacing of split points that keeps every chunk within the largest
+     * region a single MappedByteBuffer can cover, even when a split point is
+     * pushed forward to the end of a long record
+     */
+    private static final long MAX_SPLIT_SPACING = Integer.MAX_VALUE / 2;
+    /** Size of the windows mapped while looking for split points */
+    private static final long SCAN_WINDOW_BYTES = 256L * 1024 * 1024;
+
+    private MappedCsvFile() {
+    }
+
+    /**
+     * Maps a CSV file and returns one tokenizer per chunk, in file order.
+     * Files larger than a single mapping can hold are split into more chunks
+     * than requested.
+     *
+     * @param file The CSV file, encoded in UTF-8
+     * @param chunkCount The number of chunks wanted, usually the number of threads parsing them
+     * @return Tokenizers over the data records of each chunk; empty if the file has no data records
+     * @throws IOException If the file cannot be mapped
+     */
+    public static List<CsvTokenizer> split(File file, int chunkCount) throws IOException {
+        List<CsvTokenizer> chunks = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int count = (int) Math.max(Math.max(1, chunkCount), (size + MAX_SPLIT_SPACING - 1) / MAX_SPLIT_SPACING);
+            long[] bounds = findRecordBoundaries(channel, size, count);
+
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                if (end > start) {
+                    // A mapping stays valid after its channel is closed
+                    MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                    chunks.add(new CsvTokenizer(region));
+                }
+            }
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Picks the first line break outside quoted fields at or after each
+     * evenly spaced target offset.
+     * <p>
+     * The file is cut at the target offsets into segments that are scanned in
+     * parallel. Whether a segment starts inside a quoted field depends on the
+     * quotes before it, so each scan counts its quotes and notes the first
+     * line break that would end a record either way: the first one after an
+     * even number of quotes, for a segment entered outside quotes, and the
+     * first after an odd number, for one entered inside. The quote counts
+     * then give every segment's real starting state in one pass over the
+     * segments, and with it the boundary. A doubled quote inside a quoted
+     * field toggles the state twice, and a quote byte never occurs inside a
+     * multi-byte UTF-8 sequence, so counting quote bytes is exact.
+     *
+     * @return The chunk boundaries: the end of the header, the split points, and the file size
+     */
+    private static long[] findRecordBoundaries(FileChannel channel, long size, int count) throws IOException {
+        long[] targets = new long[count + 1];
+        for (int i = 0; i <= count; i++) {
+            targets[i] = size * i / count;
+        }
+        SegmentScan[] scans;
+        try {
+            scans = IntStream.range(0, count).parallel()
+                    .mapToObj(i -> {
+                        try {
+                            return scanSegment(channel, targets[i], targets[i + 1]);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .toArray(SegmentScan[]::new);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        // Boundary 0 is the end of the header, the others follow their target offset
+        long[] bounds = new long[count + 1];
+        bounds[count] = size;
+        boolean[] entersQuoted = new boolean[count];
+        for (int i = 1; i < count; i++) {
+            entersQuoted[i] = entersQuoted[i - 1] ^ scans[i - 1].oddQuotes;
+        }
+        for (int i = 0; i < count; i++) {
+            long recordStart = size;
+            for (int segment = i; segment < count; segment++) {
+                long lineBreak = entersQuoted[segment] ? scans[segment].breakAfterOdd : scans[segment].breakAfterEven;
+                if (lineBreak >= 0) {
+                    recordStart = lineBreak + 1;
+                    break;
+                }
+            }
+            // A target inside a record longer than a segment shares the next boundary
+            bounds[i] = i > 0 ? Math.max(recordStart, bounds[i - 1]) : recordStart;
+        }
+        return bounds;
+    }
+
+    /**
+     * Scans one segment of the file for quotes and line breaks.
+     *
+     * @param channel The file
+     * @param start The first byte of the segment
+     * @param end The end of the segment
+     * @return What the scan found
+     * @throws IOException If the segment cannot be mapped
+     */
+    private static SegmentScan scanSegment(FileChannel channel, long start, long end) throws IOException {
+        SegmentScan scan = new SegmentScan();
+        boolean odd = false;
+        for (long windowStart = start; windowStart < end; windowStart += SCAN_WINDOW_BYTES) {
+            long windowSize = Math.min(SCAN_WINDOW_BYTES, end - windowStart);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                byte b = window.get(i);
+                if (b == '"') {
+                    odd = !odd;
+                } else if (b == '\n') {
+                    if (odd) {
+                        if (scan.breakAfterOdd < 0) {
+                            scan.breakAfterOdd = windowStart + i;
+                        }
+                    } else if (scan.breakAfterEven < 0) {
+                        scan.breakAfterEven = windowStart + i;
+                    }
+                }
+            }
+        }
+        scan.oddQuotes = odd;
+        return scan;
+    }
+
+    /**
+     * What the scan of one segment found.
+     */
+    private static final class SegmentScan {
+        /** Whether the segment holds an odd number of quotes */
+        private boolean oddQuotes;
+        /** Offset of the first line break after an even number of quotes in the segment, or -1 */
+        private long breakAfterEven = -1;
+        /** Offset of the first line break after an odd number of quotes in the segment, or -1 */
+        private long breakAfterOdd = -1;
+    }
+}
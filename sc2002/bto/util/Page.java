@@ -0,0 +1,70 @@
+package sc2002.bto.util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of entities returned by a keyset-paginated repository listing.
+ * The cursor is an opaque position in the repository's insertion order;
+ * passing {@link #getNextCursor()} back to the repository returns the page
+ * that follows, even if entities were added or deleted in between.
+ *
+ * @param <T> The entity type in the page
+ */
+public class Page<T> {
+    /** Cursor that requests the first page */
+    public static final long FIRST = 0;
+
+    private final List<T> items;
+    private final long nextCursor;
+    private final boolean hasMore;
+
+    /**
+     * Creates a page.
+     *
+     * @param items The entities in this page
+     * @param nextCursor The cursor that requests the next page
+     * @param hasMore Whether more entities follow this page
+     */
+    public Page(List<T> items, long nextCursor, boolean hasMore) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    /**
+     * Gets the entities in this page.
+     *
+     * @return An unmodifiable list of entities
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Gets the cursor that requests the next page.
+     *
+     * @return The next cursor
+     */
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Checks whether more entities follow this page.
+     *
+     * @return true if there is a next page, false otherwise
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * Checks whether this page has no entities.
+     *
+     * @return true if the page is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+}
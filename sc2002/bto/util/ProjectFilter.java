@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import sc2002.bto.entity.Project;
 import sc2002.bto.enums.FlatType;
@@ -58,26 +60,43 @@ public class ProjectFilter {
      * @return A new list containing the filtered and sorted projects
      */
     public List<Project> apply(List<Project> projects) {
-        List<Project> result = new ArrayList<>(projects);
-        
+        return sort(projects.stream().filter(this::matches));
+    }
+    
+    /**
+     * Checks whether a project passes the current neighborhood and flat type filters.
+     * Can be passed to a repository stream so that only matching projects are read.
+     * 
+     * @param p The project to check
+     * @return true if the project matches the current filters, false otherwise
+     */
+    public boolean matches(Project p) {
         // Apply neighborhood filter
-        if (neighborhood != null && !neighborhood.isEmpty()) {
-            result.removeIf(p -> !p.getNeighborhood().equalsIgnoreCase(neighborhood));
+        if (neighborhood != null && !neighborhood.isEmpty()
+                && !p.getNeighborhood().equalsIgnoreCase(neighborhood)) {
+            return false;
         }
         
         // Apply flat type filter
         if (flatType != null) {
-            result.removeIf(p -> {
-                boolean hasSelectedFlatType = false;
-                for (FlatType type : p.getFlatType()) {
-                    if (type == flatType) {
-                        hasSelectedFlatType = true;
-                        break;
-                    }
+            for (FlatType type : p.getFlatType()) {
+                if (type == flatType) {
+                    return true;
                 }
-                return !hasSelectedFlatType;
-            });
+            }
+            return false;
         }
+        return true;
+    }
+    
+    /**
+     * Collects already filtered projects and sorts them by the current sort settings.
+     * 
+     * @param projects The filtered projects
+     * @return A new list containing the sorted projects
+     */
+    public List<Project> sort(Stream<Project> projects) {
+        List<Project> result = projects.collect(Collectors.toCollection(ArrayList::new));
         
         // Apply sorting
         if (sortBy != null) {
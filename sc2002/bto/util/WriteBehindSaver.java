@@ -0,0 +1,360 @@
+package sc2002.bto.util;
+
+import java.io.Closeable;
+import sc2002.bto.entity.Application;
+import sc2002.bto.entity.Enquiry;
+import sc2002.bto.entity.Project;
+import sc2002.bto.entity.User;
+import sc2002.bto.interfaces.IRepositoryListener;
+import sc2002.bto.interfaces.IStorageEngine;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Saves repository changes on a background thread, so that the threads
+ * changing the repositories never wait for the disk.
+ * <p>
+ * A flush makes the writes since the last flush durable as cheaply as the
+ * engine allows ({@link IStorageEngine#saveChanges}); with a journal that
+ * only forces the journal, so it costs time proportional to the changes.
+ * A flush runs every flush interval while there are new writes, as soon as
+ * the number of writes since the last flush reaches the threshold, or when
+ * one is requested. Once per checkpoint interval, a checkpoint instead
+ * writes the entities changed since the last checkpoint to the engine's
+ * main store ({@link IStorageEngine#saveAll}); changes are coalesced by the
+ * repositories' dirty tracking, so an entity written many times between two
+ * checkpoints is written once.
+ * <p>
+ * {@link #flush()} is a barrier: it runs a checkpoint and returns once
+ * everything changed before the call has been saved, and is meant for
+ * shutdown. A failed flush or checkpoint leaves the changes pending, so the
+ * next one retries them.
+ */
+public class WriteBehindSaver implements Closeable {
+    private final IStorageEngine storage;
+    private final UserRepository userRepo;
+    private final ProjectRepository projectRepo;
+    private final ApplicationRepository appRepo;
+    private final EnquiryRepository enquiryRepo;
+    private final long intervalMillis;
+    private final long checkpointMillis;
+    private final int dirtyThreshold;
+    private final Thread thread;
+
+    /** Guards the fields below */
+    private final Object lock = new Object();
+    /** Number of flushes requested so far */
+    private long requested;
+    /** Number of requests covered by finished flushes */
+    private long completed;
+    /** Request up to which flushes must be checkpoints */
+    private long checkpointRequested;
+    /** Whether the last flush succeeded */
+    private boolean lastFlushSucceeded = true;
+    private boolean closed;
+
+    /** Writes made to the repositories up to the last successful flush */
+    private volatile long flushedChanges;
+    /** When the last checkpoint ran, written by the background thread only */
+    private long lastCheckpointMillis = System.currentTimeMillis();
+
+    /** Metrics */
+    private long flushCount;
+    private long failedFlushCount;
+    private long checkpointCount;
+    private long lastFlushNanos;
+    private long maxFlushNanos;
+    private long totalFlushNanos;
+
+    /**
+     * Creates a saver for the given repositories and starts its thread.
+     *
+     * @param storage The storage engine to save to
+     * @param userRepo The user repository to save
+     * @param projectRepo The project repository to save
+     * @param appRepo The application repository to save
+     * @param enquiryRepo The enquiry repository to save
+     * @param intervalMillis Time between flushes while there are new writes
+     * @param checkpointMillis Time between checkpoints while there are unsaved changes
+     * @param dirtyThreshold Number of writes since the last flush that triggers a flush early
+     */
+    public WriteBehindSaver(IStorageEngine storage, UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo, EnquiryRepository enquiryRepo, long intervalMillis, long checkpointMillis,
+            int dirtyThreshold) {
+        this.storage = storage;
+        this.userRepo = userRepo;
+        this.projectRepo = projectRepo;
+        this.appRepo = appRepo;
+        this.enquiryRepo = enquiryRepo;
+        this.intervalMillis = Math.max(1, intervalMillis);
+        this.checkpointMillis = Math.max(1, checkpointMillis);
+        this.flushedChanges = changeCount();
+        this.dirtyThreshold = Math.max(1, dirtyThreshold);
+
+        userRepo.addListener(new ThresholdListener<User>());
+        projectRepo.addListener(new ThresholdListener<Project>());
+        appRepo.addListener(new ThresholdListener<Application>());
+        enquiryRepo.addListener(new ThresholdListener<Enquiry>());
+
+        thread = new Thread(this::run, "write-behind");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts a flush on the background thread without waiting for it.
+     */
+    public void requestFlush() {
+        synchronized (lock) {
+            requested++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Saves every change made before this call to the engine's main store
+     * and waits until it is on disk.
+     *
+     * @return true if the flush succeeded, false if it failed or the saver is closed
+     */
+    public boolean flush() {
+        synchronized (lock) {
+            if (closed) {
+                return false;
+            }
+            long target = ++requested;
+            checkpointRequested = target;
+            lock.notifyAll();
+            boolean interrupted = false;
+            while (completed < target && thread.isAlive()) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return completed >= target && lastFlushSucceeded;
+        }
+    }
+
+    /**
+     * Flushes the remaining changes and stops the background thread.
+     */
+    @Override
+    public void close() {
+        flush();
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the number of entities changed since the last checkpoint.
+     *
+     * @return The queue depth
+     */
+    public int getQueueDepth() {
+        return userRepo.getDirtyCount() + projectRepo.getDirtyCount()
+                + appRepo.getDirtyCount() + enquiryRepo.getDirtyCount();
+    }
+
+    /**
+     * Gets the number of writes made to the repositories so far.
+     *
+     * @return The sum of the repositories' change counters
+     */
+    private long changeCount() {
+        return userRepo.getChangeCount() + projectRepo.getChangeCount()
+                + appRepo.getChangeCount() + enquiryRepo.getChangeCount();
+    }
+
+    /**
+     * Gets the number of flushes that wrote changes, including failed ones.
+     *
+     * @return The flush count
+     */
+    public long getFlushCount() {
+        synchronized (lock) {
+            return flushCount;
+        }
+    }
+
+    /**
+     * Gets the number of flushes that were checkpoints, including failed ones.
+     *
+     * @return The checkpoint count
+     */
+    public long getCheckpointCount() {
+        synchronized (lock) {
+            return checkpointCount;
+        }
+    }
+
+    /**
+     * Gets the number of flushes that failed.
+     *
+     * @return The failed flush count
+     */
+    public long getFailedFlushCount() {
+        synchronized (lock) {
+            return failedFlushCount;
+        }
+    }
+
+    /**
+     * Gets how long the last flush took.
+     *
+     * @return The latency in milliseconds, 0 if nothing was flushed yet
+     */
+    public double getLastFlushMillis() {
+        synchronized (lock) {
+            return lastFlushNanos / 1e6;
+        }
+    }
+
+    /**
+     * Gets how long the slowest flush took.
+     *
+     * @return The latency in milliseconds, 0 if nothing was flushed yet
+     */
+    public double getMaxFlushMillis() {
+        synchronized (lock) {
+            return maxFlushNanos / 1e6;
+        }
+    }
+
+    /**
+     * Gets how long a flush took on average.
+     *
+     * @return The latency in milliseconds, 0 if nothing was flushed yet
+     */
+    public double getAverageFlushMillis() {
+        synchronized (lock) {
+            return flushCount > 0 ? totalFlushNanos / 1e6 / flushCount : 0;
+        }
+    }
+
+    /**
+     * Generates a one-line summary of the metrics.
+     *
+     * @return The queue depth and flush latencies
+     */
+    public String getSummary() {
+        synchronized (lock) {
+            return String.format("%d changed since the last checkpoint, %d flushes (%d checkpoints, %d failed), "
+                    + "latency last %.1f ms, avg %.1f ms, max %.1f ms", getQueueDepth(), flushCount,
+                    checkpointCount, failedFlushCount, getLastFlushMillis(), getAverageFlushMillis(),
+                    getMaxFlushMillis());
+        }
+    }
+
+    /**
+     * Background loop: waits for the interval, a request or the threshold,
+     * then flushes, or runs a checkpoint if one is requested or due.
+     */
+    private void run() {
+        while (true) {
+            long target;
+            boolean checkpoint;
+            synchronized (lock) {
+                long deadline = System.currentTimeMillis() + intervalMillis;
+                while (!closed && requested == completed) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    try {
+                        lock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        // Keep running until closed
+                    }
+                }
+                if (closed && requested == completed) {
+                    return;
+                }
+                target = requested;
+                checkpoint = checkpointRequested > completed;
+            }
+
+            long now = System.currentTimeMillis();
+            checkpoint |= now - lastCheckpointMillis >= checkpointMillis;
+            // Read before saving, so writes made during the save are flushed next time
+            long changes = changeCount();
+            boolean dirty = checkpoint ? getQueueDepth() > 0 : changes != flushedChanges;
+            boolean succeeded = true;
+            long start = System.nanoTime();
+            if (dirty) {
+                try {
+                    succeeded = checkpoint ? storage.saveAll(userRepo, projectRepo, appRepo, enquiryRepo)
+                            : storage.saveChanges(userRepo, projectRepo, appRepo, enquiryRepo);
+                } catch (RuntimeException e) {
+                    System.err.println("Error in background save: " + e.getMessage());
+                    succeeded = false;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            if (succeeded) {
+                flushedChanges = changes;
+                if (checkpoint) {
+                    lastCheckpointMillis = now;
+                }
+            }
+
+            synchronized (lock) {
+                if (dirty) {
+                    flushCount++;
+                    if (checkpoint) {
+                        checkpointCount++;
+                    }
+                    if (!succeeded) {
+                        failedFlushCount++;
+                    }
+                    lastFlushNanos = elapsed;
+                    maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+                    totalFlushNanos += elapsed;
+                }
+                lastFlushSucceeded = succeeded;
+                completed = Math.max(completed, target);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Requests a flush once enough writes were made since the last one.
+     * Runs on the writing thread, so it only checks counters.
+     */
+    private class ThresholdListener<T> implements IRepositoryListener<T> {
+        @Override
+        public void stored(T item) {
+            checkThreshold();
+        }
+
+        @Override
+        public void deleted(String id) {
+            checkThreshold();
+        }
+
+        private void checkThreshold() {
+            if (changeCount() - flushedChanges >= dirtyThreshold) {
+                synchronized (lock) {
+                    if (requested == completed) {
+                        requested++;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package sc2002.bto.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import sc2002.bto.entity.Applicant;
+import sc2002.bto.entity.Application;
+import sc2002.bto.entity.HdbManager;
+import sc2002.bto.entity.HdbOfficer;
+import sc2002.bto.entity.Project;
+import sc2002.bto.enums.ApplicationStatus;
+import sc2002.bto.enums.FlatType;
+import sc2002.bto.enums.MaritalStatus;
+import sc2002.bto.enums.OfficerRegistrationStatus;
+
+/**
+ * Stress test for the repositories shared by concurrent sessions.
+ * <p>
+ * Writer threads add, move through statuses and delete applications while
+ * reader threads query the secondary indexes, and every thread takes units
+ * from the same project at once. Afterwards the counts must match what the
+ * writers did, and every index must agree with the primary store. Officers
+ * then book flats while managers approve withdrawals of the same
+ * applications, and every flat must end up back in the project. Finally
+ * the read throughput is measured at increasing thread counts.
+ * <p>
+ * Run with {@code java -cp <classes> sc2002.bto.repository.ConcurrentRepositoryStressTest};
+ * it exits with an error if a check fails.
+ */
+public class ConcurrentRepositoryStressTest {
+    private static final int PROJECTS = 20;
+    private static final int APPLICANTS = 500;
+    private static final int WRITERS = 8;
+    private static final int READERS = 4;
+    private static final int APPLICATIONS_PER_WRITER = 5000;
+    private static final int UNITS = 100_000;
+    private static final int WITHDRAWALS = 2000;
+
+    private final ProjectRepository projectRepo = new ProjectRepository();
+    private final ApplicationRepository appRepo = new ApplicationRepository();
+    private final List<Project> projects = new ArrayList<>();
+    private final List<Applicant> applicants = new ArrayList<>();
+    /** Errors thrown by worker threads */
+    private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Runs the stress test.
+     *
+     * @param args Not used
+     * @throws Exception If a check fails or a worker thread fails
+     */
+    public static void main(String[] args) throws Exception {
+        ConcurrentRepositoryStressTest test = new ConcurrentRepositoryStressTest();
+        test.setUp();
+        test.testConcurrentWrites();
+        test.testContendedUnits();
+        test.testBookingAndWithdrawal();
+        test.measureReadScaling();
+        System.out.println("ConcurrentRepositoryStressTest passed");
+    }
+
+    /**
+     * Creates the projects and applicants the applications refer to.
+     */
+    private void setUp() {
+        for (int i = 0; i < PROJECTS; i++) {
+            Project project = new Project("P" + i, "Yishun", new FlatType[] { FlatType.TWO_ROOM, FlatType.THREE_ROOM },
+                    10, 500000, 450000, "2025-01-01", "2027-01-01", true, 10, UNITS, UNITS);
+            projects.add(project);
+            projectRepo.add(project);
+        }
+        for (int i = 0; i < APPLICANTS; i++) {
+            applicants.add(new Applicant(String.format("S%07dA", i), "App " + i, "password", 30,
+                    MaritalStatus.MARRIED, "App " + i, 5000.0));
+        }
+    }
+
+    /**
+     * Writers add applications, move them through statuses and delete some,
+     * while readers check that every index lookup returns matching entities.
+     *
+     * @throws Exception If a check fails
+     */
+    private void testConcurrentWrites() throws Exception {
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Map<String, ApplicationStatus> expected = new ConcurrentHashMap<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            threads.add(worker("writer-" + w, start, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < APPLICATIONS_PER_WRITER; i++) {
+                    String id = "A" + writer + "-" + i;
+                    Application application = new Application(id, applicants.get(random.nextInt(APPLICANTS)),
+                            projects.get(random.nextInt(PROJECTS)), "2025-02-01", FlatType.TWO_ROOM);
+                    appRepo.add(application);
+                    expected.put(id, ApplicationStatus.PENDING);
+                    if (i % 3 == 0 && appRepo.transitionStatus(application, ApplicationStatus.PENDING,
+                            ApplicationStatus.SUCCESSFUL)) {
+                        expected.put(id, ApplicationStatus.SUCCESSFUL);
+                    }
+                    if (i % 7 == 0) {
+                        appRepo.updateStatus(application, ApplicationStatus.UNSUCCESSFUL);
+                        expected.put(id, ApplicationStatus.UNSUCCESSFUL);
+                    }
+                    if (i % 5 == 0) {
+                        appRepo.delete(id);
+                        expected.remove(id);
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < READERS; r++) {
+            threads.add(worker("reader-" + r, start, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (writing.get()) {
+                    Project project = projects.get(random.nextInt(PROJECTS));
+                    for (Application application : appRepo.findByProject(project)) {
+                        check(application.getProject() == project, "findByProject returned another project");
+                    }
+                    ApplicationStatus status = ApplicationStatus.values()[random.nextInt(4)];
+                    for (Application application : appRepo.findByProjectAndStatus(project, status)) {
+                        check(application.getProject() == project, "status bucket returned another project");
+                    }
+                    Applicant applicant = applicants.get(random.nextInt(APPLICANTS));
+                    for (Application application : appRepo.findByApplicant(applicant)) {
+                        check(application.getApplicant() == applicant, "findByApplicant returned another applicant");
+                    }
+                }
+            }));
+        }
+
+        start.countDown();
+        for (int i = 0; i < WRITERS; i++) {
+            threads.get(i).join();
+        }
+        writing.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        rethrowFailures();
+
+        check(appRepo.size() == expected.size(),
+                "size " + appRepo.size() + ", expected " + expected.size());
+        for (Map.Entry<String, ApplicationStatus> entry : expected.entrySet()) {
+            Application application = appRepo.getById(entry.getKey());
+            check(application != null, entry.getKey() + " is missing");
+            check(application.getStatus() == entry.getValue(), entry.getKey() + " has status "
+                    + application.getStatus() + ", expected " + entry.getValue());
+        }
+        checkIndexes();
+        System.out.println("Concurrent writes: " + appRepo.size() + " applications, indexes consistent");
+    }
+
+    /**
+     * Checks that every secondary index holds exactly the entities of the
+     * primary store, each under the right key.
+     */
+    private void checkIndexes() {
+        int byProject = 0;
+        for (Project project : projects) {
+            List<Application> inProject = appRepo.findByProject(project);
+            byProject += inProject.size();
+            int byStatus = 0;
+            for (ApplicationStatus status : ApplicationStatus.values()) {
+                List<Application> bucket = appRepo.findByProjectAndStatus(project, status);
+                for (Application application : bucket) {
+                    check(application.getStatus() == status, application.getApplicationId()
+                            + " is in the " + status + " bucket with status " + application.getStatus());
+                }
+                check(appRepo.countByProjectAndStatus(project, status) == bucket.size(),
+                        "count of " + status + " in " + project.getProjectID() + " differs from its bucket");
+                byStatus += bucket.size();
+            }
+            check(byStatus == inProject.size(), project.getProjectID() + " status buckets hold " + byStatus
+                    + " applications, project index " + inProject.size());
+        }
+        check(byProject == appRepo.size(), "project index holds " + byProject + ", store " + appRepo.size());
+
+        int byApplicant = 0;
+        for (Applicant applicant : applicants) {
+            byApplicant += appRepo.findByApplicant(applicant).size();
+        }
+        check(byApplicant == appRepo.size(), "applicant index holds " + byApplicant + ", store " + appRepo.size());
+
+        Map<String, Integer> counted = new HashMap<>();
+        for (Application application : appRepo.getAll()) {
+            check(appRepo.getById(application.getApplicationId()) == application,
+                    application.getApplicationId() + " differs between getAll and getById");
+            counted.merge(application.getApplicationId(), 1, Integer::sum);
+        }
+        check(counted.size() == appRepo.size(), "getAll returned duplicates");
+    }
+
+    /**
+     * Every thread takes units from the same project at once; no take may be
+     * lost and the count may never go below zero.
+     *
+     * @throws Exception If a check fails
+     */
+    private void testContendedUnits() throws Exception {
+        Project project = projects.get(0);
+        int threadCount = WRITERS + READERS;
+        int takesPerThread = UNITS / threadCount + 10;
+        AtomicInteger taken = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            threads.add(worker("units-" + t, start, () -> {
+                for (int i = 0; i < takesPerThread; i++) {
+                    if (projectRepo.adjustUnits(project, FlatType.THREE_ROOM, -1)) {
+                        taken.incrementAndGet();
+                    }
+                    check(project.getThreeRoomUnitsAvailable() >= 0, "units went below zero");
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        rethrowFailures();
+
+        int left = projectRepo.getById(project.getProjectID()).getThreeRoomUnitsAvailable();
+        check(left == UNITS - taken.get(), "units left " + left + " after " + taken.get() + " takes of " + UNITS);
+        check(left >= 0, "units left " + left);
+        System.out.println("Contended units: " + taken.get() + " of " + UNITS + " taken, " + left + " left");
+    }
+
+    /**
+     * Officers book flats for successful applications while managers approve
+     * the withdrawal of the same applications. Every application ends up
+     * withdrawn, so every flat a booking took must have been returned exactly
+     * once, whichever side got to an application first.
+     *
+     * @throws Exception If a check fails
+     */
+    private void testBookingAndWithdrawal() throws Exception {
+        ProjectRepository projects = new ProjectRepository();
+        ApplicationRepository applications = new ApplicationRepository();
+        Project project = new Project("PW", "Yishun", new FlatType[] { FlatType.TWO_ROOM }, 10, 500000, 450000,
+                "2025-01-01", "2027-01-01", true, 10, WITHDRAWALS, 0);
+        projects.add(project);
+        HdbManager manager = new HdbManager("T0000000M", "Manager", "password", 45, MaritalStatus.MARRIED,
+                "Manager", 100000.0);
+        manager.getProjectsCreated().add(project);
+        List<Application> withdrawing = new ArrayList<>();
+        for (int i = 0; i < WITHDRAWALS; i++) {
+            Applicant applicant = new Applicant(String.format("S9%06dW", i), "App " + i, "password", 30,
+                    MaritalStatus.MARRIED, "App " + i, 5000.0);
+            Application application = new Application("W" + i, applicant, project, "2025-02-01", FlatType.TWO_ROOM);
+            application.updateStatus(ApplicationStatus.SUCCESSFUL);
+            application.requestWithdrawal();
+            applications.add(application);
+            withdrawing.add(application);
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < WRITERS / 2; t++) {
+            HdbOfficer officer = new HdbOfficer("T000000" + t + "O", "Officer " + t, "password", 35,
+                    MaritalStatus.SINGLE, "Officer " + t, null, project, OfficerRegistrationStatus.APPROVED, manager,
+                    applications, new EnquiryRepository(), projects);
+            threads.add(worker("officer-" + t, start, () -> {
+                List<Application> order = new ArrayList<>(withdrawing);
+                Collections.shuffle(order);
+                for (Application application : order) {
+                    officer.bookFlat(application.getApplicant(), FlatType.TWO_ROOM);
+                }
+            }));
+            threads.add(worker("manager-" + t, start, () -> {
+                List<Application> order = new ArrayList<>(withdrawing);
+                Collections.shuffle(order);
+                for (Application application : order) {
+                    manager.handleWithdrawalRequest(application, true, applications, projects);
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        rethrowFailures();
+
+        for (Application application : withdrawing) {
+            check(application.getStatus() == ApplicationStatus.UNSUCCESSFUL,
+                    application.getApplicationId() + " has status " + application.getStatus());
+        }
+        int left = projects.getById(project.getProjectID()).getTwoRoomUnitsAvailable();
+        check(left == WITHDRAWALS, "units left " + left + " after withdrawing all " + WITHDRAWALS + " applications");
+        System.out.println("Booking and withdrawal: " + WITHDRAWALS + " applications withdrawn, " + left
+                + " units left");
+    }
+
+    /**
+     * Measures index reads per second at increasing thread counts. Reads do
+     * not block each other, so the rate should grow with the number of
+     * cores; the figures are printed rather than checked, as they depend on
+     * the machine.
+     *
+     * @throws Exception If a reader fails
+     */
+    private void measureReadScaling() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        double single = 0;
+        for (int threadCount = 1; threadCount <= cores; threadCount *= 2) {
+            AtomicLong reads = new AtomicLong();
+            AtomicBoolean running = new AtomicBoolean(true);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                threads.add(worker("scaling-" + t, start, () -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long count = 0;
+                    while (running.get()) {
+                        appRepo.findByProjectAndStatus(projects.get(random.nextInt(PROJECTS)),
+                                ApplicationStatus.PENDING);
+                        appRepo.getById("A0-" + random.nextInt(APPLICATIONS_PER_WRITER));
+                        count += 2;
+                    }
+                    reads.addAndGet(count);
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            Thread.sleep(500);
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            rethrowFailures();
+            double perSecond = reads.get() / ((System.nanoTime() - begin) / 1e9);
+            if (threadCount == 1) {
+                single = perSecond;
+            }
+            System.out.printf("Read scaling: %2d threads, %,.0f reads/s (%.1fx)%n", threadCount, perSecond,
+                    perSecond / single);
+        }
+    }
+
+    /**
+     * Starts a thread that waits for the start signal, then runs a task and
+     * records anything it throws.
+     *
+     * @param name The thread name
+     * @param start The start signal
+     * @param task The task to run
+     * @return The started thread
+     */
+    private Thread worker(String name, CountDownLatch start, Runnable task) {
+        Thread thread = new Thread(() -> {
+            try {
+                start.await();
+                task.run();
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Fails the test if a worker thread failed.
+     */
+    private void rethrowFailures() {
+        if (!failures.isEmpty()) {
+            AssertionError error = new AssertionError(failures.size() + " worker(s) failed");
+            failures.forEach(error::addSuppressed);
+            throw error;
+        }
+    }
+
+    /**
+     * Fails the test if a condition does not hold.
+     *
+     * @param condition The condition
+     * @param message What went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
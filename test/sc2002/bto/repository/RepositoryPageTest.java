@@ -0,0 +1,106 @@
+package sc2002.bto.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import sc2002.bto.entity.Applicant;
+import sc2002.bto.entity.Enquiry;
+import sc2002.bto.entity.Project;
+import sc2002.bto.enums.FlatType;
+import sc2002.bto.enums.MaritalStatus;
+import sc2002.bto.util.Page;
+
+/**
+ * Tests cursor pagination of the repositories.
+ * <p>
+ * Run with {@code java -cp <classes> sc2002.bto.repository.RepositoryPageTest};
+ * it exits with an error if a check fails.
+ */
+public class RepositoryPageTest {
+    private static final int ENQUIRIES = 25;
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used
+     */
+    public static void main(String[] args) {
+        testPagesCoverEverything();
+        testNonPositiveLimitIsRejected();
+        System.out.println("RepositoryPageTest passed");
+    }
+
+    /**
+     * Paging with any positive limit returns every entity once, in insertion
+     * order, and skips entities deleted between pages.
+     */
+    private static void testPagesCoverEverything() {
+        for (int limit : new int[] { 1, 3, ENQUIRIES, ENQUIRIES + 1 }) {
+            EnquiryRepository repo = createRepository();
+            List<String> seen = new ArrayList<>();
+            Page<Enquiry> page = repo.page(Page.FIRST, limit);
+            while (true) {
+                check(page.getItems().size() <= limit, "page larger than the limit " + limit);
+                page.getItems().forEach(e -> seen.add(e.getEnquiryId()));
+                if (!page.hasMore()) {
+                    break;
+                }
+                if (seen.size() == limit) {
+                    // Deleted entities ahead of the cursor must not appear
+                    repo.delete("E" + (ENQUIRIES - 1));
+                }
+                page = repo.page(page.getNextCursor(), limit);
+            }
+            int expected = limit < ENQUIRIES ? ENQUIRIES - 1 : ENQUIRIES;
+            check(seen.size() == expected, "limit " + limit + " paged " + seen.size() + " enquiries, expected "
+                    + expected);
+            for (int i = 0; i < seen.size(); i++) {
+                check(seen.get(i).equals("E" + i), "limit " + limit + " paged " + seen.get(i) + " at " + i);
+            }
+        }
+    }
+
+    /**
+     * A limit of zero or less would return an empty page with the same cursor
+     * forever, so it is refused.
+     */
+    private static void testNonPositiveLimitIsRejected() {
+        EnquiryRepository repo = createRepository();
+        for (int limit : new int[] { 0, -1, Integer.MIN_VALUE }) {
+            try {
+                repo.page(Page.FIRST, limit);
+                throw new AssertionError("limit " + limit + " was accepted");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * Creates a repository of enquiries E0, E1, ... added in order.
+     *
+     * @return The repository
+     */
+    private static EnquiryRepository createRepository() {
+        Project project = new Project("P0", "Yishun", new FlatType[] { FlatType.TWO_ROOM }, 10, 500000, 450000,
+                "2025-01-01", "2027-01-01", true, 10, 50, 30);
+        Applicant applicant = new Applicant("S0000000A", "App 0", "password", 30, MaritalStatus.MARRIED,
+                "App 0", 5000.0);
+        EnquiryRepository repo = new EnquiryRepository();
+        for (int i = 0; i < ENQUIRIES; i++) {
+            repo.add(new Enquiry("E" + i, project, applicant, "message " + i));
+        }
+        return repo;
+    }
+
+    /**
+     * Fails the test if a condition does not hold.
+     *
+     * @param condition The condition
+     * @param message What went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
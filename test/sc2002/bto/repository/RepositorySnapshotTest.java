@@ -0,0 +1,216 @@
+package sc2002.bto.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import sc2002.bto.entity.Project;
+import sc2002.bto.enums.FlatType;
+
+/**
+ * Tests the shared snapshots handed out by {@link BaseRepository#getAll()}:
+ * snapshots taken earlier never change, later ones follow adds, deletes and
+ * replacements in insertion order, and readers racing writers always see
+ * their own adds and never an entity out of order.
+ * <p>
+ * Run with {@code java -cp <classes> sc2002.bto.repository.RepositorySnapshotTest};
+ * it exits with an error if a check fails.
+ */
+public class RepositorySnapshotTest {
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int PROJECTS_PER_WRITER = 20_000;
+    /** Number of adds between a writer's checks that its own add is listed */
+    private static final int CHECK_EVERY = 1000;
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        testOldSnapshotsNeverChange();
+        testConcurrentAdds();
+        System.out.println("RepositorySnapshotTest passed");
+    }
+
+    /**
+     * Each snapshot keeps what it held while later ones take in adds that
+     * grow the shared array, an in-place update, a delete and a replacement.
+     */
+    private static void testOldSnapshotsNeverChange() {
+        ProjectRepository repo = new ProjectRepository();
+        for (int i = 0; i < 3; i++) {
+            repo.add(project("P" + i));
+        }
+        List<Project> first = repo.getAll();
+        check(repo.getAll() == first, "a read without writes built a new snapshot");
+
+        for (int i = 3; i < 100; i++) {
+            repo.add(project("P" + i));
+        }
+        List<Project> grown = repo.getAll();
+        checkIds(first, 0, 3);
+        checkIds(grown, 0, 100);
+
+        Project updated = repo.getById("P5");
+        updated.setVisible(false);
+        repo.update(updated);
+        check(repo.getAll() == grown, "an update in place built a new snapshot");
+
+        repo.delete("P0");
+        List<Project> deleted = repo.getAll();
+        checkIds(deleted, 1, 100);
+        checkIds(grown, 0, 100);
+
+        Project replacement = project("P50");
+        repo.update(replacement);
+        List<Project> replaced = repo.getAll();
+        check(replaced.get(49) == replacement, "replacement not at the position of the entity it replaced");
+        check(deleted.get(49) != replacement, "an older snapshot saw the replacement");
+
+        repo.add(project("P100"));
+        checkIds(repo.getAll(), 1, 101);
+        checkIds(first, 0, 3);
+        try {
+            first.add(project("P101"));
+            throw new AssertionError("a snapshot accepted an add");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Writers add projects while readers list them. Every listing holds each
+     * writer's projects in the order it added them, and every writer finds
+     * its own adds in the listings it takes afterwards.
+     *
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    private static void testConcurrentAdds() throws InterruptedException {
+        ProjectRepository repo = new ProjectRepository();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            Thread thread = worker(start, failures, () -> {
+                for (int i = 0; i < PROJECTS_PER_WRITER; i++) {
+                    Project added = project("W" + writer + "-" + i);
+                    repo.add(added);
+                    if (i % CHECK_EVERY == 0) {
+                        check(repo.getAll().contains(added), "writer " + writer + " did not see its add " + i);
+                    }
+                }
+            });
+            writers.add(thread);
+            threads.add(thread);
+        }
+        for (int r = 0; r < READERS; r++) {
+            threads.add(worker(start, failures, () -> {
+                while (writing.get()) {
+                    checkWriterOrder(repo.getAll());
+                }
+            }));
+        }
+
+        start.countDown();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        writing.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            AssertionError error = new AssertionError(failures.size() + " thread(s) failed");
+            failures.forEach(error::addSuppressed);
+            throw error;
+        }
+
+        List<Project> all = repo.getAll();
+        check(all.size() == WRITERS * PROJECTS_PER_WRITER, "listed " + all.size() + " projects, expected "
+                + WRITERS * PROJECTS_PER_WRITER);
+        checkWriterOrder(all);
+    }
+
+    /**
+     * Checks that a listing holds each writer's projects in the order it added them.
+     *
+     * @param listing The listing
+     */
+    private static void checkWriterOrder(List<Project> listing) {
+        int[] next = new int[WRITERS];
+        for (Project project : listing) {
+            String[] parts = project.getProjectID().substring(1).split("-");
+            int writer = Integer.parseInt(parts[0]);
+            int index = Integer.parseInt(parts[1]);
+            check(index == next[writer], "writer " + writer + " listed " + index + ", expected " + next[writer]);
+            next[writer]++;
+        }
+    }
+
+    /**
+     * Checks that a listing holds projects P{from} up to P{to - 1} in order.
+     *
+     * @param listing The listing
+     * @param from The first number
+     * @param to One past the last number
+     */
+    private static void checkIds(List<Project> listing, int from, int to) {
+        check(listing.size() == to - from, "listed " + listing.size() + " projects, expected " + (to - from));
+        for (int i = from; i < to; i++) {
+            String id = listing.get(i - from).getProjectID();
+            check(id.equals("P" + i), "listed " + id + " at " + (i - from) + ", expected P" + i);
+        }
+    }
+
+    /**
+     * Starts a thread that waits for the start signal, then runs a task and
+     * records anything it throws.
+     *
+     * @param start The start signal
+     * @param failures Where to record failures
+     * @param task The task to run
+     * @return The started thread
+     */
+    private static Thread worker(CountDownLatch start, List<Throwable> failures, Runnable task) {
+        Thread thread = new Thread(() -> {
+            try {
+                start.await();
+                task.run();
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Creates a project.
+     *
+     * @param id The project ID
+     * @return The project
+     */
+    private static Project project(String id) {
+        return new Project(id, "Yishun", new FlatType[] { FlatType.TWO_ROOM }, 10, 500000, 450000,
+                "2025-01-01", "2099-12-31", true, 10, 50, 30);
+    }
+
+    /**
+     * Fails the test if a condition does not hold.
+     *
+     * @param condition The condition
+     * @param message What went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
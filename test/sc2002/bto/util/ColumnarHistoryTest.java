@@ -0,0 +1,227 @@
+package sc2002.bto.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import sc2002.bto.entity.Applicant;
+import sc2002.bto.entity.Application;
+import sc2002.bto.entity.HdbManager;
+import sc2002.bto.entity.Project;
+import sc2002.bto.enums.ApplicationStatus;
+import sc2002.bto.enums.FlatType;
+import sc2002.bto.enums.HistoryColumn;
+import sc2002.bto.enums.MaritalStatus;
+import sc2002.bto.interfaces.IStorageEngine;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Tests that the columnar history written by one run is trusted by the next
+ * only while the applications on disk are unchanged, and rebuilt once
+ * another program edited them.
+ * <p>
+ * Each step runs in a child JVM with the history of closed projects left on
+ * disk, in a data directory shared by the steps, as separate runs of the
+ * system would.
+ * <p>
+ * Run with {@code java -cp <classes> sc2002.bto.util.ColumnarHistoryTest};
+ * it exits with an error if a check fails.
+ */
+public class ColumnarHistoryTest {
+    private static final String PROJECT_ID = "PTEST";
+    /** Column of the status in the application file */
+    private static final int STATUS_FIELD = 4;
+    /** Statuses of the seeded applications, one application each */
+    private static final ApplicationStatus[] STATUSES = { ApplicationStatus.PENDING, ApplicationStatus.PENDING,
+            ApplicationStatus.SUCCESSFUL };
+
+    /**
+     * Runs the steps in child JVMs, or one step in the child.
+     *
+     * @param args Nothing, or the step to run: "seed", "save", "export", "reopen" or "edited"
+     * @throws Exception If a check fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            runStep(args[0]);
+            return;
+        }
+
+        Path directory = Files.createTempDirectory("bto-columnar");
+        try {
+            for (String step : new String[] { "seed", "save", "export", "reopen" }) {
+                startStep(directory, step);
+            }
+            editStatus(directory.resolve(FileHandler.APPLICATION_FILE), ApplicationStatus.PENDING,
+                    ApplicationStatus.UNSUCCESSFUL);
+            startStep(directory, "edited");
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        System.out.println("ColumnarHistoryTest passed");
+    }
+
+    /**
+     * Runs one step in a child JVM with the data directory as its working directory.
+     *
+     * @param directory The working directory
+     * @param step The step to run
+     * @throws Exception If the step fails
+     */
+    private static void startStep(Path directory, String step) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dbto.storage=csv");
+        command.add("-Dbto.lazyHistory=true");
+        command.add("-Dbto.reload=false");
+        command.add(ColumnarHistoryTest.class.getName());
+        command.add(step);
+        Process process = new ProcessBuilder(command).directory(directory.toFile())
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        if (process.waitFor() != 0) {
+            throw new AssertionError(step + " failed:\n" + output);
+        }
+    }
+
+    /**
+     * Loads the data and runs a step: seeds a closed project with
+     * applications, saves the changes replayed from the journal as a run
+     * that exits does, exports the applications, opens the export again
+     * unchanged, or opens it after the application file was edited.
+     *
+     * @param step The step
+     * @throws IOException If the data cannot be loaded or saved
+     */
+    private static void runStep(String step) throws IOException {
+        UserRepository userRepo = new UserRepository();
+        ProjectRepository projectRepo = new ProjectRepository();
+        ApplicationRepository appRepo = new ApplicationRepository();
+        EnquiryRepository enquiryRepo = new EnquiryRepository();
+        IStorageEngine storage = FileHandler.createStorage();
+        storage.load(userRepo, projectRepo, appRepo, enquiryRepo);
+        File file = new File(FileHandler.HISTORY_COLUMNS_FILE);
+        try {
+            if (step.equals("seed")) {
+                seed(userRepo, projectRepo, appRepo);
+                check(storage.saveAll(userRepo, projectRepo, appRepo, enquiryRepo), "seed save failed");
+                return;
+            }
+            if (step.equals("save")) {
+                // Until then the CSV files lack the journaled changes, and no export is trusted
+                check(storage.saveAll(userRepo, projectRepo, appRepo, enquiryRepo), "save failed");
+                return;
+            }
+            check(appRepo.getHistoryProjects().contains(PROJECT_ID), "applications not left on disk");
+
+            long written = file.lastModified();
+            ColumnarHistory history = FileHandler.openColumnarHistory(appRepo);
+            Map<String, Long> counts = history.countBy(HistoryColumn.STATUS,
+                    Collections.singletonList(PROJECT_ID), EnumSet.allOf(ApplicationStatus.class));
+            Map<String, Long> expected = new LinkedHashMap<>();
+            if (step.equals("edited")) {
+                expected.put(ApplicationStatus.SUCCESSFUL.name(), 1L);
+                expected.put(ApplicationStatus.UNSUCCESSFUL.name(), 1L);
+                expected.put(ApplicationStatus.PENDING.name(), 1L);
+            } else {
+                expected.put(ApplicationStatus.SUCCESSFUL.name(), 1L);
+                expected.put(ApplicationStatus.PENDING.name(), 2L);
+            }
+            check(expected.equals(counts), step + ": counted " + counts + ", expected " + expected);
+            check(file.exists(), step + ": " + file.getName() + " not written");
+            if (step.equals("reopen")) {
+                check(file.lastModified() == written, "unchanged export rebuilt instead of trusted");
+            }
+        } finally {
+            storage.close();
+        }
+    }
+
+    /**
+     * Adds a project whose applications closed long ago, with one
+     * application per seeded status.
+     *
+     * @param userRepo The user repository
+     * @param projectRepo The project repository
+     * @param appRepo The application repository
+     */
+    private static void seed(UserRepository userRepo, ProjectRepository projectRepo,
+            ApplicationRepository appRepo) {
+        HdbManager manager = new HdbManager("T9000000M", "Test Manager", "password", 45, MaritalStatus.MARRIED,
+                "Test Manager", 100000.0);
+        userRepo.add(manager);
+        Project project = new Project(PROJECT_ID, "Yishun", new FlatType[] { FlatType.TWO_ROOM, FlatType.THREE_ROOM },
+                10, 500000, 450000, "2020-01-01", "2020-12-31", true, 10, 5, 30);
+        project.setManagerInCharge(manager.getManagerName());
+        manager.getProjectsCreated().add(project);
+        projectRepo.add(project);
+        for (int i = 0; i < STATUSES.length; i++) {
+            Applicant applicant = new Applicant("S900000" + i + "A", "Applicant " + i, "password", 40 + i,
+                    MaritalStatus.MARRIED, "Applicant " + i, 5000.0);
+            userRepo.add(applicant);
+            Application application = new Application("ATEST" + i, applicant, project, "2020-02-01",
+                    FlatType.TWO_ROOM);
+            application.updateStatus(STATUSES[i]);
+            appRepo.add(application);
+        }
+    }
+
+    /**
+     * Rewrites the application file as another program would: changes the
+     * status of the first application with the given status, then replaces
+     * the file.
+     *
+     * @param file The application file
+     * @param from The status to change
+     * @param to The new status
+     * @throws IOException If the file cannot be rewritten
+     */
+    private static void editStatus(Path file, ApplicationStatus from, ApplicationStatus to) throws IOException {
+        List<String> lines = new ArrayList<>();
+        boolean edited = false;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.split(",", -1);
+            if (!edited && fields.length > STATUS_FIELD && fields[STATUS_FIELD].equals(from.name())) {
+                fields[STATUS_FIELD] = to.name();
+                line = String.join(",", fields);
+                edited = true;
+            }
+            lines.add(line);
+        }
+        check(edited, "no " + from + " application in " + file + ": " + Arrays.toString(lines.toArray()));
+        Path staged = Paths.get(file + ".edit");
+        Files.write(staged, lines, StandardCharsets.UTF_8);
+        Files.move(staged, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Fails the test if a condition does not hold.
+     *
+     * @param condition The condition
+     * @param message What went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package sc2002.bto.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import sc2002.bto.entity.Project;
+import sc2002.bto.enums.FlatType;
+import sc2002.bto.interfaces.IStorageEngine;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Tests that a regular save of the CSV engine only forces the journal and
+ * leaves the CSV files as they are, and that a checkpoint folds the journal
+ * into the CSV files and empties it, with and without history left on disk.
+ * <p>
+ * Each step runs in a child JVM, in a data directory shared by the steps,
+ * as separate runs of the system would: a run that only saves its changes
+ * and exits, then a run that replays them and checkpoints.
+ * <p>
+ * Run with {@code java -cp <classes> sc2002.bto.util.CsvCheckpointTest};
+ * it exits with an error if a check fails.
+ */
+public class CsvCheckpointTest {
+    private static final String PROJECT_ID = "PTEST";
+
+    /**
+     * Runs the steps in child JVMs for each mode, or one step in the child.
+     *
+     * @param args Nothing, or the step to run: "seed", "change", "checkpoint" or "verify"
+     * @throws Exception If a check fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            runStep(args[0]);
+            return;
+        }
+
+        for (String lazy : new String[] { "false", "true" }) {
+            Path directory = Files.createTempDirectory("bto-checkpoint");
+            try {
+                for (String step : new String[] { "seed", "change", "checkpoint", "verify" }) {
+                    startStep(directory, lazy, step);
+                }
+            } finally {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                }
+            }
+        }
+        System.out.println("CsvCheckpointTest passed");
+    }
+
+    /**
+     * Runs one step in a child JVM with the data directory as its working directory.
+     *
+     * @param directory The working directory
+     * @param lazy Whether history is left on disk, "true" or "false"
+     * @param step The step to run
+     * @throws Exception If the step fails
+     */
+    private static void startStep(Path directory, String lazy, String step) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dbto.storage=csv");
+        command.add("-Dbto.lazyHistory=" + lazy);
+        command.add("-Dbto.reload=false");
+        command.add(CsvCheckpointTest.class.getName());
+        command.add(step);
+        Process process = new ProcessBuilder(command).directory(directory.toFile())
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        if (process.waitFor() != 0) {
+            throw new AssertionError(step + " failed with lazyHistory=" + lazy + ":\n" + output);
+        }
+    }
+
+    /**
+     * Loads the data and runs a step: seeds a visible project, hides it and
+     * only saves the change, checkpoints the replayed change, or checks that
+     * the next start finds it with an empty journal.
+     *
+     * @param step The step
+     * @throws IOException If the files cannot be read
+     */
+    private static void runStep(String step) throws IOException {
+        UserRepository userRepo = new UserRepository();
+        ProjectRepository projectRepo = new ProjectRepository();
+        ApplicationRepository appRepo = new ApplicationRepository();
+        EnquiryRepository enquiryRepo = new EnquiryRepository();
+        IStorageEngine storage = FileHandler.createStorage();
+        Path projects = Paths.get(FileHandler.PROJECT_FILE);
+        File journal = new File(FileHandler.JOURNAL_FILE);
+        if (step.equals("verify")) {
+            check(journal.length() == 0, "journal holds " + journal.length() + " bytes after the checkpoint");
+        }
+        storage.load(userRepo, projectRepo, appRepo, enquiryRepo);
+        try {
+            if (step.equals("seed")) {
+                projectRepo.add(new Project(PROJECT_ID, "Yishun", new FlatType[] { FlatType.TWO_ROOM }, 10,
+                        500000, 450000, "2025-01-01", "2099-12-31", true, 10, 5, 30));
+                check(storage.saveAll(userRepo, projectRepo, appRepo, enquiryRepo), "seed save failed");
+                check(journal.length() == 0, "seed checkpoint left the journal");
+                return;
+            }
+
+            Project project = projectRepo.getById(PROJECT_ID);
+            check(project != null, step + ": project missing");
+            if (step.equals("change")) {
+                byte[] before = Files.readAllBytes(projects);
+                project.setVisible(false);
+                projectRepo.update(project);
+                check(storage.saveChanges(userRepo, projectRepo, appRepo, enquiryRepo), "save failed");
+                check(Arrays.equals(before, Files.readAllBytes(projects)), "a regular save wrote the project file");
+                check(journal.length() > 0, "the change was not journaled");
+                return;
+            }
+
+            check(!project.isVisible(), step + ": the hidden project is visible again");
+            if (step.equals("checkpoint")) {
+                byte[] before = Files.readAllBytes(projects);
+                check(storage.saveAll(userRepo, projectRepo, appRepo, enquiryRepo), "checkpoint failed");
+                check(!Arrays.equals(before, Files.readAllBytes(projects)),
+                        "the checkpoint did not write the project file");
+                check(journal.length() == 0, "the checkpoint did not empty the journal");
+            }
+        } finally {
+            storage.close();
+        }
+    }
+
+    /**
+     * Fails the test if a condition does not hold.
+     *
+     * @param condition The condition
+     * @param message What went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
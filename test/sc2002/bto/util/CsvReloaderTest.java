@@ -0,0 +1,174 @@
+package sc2002.bto.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import sc2002.bto.entity.HdbManager;
+import sc2002.bto.entity.Project;
+import sc2002.bto.enums.FlatType;
+import sc2002.bto.enums.MaritalStatus;
+import sc2002.bto.interfaces.IStorageEngine;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Tests that the CSV reloader applies only the rows other programs changed,
+ * and leaves the changes made in memory to the other rows alone, even when
+ * those were never marked as changed.
+ * <p>
+ * The data directory is relative to the working directory, so the test runs
+ * in a child JVM in a fresh directory.
+ * <p>
+ * Run with {@code java -cp <classes> sc2002.bto.util.CsvReloaderTest};
+ * it exits with an error if a check fails.
+ */
+public class CsvReloaderTest {
+    private static final String EDITED_ID = "PTEST1";
+    private static final String UNTOUCHED_ID = "PTEST2";
+    private static final String DELETED_ID = "PTEST3";
+    private static final int OFFICER_SLOTS = 10;
+    private static final int TWO_ROOM_UNITS = 5;
+
+    /**
+     * Runs the test in a child JVM, or the test itself in the child.
+     *
+     * @param args Nothing, or "run" in the child
+     * @throws Exception If a check fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            testOnlyRowsChangedOnDiskAreApplied();
+            return;
+        }
+
+        Path directory = Files.createTempDirectory("bto-reload");
+        try {
+            List<String> command = new ArrayList<>();
+            command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("-Dbto.storage=csv");
+            command.add(CsvReloaderTest.class.getName());
+            command.add("run");
+            Process process = new ProcessBuilder(command).directory(directory.toFile())
+                    .redirectErrorStream(true).start();
+            String output = new String(process.getInputStream().readAllBytes());
+            if (process.waitFor() != 0) {
+                throw new AssertionError("CsvReloaderTest failed:\n" + output);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        System.out.println("CsvReloaderTest passed");
+    }
+
+    /**
+     * Changes one project in memory with a setter only, then edits another
+     * project's row and deletes a third on disk. Only the edited and deleted
+     * rows may be applied; the project changed in memory keeps its change.
+     * Then an edit on disk to the project changed in memory is applied.
+     *
+     * @throws IOException If the data cannot be loaded, saved or edited
+     */
+    private static void testOnlyRowsChangedOnDiskAreApplied() throws IOException {
+        UserRepository userRepo = new UserRepository();
+        ProjectRepository projectRepo = new ProjectRepository();
+        ApplicationRepository appRepo = new ApplicationRepository();
+        EnquiryRepository enquiryRepo = new EnquiryRepository();
+        IStorageEngine storage = FileHandler.createStorage();
+        storage.load(userRepo, projectRepo, appRepo, enquiryRepo);
+
+        HdbManager manager = new HdbManager("T9000000M", "Test Manager", "password", 45, MaritalStatus.MARRIED,
+                "Test Manager", 100000.0);
+        userRepo.add(manager);
+        for (String id : new String[] { EDITED_ID, UNTOUCHED_ID, DELETED_ID }) {
+            Project project = new Project(id, "Yishun", new FlatType[] { FlatType.TWO_ROOM, FlatType.THREE_ROOM },
+                    10, 500000, 450000, "2025-01-01", "2099-12-31", true, OFFICER_SLOTS, TWO_ROOM_UNITS, 30);
+            project.setManagerInCharge(manager.getManagerName());
+            manager.getProjectsCreated().add(project);
+            projectRepo.add(project);
+        }
+        check(storage.saveAll(userRepo, projectRepo, appRepo, enquiryRepo), "seed save failed");
+
+        CsvReloader reloader = FileHandler.startReloader(storage, userRepo, projectRepo, appRepo, enquiryRepo,
+                null);
+        check(reloader != null, "reloader not started");
+        try {
+            Project untouched = projectRepo.getById(UNTOUCHED_ID);
+            // Not marked as changed, like the setters the screens call
+            untouched.setAvailableOfficerSlots(OFFICER_SLOTS - 1);
+
+            editProjects(EDITED_ID, TWO_ROOM_UNITS + 1);
+            reloader.catchUp();
+            check(projectRepo.getById(EDITED_ID).getTwoRoomUnitsAvailable() == TWO_ROOM_UNITS + 1,
+                    "edited row not applied");
+            check(projectRepo.getById(DELETED_ID) == null, "deleted row not applied");
+            check(projectRepo.getById(UNTOUCHED_ID) == untouched, "untouched project replaced");
+            check(untouched.getAvailableOfficerSlots() == OFFICER_SLOTS - 1,
+                    "change in memory overwritten by a row that did not change on disk");
+
+            editProjects(UNTOUCHED_ID, TWO_ROOM_UNITS + 2);
+            reloader.catchUp();
+            check(untouched.getTwoRoomUnitsAvailable() == TWO_ROOM_UNITS + 2, "second edit not applied");
+            check(untouched.getAvailableOfficerSlots() == OFFICER_SLOTS,
+                    "row changed on disk did not replace the project");
+        } finally {
+            reloader.close();
+            storage.close();
+        }
+    }
+
+    /**
+     * Rewrites the project file as another program would: sets a project's
+     * 2-room units and drops the project to delete, then replaces the file.
+     *
+     * @param projectId The project to edit
+     * @param twoRoomUnits The project's new 2-room units
+     * @throws IOException If the file cannot be rewritten
+     */
+    private static void editProjects(String projectId, int twoRoomUnits) throws IOException {
+        Path file = Paths.get(FileHandler.PROJECT_FILE);
+        List<String> lines = new ArrayList<>();
+        int units = -1;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (units < 0) {
+                units = Arrays.asList(line.split(",")).indexOf("TwoRoomUnits");
+            } else if (line.startsWith(DELETED_ID + ",")) {
+                continue;
+            } else if (line.startsWith(projectId + ",")) {
+                String[] fields = line.split(",", -1);
+                fields[units] = String.valueOf(twoRoomUnits);
+                line = String.join(",", fields);
+            }
+            lines.add(line);
+        }
+        Path staged = Paths.get(FileHandler.PROJECT_FILE + ".edit");
+        Files.write(staged, lines, StandardCharsets.UTF_8);
+        Files.move(staged, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Fails the test if a condition does not hold.
+     *
+     * @param condition The condition
+     * @param message What went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
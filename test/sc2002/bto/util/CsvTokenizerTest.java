@@ -0,0 +1,176 @@
+package sc2002.bto.util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests the CSV tokenizer.
+ * <p>
+ * Run with {@code java -cp <classes> sc2002.bto.util.CsvTokenizerTest};
+ * it exits with an error if a check fails.
+ */
+public class CsvTokenizerTest {
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used
+     * @throws IOException If a tokenizer fails
+     */
+    public static void main(String[] args) throws IOException {
+        testWhitespaceFields();
+        testDecodesLikeTheJdk();
+        System.out.println("CsvTokenizerTest passed");
+    }
+
+    /**
+     * Fields are trimmed, and a field of only whitespace, quoted or not,
+     * reads as empty.
+     *
+     * @throws IOException If a tokenizer fails
+     */
+    private static void testWhitespaceFields() throws IOException {
+        String input = "1, ,\"\n\",\"  \",\" a \",b\r\n";
+        String[] expected = { "1", "", "", "", "a", "b" };
+        CsvTokenizer[] tokenizers = {
+            new CsvTokenizer(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8))),
+            new CsvTokenizer(new StringReader(input)),
+        };
+        for (CsvTokenizer csv : tokenizers) {
+            check(csv.nextRecord(), "no record");
+            check(csv.fieldCount() == expected.length, "read " + csv.fieldCount() + " fields");
+            for (int i = 0; i < expected.length; i++) {
+                check(csv.getString(i).equals(expected[i]), "field " + i + " read as [" + csv.getString(i) + "]");
+                check(csv.isEmpty(i) == expected[i].isEmpty(), "field " + i + " emptiness");
+            }
+            check(!csv.nextRecord(), "extra record");
+        }
+    }
+
+    /**
+     * Valid byte sequences decode to the same text as the JDK's UTF-8
+     * decoder. Sequences the JDK rejects, including overlong encodings,
+     * encoded surrogates and code points above U+10FFFF, decode to U+FFFD
+     * and never to the chars they would spell if decoded leniently.
+     *
+     * @throws IOException If a tokenizer fails
+     */
+    private static void testDecodesLikeTheJdk() throws IOException {
+        int[][] samples = {
+            { 'a', 'b', 'c' },
+            { 0xC3, 0xA9 },                     // e acute
+            { 0xE2, 0x82, 0xAC },               // euro sign
+            { 0xF0, 0x9F, 0x98, 0x80 },         // emoji, a surrogate pair
+            { 0xEF, 0xBF, 0xBF },               // U+FFFF
+            { 0xF4, 0x8F, 0xBF, 0xBF },         // U+10FFFF
+            { 0xC0, 0x80 },                     // overlong NUL
+            { 0xC1, 0xBF },                     // overlong
+            { 0xE0, 0x80, 0x80 },               // overlong 3-byte
+            { 0xE0, 0x9F, 0xBF },               // overlong 3-byte
+            { 0xF0, 0x80, 0x80, 0x80 },         // overlong 4-byte
+            { 0xF0, 0x8F, 0xBF, 0xBF },         // overlong 4-byte
+            { 0xED, 0xA0, 0x80 },               // high surrogate
+            { 0xED, 0xBF, 0xBF },               // low surrogate
+            { 0xED, 0xA0, 0xBD, 0xED, 0xB8, 0x80 }, // surrogate pair encoded as CESU-8
+            { 0xF4, 0x90, 0x80, 0x80 },         // above U+10FFFF
+            { 0xF5, 0x80, 0x80, 0x80 },         // invalid lead
+            { 0xE2, 0x82 },                     // truncated
+            { 0xE2, 0x82, 'x' },                // truncated before ASCII
+            { 0x80, 0xBF },                     // stray continuation bytes
+            { 'x', 0xF0, 0x9F, 0x98, 'y' },     // truncated 4-byte
+        };
+        for (int[] sample : samples) {
+            byte[] field = new byte[sample.length];
+            for (int i = 0; i < sample.length; i++) {
+                field[i] = (byte) sample[i];
+            }
+            String decoded = decodeStrictly(field);
+
+            byte[] record = new byte[field.length + 3];
+            System.arraycopy(field, 0, record, 0, field.length);
+            record[field.length] = ',';
+            record[field.length + 1] = 'z';
+            record[field.length + 2] = '\n';
+            CsvTokenizer csv = new CsvTokenizer(ByteBuffer.wrap(record));
+            check(csv.nextRecord(), "no record for " + hex(field));
+            check(csv.fieldCount() == 2, hex(field) + " split into " + csv.fieldCount() + " fields");
+            String text = csv.getString(0);
+            if (decoded != null) {
+                check(text.equals(decoded), hex(field) + " decoded to " + codePoints(text) + ", expected "
+                        + codePoints(decoded));
+            } else {
+                // Malformed: only replacement chars may stand in for the bytes that are not ASCII
+                StringBuilder ascii = new StringBuilder();
+                for (byte b : field) {
+                    if (b >= 0) {
+                        ascii.append((char) b);
+                    }
+                }
+                check(text.indexOf(0xFFFD) >= 0 && text.replace("\uFFFD", "").contentEquals(ascii),
+                        hex(field) + " is malformed but decoded to " + codePoints(text));
+            }
+            check(csv.getString(1).equals("z"), hex(field) + " swallowed the next field");
+        }
+    }
+
+    /**
+     * Decodes bytes with the JDK's UTF-8 decoder, refusing malformed input.
+     *
+     * @param bytes The bytes
+     * @return The text, or null if the bytes are not valid UTF-8
+     */
+    private static String decodeStrictly(byte[] bytes) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes)).toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Formats bytes as hex.
+     *
+     * @param bytes The bytes
+     * @return The bytes in hex
+     */
+    private static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder();
+        for (byte b : bytes) {
+            text.append(String.format("%02X ", b & 0xFF));
+        }
+        return text.toString().trim();
+    }
+
+    /**
+     * Formats the chars of a string as hex.
+     *
+     * @param text The string
+     * @return The chars in hex
+     */
+    private static String codePoints(String text) {
+        StringBuilder result = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            result.append(String.format("U+%04X ", (int) c));
+        }
+        return result.toString().trim();
+    }
+
+    /**
+     * Fails the test if a condition does not hold.
+     *
+     * @param condition The condition
+     * @param message What went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package sc2002.bto.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Tests that file transactions append rows to the live file, and that an
+ * append cut short by a crash is undone at the next start.
+ * <p>
+ * Run with {@code java -cp <classes> sc2002.bto.util.FileTransactionTest};
+ * it exits with an error if a check fails.
+ */
+public class FileTransactionTest {
+    private static final String HEADER = "ID,Name\n";
+
+    /**
+     * Runs the tests in a temporary directory.
+     *
+     * @param args Not used
+     * @throws IOException If a file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("bto-transaction");
+        try {
+            testAppendKeepsFile(directory.toFile());
+            testRewriteAndAppendTogether(directory.toFile());
+            testInterruptedAppendIsUndone(directory.toFile());
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        System.out.println("FileTransactionTest passed");
+    }
+
+    /**
+     * Appended rows end up after the old contents of the same file, which is
+     * not replaced by a copy, and nothing is left next to it.
+     *
+     * @param directory The directory to work in
+     * @throws IOException If a file cannot be written
+     */
+    private static void testAppendKeepsFile(File directory) throws IOException {
+        File target = new File(directory, "append.csv");
+        write(target, HEADER + "1,One\n");
+        Object identity = identityOf(target);
+
+        FileTransaction transaction = new FileTransaction();
+        write(transaction.stageAppend(target), "2,Two\n");
+        check(read(target).equals(HEADER + "1,One\n"), "rows appended before the commit");
+        transaction.commit();
+
+        check(read(target).equals(HEADER + "1,One\n2,Two\n"), "appended file holds " + read(target));
+        check(identity == null || Objects.equals(identity, identityOf(target)), "file replaced by a copy");
+        check(directory.list().length == 1, "files left behind: " + String.join(" ", directory.list()));
+        target.delete();
+    }
+
+    /**
+     * One transaction may replace one file and append to another; an aborted
+     * one leaves both as they were.
+     *
+     * @param directory The directory to work in
+     * @throws IOException If a file cannot be written
+     */
+    private static void testRewriteAndAppendTogether(File directory) throws IOException {
+        File rewritten = new File(directory, "rewritten.csv");
+        File appended = new File(directory, "appended.csv");
+        write(rewritten, HEADER + "1,Old\n");
+        write(appended, HEADER + "1,One\n");
+
+        FileTransaction aborted = new FileTransaction();
+        write(aborted.stage(rewritten), HEADER + "1,Lost\n");
+        write(aborted.stageAppend(appended), "2,Lost\n");
+        aborted.abort();
+        check(read(rewritten).equals(HEADER + "1,Old\n"), "aborted rewrite applied");
+        check(read(appended).equals(HEADER + "1,One\n"), "aborted append applied");
+        check(directory.list().length == 2, "aborted transaction left files behind");
+
+        FileTransaction transaction = new FileTransaction();
+        write(transaction.stage(rewritten), HEADER + "1,New\n");
+        write(transaction.stageAppend(appended), "2,Two\n");
+        transaction.commit();
+        check(read(rewritten).equals(HEADER + "1,New\n"), "rewritten file holds " + read(rewritten));
+        check(read(appended).equals(HEADER + "1,One\n2,Two\n"), "appended file holds " + read(appended));
+        check(directory.list().length == 2, "files left behind: " + String.join(" ", directory.list()));
+        rewritten.delete();
+        appended.delete();
+    }
+
+    /**
+     * A crash while rows were appended leaves the intent file with the old
+     * length and part of the rows; the next start cuts the file back.
+     *
+     * @param directory The directory to work in
+     * @throws IOException If a file cannot be written
+     */
+    private static void testInterruptedAppendIsUndone(File directory) throws IOException {
+        File target = new File(directory, "crashed.csv");
+        String before = HEADER + "1,One\n";
+        write(target, before);
+        // As the commit leaves them when it is killed halfway through the append
+        Files.write(new File(target.getPath() + ".append").toPath(),
+                ByteBuffer.allocate(Long.BYTES).putLong(0, before.length()).array());
+        Files.write(target.toPath(), "2,Tw".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        FileTransaction.deleteLeftovers(directory);
+        check(read(target).equals(before), "interrupted append left " + read(target));
+        check(directory.list().length == 1, "files left behind: " + String.join(" ", directory.list()));
+        target.delete();
+    }
+
+    /**
+     * Gets what identifies a file on disk, to tell whether it was replaced.
+     *
+     * @param file The file
+     * @return Its identity, or null if the platform has none
+     * @throws IOException If the file cannot be read
+     */
+    private static Object identityOf(File file) throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Writes a file in UTF-8.
+     *
+     * @param file The file
+     * @param text The contents
+     * @throws IOException If the file cannot be written
+     */
+    private static void write(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a file in UTF-8.
+     *
+     * @param file The file
+     * @return The contents
+     * @throws IOException If the file cannot be read
+     */
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fails the test if a condition does not hold.
+     *
+     * @param condition The condition
+     * @param message What went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
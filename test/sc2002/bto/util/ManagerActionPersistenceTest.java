@@ -0,0 +1,242 @@
+package sc2002.bto.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import sc2002.bto.entity.Applicant;
+import sc2002.bto.entity.Application;
+import sc2002.bto.entity.HdbManager;
+import sc2002.bto.entity.HdbOfficer;
+import sc2002.bto.entity.Project;
+import sc2002.bto.entity.User;
+import sc2002.bto.enums.ApplicationStatus;
+import sc2002.bto.enums.FlatType;
+import sc2002.bto.enums.MaritalStatus;
+import sc2002.bto.enums.OfficerRegistrationStatus;
+import sc2002.bto.interfaces.IStorageEngine;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Tests that the project changes made by a manager's approval of an officer
+ * registration and of a withdrawal request survive a restart with every
+ * storage engine.
+ * <p>
+ * Each action runs on each engine in a fresh data directory. One JVM seeds
+ * the data, takes the action as the manager screens do and saves; a second
+ * JVM loads the data again and checks it. The actions run apart because a
+ * save that writes one change to a project file also writes any other
+ * change made to the projects in memory, which would hide a lost change.
+ * The engine is chosen with system properties read when the storage classes
+ * load, which is why each step runs in its own JVM.
+ * The jdbc engine is skipped if no H2 driver is on the class path.
+ * <p>
+ * Run with {@code java -cp <classes> sc2002.bto.util.ManagerActionPersistenceTest};
+ * it exits with an error if a check fails.
+ */
+public class ManagerActionPersistenceTest {
+    private static final String PROJECT_ID = "PTEST";
+    private static final String OFFICER_ID = "T9000001O";
+    private static final String APPLICANT_ID = "S9000001A";
+    private static final String APPLICATION_ID = "ATEST";
+    private static final int OFFICER_SLOTS = 10;
+    private static final int TWO_ROOM_UNITS = 5;
+
+    /**
+     * Runs the test for every engine, or one step of it in a child JVM.
+     *
+     * @param args Nothing, or the step to run, "change" or "verify", and the
+     *             action, "approval" or "withdrawal"
+     * @throws Exception If a check fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            IStorageEngine storage = FileHandler.createStorage();
+            boolean approval = args[1].equals("approval");
+            if (args[0].equals("change")) {
+                change(storage, approval);
+            } else {
+                verify(storage, approval);
+            }
+            return;
+        }
+
+        List<String[]> engines = new ArrayList<>();
+        engines.add(new String[] { "-Dbto.storage=csv" });
+        engines.add(new String[] { "-Dbto.storage=csv", "-Dbto.lazyHistory=true" });
+        engines.add(new String[] { "-Dbto.storage=log" });
+        try {
+            Class.forName("org.h2.Driver");
+            engines.add(new String[] { "-Dbto.storage=jdbc" });
+        } catch (ClassNotFoundException e) {
+            System.out.println("Skipping the jdbc engine: no H2 driver on the class path");
+        }
+        for (String[] engine : engines) {
+            for (String action : new String[] { "approval", "withdrawal" }) {
+                Path directory = Files.createTempDirectory("bto-persistence");
+                try {
+                    runStep(directory, engine, "change", action);
+                    runStep(directory, engine, "verify", action);
+                    System.out.println("Persisted the " + action + " with " + String.join(" ", engine));
+                } finally {
+                    try (Stream<Path> files = Files.walk(directory)) {
+                        files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                    }
+                }
+            }
+        }
+        System.out.println("ManagerActionPersistenceTest passed");
+    }
+
+    /**
+     * Runs one step in a child JVM with the data directory as its working directory.
+     *
+     * @param directory The working directory
+     * @param engine The system properties choosing the engine
+     * @param step The step to run
+     * @param action The action the step is about
+     * @throws Exception If the step fails
+     */
+    private static void runStep(Path directory, String[] engine, String step, String action) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dbto.reload=false");
+        command.addAll(Arrays.asList(engine));
+        command.add(ManagerActionPersistenceTest.class.getName());
+        command.add(step);
+        command.add(action);
+        Process process = new ProcessBuilder(command).directory(directory.toFile())
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        if (process.waitFor() != 0) {
+            throw new AssertionError(step + " of the " + action + " failed with " + String.join(" ", engine) + ":\n"
+                    + output);
+        }
+    }
+
+    /**
+     * Seeds a project with an officer and a booked application that asks to
+     * withdraw, and saves. Then approves either the officer's registration
+     * or the withdrawal as the manager, and saves again.
+     *
+     * @param storage The storage engine
+     * @param approval true to approve the registration, false to approve the withdrawal
+     * @throws IOException If the data cannot be loaded or saved
+     */
+    private static void change(IStorageEngine storage, boolean approval) throws IOException {
+        UserRepository userRepo = new UserRepository();
+        ProjectRepository projectRepo = new ProjectRepository();
+        ApplicationRepository appRepo = new ApplicationRepository();
+        EnquiryRepository enquiryRepo = new EnquiryRepository();
+        storage.load(userRepo, projectRepo, appRepo, enquiryRepo);
+
+        HdbManager manager = new HdbManager("T9000000M", "Test Manager", "password", 45, MaritalStatus.MARRIED,
+                "Test Manager", 100000.0);
+        userRepo.add(manager);
+        Project project = new Project(PROJECT_ID, "Yishun", new FlatType[] { FlatType.TWO_ROOM, FlatType.THREE_ROOM },
+                10, 500000, 450000, "2025-01-01", "2099-12-31", true, OFFICER_SLOTS, TWO_ROOM_UNITS, 30);
+        project.setManagerInCharge(manager.getManagerName());
+        manager.getProjectsCreated().add(project);
+        projectRepo.add(project);
+        HdbOfficer officer = new HdbOfficer(OFFICER_ID, "Test Officer", "password", 35, MaritalStatus.SINGLE,
+                "Test Officer", null, null, OfficerRegistrationStatus.PENDING, null, appRepo, enquiryRepo,
+                projectRepo);
+        userRepo.add(officer);
+        Applicant applicant = new Applicant(APPLICANT_ID, "Test Applicant", "password", 40, MaritalStatus.MARRIED,
+                "Test Applicant", 5000.0);
+        userRepo.add(applicant);
+        Application application = new Application(APPLICATION_ID, applicant, project, "2025-02-01",
+                FlatType.TWO_ROOM);
+        application.updateStatus(ApplicationStatus.BOOKED);
+        application.requestWithdrawal();
+        appRepo.add(application);
+        check(storage.saveAll(userRepo, projectRepo, appRepo, enquiryRepo), "seed save failed");
+
+        // As OfficerUI and ManagerUI do
+        if (approval) {
+            check(officer.registerForProject(project), "registration refused");
+            userRepo.update(officer);
+            manager.approveOfficerRegistration(officer, projectRepo);
+            userRepo.update(officer);
+            check(project.getAvailableOfficerSlots() == OFFICER_SLOTS - 1, "slot not taken in memory");
+        } else {
+            check(manager.handleWithdrawalRequest(application, true, appRepo, projectRepo), "withdrawal refused");
+            check(project.getTwoRoomUnitsAvailable() == TWO_ROOM_UNITS + 1, "unit not returned in memory");
+        }
+        check(storage.saveAll(userRepo, projectRepo, appRepo, enquiryRepo), "save failed");
+        storage.close();
+    }
+
+    /**
+     * Loads the data again and checks that the action's changes were saved.
+     *
+     * @param storage The storage engine
+     * @param approval true to check an approved registration, false an approved withdrawal
+     * @throws IOException If the data cannot be loaded
+     */
+    private static void verify(IStorageEngine storage, boolean approval) throws IOException {
+        UserRepository userRepo = new UserRepository();
+        ProjectRepository projectRepo = new ProjectRepository();
+        ApplicationRepository appRepo = new ApplicationRepository();
+        EnquiryRepository enquiryRepo = new EnquiryRepository();
+        check(storage.load(userRepo, projectRepo, appRepo, enquiryRepo), "load failed");
+
+        int slots = approval ? OFFICER_SLOTS - 1 : OFFICER_SLOTS;
+        int units = approval ? TWO_ROOM_UNITS : TWO_ROOM_UNITS + 1;
+        Project project = projectRepo.getById(PROJECT_ID);
+        check(project != null, "project missing");
+        check(project.getAvailableOfficerSlots() == slots,
+                "officer slots " + project.getAvailableOfficerSlots() + ", expected " + slots);
+        check(project.getTwoRoomUnitsAvailable() == units,
+                "2-room units " + project.getTwoRoomUnitsAvailable() + ", expected " + units);
+
+        User user = userRepo.getById(OFFICER_ID);
+        check(user instanceof HdbOfficer, "officer missing");
+        OfficerRegistrationStatus registration = ((HdbOfficer) user).getRegistrationStatus();
+        check(registration == (approval ? OfficerRegistrationStatus.APPROVED : OfficerRegistrationStatus.PENDING),
+                "officer registration " + registration);
+
+        Application application = appRepo.getById(APPLICATION_ID);
+        check(application != null, "application missing");
+        ApplicationStatus status = approval ? ApplicationStatus.BOOKED : ApplicationStatus.UNSUCCESSFUL;
+        check(application.getStatus() == status, "application " + application.getStatus() + ", expected " + status);
+        check(application.isWithdrawalRequested() == approval, "withdrawal request flag");
+
+        if (storage instanceof CsvStorage) {
+            // The CSV files themselves must hold the change, not only the snapshot
+            boolean found = false;
+            for (String[] row : FileHandler.readColumns("ProjectList.csv", "ProjectID", "OfficerSlots",
+                    "TwoRoomUnits")) {
+                if (row[0].equals(PROJECT_ID)) {
+                    found = true;
+                    check(row[1].equals(String.valueOf(slots)), "ProjectList.csv slots " + row[1]);
+                    check(row[2].equals(String.valueOf(units)), "ProjectList.csv units " + row[2]);
+                }
+            }
+            check(found, "project missing from ProjectList.csv");
+        }
+        storage.close();
+    }
+
+    /**
+     * Fails the test if a condition does not hold.
+     *
+     * @param condition The condition
+     * @param message What went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package sc2002.bto.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that splitting a mapped CSV file into chunks yields exactly the
+ * records of the whole file, however the split points fall on quoted fields.
+ * <p>
+ * Run with {@code java -cp <classes> sc2002.bto.util.MappedCsvFileTest};
+ * it exits with an error if a check fails.
+ */
+public class MappedCsvFileTest {
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used
+     * @throws IOException If a file cannot be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(42);
+        for (int round = 0; round < 40; round++) {
+            checkSplits(randomCsv(random, 1 + random.nextInt(300), round % 4 == 0));
+        }
+        // One record longer than every segment, with line breaks in quotes
+        StringBuilder longRecord = new StringBuilder("ID,Text\n1,\"");
+        for (int i = 0; i < 2000; i++) {
+            longRecord.append("line ").append(i).append(i % 3 == 0 ? "\n" : " \"\" ");
+        }
+        checkSplits(longRecord.append("\"\n2,short\n").toString());
+        checkSplits("ID,Text\n");
+        checkSplits("ID,Text");
+        checkSplits("ID,Text\n1,no final line break");
+        checkSplits("ID,\"Multi\nline header\"\n1,\"a\n\"\"b\"\"\nc\"\n");
+        System.out.println("MappedCsvFileTest passed");
+    }
+
+    /**
+     * Splits a CSV file into 1 to 33 chunks and checks that the chunks hold
+     * the same records as the whole file.
+     *
+     * @param content The CSV file's content
+     * @throws IOException If the file cannot be written or read
+     */
+    private static void checkSplits(String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        List<List<String>> expected = new ArrayList<>();
+        CsvTokenizer whole = new CsvTokenizer(ByteBuffer.wrap(bytes));
+        whole.nextRecord();
+        addRecords(whole, expected);
+
+        File file = File.createTempFile("mapped", ".csv");
+        try {
+            Files.write(file.toPath(), bytes);
+            for (int chunkCount = 1; chunkCount <= 33; chunkCount++) {
+                List<List<String>> records = new ArrayList<>();
+                for (CsvTokenizer chunk : MappedCsvFile.split(file, chunkCount)) {
+                    addRecords(chunk, records);
+                }
+                check(records.equals(expected), chunkCount + " chunks gave " + records.size()
+                        + " records, expected " + expected.size() + " for:\n" + content);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Reads the remaining records of a tokenizer.
+     *
+     * @param csv The tokenizer
+     * @param records Receives each record's fields
+     * @throws IOException If the tokenizer fails
+     */
+    private static void addRecords(CsvTokenizer csv, List<List<String>> records) throws IOException {
+        while (csv.nextRecord()) {
+            List<String> fields = new ArrayList<>();
+            for (int i = 0; i < csv.fieldCount(); i++) {
+                fields.add(csv.getString(i));
+            }
+            records.add(fields);
+        }
+    }
+
+    /**
+     * Generates a CSV file whose fields often hold quotes, doubled quotes,
+     * commas, line breaks and multi-byte characters.
+     *
+     * @param random The source of randomness
+     * @param rows The number of data rows
+     * @param crlf Whether rows end with CRLF
+     * @return The file's content
+     */
+    private static String randomCsv(Random random, int rows, boolean crlf) {
+        String[] pieces = { "a", "bc", ",", "\n", "\"", "\u00e9", "\u20ac", "\ud83d\ude00", " ", "x\r\ny" };
+        String lineBreak = crlf ? "\r\n" : "\n";
+        StringBuilder csv = new StringBuilder("ID,Text,More").append(lineBreak);
+        for (int row = 0; row < rows; row++) {
+            csv.append(row);
+            for (int field = 0; field < 2; field++) {
+                StringBuilder value = new StringBuilder();
+                int length = random.nextInt(random.nextInt(10) == 0 ? 200 : 12);
+                for (int i = 0; i < length; i++) {
+                    value.append(pieces[random.nextInt(pieces.length)]);
+                }
+                String text = value.toString();
+                csv.append(',');
+                if (text.matches("(?s).*[\",\r\n].*") || random.nextBoolean()) {
+                    csv.append('"').append(text.replace("\"", "\"\"")).append('"');
+                } else {
+                    csv.append(text);
+                }
+            }
+            if (row + 1 < rows || random.nextBoolean()) {
+                csv.append(lineBreak);
+            }
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Fails the test if a condition does not hold.
+     *
+     * @param condition The condition
+     * @param message What went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
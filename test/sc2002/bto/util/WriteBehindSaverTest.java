@@ -0,0 +1,183 @@
+package sc2002.bto.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import sc2002.bto.entity.Project;
+import sc2002.bto.entity.Receipt;
+import sc2002.bto.enums.FlatType;
+import sc2002.bto.interfaces.IStorageEngine;
+import sc2002.bto.repository.ApplicationRepository;
+import sc2002.bto.repository.EnquiryRepository;
+import sc2002.bto.repository.ProjectRepository;
+import sc2002.bto.repository.UserRepository;
+
+/**
+ * Tests that the write-behind saver only makes changes durable in its
+ * regular flushes, and writes them to the engine's main store only at
+ * checkpoints: when the checkpoint interval is due and on the flush barrier.
+ * <p>
+ * Run with {@code java -cp <classes> sc2002.bto.util.WriteBehindSaverTest};
+ * it exits with an error if a check fails.
+ */
+public class WriteBehindSaverTest {
+    private static final long FLUSH_MILLIS = 10;
+    private static final long WAIT_MILLIS = 5000;
+
+    /**
+     * Runs the tests.
+     *
+     * @param args Not used
+     * @throws InterruptedException If interrupted while waiting for the saver
+     */
+    public static void main(String[] args) throws InterruptedException {
+        testFlushesOnlySaveChanges();
+        testCheckpointWhenDue();
+        System.out.println("WriteBehindSaverTest passed");
+    }
+
+    /**
+     * Requested and timed flushes make the changes durable without writing
+     * the main store, even while entities stay unsaved; the barrier writes it.
+     *
+     * @throws InterruptedException If interrupted while waiting for the saver
+     */
+    private static void testFlushesOnlySaveChanges() throws InterruptedException {
+        CountingStorage storage = new CountingStorage();
+        ProjectRepository projectRepo = new ProjectRepository();
+        WriteBehindSaver saver = new WriteBehindSaver(storage, new UserRepository(), projectRepo,
+                new ApplicationRepository(), new EnquiryRepository(), FLUSH_MILLIS, Long.MAX_VALUE, 1000);
+        try {
+            projectRepo.add(project("P0"));
+            saver.requestFlush();
+            waitFor(() -> storage.changes.get() == 1, "requested flush did not save the changes");
+            projectRepo.add(project("P1"));
+            waitFor(() -> storage.changes.get() == 2, "timed flush did not save the changes");
+
+            // Nothing new is written, so later flushes have nothing to do
+            Thread.sleep(FLUSH_MILLIS * 10);
+            check(storage.changes.get() == 2, "flushed " + storage.changes.get() + " times without new writes");
+            check(storage.all.get() == 0, "a flush wrote the main store");
+            check(saver.getQueueDepth() == 2, "unsaved entities " + saver.getQueueDepth());
+
+            check(saver.flush(), "flush barrier failed");
+            check(storage.all.get() == 1, "flush barrier did not write the main store");
+            check(saver.getQueueDepth() == 0, "entities left unsaved by the barrier");
+        } finally {
+            saver.close();
+        }
+    }
+
+    /**
+     * Once the checkpoint interval has passed, the next flush writes the
+     * main store instead of only making the changes durable.
+     *
+     * @throws InterruptedException If interrupted while waiting for the saver
+     */
+    private static void testCheckpointWhenDue() throws InterruptedException {
+        CountingStorage storage = new CountingStorage();
+        ProjectRepository projectRepo = new ProjectRepository();
+        WriteBehindSaver saver = new WriteBehindSaver(storage, new UserRepository(), projectRepo,
+                new ApplicationRepository(), new EnquiryRepository(), FLUSH_MILLIS, FLUSH_MILLIS * 5, 1000);
+        try {
+            projectRepo.add(project("P0"));
+            waitFor(() -> saver.getCheckpointCount() == 1, "no checkpoint once it was due");
+            check(storage.all.get() == 1, "checkpoint did not write the main store");
+            check(saver.getQueueDepth() == 0, "entities left unsaved by the checkpoint");
+        } finally {
+            saver.close();
+        }
+    }
+
+    /**
+     * Creates a project.
+     *
+     * @param id The project ID
+     * @return The project
+     */
+    private static Project project(String id) {
+        return new Project(id, "Yishun", new FlatType[] { FlatType.TWO_ROOM }, 10, 500000, 450000,
+                "2025-01-01", "2099-12-31", true, 10, 50, 30);
+    }
+
+    /**
+     * Waits until a condition holds.
+     *
+     * @param condition The condition
+     * @param message What went wrong if it never holds
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private static void waitFor(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            check(System.currentTimeMillis() < deadline, message);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Fails the test if a condition does not hold.
+     *
+     * @param condition The condition
+     * @param message What went wrong
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Storage engine that only counts its saves; a full save marks the
+     * changes as saved, as the real engines do.
+     */
+    private static final class CountingStorage implements IStorageEngine {
+        private final AtomicInteger changes = new AtomicInteger();
+        private final AtomicInteger all = new AtomicInteger();
+
+        @Override
+        public String getName() {
+            return "counting";
+        }
+
+        @Override
+        public boolean load(UserRepository userRepo, ProjectRepository projectRepo,
+                ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+            return true;
+        }
+
+        @Override
+        public boolean saveChanges(UserRepository userRepo, ProjectRepository projectRepo,
+                ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+            changes.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean saveAll(UserRepository userRepo, ProjectRepository projectRepo,
+                ApplicationRepository appRepo, EnquiryRepository enquiryRepo) {
+            all.incrementAndGet();
+            userRepo.markSaved(userRepo.getChanges());
+            projectRepo.markSaved(projectRepo.getChanges());
+            appRepo.markSaved(appRepo.getChanges());
+            enquiryRepo.markSaved(enquiryRepo.getChanges());
+            return true;
+        }
+
+        @Override
+        public List<Receipt> loadReceipts() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean appendReceipt(Receipt receipt) {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+}